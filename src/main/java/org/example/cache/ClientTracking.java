@@ -0,0 +1,424 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.cache;
+
+import java.lang.reflect.Field;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.ReflectionUtils;
+
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * Server assisted client side caching via {@literal CLIENT TRACKING}. Redis pushes the names of changed keys to the
+ * {@literal __redis__:invalidate} channel of a dedicated connection, so only keys actually cached (or matching one of
+ * the {@link #setPrefixes(String...) prefixes}) cause traffic instead of every change on the instance. <br />
+ * Tracking runs in {@literal RESP2} {@literal REDIRECT} mode on a subscriber connection obtained from the
+ * {@link RedisConnectionFactory}, so password, SSL, database and timeouts are the ones of the application. In
+ * {@literal BCAST} mode the subscriber enables tracking for all keys starting with one of the prefixes itself. Without
+ * prefixes tracking has to be {@link #enable(RedisConnection) enabled} on each connection performing reads and only
+ * keys read via those connections are tracked. <br />
+ * Invalidation messages carry an array of keys, which the pub/sub decoder of Jedis cannot read, so the subscription is
+ * consumed via the native Jedis client. Idle subscribers are pinged once the read timeout of the factory elapses. If
+ * the subscriber connection drops, listeners are notified to drop everything, {@link #isConnected()} turns
+ * {@literal false} and a new subscriber with a new client id is set up, re-enabling tracking on connections as they
+ * are used again. Callers must not cache while disconnected as no invalidations arrive. <br />
+ * Requires Redis 6 or newer and Jedis.
+ *
+ * @author Christoph Strobl
+ */
+public class ClientTracking implements InitializingBean, DisposableBean {
+
+	private static final Log LOG = LogFactory.getLog(ClientTracking.class);
+	private static final Field BROKEN = brokenField();
+	private static final String CHANNEL = "__redis__:invalidate";
+	private static final byte[] MESSAGE = bytes("message");
+
+	private final RedisConnectionFactory connectionFactory;
+	private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+	private final Map<Object, Long> trackedConnections = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private List<String> prefixes = Collections.emptyList();
+	private long reconnectDelay = 1000;
+
+	private Thread receiver;
+	private volatile Subscriber subscriber;
+	private volatile long clientId = -1;
+	private volatile boolean running;
+
+	/**
+	 * Create new {@link ClientTracking}.
+	 *
+	 * @param connectionFactory must not be {@literal null}.
+	 */
+	public ClientTracking(RedisConnectionFactory connectionFactory) {
+
+		Assert.notNull(connectionFactory, "ConnectionFactory must not be null!");
+		this.connectionFactory = connectionFactory;
+	}
+
+	/**
+	 * Track all keys starting with one of the given prefixes ({@literal BCAST} mode) no matter which connection reads
+	 * them.
+	 *
+	 * @param prefixes must not be {@literal null}.
+	 */
+	public void setPrefixes(String... prefixes) {
+
+		Assert.notNull(prefixes, "Prefixes must not be null!");
+		this.prefixes = Collections.unmodifiableList(Arrays.asList(prefixes));
+	}
+
+	/**
+	 * Set the time to wait between attempts to reconnect a lost subscriber. Defaults to {@literal 1000}.
+	 *
+	 * @param reconnectDelay in milliseconds, must not be negative.
+	 */
+	public void setReconnectDelay(long reconnectDelay) {
+
+		Assert.isTrue(reconnectDelay >= 0, "ReconnectDelay must not be negative!");
+		this.reconnectDelay = reconnectDelay;
+	}
+
+	/**
+	 * @return the {@literal BCAST} prefixes. Empty if keys are tracked per connection.
+	 */
+	public List<String> getPrefixes() {
+		return prefixes;
+	}
+
+	/**
+	 * @param key must not be {@literal null}.
+	 * @return {@literal true} if changes of the given key are pushed without {@link #enable(RedisConnection) enabling}
+	 *         tracking on the reading connection.
+	 */
+	public boolean isBroadcast(String key) {
+
+		for (String prefix : prefixes) {
+			if (key.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return {@literal true} if invalidations are received. Values read while disconnected must not be cached.
+	 */
+	public boolean isConnected() {
+		return clientId != -1;
+	}
+
+	long getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * Register a listener for invalidations.
+	 *
+	 * @param listener must not be {@literal null}.
+	 */
+	public void addListener(InvalidationListener listener) {
+
+		Assert.notNull(listener, "Listener must not be null!");
+		listeners.add(listener);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() {
+
+		running = true;
+
+		// fail on startup if tracking cannot be set up at all
+		Subscriber first = connect();
+
+		receiver = new Thread(() -> receive(first), "client-tracking");
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+
+	/**
+	 * Enable tracking of keys read via the given connection. Calls for a connection already tracking are ignored.
+	 * Nothing is enabled while {@link #isConnected() disconnected}.
+	 *
+	 * @param connection must not be {@literal null}.
+	 */
+	public void enable(RedisConnection connection) {
+
+		Assert.notNull(connection, "Connection must not be null!");
+		Assert.state(running, "ClientTracking has not been started!");
+
+		long id = clientId;
+		if (id == -1) {
+			return;
+		}
+
+		// tracking sticks to the native connection, pooled ones only need to be switched once per subscriber
+		Object nativeConnection = connection.getNativeConnection();
+		if (!Long.valueOf(id).equals(trackedConnections.get(nativeConnection))) {
+
+			connection.execute("CLIENT", bytes("TRACKING"), bytes("on"), bytes("REDIRECT"), bytes(Long.toString(id)));
+			trackedConnections.put(nativeConnection, id);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() {
+
+		running = false;
+
+		Subscriber current = subscriber;
+		if (current != null) {
+			current.disconnect();
+		}
+		if (receiver != null) {
+			receiver.interrupt();
+		}
+	}
+
+	/**
+	 * Set up a subscriber with tracking enabled in {@literal BCAST} mode if prefixes are configured.
+	 */
+	private Subscriber connect() {
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+
+			Assert.state(connection.getNativeConnection() instanceof Jedis, "ClientTracking requires Jedis!");
+
+			long id = (Long) connection.execute("CLIENT", bytes("ID"));
+
+			if (!prefixes.isEmpty()) {
+
+				List<byte[]> args = new ArrayList<>(Arrays.asList(bytes("TRACKING"), bytes("on"), bytes("REDIRECT"),
+						bytes(Long.toString(id)), bytes("BCAST")));
+				prefixes.forEach(prefix -> args.addAll(Arrays.asList(bytes("PREFIX"), bytes(prefix))));
+				connection.execute("CLIENT", args.toArray(new byte[args.size()][]));
+			}
+
+			Subscriber subscriber = new Subscriber((Jedis) connection.getNativeConnection(), id);
+			subscriber.subscribe();
+			return subscriber;
+		} catch (RuntimeException e) {
+
+			connection.close();
+			throw e;
+		}
+	}
+
+	private void receive(Subscriber first) {
+
+		Subscriber current = first;
+		while (running) {
+
+			try {
+
+				if (current == null) {
+					current = connect();
+				}
+
+				subscriber = current;
+				clientId = current.id;
+
+				// values cached before (re)connecting are not covered by the new subscriber
+				notify(null);
+
+				current.listen();
+			} catch (RuntimeException e) {
+
+				if (running) {
+					LOG.warn("Client tracking connection lost. Dropping all cached entries and reconnecting.", e);
+				}
+			} finally {
+
+				clientId = -1;
+				subscriber = null;
+
+				if (current != null) {
+					current.close();
+					current = null;
+				}
+				if (running) {
+					notify(null);
+				}
+			}
+
+			if (running) {
+				try {
+					Thread.sleep(reconnectDelay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private void notify(List<byte[]> keys) {
+
+		for (InvalidationListener listener : listeners) {
+			try {
+				listener.invalidated(keys);
+			} catch (RuntimeException e) {
+				LOG.warn("Invalidation listener failed.", e);
+			}
+		}
+	}
+
+	private static List<byte[]> toKeys(List<?> raw) {
+
+		List<byte[]> keys = new ArrayList<>(raw.size());
+		for (Object key : raw) {
+			keys.add((byte[]) key);
+		}
+		return keys;
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Listener notified about changed keys.
+	 */
+	@FunctionalInterface
+	public interface InvalidationListener {
+
+		/**
+		 * @param keys the changed keys. {@literal null} if all keys need to be considered changed, e.g. after
+		 *          {@literal FLUSHALL} or when the connection got lost.
+		 */
+		void invalidated(List<byte[]> keys);
+	}
+
+	/**
+	 * @return the flag telling the pool to destroy instead of reuse a {@link Connection}. {@literal null} if not
+	 *         present.
+	 */
+	private static Field brokenField() {
+
+		Field field = ReflectionUtils.findField(Connection.class, "broken", boolean.class);
+		if (field != null) {
+			ReflectionUtils.makeAccessible(field);
+		}
+		return field;
+	}
+
+	/**
+	 * Connection subscribed to {@literal __redis__:invalidate}. Never handed back to the pool in subscribed state.
+	 */
+	private class Subscriber {
+
+		private final Jedis jedis;
+		private final long id;
+
+		Subscriber(Jedis jedis, long id) {
+
+			this.jedis = jedis;
+			this.id = id;
+		}
+
+		void subscribe() {
+
+			Client client = jedis.getClient();
+			client.subscribe(bytes(CHANNEL));
+			client.getObjectMultiBulkReply();
+		}
+
+		/**
+		 * Dispatch invalidation messages until the connection fails or gets {@link #disconnect() disconnected}.
+		 */
+		void listen() {
+
+			Client client = jedis.getClient();
+			boolean pinged = false;
+
+			while (running) {
+
+				List<Object> message;
+				try {
+					message = client.getObjectMultiBulkReply();
+				} catch (JedisConnectionException e) {
+
+					// idle for longer than the read timeout, a missing pong means the connection is gone
+					if (!running || pinged || !(e.getCause() instanceof SocketTimeoutException)) {
+						throw e;
+					}
+
+					client.ping();
+					pinged = true;
+					continue;
+				}
+
+				pinged = false;
+				if (message.size() == 3 && Arrays.equals(MESSAGE, (byte[]) message.get(0))) {
+
+					Object keys = message.get(2);
+					ClientTracking.this.notify(keys instanceof List ? toKeys((List<?>) keys) : null);
+				}
+			}
+		}
+
+		void disconnect() {
+			jedis.getClient().disconnect();
+		}
+
+		/**
+		 * Hand the native connection back to the pool marked as broken, so the pool destroys it and frees its slot. A
+		 * subscribed connection must never be reused.
+		 */
+		void close() {
+
+			try {
+
+				if (BROKEN != null) {
+					ReflectionUtils.setField(BROKEN, jedis.getClient(), true);
+				} else {
+					disconnect();
+				}
+				jedis.close();
+			} catch (RuntimeException o_O) {
+				// ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.example.core.KeyspaceNotifications;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationListener;
+import org.springframework.data.keyvalue.core.event.KeyValueEvent;
+import org.springframework.data.keyvalue.core.event.KeyValueEvent.AfterDeleteEvent;
+import org.springframework.data.keyvalue.core.event.KeyValueEvent.AfterDropKeySpaceEvent;
+import org.springframework.data.keyvalue.core.event.KeyValueEvent.AfterInsertEvent;
+import org.springframework.data.keyvalue.core.event.KeyValueEvent.AfterUpdateEvent;
+import org.springframework.data.keyvalue.core.event.KeyValueEvent.KeyBasedEvent;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.Topic;
+import org.springframework.util.Assert;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * Size bounded in-process cache of entities read by {@literal id}, backed by a Caffeine cache (W-TinyLFU eviction).
+ * Entries are invalidated by the {@literal __keyspace@*__:<keyspace>:*} notifications Redis sends for every change of
+ * the entity {@literal HASH} (or {@literal STRING} for {@link org.example.core.BlobStorage} types), no matter which
+ * client performed it, so there is no time based expiry. Writes performed through the
+ * {@link org.springframework.data.keyvalue.core.KeyValueTemplate} of this application are invalidated right away.
+ * <br />
+ * Required notification flags ({@literal K}, {@literal E}, {@literal g}, {@literal $}, {@literal h}, {@literal x},
+ * {@literal e}) are added to {@literal notify-keyspace-events} on startup. {@link #getStats() Hit ratio and evictions}
+ * as well as the {@link #getAverageInvalidationLagMillis() invalidation lag}, measured between a local write and the
+ * receipt of its notification, are exposed for monitoring. <br />
+ * With {@link #setClientTracking(ClientTracking) client tracking} in {@literal BCAST} mode invalidations are pushed by
+ * the server for the tracked prefixes instead and keyspace notifications are left untouched. Entities are read
+ * through without caching while the tracking connection is down. <br />
+ * <strong>Note:</strong> Cached values are shared and must not be modified. Cache the raw {@literal HASH} and map it
+ * on every hit to hand out independent instances. In a Redis Cluster notifications are only received from the node
+ * the listener connection is attached to.
+ *
+ * @author Christoph Strobl
+ */
+@SuppressWarnings("rawtypes")
+public class NearCache implements MessageListener, ApplicationListener<KeyValueEvent>, InitializingBean,
+		DisposableBean {
+
+	private static final String REQUIRED_FLAGS = "KEg$hxe";
+
+	private final RedisConnectionFactory connectionFactory;
+	private final Set<String> keyspaces;
+	private final Cache<String, Object> cache;
+	private final Cache<String, Long> pendingWrites;
+	private final RedisMessageListenerContainer container;
+
+	private ClientTracking clientTracking;
+	private final LongAdder invalidations = new LongAdder();
+	private final LongAdder lagSamples = new LongAdder();
+	private final LongAdder lagTotal = new LongAdder();
+	private final LongAccumulator lagMax = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Create new {@link NearCache}.
+	 *
+	 * @param connectionFactory used to subscribe to keyspace notifications. Must not be {@literal null}.
+	 * @param maximumSize max number of cached entities.
+	 * @param keyspaces the keyspaces to cache. Must not be {@literal null} or empty.
+	 */
+	public NearCache(RedisConnectionFactory connectionFactory, long maximumSize, String... keyspaces) {
+
+		Assert.notNull(connectionFactory, "ConnectionFactory must not be null!");
+		Assert.notEmpty(keyspaces, "Keyspaces must not be empty!");
+		Assert.isTrue(maximumSize > 0, "MaximumSize must be greater than zero!");
+
+		this.connectionFactory = connectionFactory;
+		this.keyspaces = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(keyspaces)));
+		this.cache = Caffeine.newBuilder().maximumSize(maximumSize).recordStats().build();
+		this.pendingWrites = Caffeine.newBuilder().expireAfterWrite(1, TimeUnit.MINUTES).build();
+
+		this.container = new RedisMessageListenerContainer();
+		this.container.setConnectionFactory(connectionFactory);
+	}
+
+	/**
+	 * Use invalidations pushed via {@literal CLIENT TRACKING} instead of keyspace notifications. The
+	 * {@link ClientTracking#getPrefixes() prefixes} must cover all cached keyspaces.
+	 *
+	 * @param clientTracking can be {@literal null}.
+	 */
+	public void setClientTracking(ClientTracking clientTracking) {
+		this.clientTracking = clientTracking;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+
+		if (clientTracking != null) {
+
+			for (String keyspace : keyspaces) {
+				Assert.state(clientTracking.isBroadcast(keyspace + ":"),
+						String.format("ClientTracking does not broadcast changes of keyspace '%s'!", keyspace));
+			}
+
+			clientTracking.addListener(keys -> {
+
+				if (keys == null) {
+					cache.invalidateAll();
+				} else {
+					keys.forEach(key -> changed(new String(key, StandardCharsets.UTF_8)));
+				}
+			});
+			return;
+		}
+
+		KeyspaceNotifications.enable(connectionFactory, REQUIRED_FLAGS);
+
+		List<Topic> topics = new ArrayList<>(keyspaces.size());
+		keyspaces.forEach(keyspace -> topics.add(new PatternTopic("__keyspace@*__:" + keyspace + ":*")));
+
+		container.addMessageListener(this, topics);
+		container.afterPropertiesSet();
+		container.start();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() throws Exception {
+
+		if (container.isRunning()) {
+			container.destroy();
+		}
+	}
+
+	/**
+	 * Get the cached entity or load and cache it. Concurrent calls for the same key wait for a single load. An
+	 * invalidation arriving during the load is applied once it completes.
+	 *
+	 * @param keyspace must not be {@literal null}.
+	 * @param id must not be {@literal null}.
+	 * @param loader loads the entity from Redis. Results that are {@literal null} are not cached.
+	 * @return can be {@literal null}.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(String keyspace, Object id, Supplier<T> loader) {
+
+		Assert.notNull(keyspace, "Keyspace must not be null!");
+		Assert.notNull(id, "Id must not be null!");
+		Assert.notNull(loader, "Loader must not be null!");
+
+		if (!keyspaces.contains(keyspace) || (clientTracking != null && !clientTracking.isConnected())) {
+			return loader.get();
+		}
+
+		return (T) cache.get(keyspace + ":" + id, key -> loader.get());
+	}
+
+	/**
+	 * Remove the entity from the cache.
+	 *
+	 * @param keyspace must not be {@literal null}.
+	 * @param id must not be {@literal null}.
+	 */
+	public void invalidate(String keyspace, Object id) {
+		invalidate(keyspace + ":" + id);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.connection.MessageListener#onMessage(org.springframework.data.redis.connection.Message, byte[])
+	 */
+	@Override
+	public void onMessage(Message message, byte[] pattern) {
+
+		String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+		changed(channel.substring(channel.indexOf("__:") + 3));
+	}
+
+	private void changed(String key) {
+
+		// phantom copies and index helpers do not change the entity
+		if (key.endsWith(":phantom") || key.endsWith(":idx")) {
+			return;
+		}
+
+		invalidate(key);
+
+		Long written = pendingWrites.asMap().remove(key);
+		if (written != null) {
+
+			long lag = System.currentTimeMillis() - written;
+			lagSamples.increment();
+			lagTotal.add(lag);
+			lagMax.accumulate(lag);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+	 */
+	@Override
+	public void onApplicationEvent(KeyValueEvent event) {
+
+		if (event instanceof AfterInsertEvent || event instanceof AfterUpdateEvent || event instanceof AfterDeleteEvent) {
+
+			String key = event.getKeyspace() + ":" + ((KeyBasedEvent<?>) event).getKey();
+			if (keyspaces.contains(event.getKeyspace())) {
+
+				pendingWrites.put(key, System.currentTimeMillis());
+				invalidate(key);
+			}
+		} else if (event instanceof AfterDropKeySpaceEvent && keyspaces.contains(event.getKeyspace())) {
+			cache.asMap().keySet().removeIf(key -> key.startsWith(event.getKeyspace() + ":"));
+		}
+	}
+
+	/**
+	 * @return hits, misses, evictions and load times.
+	 */
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	/**
+	 * @return the approximate number of cached entities.
+	 */
+	public long getSize() {
+		return cache.estimatedSize();
+	}
+
+	/**
+	 * @return number of invalidated entries.
+	 */
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	/**
+	 * @return average time in milliseconds between a local write and the receipt of its invalidation.
+	 */
+	public double getAverageInvalidationLagMillis() {
+
+		long samples = lagSamples.sum();
+		return samples == 0 ? 0D : (double) lagTotal.sum() / samples;
+	}
+
+	/**
+	 * @return max time in milliseconds between a local write and the receipt of its invalidation.
+	 */
+	public long getMaxInvalidationLagMillis() {
+		return lagMax.get();
+	}
+
+	private void invalidate(String key) {
+
+		if (cache.asMap().remove(key) != null) {
+			invalidations.increment();
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.cache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisSentinelConnection;
+import org.springframework.util.Assert;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * {@link RedisConnectionFactory} caching the results of {@literal GET} and {@literal HGETALL} in process until Redis
+ * reports a change of the key via {@link ClientTracking}. Using it for the
+ * {@link org.springframework.data.redis.core.RedisTemplate} backing the repositories serves repeated
+ * {@link org.springframework.data.repository.CrudRepository#findOne(java.io.Serializable) findOne} calls from memory.
+ * <br />
+ * Keys not covered by a {@link ClientTracking#getPrefixes() BCAST prefix} are tracked per connection, so tracking is
+ * {@link ClientTracking#enable(RedisConnection) enabled} on each connection before its first cached read. Writes via
+ * connections of this factory drop the written keys right away, all others are dropped once their invalidation
+ * arrives. Nothing is cached while {@link ClientTracking#isConnected() disconnected}. <br />
+ * Reads within pipelines and transactions are not cached. Cluster connections are returned as is as tracking
+ * redirects only work within a single node.
+ *
+ * @author Christoph Strobl
+ */
+public class TrackingRedisConnectionFactory implements RedisConnectionFactory {
+
+	private final RedisConnectionFactory delegate;
+	private final ClientTracking clientTracking;
+	private final Cache<ByteBuffer, Object> cache;
+
+	/**
+	 * Create new {@link TrackingRedisConnectionFactory}.
+	 *
+	 * @param delegate must not be {@literal null}.
+	 * @param clientTracking must not be {@literal null}.
+	 * @param maximumSize max number of cached values.
+	 */
+	public TrackingRedisConnectionFactory(RedisConnectionFactory delegate, ClientTracking clientTracking,
+			long maximumSize) {
+
+		Assert.notNull(delegate, "Delegate must not be null!");
+		Assert.notNull(clientTracking, "ClientTracking must not be null!");
+		Assert.isTrue(maximumSize > 0, "MaximumSize must be greater than zero!");
+
+		this.delegate = delegate;
+		this.clientTracking = clientTracking;
+		this.cache = Caffeine.newBuilder().maximumSize(maximumSize).recordStats().build();
+
+		clientTracking.addListener(keys -> {
+
+			if (keys == null) {
+				cache.invalidateAll();
+			} else {
+				keys.forEach(key -> cache.invalidate(ByteBuffer.wrap(key)));
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.connection.RedisConnectionFactory#getConnection()
+	 */
+	@Override
+	public RedisConnection getConnection() {
+
+		RedisConnection connection = delegate.getConnection();
+		return (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { RedisConnection.class }, new CachingInvocationHandler(connection));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.connection.RedisConnectionFactory#getClusterConnection()
+	 */
+	@Override
+	public RedisClusterConnection getClusterConnection() {
+		return delegate.getClusterConnection();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.connection.RedisConnectionFactory#getConvertPipelineAndTxResults()
+	 */
+	@Override
+	public boolean getConvertPipelineAndTxResults() {
+		return delegate.getConvertPipelineAndTxResults();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.connection.RedisConnectionFactory#getSentinelConnection()
+	 */
+	@Override
+	public RedisSentinelConnection getSentinelConnection() {
+		return delegate.getSentinelConnection();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.dao.support.PersistenceExceptionTranslator#translateExceptionIfPossible(java.lang.RuntimeException)
+	 */
+	@Override
+	public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+		return delegate.translateExceptionIfPossible(ex);
+	}
+
+	/**
+	 * @return hits, misses and evictions.
+	 */
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	/**
+	 * @return the approximate number of cached values.
+	 */
+	public long getSize() {
+		return cache.estimatedSize();
+	}
+
+	/**
+	 * Intercepts cacheable reads and drops keys written via the connection.
+	 */
+	private class CachingInvocationHandler implements InvocationHandler {
+
+		private final RedisConnection connection;
+
+		CachingInvocationHandler(RedisConnection connection) {
+			this.connection = connection;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+		 */
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+			if (isCacheableRead(method, args)) {
+				return read(method, (byte[]) args[0]);
+			}
+
+			if (args != null && args.length > 0 && !method.getName().startsWith("is")) {
+				dropWrittenKeys(args[0]);
+			}
+
+			return invokeTarget(method, args);
+		}
+
+		private boolean isCacheableRead(Method method, Object[] args) {
+
+			return ("get".equals(method.getName()) || "hGetAll".equals(method.getName())) && args != null
+					&& args.length == 1 && args[0] instanceof byte[] && !connection.isPipelined() && !connection.isQueueing();
+		}
+
+		private Object read(Method method, byte[] key) throws Throwable {
+
+			// no invalidations arrive while disconnected
+			if (!clientTracking.isConnected()) {
+				return invokeTarget(method, new Object[] { key });
+			}
+
+			if (!clientTracking.isBroadcast(new String(key, StandardCharsets.UTF_8))) {
+				clientTracking.enable(connection);
+			}
+
+			ByteBuffer cacheKey = ByteBuffer.wrap(key.clone());
+			Object cached = cache.getIfPresent(cacheKey);
+			if (isResultOf(method, cached)) {
+				return copy(cached);
+			}
+
+			// an invalidation arriving while reading removes the token so the stale value is not cached
+			Object token = new Object();
+			cache.put(cacheKey, token);
+
+			Object value = invokeTarget(method, new Object[] { key });
+			if (value == null || (value instanceof Map && ((Map<?, ?>) value).isEmpty())) {
+				cache.asMap().remove(cacheKey, token);
+			} else {
+				cache.asMap().replace(cacheKey, token, copy(value));
+			}
+			return value;
+		}
+
+		private void dropWrittenKeys(Object keys) {
+
+			if (keys instanceof byte[]) {
+				cache.invalidate(ByteBuffer.wrap((byte[]) keys));
+			} else if (keys instanceof byte[][]) {
+				for (byte[] key : (byte[][]) keys) {
+					cache.invalidate(ByteBuffer.wrap(key));
+				}
+			} else if (keys instanceof Map) {
+				for (Object key : ((Map<?, ?>) keys).keySet()) {
+					dropWrittenKeys(key);
+				}
+			}
+		}
+
+		private Object invokeTarget(Method method, Object[] args) throws Throwable {
+
+			try {
+				return method.invoke(connection, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+
+		private boolean isResultOf(Method method, Object cached) {
+			return "get".equals(method.getName()) ? cached instanceof byte[] : cached instanceof Map;
+		}
+
+		@SuppressWarnings("unchecked")
+		private Object copy(Object value) {
+
+			if (value instanceof byte[]) {
+				return Arrays.copyOf((byte[]) value, ((byte[]) value).length);
+			}
+			return Collections.unmodifiableMap(new LinkedHashMap<>((Map<byte[], byte[]>) value));
+		}
+	}
+}
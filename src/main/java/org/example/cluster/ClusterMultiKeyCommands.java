@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.util.Assert;
+
+import redis.clients.jedis.Response;
+
+/**
+ * Cross slot {@literal MGET}, {@literal MSET} and {@literal DEL} for Redis Cluster. Keys are grouped by slot, each
+ * slot group becomes a single multi key command and all commands for one master are sent in one pipeline. All
+ * masters are called in parallel, so the whole operation costs about one round trip per master no matter how many
+ * keys and slots are involved. <br />
+ * Other than a {@literal MSET} against a single node, writing across slots is not atomic.
+ *
+ * @author Christoph Strobl
+ */
+public class ClusterMultiKeyCommands {
+
+	private final ClusterPipelineExecutor executor;
+
+	/**
+	 * Create new {@link ClusterMultiKeyCommands}.
+	 *
+	 * @param executor must not be {@literal null}.
+	 */
+	public ClusterMultiKeyCommands(ClusterPipelineExecutor executor) {
+
+		Assert.notNull(executor, "ClusterPipelineExecutor must not be null!");
+		this.executor = executor;
+	}
+
+	/**
+	 * Get the values of all given keys.
+	 *
+	 * @param connection must not be {@literal null}.
+	 * @param keys must not be {@literal null}.
+	 * @return the values in the order of {@literal keys}. {@literal null} for keys that do not exist.
+	 */
+	public List<byte[]> mGet(RedisClusterConnection connection, List<byte[]> keys) {
+
+		return executor.execute(connection, keys, (pipeline, slotKeys) -> {
+
+			Response<List<byte[]>> response = pipeline.mget(slotKeys.toArray(new byte[slotKeys.size()][]));
+			return response::get;
+		});
+	}
+
+	/**
+	 * Set all given key value pairs.
+	 *
+	 * @param connection must not be {@literal null}.
+	 * @param tuples must not be {@literal null}.
+	 */
+	public void mSet(RedisClusterConnection connection, Map<byte[], byte[]> tuples) {
+
+		Assert.notNull(tuples, "Tuples must not be null!");
+
+		executor.execute(connection, new ArrayList<>(tuples.keySet()), (pipeline, slotKeys) -> {
+
+			byte[][] keysAndValues = new byte[slotKeys.size() * 2][];
+			for (int i = 0; i < slotKeys.size(); i++) {
+
+				keysAndValues[i * 2] = slotKeys.get(i);
+				keysAndValues[i * 2 + 1] = tuples.get(slotKeys.get(i));
+			}
+
+			Response<String> response = pipeline.mset(keysAndValues);
+			return () -> {
+
+				response.get();
+				return Collections.nCopies(slotKeys.size(), Boolean.TRUE);
+			};
+		});
+	}
+
+	/**
+	 * Delete all given keys.
+	 *
+	 * @param connection must not be {@literal null}.
+	 * @param keys must not be {@literal null}.
+	 * @return the number of keys removed.
+	 */
+	public long del(RedisClusterConnection connection, List<byte[]> keys) {
+
+		List<Boolean> removed = executor.execute(connection, keys, (pipeline, slotKeys) -> {
+
+			List<Response<Long>> responses = slotKeys.stream().map(pipeline::del).collect(Collectors.toList());
+			return () -> responses.stream().map(response -> response.get() > 0).collect(Collectors.toList());
+		});
+
+		return removed.stream().filter(Boolean::booleanValue).count();
+	}
+}
@@ -0,0 +1,492 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.ClusterStateFailureException;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.data.redis.connection.jedis.JedisConverters;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+
+/**
+ * Executes commands for many keys in a Redis Cluster with one pipeline per node. Keys are grouped by hash slot and
+ * the slots by their serving master. All nodes are then called in parallel, so the whole operation costs about one
+ * round trip per master instead of one per key. <br />
+ * Results are returned in the order of the given keys. Slots are routed via a {@link ClusterSlotCache}. If a slot moved
+ * while the command was running, only the affected slot group is retried once against the node named in the
+ * {@literal MOVED} or {@literal ASK} redirect. If a master cannot be reached or is no longer part of the cluster, e.g.
+ * after a failover, the slot table is reloaded from the topology and the affected slot groups are retried once. <br />
+ * {@link #read(RedisClusterConnection, List, SlotCallback) Reads} are routed according to the configured
+ * {@link ReadFrom} and can be served by replicas. Commands sent via {@link #execute(RedisClusterConnection, List,
+ * SlotCallback)} always go to the masters.
+ *
+ * @author Christoph Strobl
+ */
+public class ClusterPipelineExecutor implements DisposableBean {
+
+	private final ExecutorService executor;
+	private final ClusterSlotCache slotCache;
+	private final Map<String, Long> latencies = new ConcurrentHashMap<>();
+	private final Set<Jedis> readOnlyConnections = Collections
+			.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
+	private final AtomicInteger replicaCounter = new AtomicInteger();
+
+	private volatile ReadFrom readFrom = ReadFrom.MASTER;
+
+	/**
+	 * Create new {@link ClusterPipelineExecutor} using a thread pool of the given size.
+	 *
+	 * @param parallelism number of nodes called in parallel.
+	 */
+	public ClusterPipelineExecutor(int parallelism) {
+		this(parallelism, new ClusterSlotCache());
+	}
+
+	/**
+	 * Create new {@link ClusterPipelineExecutor} using a thread pool of the given size.
+	 *
+	 * @param parallelism number of nodes called in parallel.
+	 * @param slotCache routing table, can be shared. Must not be {@literal null}.
+	 */
+	public ClusterPipelineExecutor(int parallelism, ClusterSlotCache slotCache) {
+
+		Assert.notNull(slotCache, "ClusterSlotCache must not be null!");
+
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cluster-pipeline-");
+		threadFactory.setDaemon(true);
+
+		this.executor = Executors.newFixedThreadPool(parallelism, threadFactory);
+		this.slotCache = slotCache;
+	}
+
+	/**
+	 * Set the nodes to send {@link #read(RedisClusterConnection, List, SlotCallback) reads} to. Defaults to
+	 * {@link ReadFrom#MASTER}.
+	 *
+	 * @param readFrom must not be {@literal null}.
+	 */
+	public void setReadFrom(ReadFrom readFrom) {
+
+		Assert.notNull(readFrom, "ReadFrom must not be null!");
+		this.readFrom = readFrom;
+	}
+
+	/**
+	 * Execute the given callback for all keys on the masters serving them.
+	 *
+	 * @param connection must not be {@literal null}.
+	 * @param keys must not be {@literal null}.
+	 * @param callback must not be {@literal null}.
+	 * @return one result per key in the order of {@literal keys}.
+	 */
+	public <T> List<T> execute(RedisClusterConnection connection, List<byte[]> keys, SlotCallback<T> callback) {
+		return execute(connection, keys, callback, ReadFrom.MASTER);
+	}
+
+	/**
+	 * Execute the given read only callback for all keys on the nodes chosen by the configured {@link ReadFrom}.
+	 *
+	 * @param connection must not be {@literal null}.
+	 * @param keys must not be {@literal null}.
+	 * @param callback must not be {@literal null}. Must not enqueue write commands.
+	 * @return one result per key in the order of {@literal keys}.
+	 */
+	public <T> List<T> read(RedisClusterConnection connection, List<byte[]> keys, SlotCallback<T> callback) {
+		return execute(connection, keys, callback, readFrom);
+	}
+
+	private <T> List<T> execute(RedisClusterConnection connection, List<byte[]> keys, SlotCallback<T> callback,
+			ReadFrom readFrom) {
+
+		Assert.notNull(connection, "Connection must not be null!");
+		Assert.notNull(keys, "Keys must not be null!");
+		Assert.notNull(callback, "Callback must not be null!");
+
+		if (keys.isEmpty()) {
+			return new ArrayList<>();
+		}
+
+		JedisCluster cluster = (JedisCluster) connection.getNativeConnection();
+		Supplier<Iterable<RedisClusterNode>> topology = connection::clusterGetNodes;
+
+		Set<String> replicas = new HashSet<>();
+		Map<String, Map<Integer, SlotGroup>> groups = groupByNode(keys, topology, readFrom, replicas);
+
+		Object[] results = new Object[keys.size()];
+
+		List<CompletableFuture<Void>> futures = new ArrayList<>(groups.size());
+		for (Map.Entry<String, Map<Integer, SlotGroup>> entry : groups.entrySet()) {
+
+			String node = entry.getKey();
+			List<SlotGroup> slotGroups = new ArrayList<>(entry.getValue().values());
+			boolean replica = replicas.contains(node);
+
+			futures.add(CompletableFuture.runAsync(
+					() -> executeOnNode(cluster, topology, node, replica, slotGroups, callback, results, true),
+					executor));
+		}
+
+		try {
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).join();
+		} catch (CompletionException e) {
+
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+
+		@SuppressWarnings("unchecked")
+		List<T> list = (List<T>) Arrays.asList(results);
+		return list;
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdown();
+	}
+
+	/**
+	 * @return the {@link ClusterSlotCache} used for routing.
+	 */
+	public ClusterSlotCache getSlotCache() {
+		return slotCache;
+	}
+
+	/**
+	 * Group the keys by slot and the slots by the {@literal host:port} of the node to send them to.
+	 *
+	 * @param replicas collects the chosen nodes that are replicas.
+	 */
+	protected Map<String, Map<Integer, SlotGroup>> groupByNode(List<byte[]> keys,
+			Supplier<Iterable<RedisClusterNode>> topology, ReadFrom readFrom, Set<String> replicas) {
+
+		Map<String, String> nodeByMaster = new HashMap<>();
+		Map<String, Map<Integer, SlotGroup>> groups = new LinkedHashMap<>();
+		for (int i = 0; i < keys.size(); i++) {
+
+			byte[] key = keys.get(i);
+			int slot = ClusterSlotHashUtil.calculateSlot(key);
+
+			String master = slotCache.nodeFor(slot, topology);
+			String node = nodeByMaster.computeIfAbsent(master, it -> route(it, readFrom));
+			if (!node.equals(master)) {
+				replicas.add(node);
+			}
+
+			groups.computeIfAbsent(node, it -> new LinkedHashMap<>()) //
+					.computeIfAbsent(slot, SlotGroup::new) //
+					.add(i, key);
+		}
+		return groups;
+	}
+
+	/**
+	 * Pick the node to read data served by the given master from.
+	 */
+	private String route(String master, ReadFrom readFrom) {
+
+		List<String> replicas = slotCache.replicasOf(master);
+		if (ReadFrom.MASTER.equals(readFrom) || replicas.isEmpty()) {
+			return master;
+		}
+
+		if (ReadFrom.REPLICA_PREFERRED.equals(readFrom)) {
+			return replicas.get(Math.floorMod(replicaCounter.getAndIncrement(), replicas.size()));
+		}
+
+		// nodes not measured yet are considered nearest so that they get probed
+		String nearest = master;
+		long nearestLatency = latencies.getOrDefault(master, 0L);
+		for (String replica : replicas) {
+
+			long latency = latencies.getOrDefault(replica, 0L);
+			if (latency < nearestLatency) {
+
+				nearest = replica;
+				nearestLatency = latency;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * @param reroute whether to reload the topology and retry once in case the node is gone or unreachable.
+	 */
+	private <T> void executeOnNode(JedisCluster cluster, Supplier<Iterable<RedisClusterNode>> topology, String node,
+			boolean replica, List<SlotGroup> slotGroups, SlotCallback<T> callback, Object[] results, boolean reroute) {
+
+		List<Redirect> redirects;
+		try {
+			redirects = pipeline(cluster, node, slotGroups, callback, results, replica, false);
+		} catch (JedisConnectionException e) {
+
+			if (replica) {
+
+				// replica not reachable - read from the master instead
+				String master = slotCache.nodeFor(slotGroups.get(0).slot, topology);
+				executeOnNode(cluster, topology, master, false, slotGroups, callback, results, reroute);
+				return;
+			}
+
+			if (!reroute) {
+				throw convert(e);
+			}
+
+			// master not reachable - most likely failed over to one of its replicas
+			reroute(cluster, topology, slotGroups, callback, results);
+			return;
+		} catch (ClusterStateFailureException e) {
+
+			if (!reroute) {
+				throw e;
+			}
+
+			reroute(cluster, topology, slotGroups, callback, results);
+			return;
+		} catch (RuntimeException e) {
+			throw convert(e);
+		}
+
+		for (Redirect redirect : redirects) {
+
+			try {
+
+				// slots moved in between - retry once on the node named in the redirect
+				if (redirect.isAsk()) {
+
+					slotCache.asked(redirect.group.slot, redirect.target);
+					for (SlotGroup single : redirect.group.split()) {
+						throwIfRedirected(pipeline(cluster, redirect.target, Collections.singletonList(single), callback, results,
+								false, true));
+					}
+				} else {
+
+					slotCache.moved(redirect.group.slot, redirect.target);
+					throwIfRedirected(pipeline(cluster, redirect.target, Collections.singletonList(redirect.group), callback,
+							results, false, false));
+				}
+			} catch (JedisConnectionException | ClusterStateFailureException e) {
+
+				if (!reroute) {
+					throw convert(e);
+				}
+
+				reroute(cluster, topology, Collections.singletonList(redirect.group), callback, results);
+			} catch (RuntimeException e) {
+				throw convert(e);
+			}
+		}
+	}
+
+	/**
+	 * Forget the slot table, load the topology again and send the given slot groups to their current masters. Runs
+	 * without rerouting again, so a cluster that has not settled yet fails fast.
+	 */
+	private <T> void reroute(JedisCluster cluster, Supplier<Iterable<RedisClusterNode>> topology,
+			List<SlotGroup> slotGroups, SlotCallback<T> callback, Object[] results) {
+
+		slotCache.clear();
+
+		Map<String, List<SlotGroup>> groupsByMaster = new LinkedHashMap<>();
+		for (SlotGroup group : slotGroups) {
+			groupsByMaster.computeIfAbsent(slotCache.nodeFor(group.slot, topology), it -> new ArrayList<>()).add(group);
+		}
+
+		for (Map.Entry<String, List<SlotGroup>> entry : groupsByMaster.entrySet()) {
+			executeOnNode(cluster, topology, entry.getKey(), false, entry.getValue(), callback, results, false);
+		}
+	}
+
+	/**
+	 * Send the commands for all slot groups in one pipeline.
+	 *
+	 * @param replica whether the node is a replica that needs to be switched to {@literal READONLY} mode.
+	 * @param asking whether to send {@literal ASKING} upfront. Only used for single key groups.
+	 * @return the groups that have been redirected to another node.
+	 */
+	private <T> List<Redirect> pipeline(JedisCluster cluster, String node, List<SlotGroup> slotGroups,
+			SlotCallback<T> callback, Object[] results, boolean replica, boolean asking) {
+
+		JedisPool pool = cluster.getClusterNodes().get(node);
+		if (pool == null) {
+			throw new ClusterStateFailureException(String.format("Unknown cluster node %s.", node));
+		}
+
+		try (Jedis jedis = pool.getResource()) {
+
+			// READONLY sticks to the connection, so it is sent only once per pooled connection
+			if (replica && readOnlyConnections.add(jedis)) {
+				jedis.readonly();
+			}
+			if (asking) {
+				jedis.asking();
+			}
+
+			Pipeline pipeline = jedis.pipelined();
+
+			List<Supplier<List<T>>> pending = new ArrayList<>(slotGroups.size());
+			for (SlotGroup group : slotGroups) {
+				pending.add(callback.enqueue(pipeline, group.keys));
+			}
+
+			long start = System.nanoTime();
+			pipeline.sync();
+			recordLatency(node, System.nanoTime() - start);
+
+			List<Redirect> redirects = new ArrayList<>();
+			for (int i = 0; i < slotGroups.size(); i++) {
+
+				SlotGroup group = slotGroups.get(i);
+
+				List<T> values;
+				try {
+					values = pending.get(i).get();
+				} catch (JedisRedirectionException e) {
+
+					redirects.add(new Redirect(group, e));
+					continue;
+				}
+
+				for (int j = 0; j < group.positions.size(); j++) {
+					results[group.positions.get(j)] = values.get(j);
+				}
+			}
+			return redirects;
+		}
+	}
+
+	/**
+	 * Keep an exponentially weighted moving average of the round trip time per node.
+	 */
+	private void recordLatency(String node, long nanos) {
+		latencies.merge(node, nanos, (average, latest) -> (average * 4 + latest) / 5);
+	}
+
+	private static void throwIfRedirected(List<Redirect> redirects) {
+
+		if (!redirects.isEmpty()) {
+			throw redirects.get(0).cause;
+		}
+	}
+
+	private static RuntimeException convert(RuntimeException e) {
+
+		DataAccessException translated = JedisConverters.toDataAccessException(e);
+		return translated != null ? translated : e;
+	}
+
+	/**
+	 * Callback enqueueing commands for keys of a single slot.
+	 */
+	public interface SlotCallback<T> {
+
+		/**
+		 * Enqueue the commands for the given keys. All keys map to the same slot.
+		 *
+		 * @param pipeline the {@link Pipeline} of the node serving the slot.
+		 * @param keys the keys.
+		 * @return {@link Supplier} of one result per key. Called once the pipeline has been synced.
+		 */
+		Supplier<List<T>> enqueue(Pipeline pipeline, List<byte[]> keys);
+	}
+
+	/**
+	 * Keys sharing a slot along with their position in the original list.
+	 */
+	protected static class SlotGroup {
+
+		final int slot;
+		final List<Integer> positions = new ArrayList<>();
+		final List<byte[]> keys = new ArrayList<>();
+
+		SlotGroup(int slot) {
+			this.slot = slot;
+		}
+
+		void add(int position, byte[] key) {
+
+			positions.add(position);
+			keys.add(key);
+		}
+
+		/**
+		 * @return one group per key.
+		 */
+		List<SlotGroup> split() {
+
+			List<SlotGroup> groups = new ArrayList<>(keys.size());
+			for (int i = 0; i < keys.size(); i++) {
+
+				SlotGroup group = new SlotGroup(slot);
+				group.add(positions.get(i), keys.get(i));
+				groups.add(group);
+			}
+			return groups;
+		}
+	}
+
+	/**
+	 * A {@link SlotGroup} redirected to another node.
+	 */
+	private static class Redirect {
+
+		final SlotGroup group;
+		final String target;
+		final JedisRedirectionException cause;
+
+		Redirect(SlotGroup group, JedisRedirectionException cause) {
+
+			this.group = group;
+			this.target = cause.getTargetNode().getHost() + ":" + cause.getTargetNode().getPort();
+			this.cause = cause;
+		}
+
+		boolean isAsk() {
+			return cause instanceof JedisAskDataException;
+		}
+	}
+}
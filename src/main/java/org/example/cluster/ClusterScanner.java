@@ -0,0 +1,308 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.cluster;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators.AbstractSpliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.ClusterStateFailureException;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.data.redis.connection.jedis.JedisConverters;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+/**
+ * Iterates the keys of all masters in a Redis Cluster with {@literal SCAN} instead of {@literal KEYS}. One cursor per
+ * master is run in parallel and the keys are streamed back as they arrive, so the total time is about the one of the
+ * slowest node instead of the sum of all nodes and no node is blocked for longer than a single {@literal SCAN} call.
+ * <br />
+ * Scanned batches are handed over via a queue holding at most {@link #setBufferSize(int) bufferSize} batches. Once it
+ * is full the cursors pause until the consumer catches up. Closing the {@link Stream} stops all cursors. <br />
+ * {@literal SCAN} may return a key more than once and does not guarantee to return keys added or removed while
+ * scanning. Keys are returned in no particular order.
+ *
+ * @author Christoph Strobl
+ */
+public class ClusterScanner implements DisposableBean {
+
+	private static final Object DONE = new Object();
+
+	private final ExecutorService executor;
+
+	private int bufferSize = 16;
+
+	/**
+	 * Create new {@link ClusterScanner} scanning up to the given number of nodes in parallel.
+	 *
+	 * @param parallelism number of nodes scanned in parallel.
+	 */
+	public ClusterScanner(int parallelism) {
+
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cluster-scan-");
+		threadFactory.setDaemon(true);
+
+		this.executor = Executors.newFixedThreadPool(parallelism, threadFactory);
+	}
+
+	/**
+	 * Set the max number of scanned batches (one per {@literal SCAN} call) buffered before the cursors pause. Defaults to
+	 * {@literal 16}.
+	 *
+	 * @param bufferSize must be greater than zero.
+	 */
+	public void setBufferSize(int bufferSize) {
+
+		Assert.isTrue(bufferSize > 0, "BufferSize must be greater than zero!");
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Scan the keys of all masters.
+	 *
+	 * @param connection must not be {@literal null}.
+	 * @param options {@literal MATCH} and {@literal COUNT} applied to each node. Must not be {@literal null}.
+	 * @return never {@literal null}. Make sure to close the {@link Stream} when not consuming all elements.
+	 */
+	public Stream<byte[]> scan(RedisClusterConnection connection, ScanOptions options) {
+
+		Assert.notNull(connection, "Connection must not be null!");
+
+		List<RedisClusterNode> masters = new ArrayList<>();
+		for (RedisClusterNode node : connection.clusterGetNodes()) {
+			if (node.isMaster()) {
+				masters.add(node);
+			}
+		}
+
+		return scan(connection, masters, options);
+	}
+
+	/**
+	 * Scan the keys of the given nodes.
+	 *
+	 * @param connection must not be {@literal null}.
+	 * @param nodes must not be {@literal null}.
+	 * @param options {@literal MATCH} and {@literal COUNT} applied to each node. Must not be {@literal null}.
+	 * @return never {@literal null}. Make sure to close the {@link Stream} when not consuming all elements.
+	 */
+	public Stream<byte[]> scan(RedisClusterConnection connection, Iterable<RedisClusterNode> nodes,
+			ScanOptions options) {
+
+		Assert.notNull(connection, "Connection must not be null!");
+		Assert.notNull(nodes, "Nodes must not be null!");
+		Assert.notNull(options, "ScanOptions must not be null!");
+
+		JedisCluster cluster = (JedisCluster) connection.getNativeConnection();
+		ScanParams params = toScanParams(options);
+
+		List<JedisPool> pools = new ArrayList<>();
+		for (RedisClusterNode node : nodes) {
+			pools.add(poolOf(cluster, node));
+		}
+
+		ScanSpliterator spliterator = new ScanSpliterator(pools.size(), bufferSize);
+		for (JedisPool pool : pools) {
+			spliterator.futures.add(executor.submit(() -> spliterator.produce(pool, params)));
+		}
+
+		return StreamSupport.stream(spliterator, false).onClose(spliterator::cancel);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+
+	private static JedisPool poolOf(JedisCluster cluster, RedisClusterNode node) {
+
+		String hostAndPort = node.getHost() + ":" + node.getPort();
+		JedisPool pool = cluster.getClusterNodes().get(hostAndPort);
+		if (pool == null) {
+			throw new ClusterStateFailureException(String.format("Unknown cluster node %s.", hostAndPort));
+		}
+		return pool;
+	}
+
+	private static ScanParams toScanParams(ScanOptions options) {
+
+		ScanParams params = new ScanParams();
+		if (StringUtils.hasText(options.getPattern())) {
+			params.match(options.getPattern());
+		}
+		if (options.getCount() != null) {
+			params.count(options.getCount().intValue());
+		}
+		return params;
+	}
+
+	private static RuntimeException convert(RuntimeException e) {
+
+		DataAccessException translated = JedisConverters.toDataAccessException(e);
+		return translated != null ? translated : e;
+	}
+
+	/**
+	 * {@link Spliterator} draining the batches the per node cursors put into a bounded queue.
+	 */
+	private static class ScanSpliterator extends AbstractSpliterator<byte[]> {
+
+		private final BlockingQueue<Object> queue;
+		private final AtomicInteger running;
+		private final List<Future<?>> futures = new ArrayList<>();
+
+		private volatile boolean cancelled;
+		private Iterator<byte[]> current;
+
+		ScanSpliterator(int nodes, int bufferSize) {
+
+			super(Long.MAX_VALUE, Spliterator.NONNULL);
+
+			this.queue = new ArrayBlockingQueue<>(bufferSize + nodes);
+			this.running = new AtomicInteger(nodes);
+
+			if (nodes == 0) {
+				queue.add(DONE);
+			}
+		}
+
+		/**
+		 * Run the {@literal SCAN} cursor of a single node until it is exhausted or the scan is cancelled.
+		 */
+		void produce(JedisPool pool, ScanParams params) {
+
+			try (Jedis jedis = pool.getResource()) {
+
+				byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+				do {
+
+					ScanResult<byte[]> result = jedis.scan(cursor, params);
+					cursor = result.getCursorAsBytes();
+
+					if (!result.getResult().isEmpty() && !offer(result.getResult())) {
+						return;
+					}
+				} while (!cancelled && !isStart(cursor));
+			} catch (RuntimeException e) {
+
+				cancelled = true;
+				queue.clear();
+				queue.offer(convert(e));
+				return;
+			}
+
+			if (running.decrementAndGet() == 0) {
+				offer(DONE);
+			}
+		}
+
+		/**
+		 * Wait for the consumer to make room for the given element.
+		 *
+		 * @return {@literal false} if the scan has been cancelled while waiting.
+		 */
+		private boolean offer(Object element) {
+
+			try {
+				while (!cancelled) {
+					if (queue.offer(element, 100, TimeUnit.MILLISECONDS)) {
+						return true;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return false;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.Spliterator#tryAdvance(java.util.function.Consumer)
+		 */
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean tryAdvance(Consumer<? super byte[]> action) {
+
+			while (current == null || !current.hasNext()) {
+
+				Object next = take();
+				if (next == DONE) {
+
+					queue.offer(DONE);
+					return false;
+				}
+				if (next instanceof RuntimeException) {
+					throw (RuntimeException) next;
+				}
+				current = ((List<byte[]>) next).iterator();
+			}
+
+			action.accept(current.next());
+			return true;
+		}
+
+		private Object take() {
+
+			try {
+				return queue.take();
+			} catch (InterruptedException e) {
+
+				Thread.currentThread().interrupt();
+				cancel();
+				throw new RedisSystemException("Interrupted while waiting for scan results.", e);
+			}
+		}
+
+		void cancel() {
+
+			cancelled = true;
+			futures.forEach(future -> future.cancel(true));
+			queue.clear();
+		}
+
+		private static boolean isStart(byte[] cursor) {
+			return cursor.length == 1 && cursor[0] == '0';
+		}
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import org.springframework.data.redis.ClusterStateFailureException;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.util.Assert;
+
+/**
+ * Local slot to master table. The table is filled from the cluster topology on first use only. After that it is
+ * updated slot by slot from {@literal MOVED} redirects, so resharding does not cause a topology reload per redirect.
+ * {@literal ASK} redirects only affect a single command during migration and do not change the table. <br />
+ * Replicas are taken from the topology only. <br />
+ * The topology is loaded again only when looking up a slot that is not served by any known node, or after the table
+ * has been {@link #clear() cleared} because a master could not be reached. Use
+ * {@link #getRedirects()}, {@link #getRedirectRate()} and {@link #getRefreshes()} to monitor the routing.
+ *
+ * @author Christoph Strobl
+ */
+public class ClusterSlotCache {
+
+	private final AtomicReferenceArray<String> nodeBySlot = new AtomicReferenceArray<>(ClusterSlotHashUtil.SLOT_COUNT);
+	private final Map<String, List<String>> replicasByMaster = new ConcurrentHashMap<>();
+
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong moved = new AtomicLong();
+	private final AtomicLong asked = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+
+	/**
+	 * Get the {@literal host:port} of the master serving the given slot.
+	 *
+	 * @param slot the slot.
+	 * @param topology loads the cluster nodes in case the slot is unknown. Must not be {@literal null}.
+	 * @return never {@literal null}.
+	 * @throws ClusterStateFailureException if no master serves the slot.
+	 */
+	public String nodeFor(int slot, Supplier<Iterable<RedisClusterNode>> topology) {
+
+		Assert.notNull(topology, "Topology must not be null!");
+
+		lookups.incrementAndGet();
+
+		String node = nodeBySlot.get(slot);
+		if (node != null) {
+			return node;
+		}
+
+		refresh(topology.get());
+
+		node = nodeBySlot.get(slot);
+		if (node == null) {
+			throw new ClusterStateFailureException(String.format("No master serving slot %s.", slot));
+		}
+		return node;
+	}
+
+	/**
+	 * Replace the table with the given topology.
+	 *
+	 * @param nodes must not be {@literal null}.
+	 */
+	public void refresh(Iterable<RedisClusterNode> nodes) {
+
+		Assert.notNull(nodes, "Nodes must not be null!");
+
+		refreshes.incrementAndGet();
+
+		Map<String, String> mastersById = new HashMap<>();
+		for (RedisClusterNode node : nodes) {
+			if (node.isMaster()) {
+
+				String hostAndPort = hostAndPort(node);
+				mastersById.put(node.getId(), hostAndPort);
+
+				for (Integer slot : node.getSlotRange().getSlots()) {
+					nodeBySlot.set(slot, hostAndPort);
+				}
+			}
+		}
+
+		Map<String, List<String>> replicas = new HashMap<>();
+		for (RedisClusterNode node : nodes) {
+
+			String master = mastersById.get(node.getMasterId());
+			if (node.isSlave() && master != null && !node.isMarkedAsFail()) {
+				replicas.computeIfAbsent(master, it -> new ArrayList<>()).add(hostAndPort(node));
+			}
+		}
+
+		replicasByMaster.keySet().retainAll(replicas.keySet());
+		replicasByMaster.putAll(replicas);
+	}
+
+	/**
+	 * Get the {@literal host:port} of the replicas of the given master as of the last topology refresh.
+	 *
+	 * @param master {@literal host:port} of the master.
+	 * @return never {@literal null}.
+	 */
+	public List<String> replicasOf(String master) {
+		return replicasByMaster.getOrDefault(master, Collections.emptyList());
+	}
+
+	/**
+	 * Record a {@literal MOVED} redirect and route the slot to its new master from now on.
+	 *
+	 * @param slot the slot.
+	 * @param node {@literal host:port} of the new master.
+	 */
+	public void moved(int slot, String node) {
+
+		moved.incrementAndGet();
+		nodeBySlot.set(slot, node);
+	}
+
+	/**
+	 * Record an {@literal ASK} redirect. The slot stays routed to its current master.
+	 *
+	 * @param slot the slot.
+	 * @param node {@literal host:port} of the importing master.
+	 */
+	public void asked(int slot, String node) {
+		asked.incrementAndGet();
+	}
+
+	/**
+	 * Forget all slots. The next lookup loads the topology.
+	 */
+	public void clear() {
+
+		for (int slot = 0; slot < nodeBySlot.length(); slot++) {
+			nodeBySlot.set(slot, null);
+		}
+		replicasByMaster.clear();
+	}
+
+	/**
+	 * @return number of slot lookups.
+	 */
+	public long getLookups() {
+		return lookups.get();
+	}
+
+	/**
+	 * @return number of {@literal MOVED} and {@literal ASK} redirects.
+	 */
+	public long getRedirects() {
+		return moved.get() + asked.get();
+	}
+
+	/**
+	 * @return number of {@literal MOVED} redirects.
+	 */
+	public long getMovedRedirects() {
+		return moved.get();
+	}
+
+	/**
+	 * @return number of {@literal ASK} redirects.
+	 */
+	public long getAskRedirects() {
+		return asked.get();
+	}
+
+	/**
+	 * @return redirects per lookup.
+	 */
+	public double getRedirectRate() {
+
+		long lookups = this.lookups.get();
+		return lookups == 0 ? 0D : (double) getRedirects() / lookups;
+	}
+
+	/**
+	 * @return number of times the topology has been loaded.
+	 */
+	public long getRefreshes() {
+		return refreshes.get();
+	}
+
+	private static String hostAndPort(RedisClusterNode node) {
+		return node.getHost() + ":" + node.getPort();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("ClusterSlotCache [lookups=%s, moved=%s, asked=%s, refreshes=%s]", lookups.get(), moved.get(),
+				asked.get(), refreshes.get());
+	}
+}
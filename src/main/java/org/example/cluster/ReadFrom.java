@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.cluster;
+
+/**
+ * Which nodes of a Redis Cluster to read from. Replicas are updated asynchronously, so reading from them might return
+ * slightly outdated data.
+ *
+ * @author Christoph Strobl
+ */
+public enum ReadFrom {
+
+	/**
+	 * Read from the master serving the slot only.
+	 */
+	MASTER,
+
+	/**
+	 * Read from one of the replicas of the master serving the slot. Fall back to the master if there is none or if it
+	 * cannot be reached.
+	 */
+	REPLICA_PREFERRED,
+
+	/**
+	 * Read from the master or replica serving the slot with the lowest measured latency.
+	 */
+	NEAREST
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.example.ohm.CompiledHashMapper;
+import org.example.ohm.LazyReference;
+import org.springframework.data.keyvalue.core.mapping.KeyValuePersistentProperty;
+import org.springframework.data.mapping.AssociationHandler;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.core.mapping.RedisPersistentEntity;
+import org.springframework.util.Assert;
+
+/**
+ * Reads many entities along with their {@link org.springframework.data.annotation.Reference}s using pipelined
+ * {@literal HGETALL} fan-outs. <br />
+ * Loading {@literal n} entities referencing {@literal m} others one by one costs {@literal n + m} round trips. Here
+ * the requested entities are loaded in one batch followed by one batch per level of references, so the number of
+ * round trips only depends on how deep the references are nested. Properties marked with {@link LazyReference} are
+ * not prefetched but resolved in one batch on first access.
+ *
+ * @author Christoph Strobl
+ */
+public class BatchingEntityReader {
+
+	private final RedisMappingContext mappingContext;
+	private final RedisConverter converter;
+	private final HashLoader loader;
+	private final BatchingReferenceResolver resolver;
+	private final CompiledHashMapper mapper;
+	private final Map<Class<?>, Map<String, Class<?>>> associations = new ConcurrentHashMap<>();
+
+	private volatile boolean lazyReferences = true;
+
+	/**
+	 * Create new {@link BatchingEntityReader}.
+	 *
+	 * @param converter must not be {@literal null}.
+	 * @param loader must not be {@literal null}.
+	 */
+	public BatchingEntityReader(RedisConverter converter, HashLoader loader) {
+
+		Assert.notNull(converter, "RedisConverter must not be null!");
+		Assert.notNull(loader, "Loader must not be null!");
+
+		this.converter = converter;
+		this.mappingContext = (RedisMappingContext) converter.getMappingContext();
+		this.loader = loader;
+		this.resolver = new BatchingReferenceResolver(loader);
+		this.mapper = CompiledHashMapper.of(converter, resolver);
+	}
+
+	/**
+	 * Set whether to resolve {@link LazyReference}s on first access, which is the default, or to prefetch them along
+	 * with all other references.
+	 *
+	 * @param lazyReferences {@literal false} to prefetch {@link LazyReference}s.
+	 */
+	public void setLazyReferences(boolean lazyReferences) {
+
+		this.lazyReferences = lazyReferences;
+		this.mapper.setLazyReferences(lazyReferences);
+		this.associations.clear();
+	}
+
+	/**
+	 * Load a single entity.
+	 *
+	 * @param type must not be {@literal null}.
+	 * @param id must not be {@literal null}.
+	 * @return {@literal null} if not found.
+	 */
+	public <T> T findOne(Class<T> type, Object id) {
+
+		List<T> result = findAll(type, Collections.singletonList(id));
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	/**
+	 * Load the entities with the given ids. Ids without a matching entity are skipped.
+	 *
+	 * @param type must not be {@literal null}.
+	 * @param ids must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	public <T> List<T> findAll(Class<T> type, Iterable<?> ids) {
+
+		Assert.notNull(type, "Type must not be null!");
+		Assert.notNull(ids, "Ids must not be null!");
+
+		String keyspace = mappingContext.getPersistentEntity(type).getKeySpace();
+
+		List<String> keys = new ArrayList<>();
+		for (Object id : ids) {
+			keys.add(keyspace + ":" + converter.getConversionService().convert(id, String.class));
+		}
+
+		if (keys.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		Map<String, Map<byte[], byte[]>> hashes = new HashMap<>();
+		Map<String, Class<?>> level = new LinkedHashMap<>();
+		keys.forEach(key -> level.put(key, type));
+		prefetch(level, hashes);
+
+		List<Map<byte[], byte[]>> roots = new ArrayList<>(keys.size());
+		keys.forEach(key -> roots.add(hashes.get(key)));
+
+		return read(type, roots, hashes);
+	}
+
+	/**
+	 * Read the given, already loaded {@literal HASH}es loading the references with one pipelined round trip per level.
+	 *
+	 * @param type must not be {@literal null}.
+	 * @param hashes must not be {@literal null}.
+	 * @return the entities in the order of {@literal hashes}. Empty {@literal HASH}es are skipped.
+	 */
+	public <T> List<T> read(Class<T> type, List<Map<byte[], byte[]>> hashes) {
+
+		Assert.notNull(type, "Type must not be null!");
+		Assert.notNull(hashes, "Hashes must not be null!");
+
+		Map<String, Map<byte[], byte[]>> references = new HashMap<>();
+		Map<String, Class<?>> level = new LinkedHashMap<>();
+		for (Map<byte[], byte[]> hash : hashes) {
+			if (!hash.isEmpty()) {
+				collectReferences(type, hash, references, level);
+			}
+		}
+		prefetch(level, references);
+
+		return read(type, hashes, references);
+	}
+
+	/**
+	 * Read the given {@literal HASH}es resolving references from already loaded ones.
+	 *
+	 * @param type must not be {@literal null}.
+	 * @param hashes must not be {@literal null}.
+	 * @param references the referenced {@literal HASH}es by their {@literal keyspace:id}.
+	 * @return the entities in the order of {@literal hashes}. Empty {@literal HASH}es are skipped.
+	 */
+	public <T> List<T> read(Class<T> type, List<Map<byte[], byte[]>> hashes,
+			Map<String, Map<byte[], byte[]>> references) {
+
+		return resolver.withPrefetched(references, () -> {
+
+			List<T> result = new ArrayList<>(hashes.size());
+			for (Map<byte[], byte[]> hash : hashes) {
+
+				T entity = mapper.fromHash(hash, type);
+				if (entity != null) {
+					result.add(entity);
+				}
+			}
+			return result;
+		});
+	}
+
+	/**
+	 * Load the given keys and, level by level, everything they reference.
+	 *
+	 * @param level keys to load along with their type.
+	 * @param hashes collects the loaded {@literal HASH}es.
+	 */
+	private void prefetch(Map<String, Class<?>> level, Map<String, Map<byte[], byte[]>> hashes) {
+
+		Map<String, Class<?>> current = level;
+		while (!current.isEmpty()) {
+
+			List<String> keys = new ArrayList<>(current.keySet());
+			List<byte[]> rawKeys = new ArrayList<>(keys.size());
+			keys.forEach(key -> rawKeys.add(RedisKeys.bytes(key)));
+
+			List<Map<byte[], byte[]>> loaded = loader.load(rawKeys);
+
+			Map<String, Class<?>> next = new LinkedHashMap<>();
+			for (int i = 0; i < keys.size(); i++) {
+
+				Map<byte[], byte[]> hash = loaded.get(i);
+				hashes.put(keys.get(i), hash);
+
+				if (!hash.isEmpty()) {
+					collectReferences(current.get(keys.get(i)), hash, hashes, next);
+				}
+			}
+			current = next;
+		}
+	}
+
+	/**
+	 * Collect the keys of all references of the given {@literal HASH} to be prefetched.
+	 *
+	 * @param type the type stored in the {@literal HASH}.
+	 * @param hash the {@literal HASH}.
+	 * @param hashes already loaded {@literal HASH}es by their {@literal keyspace:id}. Those are skipped.
+	 * @param next collects the keys to load along with the referenced type.
+	 */
+	public void collectReferences(Class<?> type, Map<byte[], byte[]> hash, Map<String, Map<byte[], byte[]>> hashes,
+			Map<String, Class<?>> next) {
+
+		Map<String, Class<?>> associations = this.associations.computeIfAbsent(type, this::associationsOf);
+		if (associations.isEmpty()) {
+			return;
+		}
+
+		for (Map.Entry<byte[], byte[]> entry : hash.entrySet()) {
+
+			String field = new String(entry.getKey(), StandardCharsets.UTF_8);
+			int separator = field.indexOf(".[");
+			Class<?> target = associations.get(separator == -1 ? field : field.substring(0, separator));
+
+			if (target != null) {
+
+				String key = new String(entry.getValue(), StandardCharsets.UTF_8);
+				if (!hashes.containsKey(key)) {
+					next.putIfAbsent(key, target);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the referenced type by property name for all references to be prefetched.
+	 */
+	private Map<String, Class<?>> associationsOf(Class<?> type) {
+
+		RedisPersistentEntity<?> entity = mappingContext.getPersistentEntity(type);
+		if (entity == null) {
+			return Collections.emptyMap();
+		}
+
+		Map<String, Class<?>> associations = new HashMap<>();
+		entity.doWithAssociations((AssociationHandler<KeyValuePersistentProperty>) association -> {
+
+			KeyValuePersistentProperty property = association.getInverse();
+			if (!lazyReferences || !property.isAnnotationPresent(LazyReference.class)) {
+				associations.put(property.getName(), property.getActualType());
+			}
+		});
+		return associations;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.example.ohm.BulkReferenceResolver;
+import org.springframework.data.redis.core.convert.ReferenceResolver;
+import org.springframework.util.Assert;
+
+/**
+ * {@link ReferenceResolver} answering from {@literal HASH}es loaded upfront when called within
+ * {@link #withPrefetched(Map, Supplier)}. References not prefetched are loaded with one pipeline per call to
+ * {@link #resolveReferences(List, String)}.
+ *
+ * @author Christoph Strobl
+ */
+public class BatchingReferenceResolver implements BulkReferenceResolver {
+
+	private final ThreadLocal<Map<String, Map<byte[], byte[]>>> prefetched = new ThreadLocal<>();
+	private final HashLoader loader;
+
+	/**
+	 * @param loader must not be {@literal null}.
+	 */
+	public BatchingReferenceResolver(HashLoader loader) {
+
+		Assert.notNull(loader, "Loader must not be null!");
+		this.loader = loader;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.core.convert.ReferenceResolver#resolveReference(java.io.Serializable, java.lang.String)
+	 */
+	@Override
+	public Map<byte[], byte[]> resolveReference(Serializable id, String keyspace) {
+
+		String key = keyspace + ":" + id;
+
+		Map<String, Map<byte[], byte[]>> hashes = prefetched.get();
+		if (hashes != null && hashes.containsKey(key)) {
+			return hashes.get(key);
+		}
+
+		return loader.load(Collections.singletonList(RedisKeys.bytes(key))).get(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.ohm.BulkReferenceResolver#resolveReferences(java.util.List, java.lang.String)
+	 */
+	@Override
+	public List<Map<byte[], byte[]>> resolveReferences(List<? extends Serializable> ids, String keyspace) {
+
+		Map<String, Map<byte[], byte[]>> hashes = prefetched.get();
+
+		List<byte[]> keys = new ArrayList<>(ids.size());
+		for (Serializable id : ids) {
+
+			String key = keyspace + ":" + id;
+			if (hashes == null || !hashes.containsKey(key)) {
+				keys.add(RedisKeys.bytes(key));
+			}
+		}
+
+		List<Map<byte[], byte[]>> loaded = loader.load(keys);
+
+		List<Map<byte[], byte[]>> result = new ArrayList<>(ids.size());
+		int position = 0;
+		for (Serializable id : ids) {
+
+			String key = keyspace + ":" + id;
+			result.add(hashes != null && hashes.containsKey(key) ? hashes.get(key) : loaded.get(position++));
+		}
+		return result;
+	}
+
+	/**
+	 * Run the given callback resolving references from the given {@literal HASH}es.
+	 *
+	 * @param hashes {@literal HASH}es by their {@literal keyspace:id}.
+	 * @param callback must not be {@literal null}.
+	 * @return the callback result.
+	 */
+	public <T> T withPrefetched(Map<String, Map<byte[], byte[]>> hashes, Supplier<T> callback) {
+
+		Map<String, Map<byte[], byte[]>> previous = prefetched.get();
+		prefetched.set(hashes);
+		try {
+			return callback.get();
+		} finally {
+			if (previous != null) {
+				prefetched.set(previous);
+			} else {
+				prefetched.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a type whose entities are stored as one binary {@literal STRING} encoded via
+ * {@link org.example.ohm.HashBlobCodec} instead of a flattened {@literal HASH}. Reading an entity then takes a single
+ * bulk reply instead of one per field and value, and small entities need less memory. Index {@literal SET}s,
+ * {@link SortedIndexed} {@literal ZSET}s and the {@link org.springframework.data.redis.core.TimeToLive} are maintained
+ * as for any other entity, but no {@literal phantom} copy is written. <br />
+ * Honored by the {@link PhantomAwareRedisKeyValueAdapter} (and {@link ScriptedRedisKeyValueAdapter}), the
+ * {@link PipelinedEntityWriter} and the {@link PipelinedHashLoader} backing the {@link IndexQueryKeyValueTemplate}.
+ * <br />
+ * <strong>Note:</strong> Partial updates, {@link IndexBookkeeping#HASH_VALUES} and the reactive repositories are not
+ * supported. Derived queries require the {@link IndexQueryKeyValueTemplate} as the default query engine reads
+ * {@literal HASH}es only.
+ *
+ * @author Christoph Strobl
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface BlobStorage {
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.keyvalue.core.mapping.KeyValuePersistentEntity;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Tells which types and keyspaces are stored via {@link BlobStorage}. Keyspaces are looked up among the entities known
+ * to the {@link RedisMappingContext} and cached, so all {@link BlobStorage} types must be part of its initial entity
+ * set, as is the case for those managed by repositories.
+ *
+ * @author Christoph Strobl
+ */
+class BlobStorageTypes {
+
+	private final RedisMappingContext mappingContext;
+	private final Map<String, Boolean> keyspaces = new ConcurrentHashMap<>();
+
+	/**
+	 * @param mappingContext must not be {@literal null}.
+	 */
+	BlobStorageTypes(RedisMappingContext mappingContext) {
+
+		Assert.notNull(mappingContext, "MappingContext must not be null!");
+		this.mappingContext = mappingContext;
+	}
+
+	/**
+	 * @param type must not be {@literal null}.
+	 * @return {@literal true} if the type is annotated with {@link BlobStorage}.
+	 */
+	static boolean isBlob(Class<?> type) {
+		return AnnotationUtils.findAnnotation(ClassUtils.getUserClass(type), BlobStorage.class) != null;
+	}
+
+	/**
+	 * @param type must not be {@literal null}.
+	 * @throws InvalidDataAccessApiUsageException if the type is annotated with {@link BlobStorage}.
+	 */
+	static void rejectPartialUpdate(Class<?> type) {
+
+		if (isBlob(type)) {
+			throw new InvalidDataAccessApiUsageException(
+					String.format("Partial updates are not supported for %s using BlobStorage.", type.getName()));
+		}
+	}
+
+	/**
+	 * @param keyspace must not be {@literal null}.
+	 * @return {@literal true} if the entities of the keyspace are stored via {@link BlobStorage}.
+	 */
+	boolean isBlobKeyspace(String keyspace) {
+
+		return keyspaces.computeIfAbsent(keyspace, key -> {
+
+			for (KeyValuePersistentEntity<?> entity : mappingContext.getPersistentEntities()) {
+				if (key.equals(entity.getKeySpace()) && isBlob(entity.getType())) {
+					return true;
+				}
+			}
+			return false;
+		});
+	}
+
+	/**
+	 * @param objectKey must not be {@literal null}.
+	 * @return {@literal true} if the key is the one of an entity stored via {@link BlobStorage}.
+	 */
+	boolean isBlobKey(byte[] objectKey) {
+
+		for (int i = 0; i < objectKey.length; i++) {
+			if (objectKey[i] == ':') {
+				return isBlobKeyspace(new String(objectKey, 0, i, StandardCharsets.UTF_8));
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import lombok.Value;
+
+/**
+ * Outcome of a bulk write holding the written entities along with the ones that could not be written.
+ *
+ * @author Christoph Strobl
+ */
+public class BulkWriteResult<T> {
+
+	private final List<T> written = new ArrayList<>();
+	private final List<Failure<T>> failures = new ArrayList<>();
+
+	void written(T entity) {
+		written.add(entity);
+	}
+
+	void failed(T entity, String id, Exception cause) {
+		failures.add(new Failure<>(entity, id, cause));
+	}
+
+	/**
+	 * @return the entities successfully written. Never {@literal null}.
+	 */
+	public List<T> getWritten() {
+		return Collections.unmodifiableList(written);
+	}
+
+	/**
+	 * @return the entities that could not be written. Never {@literal null}.
+	 */
+	public List<Failure<T>> getFailures() {
+		return Collections.unmodifiableList(failures);
+	}
+
+	public boolean hasFailures() {
+		return !failures.isEmpty();
+	}
+
+	/**
+	 * A single entity that could not be written.
+	 */
+	@Value
+	public static class Failure<T> {
+
+		T entity;
+
+		/**
+		 * The {@literal id} of the entity. {@literal null} if the failure happened before an id was assigned.
+		 */
+		String id;
+		Exception cause;
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.example.core.SortedIndexResolver.SortedIndexEntry;
+import org.example.ohm.HashBlobCodec;
+import org.example.partition.PartitioningStrategy;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.keyvalue.core.mapping.KeyValuePersistentProperty;
+import org.springframework.data.redis.core.convert.IndexedData;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.core.convert.RedisData;
+import org.springframework.data.redis.core.convert.SimpleIndexedPropertyValue;
+import org.springframework.data.redis.core.mapping.RedisPersistentEntity;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+import lombok.Getter;
+
+/**
+ * Computes everything required to write an entity the way {@link org.springframework.data.redis.core.RedisKeyValueAdapter}
+ * does (keys, {@literal HASH}, {@literal TTL}, index entries) without talking to Redis, so the actual commands can be
+ * sent by pipelined, clustered or reactive writers alike.
+ *
+ * @author Christoph Strobl
+ */
+public class EntityWritePlanner {
+
+	private final RedisConverter converter;
+	private final SortedIndexResolver sortedIndexes;
+
+	private PartitioningStrategy partitioningStrategy;
+	private IndexedPathResolver indexedPaths;
+
+	/**
+	 * @param converter must not be {@literal null}.
+	 */
+	public EntityWritePlanner(RedisConverter converter) {
+
+		Assert.notNull(converter, "RedisConverter must not be null!");
+
+		this.converter = converter;
+		this.sortedIndexes = new SortedIndexResolver(converter.getMappingContext());
+	}
+
+	/**
+	 * Set the {@link PartitioningStrategy} used to assign {@literal ids} to entities of partitioned types.
+	 *
+	 * @param partitioningStrategy can be {@literal null}.
+	 */
+	public void setPartitioningStrategy(PartitioningStrategy partitioningStrategy) {
+		this.partitioningStrategy = partitioningStrategy;
+	}
+
+	/**
+	 * Set the {@link IndexedPathResolver} used to reject index entries that cannot be derived from the entity
+	 * {@literal HASH}. Required for {@link IndexBookkeeping#HASH_VALUES}.
+	 *
+	 * @param indexedPaths can be {@literal null}.
+	 */
+	public void setIndexedPathResolver(IndexedPathResolver indexedPaths) {
+		this.indexedPaths = indexedPaths;
+	}
+
+	/**
+	 * Plan writing the given entity. Entities without an {@literal id} get one assigned.
+	 *
+	 * @param entity must not be {@literal null}.
+	 * @return never {@literal null}.
+	 * @throws InvalidDataAccessApiUsageException if the entity cannot be written.
+	 */
+	public <T> Plan<T> plan(T entity) {
+
+		Assert.notNull(entity, "Entity must not be null!");
+
+		boolean blob = BlobStorageTypes.isBlob(entity.getClass());
+		if (blob && indexedPaths != null) {
+			throw new InvalidDataAccessApiUsageException(
+					String.format("Cannot derive index keys of %s using BlobStorage. Use IndexBookkeeping.HELPER_SET.",
+							ClassUtils.getUserClass(entity).getName()));
+		}
+
+		assignIdIfNecessary(entity);
+
+		RedisData rdo = new RedisData();
+		converter.write(entity, rdo);
+
+		if (rdo.getId() == null) {
+			throw new InvalidDataAccessApiUsageException("Cannot write entity without id: " + entity);
+		}
+
+		byte[] id = toBytes(rdo.getId());
+		byte[] objectKey = RedisKeys.objectKey(rdo.getKeyspace(), id);
+
+		List<byte[]> indexKeys = new ArrayList<>();
+		for (IndexedData indexedData : rdo.getIndexedData()) {
+
+			if (!(indexedData instanceof SimpleIndexedPropertyValue)) {
+				throw new InvalidDataAccessApiUsageException(
+						String.format("Cannot write index data of type %s.", ClassUtils.getShortName(indexedData.getClass())));
+			}
+
+			if (indexedPaths != null) {
+				indexedPaths.verify(ClassUtils.getUserClass(entity), indexedData);
+			}
+
+			Object value = ((SimpleIndexedPropertyValue) indexedData).getValue();
+			if (value != null) {
+				indexKeys.add(RedisKeys.indexKey(indexedData.getKeyspace(), indexedData.getIndexName(), toBytes(value)));
+			}
+		}
+
+		boolean phantomCopy = !blob
+				&& AnnotationUtils.findAnnotation(ClassUtils.getUserClass(entity), NoPhantomCopy.class) == null;
+		Map<byte[], byte[]> hash = rdo.getBucket().rawMap();
+
+		return new Plan<>(entity, rdo.getId(), id, rdo.getKeyspace(), objectKey, hash,
+				blob ? HashBlobCodec.encode(hash) : null, rdo.getTimeToLive(), phantomCopy, indexKeys,
+				sortedIndexes.resolve(entity));
+	}
+
+	private void assignIdIfNecessary(Object entity) {
+
+		RedisPersistentEntity<?> persistentEntity = converter.getMappingContext().getPersistentEntity(entity.getClass());
+		KeyValuePersistentProperty idProperty = persistentEntity.getIdProperty();
+
+		if (idProperty == null || persistentEntity.getIdentifierAccessor(entity).getIdentifier() != null) {
+			return;
+		}
+
+		if (!ClassUtils.isAssignable(String.class, idProperty.getType())) {
+			throw new InvalidDataAccessApiUsageException(
+					String.format("Cannot generate id of type %s for %s.", idProperty.getType(), entity));
+		}
+
+		String id = partitioningStrategy != null && partitioningStrategy.isPartitioned(entity.getClass())
+				? partitioningStrategy.newId(entity.getClass()) : UUID.randomUUID().toString();
+		persistentEntity.getPropertyAccessor(entity).setProperty(idProperty, id);
+	}
+
+	private byte[] toBytes(Object source) {
+		return source instanceof byte[] ? (byte[]) source : converter.getConversionService().convert(source, byte[].class);
+	}
+
+	/**
+	 * All data required to write a single entity. Replacing an existing entity requires to first remove it from the
+	 * index {@literal SET}s listed in its {@link #getHelperKey() helper key} or derived from its current {@literal HASH}
+	 * (see {@link IndexBookkeeping}).
+	 */
+	@Getter
+	public static class Plan<T> {
+
+		private final T entity;
+		private final String id;
+		private final byte[] rawId;
+		private final String keyspace;
+		private final byte[] keyspaceKey;
+		private final byte[] objectKey;
+		private final byte[] phantomKey;
+		private final byte[] helperKey;
+		private final Map<byte[], byte[]> hash;
+
+		/**
+		 * The {@link #getHash() HASH} encoded as one value for entities using {@link BlobStorage}.
+		 */
+		private final byte[] blob;
+		private final Long timeToLive;
+		private final boolean phantomCopy;
+		private final List<byte[]> indexKeys;
+		private final List<SortedIndexEntry> sortedIndexEntries;
+
+		/**
+		 * Approximate number of bytes sent when writing.
+		 */
+		private final long size;
+
+		Plan(T entity, String id, byte[] rawId, String keyspace, byte[] objectKey, Map<byte[], byte[]> hash,
+				byte[] blob, Long timeToLive, boolean phantomCopy, List<byte[]> indexKeys,
+				List<SortedIndexEntry> sortedIndexEntries) {
+
+			this.entity = entity;
+			this.id = id;
+			this.rawId = rawId;
+			this.keyspace = keyspace;
+			this.keyspaceKey = RedisKeys.keyspaceKey(keyspace);
+			this.objectKey = objectKey;
+			this.phantomKey = RedisKeys.phantomKey(objectKey);
+			this.helperKey = RedisKeys.indexHelperKey(objectKey);
+			this.hash = hash;
+			this.blob = blob;
+			this.timeToLive = timeToLive;
+			this.phantomCopy = phantomCopy;
+			this.indexKeys = indexKeys;
+			this.sortedIndexEntries = sortedIndexEntries;
+
+			long size = objectKey.length;
+			if (blob != null) {
+				size += blob.length;
+			} else {
+				for (Map.Entry<byte[], byte[]> entry : hash.entrySet()) {
+					size += entry.getKey().length + entry.getValue().length;
+				}
+			}
+			for (byte[] indexKey : indexKeys) {
+				size += indexKey.length * 2 + rawId.length;
+			}
+			this.size = hasPhantomCopy() ? size * 2 : size;
+		}
+
+		/**
+		 * @return {@literal true} if the entity expires.
+		 */
+		public boolean hasTimeToLive() {
+			return timeToLive != null && timeToLive > 0;
+		}
+
+		/**
+		 * @return {@literal true} if the entity is stored as a single {@link #getBlob() value}.
+		 * @see BlobStorage
+		 */
+		public boolean isBlob() {
+			return blob != null;
+		}
+
+		/**
+		 * @return {@literal true} if the entity expires and requires a phantom copy.
+		 * @see NoPhantomCopy
+		 */
+		public boolean hasPhantomCopy() {
+			return hasTimeToLive() && phantomCopy;
+		}
+	}
+}
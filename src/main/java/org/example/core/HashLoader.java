@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads many {@literal HASH}es at once.
+ *
+ * @author Christoph Strobl
+ * @see PipelinedHashLoader
+ */
+@FunctionalInterface
+public interface HashLoader {
+
+	/**
+	 * Load the {@literal HASH}es stored at the given keys.
+	 *
+	 * @param keys must not be {@literal null}.
+	 * @return one entry per key in the order of {@literal keys}. Missing keys result in an empty {@link Map}.
+	 */
+	List<Map<byte[], byte[]>> load(List<byte[]> keys);
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+/**
+ * How writers figure out the index {@literal SET}s an entity is currently referenced in, so they can remove it from
+ * outdated ones.
+ *
+ * @author Christoph Strobl
+ */
+public enum IndexBookkeeping {
+
+	/**
+	 * Keep a {@literal keyspace:id:idx} {@literal SET} listing the index keys of each entity, just like the
+	 * {@link org.springframework.data.redis.core.RedisKeyValueAdapter} does. Costs an extra key plus one write per index
+	 * entry.
+	 */
+	HELPER_SET,
+
+	/**
+	 * Derive the index keys from the values currently stored in the entity {@literal HASH}, read via {@literal HMGET}
+	 * right before writing. No extra key is kept. Requires all indexed properties to be simple values (no collections or
+	 * maps) and index names to match the property path, see {@link IndexedPathResolver}.
+	 */
+	HASH_VALUES
+}
@@ -0,0 +1,526 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.example.cluster.ClusterPipelineExecutor;
+import org.example.partition.PartitioningStrategy;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.keyvalue.core.query.KeyValueQuery;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisZSetCommands.Limit;
+import org.springframework.data.redis.connection.RedisZSetCommands.Range;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.repository.query.RedisOperationChain;
+import org.springframework.data.redis.repository.query.RedisOperationChain.PathAndValue;
+import org.springframework.util.Assert;
+
+import redis.clients.jedis.Response;
+
+/**
+ * Executes derived queries on {@link org.springframework.data.redis.core.index.Indexed} properties server side. <br />
+ * The {@literal AND} parts of a query are resolved via {@literal SINTER}, the {@literal OR} parts via
+ * {@literal SUNION}. A Lua script combines all predicates and applies offset and rows server side, so the lookup
+ * needs a single round trip no matter how many predicates it has. The script only touches the index sets passed as
+ * {@literal KEYS} and returns the ids of the requested page. The matching {@literal HASH}es ({@literal GET} for
+ * {@link BlobStorage} types) are loaded with one pipelined round trip afterwards. <br />
+ * If scripting is not available the index lookup and the loading of the {@literal HASH}es are sent as two pipelines.
+ * In cluster mode index sets usually live in different slots. There all index sets are read with one pipeline per node
+ * and combined on the client before the {@literal HASH}es are loaded, again resulting in two round trips. <br />
+ * Range queries on {@link SortedIndexed} properties use {@literal ZRANGEBYSCORE} followed by a pipelined fetch. <br />
+ * For {@link PartitioningStrategy#isPartitioned(Class) partitioned} types the lookup is sent to all index shards in
+ * parallel. As all index keys of a partition share a slot, each shard is resolved with one {@literal SINTER} and one
+ * {@literal SUNION} on the node serving it.
+ *
+ * @author Christoph Strobl
+ */
+public class IndexQueryExecutor {
+
+	// KEYS = and keys followed by or keys, ARGV = number of and keys, offset, rows
+	private static final String SCRIPT = "" //
+			+ "local nAnd = tonumber(ARGV[1]) " //
+			+ "local ids, seen = {}, {} " //
+			+ "local function add(members) " //
+			+ "  for _, id in ipairs(members) do " //
+			+ "    if not seen[id] then seen[id] = true; ids[#ids + 1] = id end " //
+			+ "  end " //
+			+ "end " //
+			+ "if nAnd > 0 then add(redis.call('SINTER', unpack(KEYS, 1, nAnd))) end " //
+			+ "if #KEYS > nAnd then add(redis.call('SUNION', unpack(KEYS, nAnd + 1, #KEYS))) end " //
+			+ "local offset, rows = tonumber(ARGV[2]), tonumber(ARGV[3]) " //
+			+ "local last = #ids " //
+			+ "if rows > 0 then last = math.min(last, offset + rows) end " //
+			+ "local page = {} " //
+			+ "for i = offset + 1, last do page[#page + 1] = ids[i] end " //
+			+ "return page";
+
+	private final RedisConnectionFactory connectionFactory;
+	private final RedisConverter converter;
+	private final ClusterPipelineExecutor clusterExecutor;
+	private final PipelinedHashLoader loader;
+	private final BatchingEntityReader reader;
+
+	private final byte[] script;
+	private final String scriptSha;
+	private volatile boolean scriptingAvailable = true;
+
+	private PartitioningStrategy partitioningStrategy;
+
+	/**
+	 * Create new {@link IndexQueryExecutor}.
+	 *
+	 * @param connectionFactory must not be {@literal null}.
+	 * @param converter must not be {@literal null}.
+	 * @param clusterExecutor used in cluster mode. Can be {@literal null} when not running against a cluster.
+	 */
+	public IndexQueryExecutor(RedisConnectionFactory connectionFactory, RedisConverter converter,
+			ClusterPipelineExecutor clusterExecutor) {
+
+		Assert.notNull(connectionFactory, "ConnectionFactory must not be null!");
+		Assert.notNull(converter, "RedisConverter must not be null!");
+
+		this.connectionFactory = connectionFactory;
+		this.converter = converter;
+		this.clusterExecutor = clusterExecutor;
+		this.loader = new PipelinedHashLoader(connectionFactory, clusterExecutor);
+		this.loader.setMappingContext(converter.getMappingContext());
+		this.reader = new BatchingEntityReader(converter, loader);
+
+		DefaultRedisScript<List> redisScript = new DefaultRedisScript<>();
+		redisScript.setScriptText(SCRIPT);
+		redisScript.setResultType(List.class);
+
+		this.script = RedisKeys.bytes(SCRIPT);
+		this.scriptSha = redisScript.getSha1();
+	}
+
+	/**
+	 * Set the {@link PartitioningStrategy} used to write the index entries. Required to query partitioned types.
+	 *
+	 * @param partitioningStrategy can be {@literal null}.
+	 */
+	public void setPartitioningStrategy(PartitioningStrategy partitioningStrategy) {
+		this.partitioningStrategy = partitioningStrategy;
+	}
+
+	/**
+	 * @param type must not be {@literal null}.
+	 * @return {@literal true} if the indexes of the given type are partitioned.
+	 */
+	public boolean isPartitioned(Class<?> type) {
+		return partitioningStrategy != null && partitioningStrategy.isPartitioned(type);
+	}
+
+	/**
+	 * @param query must not be {@literal null}.
+	 * @return {@literal true} if the given query only consists of index lookups and can be run by this executor.
+	 */
+	public boolean supports(KeyValueQuery<?> query) {
+
+		if (!(query.getCriteria() instanceof RedisOperationChain) || query.getSort() != null) {
+			return false;
+		}
+
+		RedisOperationChain chain = (RedisOperationChain) query.getCriteria();
+		return chain.getNear() == null && (!chain.getSismember().isEmpty() || !chain.getOrSismember().isEmpty());
+	}
+
+	/**
+	 * Find all entities matching the given criteria.
+	 *
+	 * @param criteria must not be {@literal null}.
+	 * @param offset number of matches to skip. Negative values are treated as {@literal 0}.
+	 * @param rows max number of matches to return. Values less than {@literal 1} return all of them.
+	 * @param type must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	public <T> List<T> find(RedisOperationChain criteria, long offset, int rows, Class<T> type) {
+
+		Assert.notNull(criteria, "Criteria must not be null!");
+		Assert.notNull(type, "Type must not be null!");
+
+		String keyspace = converter.getMappingContext().getPersistentEntity(type).getKeySpace();
+
+		List<byte[]> andKeys = indexKeys(keyspace, criteria.getSismember());
+		List<byte[]> orKeys = indexKeys(keyspace, criteria.getOrSismember());
+		long start = Math.max(offset, 0);
+
+		List<Map<byte[], byte[]>> hashes;
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+
+			if (isPartitioned(type)) {
+				hashes = loader.load(objectKeys(keyspace, page(lookupPartitioned(connection, type, keyspace, criteria), start,
+						rows)));
+			} else if (connection instanceof RedisClusterConnection) {
+				hashes = loader.load(objectKeys(keyspace,
+						page(lookupInCluster((RedisClusterConnection) connection, andKeys, orKeys), start, rows)));
+			} else if (scriptingAvailable) {
+				hashes = loader.load(objectKeys(keyspace, lookupViaScript(connection, andKeys, orKeys, start, rows)));
+			} else {
+				hashes = loader.load(objectKeys(keyspace, page(lookup(connection, andKeys, orKeys), start, rows)));
+			}
+		} finally {
+			connection.close();
+		}
+
+		return reader.read(type, hashes);
+	}
+
+	/**
+	 * Find all entities whose {@link SortedIndexed} property is within the given range. Resolves the matching ids via
+	 * {@literal ZRANGEBYSCORE} and loads the {@literal HASH}es with one pipelined round trip, ordered by score.
+	 *
+	 * @param type must not be {@literal null}.
+	 * @param path the name of the {@link SortedIndexed} property.
+	 * @param range the range of property values. Bounds are converted via {@link SortedIndexResolver#score(Object)}.
+	 * @param offset number of matches to skip. Negative values are treated as {@literal 0}.
+	 * @param rows max number of matches to return. Values less than {@literal 1} return all of them.
+	 * @return never {@literal null}.
+	 */
+	public <T> List<T> findInRange(Class<T> type, String path, Range range, long offset, int rows) {
+
+		Assert.notNull(type, "Type must not be null!");
+		Assert.hasText(path, "Path must not be null or empty!");
+		Assert.notNull(range, "Range must not be null!");
+
+		String keyspace = converter.getMappingContext().getPersistentEntity(type).getKeySpace();
+		Range scores = Range.range();
+		if (range.getMin() != null && range.getMin().getValue() != null) {
+			double min = SortedIndexResolver.score(range.getMin().getValue());
+			scores = range.getMin().isIncluding() ? scores.gte(min) : scores.gt(min);
+		}
+		if (range.getMax() != null && range.getMax().getValue() != null) {
+			double max = SortedIndexResolver.score(range.getMax().getValue());
+			scores = range.getMax().isIncluding() ? scores.lte(max) : scores.lt(max);
+		}
+
+		Limit limit = Limit.limit().offset((int) Math.max(offset, 0)).count(rows > 0 ? rows : -1);
+		byte[] key = RedisKeys.sortedIndexKey(keyspace, path);
+
+		Set<byte[]> ids;
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+			ids = connection.zRangeByScore(key, scores, limit);
+		} finally {
+			connection.close();
+		}
+
+		if (ids == null || ids.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		return reader.read(type, loader.load(objectKeys(keyspace, new ArrayList<>(ids))));
+	}
+
+	/**
+	 * Resolve the ids of the requested page via the script.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<byte[]> lookupViaScript(RedisConnection connection, List<byte[]> andKeys, List<byte[]> orKeys,
+			long offset, int rows) {
+
+		List<byte[]> keysAndArgs = new ArrayList<>(andKeys.size() + orKeys.size() + 3);
+		keysAndArgs.addAll(andKeys);
+		keysAndArgs.addAll(orKeys);
+		keysAndArgs.add(RedisKeys.bytes(Integer.toString(andKeys.size())));
+		keysAndArgs.add(RedisKeys.bytes(Long.toString(offset)));
+		keysAndArgs.add(RedisKeys.bytes(Integer.toString(rows)));
+
+		int numKeys = andKeys.size() + orKeys.size();
+		byte[][] raw = keysAndArgs.toArray(new byte[keysAndArgs.size()][]);
+
+		List<Object> result;
+		try {
+			result = evalSha(connection, numKeys, raw);
+		} catch (DataAccessException e) {
+
+			if (!causedBy(e, "unknown command")) {
+				throw e;
+			}
+
+			// scripting disabled or not supported by the server
+			scriptingAvailable = false;
+			return page(lookup(connection, andKeys, orKeys), offset, rows);
+		}
+
+		return result != null ? (List<byte[]>) (List<?>) result : Collections.emptyList();
+	}
+
+	private List<Object> evalSha(RedisConnection connection, int numKeys, byte[][] keysAndArgs) {
+
+		try {
+			return connection.evalSha(scriptSha, ReturnType.MULTI, numKeys, keysAndArgs);
+		} catch (DataAccessException e) {
+
+			if (!causedBy(e, "NOSCRIPT")) {
+				throw e;
+			}
+			return connection.eval(script, ReturnType.MULTI, numKeys, keysAndArgs);
+		}
+	}
+
+	/**
+	 * Count the entities matching the given criteria. Only the index sets are read, no {@literal HASH} is loaded.
+	 *
+	 * @param criteria must not be {@literal null}.
+	 * @param type must not be {@literal null}.
+	 * @return the number of matches.
+	 */
+	public long count(RedisOperationChain criteria, Class<?> type) {
+
+		Assert.notNull(criteria, "Criteria must not be null!");
+		Assert.notNull(type, "Type must not be null!");
+
+		String keyspace = converter.getMappingContext().getPersistentEntity(type).getKeySpace();
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+
+			if (isPartitioned(type)) {
+				return lookupPartitioned(connection, type, keyspace, criteria).size();
+			}
+
+			List<byte[]> andKeys = indexKeys(keyspace, criteria.getSismember());
+			List<byte[]> orKeys = indexKeys(keyspace, criteria.getOrSismember());
+
+			if (connection instanceof RedisClusterConnection) {
+				return lookupInCluster((RedisClusterConnection) connection, andKeys, orKeys).size();
+			}
+			return lookup(connection, andKeys, orKeys).size();
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Resolve matching ids with a single pipeline of {@literal SINTER} and {@literal SUNION}.
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<byte[]> lookup(RedisConnection connection, List<byte[]> andKeys, List<byte[]> orKeys) {
+
+		connection.openPipeline();
+		if (!andKeys.isEmpty()) {
+			connection.sInter(andKeys.toArray(new byte[andKeys.size()][]));
+		}
+		if (!orKeys.isEmpty()) {
+			connection.sUnion(orKeys.toArray(new byte[orKeys.size()][]));
+		}
+
+		Set<ByteBuffer> ids = new LinkedHashSet<>();
+		for (Object members : connection.closePipeline()) {
+			if (members instanceof Collection) {
+				((Collection<byte[]>) members).forEach(id -> ids.add(ByteBuffer.wrap(id)));
+			}
+		}
+		return ids.stream().map(ByteBuffer::array).collect(Collectors.toList());
+	}
+
+	/**
+	 * Read all index sets with one pipeline per node and combine them on the client.
+	 */
+	private List<byte[]> lookupInCluster(RedisClusterConnection connection, List<byte[]> andKeys, List<byte[]> orKeys) {
+
+		Assert.state(clusterExecutor != null, "ClusterPipelineExecutor is required in cluster mode!");
+
+		List<byte[]> keys = new ArrayList<>(andKeys);
+		keys.addAll(orKeys);
+
+		List<Set<byte[]>> members = clusterExecutor.read(connection, keys, (pipeline, slotKeys) -> {
+
+			List<Response<Set<byte[]>>> responses = slotKeys.stream().map(pipeline::smembers).collect(Collectors.toList());
+			return () -> responses.stream().map(Response::get).collect(Collectors.toList());
+		});
+
+		Set<ByteBuffer> ids = new LinkedHashSet<>();
+		if (!andKeys.isEmpty()) {
+
+			ids.addAll(wrap(members.get(0)));
+			for (int i = 1; i < andKeys.size(); i++) {
+				ids.retainAll(wrap(members.get(i)));
+			}
+		}
+		for (int i = andKeys.size(); i < keys.size(); i++) {
+			ids.addAll(wrap(members.get(i)));
+		}
+		return ids.stream().map(ByteBuffer::array).collect(Collectors.toList());
+	}
+
+	/**
+	 * Resolve matching ids from all index shards. In cluster mode shards are resolved in parallel with one pipeline per
+	 * node, otherwise with a single pipeline.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<byte[]> lookupPartitioned(RedisConnection connection, Class<?> type, String keyspace,
+			RedisOperationChain criteria) {
+
+		List<Shard> shards = new ArrayList<>();
+		for (String partition : partitioningStrategy.getPartitions(type)) {
+			shards.add(new Shard(indexKeys(keyspace, partition, criteria.getSismember()),
+					indexKeys(keyspace, partition, criteria.getOrSismember())));
+		}
+
+		Set<ByteBuffer> ids = new LinkedHashSet<>();
+
+		if (connection instanceof RedisClusterConnection) {
+
+			Assert.state(clusterExecutor != null, "ClusterPipelineExecutor is required in cluster mode!");
+
+			// route each shard by one of its keys, all other keys of the shard share the slot
+			Map<byte[], Shard> shardByKey = new IdentityHashMap<>();
+			shards.forEach(shard -> shardByKey.put(shard.anyKey(), shard));
+
+			List<Set<ByteBuffer>> matches = clusterExecutor.read((RedisClusterConnection) connection,
+					new ArrayList<>(shardByKey.keySet()), (pipeline, slotKeys) -> {
+
+						List<Response<Set<byte[]>>> responses = new ArrayList<>();
+						List<Integer> counts = new ArrayList<>(slotKeys.size());
+						for (byte[] key : slotKeys) {
+
+							Shard shard = shardByKey.get(key);
+							if (!shard.andKeys.isEmpty()) {
+								responses.add(pipeline.sinter(shard.andKeys.toArray(new byte[shard.andKeys.size()][])));
+							}
+							if (!shard.orKeys.isEmpty()) {
+								responses.add(pipeline.sunion(shard.orKeys.toArray(new byte[shard.orKeys.size()][])));
+							}
+							counts.add(responses.size());
+						}
+
+						return () -> {
+
+							List<Set<ByteBuffer>> result = new ArrayList<>(slotKeys.size());
+							int from = 0;
+							for (int to : counts) {
+
+								Set<ByteBuffer> shardIds = new LinkedHashSet<>();
+								responses.subList(from, to).forEach(response -> shardIds.addAll(wrap(response.get())));
+								result.add(shardIds);
+								from = to;
+							}
+							return result;
+						};
+					});
+
+			matches.forEach(ids::addAll);
+		} else {
+
+			connection.openPipeline();
+			for (Shard shard : shards) {
+
+				if (!shard.andKeys.isEmpty()) {
+					connection.sInter(shard.andKeys.toArray(new byte[shard.andKeys.size()][]));
+				}
+				if (!shard.orKeys.isEmpty()) {
+					connection.sUnion(shard.orKeys.toArray(new byte[shard.orKeys.size()][]));
+				}
+			}
+
+			for (Object members : connection.closePipeline()) {
+				if (members instanceof Collection) {
+					((Collection<byte[]>) members).forEach(id -> ids.add(ByteBuffer.wrap(id)));
+				}
+			}
+		}
+
+		return ids.stream().map(ByteBuffer::array).collect(Collectors.toList());
+	}
+
+	private List<byte[]> indexKeys(String keyspace, Set<PathAndValue> criteria) {
+		return indexKeys(keyspace, null, criteria);
+	}
+
+	private List<byte[]> indexKeys(String keyspace, String partition, Set<PathAndValue> criteria) {
+
+		List<byte[]> keys = new ArrayList<>(criteria.size());
+		for (PathAndValue pathAndValue : criteria) {
+
+			String indexName = partition != null ? partitioningStrategy.getIndexName(partition, pathAndValue.getPath())
+					: pathAndValue.getPath();
+			keys.add(RedisKeys.indexKey(keyspace, indexName, toBytes(pathAndValue.getFirstValue())));
+		}
+		return keys;
+	}
+
+	private static List<byte[]> objectKeys(String keyspace, List<byte[]> ids) {
+		return ids.stream().map(id -> RedisKeys.objectKey(keyspace, id)).collect(Collectors.toList());
+	}
+
+	private static List<byte[]> page(List<byte[]> ids, long offset, int rows) {
+
+		if (offset >= ids.size()) {
+			return Collections.emptyList();
+		}
+		long end = rows > 0 ? Math.min(ids.size(), offset + rows) : ids.size();
+		return ids.subList((int) offset, (int) end);
+	}
+
+	private byte[] toBytes(Object source) {
+		return source instanceof byte[] ? (byte[]) source : converter.getConversionService().convert(source, byte[].class);
+	}
+
+	private static Set<ByteBuffer> wrap(Set<byte[]> members) {
+
+		if (members == null) {
+			return Collections.emptySet();
+		}
+		return members.stream().map(ByteBuffer::wrap).collect(Collectors.toSet());
+	}
+
+	private static boolean causedBy(Throwable e, String message) {
+
+		for (Throwable current = e; current != null; current = current.getCause()) {
+			if (current.getMessage() != null && current.getMessage().contains(message)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Index keys of a single partition.
+	 */
+	private static class Shard {
+
+		final List<byte[]> andKeys;
+		final List<byte[]> orKeys;
+
+		Shard(List<byte[]> andKeys, List<byte[]> orKeys) {
+
+			this.andKeys = andKeys;
+			this.orKeys = orKeys;
+		}
+
+		byte[] anyKey() {
+			return !andKeys.isEmpty() ? andKeys.get(0) : orKeys.get(0);
+		}
+	}
+}
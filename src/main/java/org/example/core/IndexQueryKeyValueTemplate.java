@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import org.example.partition.PartitioningStrategy;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.keyvalue.core.mapping.KeyValuePersistentProperty;
+import org.springframework.data.keyvalue.core.query.KeyValueQuery;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.core.RedisKeyValueTemplate;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.core.mapping.RedisPersistentEntity;
+import org.springframework.data.redis.repository.query.RedisOperationChain;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * {@link RedisKeyValueTemplate} running derived queries on indexed properties via the {@link IndexQueryExecutor}.
+ * Register it under the name {@literal redisKeyValueTemplate} to have it picked up by the repository support:
+ *
+ * <pre>
+ * <code>
+ * &#64;Bean
+ * RedisKeyValueTemplate redisKeyValueTemplate(RedisKeyValueAdapter adapter, RedisConnectionFactory factory) {
+ *   return new IndexQueryKeyValueTemplate(adapter, new IndexQueryExecutor(factory, adapter.getConverter(), null));
+ * }
+ * </code>
+ * </pre>
+ *
+ * Derived {@literal count} queries are resolved from the index sets the same way. Queries not supported by the
+ * {@link IndexQueryExecutor} are run the default way, or rejected for partitioned types. <br />
+ * With a {@link #setPartitioningStrategy(PartitioningStrategy) PartitioningStrategy} new entities of partitioned types
+ * get an {@literal id} carrying the hash tag of their partition assigned on insert.
+ *
+ * @author Christoph Strobl
+ */
+public class IndexQueryKeyValueTemplate extends RedisKeyValueTemplate {
+
+	private final IndexQueryExecutor executor;
+	private final RedisMappingContext mappingContext;
+
+	private PartitioningStrategy partitioningStrategy;
+
+	/**
+	 * Create new {@link IndexQueryKeyValueTemplate}.
+	 *
+	 * @param adapter must not be {@literal null}.
+	 * @param executor must not be {@literal null}.
+	 */
+	public IndexQueryKeyValueTemplate(RedisKeyValueAdapter adapter, IndexQueryExecutor executor) {
+
+		super(adapter, (RedisMappingContext) adapter.getConverter().getMappingContext());
+
+		Assert.notNull(executor, "IndexQueryExecutor must not be null!");
+
+		this.executor = executor;
+		this.mappingContext = (RedisMappingContext) adapter.getConverter().getMappingContext();
+	}
+
+	/**
+	 * Set the {@link PartitioningStrategy} matching the one of the
+	 * {@link org.example.partition.PartitionedIndexResolver} in use.
+	 *
+	 * @param partitioningStrategy can be {@literal null}.
+	 */
+	public void setPartitioningStrategy(PartitioningStrategy partitioningStrategy) {
+
+		this.partitioningStrategy = partitioningStrategy;
+		this.executor.setPartitioningStrategy(partitioningStrategy);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.keyvalue.core.KeyValueTemplate#insert(java.lang.Object)
+	 */
+	@Override
+	public <T> T insert(T objectToInsert) {
+
+		if (partitioningStrategy != null && objectToInsert != null
+				&& partitioningStrategy.isPartitioned(objectToInsert.getClass())) {
+			assignPartitionedId(objectToInsert);
+		}
+
+		return super.insert(objectToInsert);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.keyvalue.core.KeyValueTemplate#find(org.springframework.data.keyvalue.core.query.KeyValueQuery, java.lang.Class)
+	 */
+	@Override
+	public <T> Iterable<T> find(KeyValueQuery<?> query, Class<T> type) {
+
+		if (!executor.supports(query)) {
+
+			rejectIfPartitioned(query, type);
+			return super.find(query, type);
+		}
+
+		return executor.find((RedisOperationChain) query.getCriteria(), query.getOffset(), query.getRows(), type);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.keyvalue.core.KeyValueTemplate#count(org.springframework.data.keyvalue.core.query.KeyValueQuery, java.lang.Class)
+	 */
+	@Override
+	public long count(KeyValueQuery<?> query, Class<?> type) {
+
+		if (!executor.supports(query)) {
+
+			rejectIfPartitioned(query, type);
+			return super.count(query, type);
+		}
+
+		return executor.count((RedisOperationChain) query.getCriteria(), type);
+	}
+
+	/**
+	 * The default query execution only looks at the unpartitioned index keys and would silently miss all matches.
+	 */
+	private void rejectIfPartitioned(KeyValueQuery<?> query, Class<?> type) {
+
+		if (executor.isPartitioned(type)) {
+			throw new InvalidDataAccessApiUsageException(
+					String.format("Query %s is not supported for partitioned type %s.", query, type.getName()));
+		}
+	}
+
+	private void assignPartitionedId(Object entity) {
+
+		RedisPersistentEntity<?> persistentEntity = mappingContext.getPersistentEntity(entity.getClass());
+		KeyValuePersistentProperty idProperty = persistentEntity.getIdProperty();
+
+		if (idProperty == null || !ClassUtils.isAssignable(String.class, idProperty.getType())
+				|| persistentEntity.getIdentifierAccessor(entity).getIdentifier() != null) {
+			return;
+		}
+
+		persistentEntity.getPropertyAccessor(entity).setProperty(idProperty,
+				partitioningStrategy.newId(entity.getClass()));
+	}
+}
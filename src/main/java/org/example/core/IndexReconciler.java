@@ -0,0 +1,553 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.example.cluster.ClusterScanner;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisZSetCommands.Tuple;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.util.Assert;
+
+/**
+ * Removes index entries pointing to entities that no longer exist, e.g. because they expired while no application
+ * instance was listening for expiration events. <br />
+ * Each pass walks all keys of the configured keyspaces with {@literal SCAN}, identifies index {@literal SET}s, sorted
+ * index {@literal ZSET}s and the keyspace {@literal SET} via pipelined {@literal TYPE} calls and reads their members
+ * with {@literal SSCAN} / {@literal ZSCAN} in batches of {@link #setBatchSize(int) batchSize}. A script then removes,
+ * per batch in a single round trip, all members whose entity {@literal HASH} does not exist. Checking and removing
+ * happens atomically so an entity saved concurrently keeps its index entries. Index helpers ({@literal :idx}) of no
+ * longer existing entities are deleted the same way. As an index {@literal SET} for the value {@literal idx} shares
+ * that suffix, a {@literal SET} only counts as index helper if its members are keys of the keyspace, while the members
+ * of an index are ids. <br />
+ * Passes run every {@link #setInterval(long) interval} and are throttled to
+ * {@link #setMaxMembersPerSecond(long) maxMembersPerSecond} checked members. Progress is exposed via
+ * {@link #getCheckedMembers()}, {@link #getRemovedMembers()} and friends. <br />
+ * In a Redis Cluster keys are scanned on all masters and index entries are checked and removed one by one as the
+ * {@literal SET} and the entity {@literal HASH} usually live in different slots.
+ *
+ * @author Christoph Strobl
+ */
+public class IndexReconciler implements InitializingBean, DisposableBean {
+
+	private static final Log LOG = LogFactory.getLog(IndexReconciler.class);
+
+	/**
+	 * {@literal KEYS[1]}: the index, {@literal KEYS[2..n]}: the entity keys, {@literal ARGV[1]}: the command removing a
+	 * member, {@literal ARGV[2..n]}: the members.
+	 */
+	private static final byte[] REMOVE_ORPHANED_MEMBERS = RedisKeys.bytes("local removed = 0\n" //
+			+ "for i = 2, #KEYS do\n" //
+			+ "  if redis.call('EXISTS', KEYS[i]) == 0 then\n" //
+			+ "    removed = removed + redis.call(ARGV[1], KEYS[1], ARGV[i])\n" //
+			+ "  end\n" //
+			+ "end\n" //
+			+ "return removed");
+
+	/**
+	 * {@literal KEYS[2i-1]}: the index helper, {@literal KEYS[2i]}: its entity key.
+	 */
+	private static final byte[] REMOVE_ORPHANED_HELPERS = RedisKeys.bytes("local removed = 0\n" //
+			+ "for i = 1, #KEYS, 2 do\n" //
+			+ "  if redis.call('EXISTS', KEYS[i + 1]) == 0 then\n" //
+			+ "    removed = removed + redis.call('DEL', KEYS[i])\n" //
+			+ "  end\n" //
+			+ "end\n" //
+			+ "return removed");
+
+	private static final byte[] SREM = RedisKeys.bytes("SREM");
+	private static final byte[] ZREM = RedisKeys.bytes("ZREM");
+	private static final byte[] INDEX_HELPER_SUFFIX = RedisKeys.bytes(":idx");
+
+	private final RedisConnectionFactory connectionFactory;
+	private final List<String> keyspaces;
+
+	private final LongAdder passes = new LongAdder();
+	private final LongAdder scannedKeys = new LongAdder();
+	private final LongAdder checkedMembers = new LongAdder();
+	private final LongAdder removedMembers = new LongAdder();
+	private final LongAdder removedHelpers = new LongAdder();
+
+	private int batchSize = 500;
+	private long maxMembersPerSecond = 5000;
+	private long interval = TimeUnit.HOURS.toMillis(1);
+
+	private ScheduledExecutorService scheduler;
+	private ClusterScanner clusterScanner;
+
+	private volatile String currentKey;
+	private volatile long lastPassDuration = -1;
+
+	private long passStarted;
+	private long permitsUsed;
+
+	/**
+	 * Create new {@link IndexReconciler}.
+	 *
+	 * @param connectionFactory must not be {@literal null}.
+	 * @param keyspaces the keyspaces to reconcile. Must not be {@literal null} or empty.
+	 */
+	public IndexReconciler(RedisConnectionFactory connectionFactory, String... keyspaces) {
+
+		Assert.notNull(connectionFactory, "ConnectionFactory must not be null!");
+		Assert.notEmpty(keyspaces, "Keyspaces must not be empty!");
+
+		this.connectionFactory = connectionFactory;
+		this.keyspaces = Collections.unmodifiableList(Arrays.asList(keyspaces));
+	}
+
+	/**
+	 * Set the number of keys and members processed per round trip. Defaults to {@literal 500}.
+	 *
+	 * @param batchSize must be greater than zero.
+	 */
+	public void setBatchSize(int batchSize) {
+
+		Assert.isTrue(batchSize > 0, "BatchSize must be greater than zero!");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Set the max number of index members checked per second. Defaults to {@literal 5000}.
+	 *
+	 * @param maxMembersPerSecond must be greater than zero.
+	 */
+	public void setMaxMembersPerSecond(long maxMembersPerSecond) {
+
+		Assert.isTrue(maxMembersPerSecond > 0, "MaxMembersPerSecond must be greater than zero!");
+		this.maxMembersPerSecond = maxMembersPerSecond;
+	}
+
+	/**
+	 * Set the time in milliseconds between the end of a pass and the start of the next one. {@literal 0} disables
+	 * scheduling so passes only run via {@link #reconcile()}. Defaults to one hour.
+	 *
+	 * @param interval must not be negative.
+	 */
+	public void setInterval(long interval) {
+
+		Assert.isTrue(interval >= 0, "Interval must not be negative!");
+		this.interval = interval;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() {
+
+		if (interval == 0) {
+			return;
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+
+			Thread thread = new Thread(runnable, "index-reconciler");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				reconcile();
+			} catch (RuntimeException e) {
+				LOG.warn("Index reconciliation failed.", e);
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() {
+
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+		if (clusterScanner != null) {
+			clusterScanner.destroy();
+		}
+	}
+
+	/**
+	 * Run a single pass over all configured keyspaces. Returns early if the calling thread gets interrupted.
+	 */
+	public synchronized void reconcile() {
+
+		passStarted = System.nanoTime();
+		permitsUsed = 0;
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+
+			for (String keyspace : keyspaces) {
+
+				reconcileMembers(connection, RedisKeys.keyspaceKey(keyspace), DataType.SET, keyspace);
+				reconcileKeyspace(connection, keyspace);
+			}
+
+			passes.increment();
+			lastPassDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - passStarted);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+
+			currentKey = null;
+			connection.close();
+		}
+	}
+
+	/**
+	 * @return number of completed passes.
+	 */
+	public long getPasses() {
+		return passes.sum();
+	}
+
+	/**
+	 * @return number of keys inspected via {@literal SCAN}.
+	 */
+	public long getScannedKeys() {
+		return scannedKeys.sum();
+	}
+
+	/**
+	 * @return number of index members checked.
+	 */
+	public long getCheckedMembers() {
+		return checkedMembers.sum();
+	}
+
+	/**
+	 * @return number of index members removed because their entity did not exist.
+	 */
+	public long getRemovedMembers() {
+		return removedMembers.sum();
+	}
+
+	/**
+	 * @return number of index helpers removed because their entity did not exist.
+	 */
+	public long getRemovedHelpers() {
+		return removedHelpers.sum();
+	}
+
+	/**
+	 * @return the index currently reconciled. {@literal null} if no pass is running.
+	 */
+	public String getCurrentKey() {
+		return currentKey;
+	}
+
+	/**
+	 * @return duration of the last completed pass in milliseconds. {@literal -1} if none completed so far.
+	 */
+	public long getLastPassDurationMillis() {
+		return lastPassDuration;
+	}
+
+	private void reconcileKeyspace(RedisConnection connection, String keyspace) throws InterruptedException {
+
+		ScanOptions options = ScanOptions.scanOptions().match(keyspace + ":*").count(batchSize).build();
+		try (Stream<byte[]> keys = scan(connection, options)) {
+
+			List<byte[]> batch = new ArrayList<>(batchSize);
+			for (Iterator<byte[]> it = keys.iterator(); it.hasNext();) {
+
+				// phantom copies are HASHes and get sorted out by their type
+				batch.add(it.next());
+
+				if (batch.size() >= batchSize || (!it.hasNext() && !batch.isEmpty())) {
+
+					reconcileKeys(connection, keyspace, batch);
+					batch = new ArrayList<>(batchSize);
+				}
+			}
+		}
+	}
+
+	private void reconcileKeys(RedisConnection connection, String keyspace, List<byte[]> keys)
+			throws InterruptedException {
+
+		scannedKeys.add(keys.size());
+
+		List<DataType> types = types(connection, keys);
+		List<byte[]> candidates = new ArrayList<>();
+
+		for (int i = 0; i < keys.size(); i++) {
+
+			byte[] key = keys.get(i);
+			DataType type = types.get(i);
+
+			if (DataType.SET.equals(type) && endsWith(key, INDEX_HELPER_SUFFIX)) {
+				candidates.add(key);
+			} else if (DataType.SET.equals(type) || DataType.ZSET.equals(type)) {
+				reconcileMembers(connection, key, type, keyspace);
+			}
+		}
+
+		List<byte[]> helpers = new ArrayList<>(candidates.size());
+		List<byte[]> samples = sampleMembers(connection, candidates);
+		byte[] prefix = RedisKeys.bytes(keyspace + ":");
+
+		for (int i = 0; i < candidates.size(); i++) {
+
+			byte[] sample = samples.get(i);
+			if (sample == null) {
+				continue;
+			}
+
+			// helpers hold index keys, indexes for the value "idx" hold ids
+			if (startsWith(sample, prefix)) {
+				helpers.add(candidates.get(i));
+			} else {
+				reconcileMembers(connection, candidates.get(i), DataType.SET, keyspace);
+			}
+		}
+
+		if (!helpers.isEmpty()) {
+			removedHelpers.add(removeOrphanedHelpers(connection, helpers));
+		}
+	}
+
+	private void reconcileMembers(RedisConnection connection, byte[] index, DataType type, String keyspace)
+			throws InterruptedException {
+
+		currentKey = new String(index, StandardCharsets.UTF_8);
+
+		ScanOptions options = ScanOptions.scanOptions().count(batchSize).build();
+		Cursor<?> cursor = DataType.ZSET.equals(type) ? connection.zScan(index, options)
+				: connection.sScan(index, options);
+		Function<Object, byte[]> member = DataType.ZSET.equals(type) ? tuple -> ((Tuple) tuple).getValue()
+				: raw -> (byte[]) raw;
+
+		try {
+
+			List<byte[]> batch = new ArrayList<>(batchSize);
+			while (cursor.hasNext()) {
+
+				batch.add(member.apply(cursor.next()));
+				if (batch.size() >= batchSize || !cursor.hasNext()) {
+
+					throttle(batch.size());
+					checkedMembers.add(batch.size());
+					removedMembers.add(removeOrphanedMembers(connection, index, type, keyspace, batch));
+					batch = new ArrayList<>(batchSize);
+				}
+			}
+		} finally {
+			close(cursor);
+		}
+	}
+
+	private long removeOrphanedMembers(RedisConnection connection, byte[] index, DataType type, String keyspace,
+			List<byte[]> members) {
+
+		byte[] remove = DataType.ZSET.equals(type) ? ZREM : SREM;
+
+		if (connection instanceof RedisClusterConnection) {
+
+			long removed = 0;
+			for (byte[] id : members) {
+				if (!connection.exists(RedisKeys.objectKey(keyspace, id))) {
+					removed += DataType.ZSET.equals(type) ? connection.zRem(index, id) : connection.sRem(index, id);
+				}
+			}
+			return removed;
+		}
+
+		byte[][] keysAndArgs = new byte[members.size() * 2 + 2][];
+		int keys = members.size() + 1;
+
+		keysAndArgs[0] = index;
+		keysAndArgs[keys] = remove;
+
+		int i = 1;
+		for (byte[] id : members) {
+
+			keysAndArgs[i] = RedisKeys.objectKey(keyspace, id);
+			keysAndArgs[keys + i] = id;
+			i++;
+		}
+
+		Long removed = connection.eval(REMOVE_ORPHANED_MEMBERS, ReturnType.INTEGER, keys, keysAndArgs);
+		return removed != null ? removed : 0;
+	}
+
+	private static long removeOrphanedHelpers(RedisConnection connection, List<byte[]> helpers) {
+
+		if (connection instanceof RedisClusterConnection) {
+
+			long removed = 0;
+			for (byte[] helper : helpers) {
+				if (!connection.exists(objectKeyOf(helper))) {
+					removed += connection.del(helper);
+				}
+			}
+			return removed;
+		}
+
+		byte[][] keys = new byte[helpers.size() * 2][];
+		for (int i = 0; i < helpers.size(); i++) {
+
+			keys[i * 2] = helpers.get(i);
+			keys[i * 2 + 1] = objectKeyOf(helpers.get(i));
+		}
+
+		Long removed = connection.eval(REMOVE_ORPHANED_HELPERS, ReturnType.INTEGER, keys.length, keys);
+		return removed != null ? removed : 0;
+	}
+
+	private static List<DataType> types(RedisConnection connection, List<byte[]> keys) {
+
+		List<DataType> types = new ArrayList<>(keys.size());
+		if (connection instanceof RedisClusterConnection) {
+
+			keys.forEach(key -> types.add(connection.type(key)));
+			return types;
+		}
+
+		connection.openPipeline();
+		keys.forEach(connection::type);
+		for (Object type : connection.closePipeline()) {
+			types.add(type instanceof DataType ? (DataType) type : DataType.NONE);
+		}
+		return types;
+	}
+
+	/**
+	 * Read one member of each given {@literal SET}. {@literal null} if the {@literal SET} is gone.
+	 */
+	private static List<byte[]> sampleMembers(RedisConnection connection, List<byte[]> keys) {
+
+		List<byte[]> samples = new ArrayList<>(keys.size());
+		if (keys.isEmpty()) {
+			return samples;
+		}
+
+		if (connection instanceof RedisClusterConnection) {
+
+			keys.forEach(key -> samples.add(connection.sRandMember(key)));
+			return samples;
+		}
+
+		connection.openPipeline();
+		keys.forEach(connection::sRandMember);
+		for (Object sample : connection.closePipeline()) {
+			samples.add(sample instanceof byte[] ? (byte[]) sample : null);
+		}
+		return samples;
+	}
+
+	private Stream<byte[]> scan(RedisConnection connection, ScanOptions options) {
+
+		if (connection instanceof RedisClusterConnection) {
+
+			if (clusterScanner == null) {
+				clusterScanner = new ClusterScanner(1);
+			}
+			return clusterScanner.scan((RedisClusterConnection) connection, options);
+		}
+
+		Cursor<byte[]> cursor = connection.scan(options);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.NONNULL), false)
+				.onClose(() -> close(cursor));
+	}
+
+	/**
+	 * Wait until checking the next {@literal members} stays within {@link #setMaxMembersPerSecond(long)}.
+	 */
+	private void throttle(int members) throws InterruptedException {
+
+		permitsUsed += members;
+
+		long due = passStarted + TimeUnit.SECONDS.toNanos(permitsUsed) / maxMembersPerSecond;
+		long wait = due - System.nanoTime();
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	private static byte[] objectKeyOf(byte[] helper) {
+		return Arrays.copyOf(helper, helper.length - INDEX_HELPER_SUFFIX.length);
+	}
+
+	private static boolean startsWith(byte[] source, byte[] prefix) {
+
+		if (source.length < prefix.length) {
+			return false;
+		}
+
+		for (int i = 0; i < prefix.length; i++) {
+			if (source[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean endsWith(byte[] source, byte[] suffix) {
+
+		if (source.length < suffix.length) {
+			return false;
+		}
+
+		for (int i = 0; i < suffix.length; i++) {
+			if (source[source.length - suffix.length + i] != suffix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void close(Cursor<?> cursor) {
+
+		try {
+			cursor.close();
+		} catch (IOException e) {
+			throw new RedisSystemException("Cannot close cursor.", e);
+		}
+	}
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators.AbstractSpliterator;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.util.Assert;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+/**
+ * Walks the {@literal SET} of a single {@link org.springframework.data.redis.core.index.Indexed} value with
+ * {@literal SSCAN} instead of reading it with {@literal SMEMBERS}. Matching {@literal HASH}es are loaded in pipelined
+ * batches of {@link #setBatchSize(int) batchSize} entities, so memory usage only depends on the batch or page size and
+ * not on the number of matches. <br />
+ * {@literal SSCAN} may return a member more than once if the set is resized while being scanned. Duplicates are only
+ * removed within a batch. Index entries pointing to no longer existing entities are skipped, so slices might contain
+ * less elements than requested. <br />
+ * There is no random access to pages. Each {@link ScanSlice} carries the {@literal SSCAN} cursor to continue from
+ * instead, so walking through all slices scans the index only once.
+ *
+ * @author Christoph Strobl
+ */
+public class IndexScanner {
+
+	private static final byte[] START_CURSOR = RedisKeys.bytes("0");
+	private static final String START = "0:0";
+
+	private final RedisConnectionFactory connectionFactory;
+	private final RedisConverter converter;
+	private final HashLoader loader;
+	private final BatchingEntityReader reader;
+
+	private int batchSize = 500;
+
+	/**
+	 * Create new {@link IndexScanner}.
+	 *
+	 * @param connectionFactory must not be {@literal null}.
+	 * @param converter must not be {@literal null}.
+	 * @param loader must not be {@literal null}.
+	 */
+	public IndexScanner(RedisConnectionFactory connectionFactory, RedisConverter converter, HashLoader loader) {
+
+		Assert.notNull(connectionFactory, "ConnectionFactory must not be null!");
+		Assert.notNull(converter, "RedisConverter must not be null!");
+		Assert.notNull(loader, "Loader must not be null!");
+
+		this.connectionFactory = connectionFactory;
+		this.converter = converter;
+		this.loader = loader;
+		this.reader = new BatchingEntityReader(converter, loader);
+	}
+
+	/**
+	 * Set the number of entities loaded in one pipeline. Also used as {@literal COUNT} hint for {@literal SSCAN}.
+	 * Defaults to {@literal 500}.
+	 *
+	 * @param batchSize must be greater than zero.
+	 */
+	public void setBatchSize(int batchSize) {
+
+		Assert.isTrue(batchSize > 0, "BatchSize must be greater than zero!");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Stream all entities having the given property value. The {@link Stream} holds a connection until fully consumed
+	 * and needs to be {@link Stream#close() closed} after usage.
+	 *
+	 * @param type must not be {@literal null}.
+	 * @param path the {@link org.springframework.data.redis.core.index.Indexed} property path.
+	 * @param value must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	public <T> Stream<T> stream(Class<T> type, String path, Object value) {
+
+		Assert.notNull(type, "Type must not be null!");
+		Assert.notNull(value, "Value must not be null!");
+
+		String keyspace = keyspaceOf(type);
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+
+			Cursor<byte[]> cursor = connection.sScan(indexKey(keyspace, path, value),
+					ScanOptions.scanOptions().count(batchSize).build());
+
+			return StreamSupport.stream(new BatchingSpliterator<>(cursor, type, keyspace), false)
+					.onClose(() -> close(cursor, connection));
+		} catch (RuntimeException e) {
+
+			connection.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Read the first {@link ScanSlice} of entities having the given property value. Use
+	 * {@link #slice(Class, String, Object, ScanSlice)} to read the following ones.
+	 *
+	 * @param type must not be {@literal null}.
+	 * @param path the {@link org.springframework.data.redis.core.index.Indexed} property path.
+	 * @param value must not be {@literal null}.
+	 * @param pageable must not be {@literal null}. Must point to the first page.
+	 * @return never {@literal null}.
+	 */
+	public <T> ScanSlice<T> slice(Class<T> type, String path, Object value, Pageable pageable) {
+
+		Assert.notNull(pageable, "Pageable must not be null!");
+		Assert.isTrue(pageable.getOffset() == 0, "Pageable must point to the first page! Continue via ScanSlice.");
+
+		return slice(type, path, value, pageable, START);
+	}
+
+	/**
+	 * Read the {@link ScanSlice} following the given one. The {@literal SSCAN} continues where the previous slice
+	 * stopped, so reading a slice costs the same no matter how many slices have been read before.
+	 *
+	 * @param type must not be {@literal null}.
+	 * @param path the {@link org.springframework.data.redis.core.index.Indexed} property path.
+	 * @param value must not be {@literal null}.
+	 * @param previous must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	public <T> ScanSlice<T> slice(Class<T> type, String path, Object value, ScanSlice<?> previous) {
+
+		Assert.notNull(previous, "Previous slice must not be null!");
+
+		if (!previous.hasNext()) {
+			return new ScanSlice<>(Collections.<T> emptyList(),
+					new PageRequest(previous.getNumber() + 1, previous.getSize()), null);
+		}
+		return slice(type, path, value, previous.nextPageable(), previous.getCursor());
+	}
+
+	private <T> ScanSlice<T> slice(Class<T> type, String path, Object value, Pageable pageable, String position) {
+
+		String keyspace = keyspaceOf(type);
+		byte[] indexKey = indexKey(keyspace, path, value);
+
+		int separator = position.indexOf(':');
+		byte[] cursor = RedisKeys.bytes(position.substring(0, separator));
+		int skip = Integer.parseInt(position.substring(separator + 1));
+
+		List<byte[]> ids = new ArrayList<>(pageable.getPageSize());
+		String next;
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+
+			while (true) {
+
+				ScanResult<byte[]> result = sScan(connection, indexKey, cursor);
+				List<byte[]> members = result.getResult();
+
+				int end = Math.min(members.size(), skip + pageable.getPageSize() - ids.size());
+				if (skip < end) {
+					ids.addAll(members.subList(skip, end));
+				}
+
+				// a single reply may hold more members than requested - continue within it next time
+				if (end < members.size()) {
+
+					next = new String(cursor, StandardCharsets.UTF_8) + ":" + end;
+					break;
+				}
+
+				cursor = result.getCursorAsBytes();
+				skip = 0;
+
+				if (Arrays.equals(START_CURSOR, cursor)) {
+
+					next = null;
+					break;
+				}
+
+				if (ids.size() == pageable.getPageSize()) {
+
+					next = new String(cursor, StandardCharsets.UTF_8) + ":0";
+					break;
+				}
+			}
+		} finally {
+			connection.close();
+		}
+
+		return new ScanSlice<>(load(type, keyspace, ids), pageable, next);
+	}
+
+	/**
+	 * {@link RedisConnection#sScan(byte[], ScanOptions)} always starts at the beginning, so the native connection is
+	 * used to continue from a given cursor.
+	 */
+	private ScanResult<byte[]> sScan(RedisConnection connection, byte[] key, byte[] cursor) {
+
+		ScanParams params = new ScanParams().count(batchSize);
+
+		Object nativeConnection = connection.getNativeConnection();
+		if (nativeConnection instanceof Jedis) {
+			return ((Jedis) nativeConnection).sscan(key, cursor, params);
+		}
+		if (nativeConnection instanceof JedisCluster) {
+			return ((JedisCluster) nativeConnection).sscan(key, cursor, params);
+		}
+
+		throw new InvalidDataAccessApiUsageException("Reading slices via SSCAN requires Jedis!");
+	}
+
+	private <T> List<T> load(Class<T> type, String keyspace, List<byte[]> ids) {
+
+		if (ids.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		List<byte[]> keys = ids.stream().map(id -> RedisKeys.objectKey(keyspace, id)).collect(Collectors.toList());
+		return reader.read(type, loader.load(keys));
+	}
+
+	private String keyspaceOf(Class<?> type) {
+		return converter.getMappingContext().getPersistentEntity(type).getKeySpace();
+	}
+
+	private byte[] indexKey(String keyspace, String path, Object value) {
+
+		Assert.hasText(path, "Path must not be null or empty!");
+
+		byte[] raw = value instanceof byte[] ? (byte[]) value
+				: converter.getConversionService().convert(value, byte[].class);
+		return RedisKeys.indexKey(keyspace, path, raw);
+	}
+
+	private static void close(Cursor<byte[]> cursor, RedisConnection connection) {
+
+		try {
+			if (cursor != null) {
+				cursor.close();
+			}
+		} catch (IOException e) {
+			throw new RedisSystemException("Cannot close cursor.", e);
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * {@link Spliterator} pulling ids from the {@link Cursor} and loading them batch by batch.
+	 */
+	private class BatchingSpliterator<T> extends AbstractSpliterator<T> {
+
+		private final Cursor<byte[]> cursor;
+		private final Class<T> type;
+		private final String keyspace;
+		private final Deque<T> buffer = new ArrayDeque<>();
+
+		BatchingSpliterator(Cursor<byte[]> cursor, Class<T> type, String keyspace) {
+
+			super(Long.MAX_VALUE, Spliterator.NONNULL);
+
+			this.cursor = cursor;
+			this.type = type;
+			this.keyspace = keyspace;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action) {
+
+			while (buffer.isEmpty()) {
+
+				if (!cursor.hasNext()) {
+					return false;
+				}
+
+				Set<ByteBuffer> batch = new LinkedHashSet<>();
+				while (cursor.hasNext() && batch.size() < batchSize) {
+					batch.add(ByteBuffer.wrap(cursor.next()));
+				}
+
+				buffer.addAll(load(type, keyspace, batch.stream().map(ByteBuffer::array).collect(Collectors.toList())));
+			}
+
+			action.accept(buffer.poll());
+			return true;
+		}
+	}
+}
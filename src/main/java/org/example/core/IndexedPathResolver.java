@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.annotation.Reference;
+import org.springframework.data.keyvalue.core.mapping.KeyValuePersistentProperty;
+import org.springframework.data.mapping.PropertyHandler;
+import org.springframework.data.redis.core.convert.IndexedData;
+import org.springframework.data.redis.core.index.IndexConfiguration;
+import org.springframework.data.redis.core.index.Indexed;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.core.mapping.RedisPersistentEntity;
+import org.springframework.util.Assert;
+
+/**
+ * Resolves the {@literal HASH} field paths of {@link Indexed} properties (e.g. {@literal firstname},
+ * {@literal address.city}) so index keys ({@literal keyspace:path:value}) can be derived from the stored values. Used
+ * for {@link IndexBookkeeping#HASH_VALUES}. <br />
+ * Types with indexed properties inside collections or maps cannot be resolved as the hash fields contain positions
+ * ({@literal tags.[0]}) rather than the index name.
+ *
+ * @author Christoph Strobl
+ */
+public class IndexedPathResolver {
+
+	private final RedisMappingContext mappingContext;
+	private final Map<Class<?>, Object> paths = new ConcurrentHashMap<>();
+
+	/**
+	 * @param mappingContext must not be {@literal null}.
+	 */
+	public IndexedPathResolver(RedisMappingContext mappingContext) {
+
+		Assert.notNull(mappingContext, "MappingContext must not be null!");
+		this.mappingContext = mappingContext;
+	}
+
+	/**
+	 * @param type must not be {@literal null}.
+	 * @return the indexed paths of the given type. Never {@literal null}.
+	 * @throws InvalidDataAccessApiUsageException if index keys of the type cannot be derived from its hash.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> resolve(Class<?> type) {
+
+		Assert.notNull(type, "Type must not be null!");
+
+		Object resolved = paths.computeIfAbsent(type, this::collect);
+		if (resolved instanceof String) {
+			throw new InvalidDataAccessApiUsageException((String) resolved);
+		}
+		return (List<String>) resolved;
+	}
+
+	/**
+	 * Verify the given {@link IndexedData} refers to one of the resolved paths.
+	 *
+	 * @param type must not be {@literal null}.
+	 * @param indexedData must not be {@literal null}.
+	 * @throws InvalidDataAccessApiUsageException if the index name does not match a path.
+	 */
+	public void verify(Class<?> type, IndexedData indexedData) {
+
+		if (!resolve(type).contains(indexedData.getIndexName())) {
+			throw new InvalidDataAccessApiUsageException(String.format(
+					"Index '%s' of %s does not match an indexed property path. Use IndexBookkeeping.HELPER_SET instead.",
+					indexedData.getIndexName(), type.getName()));
+		}
+	}
+
+	private Object collect(Class<?> type) {
+
+		RedisPersistentEntity<?> entity = mappingContext.getPersistentEntity(type);
+		if (entity == null) {
+			return Collections.emptyList();
+		}
+
+		List<String> result = new ArrayList<>();
+		List<String> unsupported = new ArrayList<>();
+		collect(entity, entity.getKeySpace(), "", false, result, unsupported, new HashSet<>());
+
+		if (!unsupported.isEmpty()) {
+			return String.format("Cannot derive index keys of %s from its hash. Indexed paths %s are part of a collection "
+					+ "or map. Use IndexBookkeeping.HELPER_SET instead.", type.getName(), unsupported);
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	private void collect(RedisPersistentEntity<?> entity, String keyspace, String prefix, boolean nestedInCollection,
+			List<String> result, List<String> unsupported, Set<Class<?>> visited) {
+
+		if (!visited.add(entity.getType())) {
+			return;
+		}
+
+		IndexConfiguration indexConfiguration = mappingContext.getMappingConfiguration().getIndexConfiguration();
+
+		entity.doWithProperties((PropertyHandler<KeyValuePersistentProperty>) property -> {
+
+			if (property.isIdProperty() || property.isAnnotationPresent(Reference.class)) {
+				return;
+			}
+
+			String path = prefix + property.getName();
+			boolean collection = property.isCollectionLike() || property.isMap();
+			boolean indexed = property.isAnnotationPresent(Indexed.class) || indexConfiguration.hasIndexFor(keyspace, path);
+
+			if (indexed) {
+				if (collection || nestedInCollection) {
+					unsupported.add(path);
+				} else {
+					result.add(path);
+				}
+			}
+
+			RedisPersistentEntity<?> nested = property.isEntity() ? mappingContext.getPersistentEntity(property.getActualType())
+					: null;
+			if (nested != null) {
+				collect(nested, keyspace, path + ".", nestedInCollection || collection, result, unsupported,
+						new HashSet<>(visited));
+			}
+		});
+	}
+}
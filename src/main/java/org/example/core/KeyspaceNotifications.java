@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.util.List;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * Helps with the {@literal notify-keyspace-events} server configuration.
+ *
+ * @author Christoph Strobl
+ */
+public final class KeyspaceNotifications {
+
+	private static final String PARAMETER = "notify-keyspace-events";
+
+	private KeyspaceNotifications() {}
+
+	/**
+	 * Add the given flags to {@literal notify-keyspace-events} keeping the ones already set. Flags implied by {@literal A}
+	 * are not added again.
+	 *
+	 * @param connectionFactory must not be {@literal null}.
+	 * @param requiredFlags must not be {@literal null} or empty.
+	 */
+	public static void enable(RedisConnectionFactory connectionFactory, String requiredFlags) {
+
+		Assert.notNull(connectionFactory, "ConnectionFactory must not be null!");
+		Assert.hasText(requiredFlags, "RequiredFlags must not be null or empty!");
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+
+			List<String> config = connection.getConfig(PARAMETER);
+			String current = config != null && config.size() == 2 && config.get(1) != null ? config.get(1) : "";
+
+			StringBuilder flags = new StringBuilder(current);
+			for (char flag : requiredFlags.toCharArray()) {
+				if (current.indexOf(flag) == -1 && !(isEventClass(flag) && current.indexOf('A') != -1)) {
+					flags.append(flag);
+				}
+			}
+
+			if (!StringUtils.hasText(current) || flags.length() != current.length()) {
+				connection.setConfig(PARAMETER, flags.toString());
+			}
+		} finally {
+			connection.close();
+		}
+	}
+
+	private static boolean isEventClass(char flag) {
+		return flag != 'K' && flag != 'E';
+	}
+}
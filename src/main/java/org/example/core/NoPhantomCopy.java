@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a type whose expiring entities are written without the {@literal keyspace:id:phantom} copy, halving memory and
+ * writes of entities with a {@link org.springframework.data.redis.core.TimeToLive}. Index entries are still removed on
+ * expiration, but {@link org.springframework.data.redis.core.RedisKeyExpiredEvent#getValue()} is {@literal null} for
+ * those entities. <br />
+ * Honored by the {@link PhantomAwareRedisKeyValueAdapter}, the {@link PipelinedEntityWriter} and the reactive
+ * repositories.
+ *
+ * @author Christoph Strobl
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface NoPhantomCopy {
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.io.Serializable;
+import java.util.Collections;
+
+import org.example.core.BulkWriteResult.Failure;
+import org.example.ohm.HashBlobCodec;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.keyvalue.core.mapping.KeyValuePersistentEntity;
+import org.springframework.data.redis.core.PartialUpdate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisKeyExpiredEvent;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.core.RedisKeyspaceEvent;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.core.convert.RedisData;
+import org.springframework.data.redis.core.mapping.RedisPersistentEntity;
+import org.springframework.util.ClassUtils;
+
+/**
+ * {@link RedisKeyValueAdapter} skipping the {@literal phantom} copy for types annotated with {@link NoPhantomCopy}.
+ * Register it as {@literal redisKeyValueAdapter} to replace the one created by the repository support:
+ *
+ * <pre>
+ * <code>
+ * &#64;Bean
+ * RedisKeyValueAdapter redisKeyValueAdapter(RedisOperations&lt;?, ?&gt; redisTemplate, RedisConverter redisConverter) {
+ *   return new PhantomAwareRedisKeyValueAdapter(redisTemplate, redisConverter);
+ * }
+ * </code>
+ * </pre>
+ *
+ * Entities of such types are written via the {@link PipelinedEntityWriter} producing the very same structures except
+ * for the {@literal phantom} copy. Partial updates refreshing the {@literal TTL} are applied by the adapter and the
+ * {@literal phantom} copy it creates is removed right after. <br />
+ * Expired entities are removed from their indexes by the adapter's expiration listener or the
+ * {@link org.example.event.BatchingExpirationListener}, both of which get along without the {@literal phantom} copy.
+ * <br />
+ * {@link SortedIndexed} properties are kept in sync on every save, partial update, delete and expiration passing the
+ * adapter. Entities having such properties are saved via the {@link PipelinedEntityWriter} as well, so their
+ * {@literal ZSET} entries are written in the same round trip. <br />
+ * Entities of {@link BlobStorage} types are written the same way, as a single {@literal STRING}, and read back via
+ * {@literal GET}. Partial updates are rejected for those.
+ *
+ * @author Christoph Strobl
+ */
+public class PhantomAwareRedisKeyValueAdapter extends RedisKeyValueAdapter {
+
+	private final RedisOperations<?, ?> redisOps;
+	private final PipelinedEntityWriter writer;
+	private final BlobStorageTypes blobTypes;
+	private final SortedIndexMaintainer sortedIndexes;
+
+	/**
+	 * Create new {@link PhantomAwareRedisKeyValueAdapter}.
+	 *
+	 * @param redisOps must not be {@literal null}.
+	 * @param converter must not be {@literal null}.
+	 */
+	public PhantomAwareRedisKeyValueAdapter(RedisOperations<?, ?> redisOps, RedisConverter converter) {
+
+		super(redisOps, converter);
+
+		this.redisOps = redisOps;
+		this.writer = new PipelinedEntityWriter(redisOps, converter);
+		this.blobTypes = new BlobStorageTypes(converter.getMappingContext());
+		this.sortedIndexes = new SortedIndexMaintainer(redisOps, new SortedIndexResolver(converter.getMappingContext()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.core.RedisKeyValueAdapter#put(java.io.Serializable, java.lang.Object, java.io.Serializable)
+	 */
+	@Override
+	public Object put(Serializable id, Object item, Serializable keyspace) {
+
+		Class<?> type = item.getClass();
+		if (item instanceof RedisData) {
+			return super.put(id, item, keyspace);
+		}
+
+		// the writer sends the ZSET entries along with the entity instead of in a separate round trip
+		if (!(isPhantomFree(type) || BlobStorageTypes.isBlob(type) || sortedIndexes.hasSortedIndexes(type))) {
+			return super.put(id, item, keyspace);
+		}
+
+		return writePipelined(item);
+	}
+
+	/**
+	 * Write the given entity via the {@link PipelinedEntityWriter}.
+	 *
+	 * @param item must not be {@literal null}.
+	 * @return the written entity.
+	 */
+	Object writePipelined(Object item) {
+
+		BulkWriteResult<Object> result = writer.write(Collections.singletonList(item));
+		if (result.hasFailures()) {
+
+			Failure<Object> failure = result.getFailures().get(0);
+			if (failure.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) failure.getCause();
+			}
+			throw new InvalidDataAccessApiUsageException("Cannot write " + item, failure.getCause());
+		}
+		return item;
+	}
+
+	PipelinedEntityWriter getWriter() {
+		return writer;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.core.RedisKeyValueAdapter#get(java.io.Serializable, java.io.Serializable, java.lang.Class)
+	 */
+	@Override
+	public <T> T get(Serializable id, Serializable keyspace, Class<T> type) {
+
+		boolean blob = type == Object.class ? blobTypes.isBlobKeyspace(keyspace.toString())
+				: BlobStorageTypes.isBlob(type);
+		if (!blob) {
+			return super.get(id, keyspace, type);
+		}
+
+		byte[] rawId = toBytes(id);
+		byte[] value = redisOps.execute((RedisCallback<byte[]>) connection -> connection
+				.get(RedisKeys.objectKey(keyspace.toString(), rawId)));
+
+		if (value == null) {
+			return null;
+		}
+
+		RedisData data = new RedisData(HashBlobCodec.decode(value));
+		data.setId(getConverter().getConversionService().convert(rawId, String.class));
+		data.setKeyspace(keyspace.toString());
+
+		return getConverter().read(type, data);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.core.RedisKeyValueAdapter#update(org.springframework.data.redis.core.PartialUpdate)
+	 */
+	@Override
+	public void update(PartialUpdate<?> update) {
+
+		BlobStorageTypes.rejectPartialUpdate(update.getTarget());
+		super.update(update);
+
+		byte[] rawId = toBytes(update.getId());
+		sortedIndexes.update(rawId, update);
+
+		if (!update.isRefreshTtl() || !isPhantomFree(update.getTarget())) {
+			return;
+		}
+
+		KeyValuePersistentEntity<?> entity = getConverter().getMappingContext().getPersistentEntity(update.getTarget());
+		byte[] objectKey = RedisKeys.objectKey(entity.getKeySpace(), rawId);
+
+		redisOps.execute((RedisCallback<Long>) connection -> connection.del(RedisKeys.phantomKey(objectKey)));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.core.RedisKeyValueAdapter#delete(java.io.Serializable, java.io.Serializable, java.lang.Class)
+	 */
+	@Override
+	public <T> T delete(Serializable id, Serializable keyspace, Class<T> type) {
+
+		T value = super.delete(id, keyspace, type);
+		if (value != null) {
+			sortedIndexes.remove(toBytes(id), ClassUtils.getUserClass(value));
+		}
+		return value;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.core.RedisKeyValueAdapter#deleteAllOf(java.io.Serializable)
+	 */
+	@Override
+	public void deleteAllOf(Serializable keyspace) {
+
+		super.deleteAllOf(keyspace);
+
+		for (RedisPersistentEntity<?> entity : getConverter().getMappingContext().getPersistentEntities()) {
+			if (keyspace.toString().equals(entity.getKeySpace())) {
+				sortedIndexes.drop(entity.getType());
+			}
+		}
+	}
+
+	/**
+	 * Remove expired entities from their {@link SortedIndexed} properties. The expiration listener of the adapter
+	 * publishes a {@link RedisKeyExpiredEvent} per key that the adapter receives as well.
+	 *
+	 * @see org.springframework.data.redis.core.RedisKeyValueAdapter#onApplicationEvent(org.springframework.data.redis.core.RedisKeyspaceEvent)
+	 */
+	@Override
+	public void onApplicationEvent(RedisKeyspaceEvent event) {
+
+		super.onApplicationEvent(event);
+
+		if (!(event instanceof RedisKeyExpiredEvent)) {
+			return;
+		}
+
+		RedisKeyExpiredEvent<?> expired = (RedisKeyExpiredEvent<?>) event;
+		Object value = expired.getValue();
+
+		for (RedisPersistentEntity<?> entity : getConverter().getMappingContext().getPersistentEntities()) {
+
+			boolean match = value != null ? entity.getType().equals(ClassUtils.getUserClass(value))
+					: entity.getKeySpace().equals(expired.getKeyspace());
+			if (match) {
+				sortedIndexes.remove(expired.getId(), entity.getType());
+			}
+		}
+	}
+
+	SortedIndexMaintainer getSortedIndexes() {
+		return sortedIndexes;
+	}
+
+	private byte[] toBytes(Serializable id) {
+		return id instanceof byte[] ? (byte[]) id : getConverter().getConversionService().convert(id, byte[].class);
+	}
+
+	private static boolean isPhantomFree(Class<?> type) {
+		return AnnotationUtils.findAnnotation(ClassUtils.getUserClass(type), NoPhantomCopy.class) != null;
+	}
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.example.core.EntityWritePlanner.Plan;
+import org.example.core.SortedIndexResolver.SortedIndexEntry;
+import org.example.partition.PartitioningStrategy;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Writes entities in bulk producing the same data structures as {@link RedisKeyValueAdapter#put}. <br />
+ * Instead of several round trips per entity (entity {@literal HASH}, keyspace {@literal SET}, index {@literal SET}s,
+ * {@literal EXPIRE}, {@link SortedIndexed} {@literal ZSET}s) all commands for a batch of entities are sent in one
+ * pipeline. Entities of {@link BlobStorage} types are written as one {@literal STRING} instead of a {@literal HASH}.
+ * Batches are limited by {@link #setMaxBatchSize(int) number of entities} and by
+ * {@link #setMaxBatchBytes(long) payload size}. Each batch needs two round trips, one reading the index keys currently
+ * in use and one writing the data. With {@link IndexBookkeeping#HASH_VALUES} those are derived from the indexed fields
+ * of the stored {@literal HASH} instead of the index helper {@literal SET}, which is then no longer written. <br />
+ * <strong>Note:</strong> The keys are not {@literal WATCH}ed between both round trips. An entity changed concurrently
+ * in between may keep index entries of the values written by the other party. Use the
+ * {@link ScriptedRedisKeyValueAdapter} where saves of the same entity race. <br />
+ * If a batch fails, its entities are written one by one to figure out which ones could not be written. Those are
+ * reported via {@link BulkWriteResult#getFailures()}.
+ *
+ * @author Christoph Strobl
+ */
+public class PipelinedEntityWriter {
+
+	private final RedisOperations<?, ?> redisOps;
+	private final EntityWritePlanner planner;
+	private final IndexedPathResolver indexedPaths;
+
+	private IndexBookkeeping indexBookkeeping = IndexBookkeeping.HELPER_SET;
+	private int maxBatchSize = 500;
+	private long maxBatchBytes = 4 * 1024 * 1024;
+
+	/**
+	 * Create new {@link PipelinedEntityWriter}.
+	 *
+	 * @param redisOps must not be {@literal null}.
+	 * @param converter must not be {@literal null}.
+	 */
+	public PipelinedEntityWriter(RedisOperations<?, ?> redisOps, RedisConverter converter) {
+
+		Assert.notNull(redisOps, "RedisOperations must not be null!");
+		Assert.notNull(converter, "RedisConverter must not be null!");
+
+		this.redisOps = redisOps;
+		this.planner = new EntityWritePlanner(converter);
+		this.indexedPaths = new IndexedPathResolver(converter.getMappingContext());
+	}
+
+	/**
+	 * Set how the index keys an entity is currently referenced in are looked up. Defaults to
+	 * {@link IndexBookkeeping#HELPER_SET}.
+	 *
+	 * @param indexBookkeeping must not be {@literal null}.
+	 */
+	public void setIndexBookkeeping(IndexBookkeeping indexBookkeeping) {
+
+		Assert.notNull(indexBookkeeping, "IndexBookkeeping must not be null!");
+
+		this.indexBookkeeping = indexBookkeeping;
+		this.planner.setIndexedPathResolver(indexBookkeeping == IndexBookkeeping.HASH_VALUES ? indexedPaths : null);
+	}
+
+	/**
+	 * Set the max number of entities written in one pipeline. Defaults to {@literal 500}.
+	 *
+	 * @param maxBatchSize must be greater than zero.
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+
+		Assert.isTrue(maxBatchSize > 0, "MaxBatchSize must be greater than zero!");
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Set the approximate max number of bytes (keys, hash fields and values) written in one pipeline. A single entity
+	 * exceeding the limit is written in a pipeline on its own. Defaults to {@literal 4MB}.
+	 *
+	 * @param maxBatchBytes must be greater than zero.
+	 */
+	public void setMaxBatchBytes(long maxBatchBytes) {
+
+		Assert.isTrue(maxBatchBytes > 0, "MaxBatchBytes must be greater than zero!");
+		this.maxBatchBytes = maxBatchBytes;
+	}
+
+	/**
+	 * Set the {@link PartitioningStrategy} used to assign {@literal ids} to entities of partitioned types.
+	 *
+	 * @param partitioningStrategy can be {@literal null}.
+	 */
+	public void setPartitioningStrategy(PartitioningStrategy partitioningStrategy) {
+		planner.setPartitioningStrategy(partitioningStrategy);
+	}
+
+	/**
+	 * Write the given entities. Entities without an {@literal id} get one assigned.
+	 *
+	 * @param entities must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	public <T> BulkWriteResult<T> write(Iterable<? extends T> entities) {
+
+		Assert.notNull(entities, "Entities must not be null!");
+
+		BulkWriteResult<T> result = new BulkWriteResult<>();
+		List<Plan<T>> batch = new ArrayList<>();
+		long batchBytes = 0;
+
+		for (T entity : entities) {
+
+			Plan<T> write;
+			try {
+				write = planner.plan(entity);
+			} catch (RuntimeException e) {
+				result.failed(entity, null, e);
+				continue;
+			}
+
+			if (!batch.isEmpty() && batchBytes + write.getSize() > maxBatchBytes) {
+
+				flush(batch, result);
+				batch = new ArrayList<>();
+				batchBytes = 0;
+			}
+
+			batch.add(write);
+			batchBytes += write.getSize();
+
+			if (batch.size() >= maxBatchSize) {
+
+				flush(batch, result);
+				batch = new ArrayList<>();
+				batchBytes = 0;
+			}
+		}
+
+		if (!batch.isEmpty()) {
+			flush(batch, result);
+		}
+
+		return result;
+	}
+
+	private <T> void flush(List<Plan<T>> batch, BulkWriteResult<T> result) {
+
+		try {
+			execute(batch);
+			batch.forEach(write -> result.written(write.getEntity()));
+			return;
+		} catch (DataAccessException e) {
+
+			if (batch.size() == 1) {
+				result.failed(batch.get(0).getEntity(), batch.get(0).getId(), e);
+				return;
+			}
+		}
+
+		// isolate the failing ones
+		for (Plan<T> write : batch) {
+			try {
+				execute(Collections.singletonList(write));
+				result.written(write.getEntity());
+			} catch (DataAccessException e) {
+				result.failed(write.getEntity(), write.getId(), e);
+			}
+		}
+	}
+
+	private void execute(List<? extends Plan<?>> batch) {
+
+		redisOps.execute((RedisCallback<Void>) connection -> {
+
+			List<Collection<byte[]>> existingIndexes = indexBookkeeping == IndexBookkeeping.HASH_VALUES
+					? readIndexedValues(connection, batch) : readIndexHelpers(connection, batch);
+
+			boolean pipelined = supportsPipelining(connection);
+			if (pipelined) {
+				connection.openPipeline();
+			}
+
+			for (int i = 0; i < batch.size(); i++) {
+				write(connection, batch.get(i), existingIndexes.get(i), indexBookkeeping);
+			}
+
+			if (pipelined) {
+				connection.closePipeline();
+			}
+			return null;
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Collection<byte[]>> readIndexHelpers(RedisConnection connection,
+			List<? extends Plan<?>> batch) {
+
+		if (!supportsPipelining(connection)) {
+
+			List<Collection<byte[]>> result = new ArrayList<>(batch.size());
+			for (Plan<?> write : batch) {
+				result.add(connection.sMembers(write.getHelperKey()));
+			}
+			return result;
+		}
+
+		connection.openPipeline();
+		for (Plan<?> write : batch) {
+			connection.sMembers(write.getHelperKey());
+		}
+
+		List<Collection<byte[]>> result = new ArrayList<>(batch.size());
+		for (Object raw : connection.closePipeline()) {
+			result.add(raw instanceof Collection ? (Collection<byte[]>) raw : Collections.<byte[]> emptySet());
+		}
+		return result;
+	}
+
+	/**
+	 * Read the indexed fields of the stored {@literal HASH}es and turn them into the index keys in use.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Collection<byte[]>> readIndexedValues(RedisConnection connection, List<? extends Plan<?>> batch) {
+
+		List<List<String>> paths = new ArrayList<>(batch.size());
+		for (Plan<?> write : batch) {
+			paths.add(indexedPaths.resolve(ClassUtils.getUserClass(write.getEntity())));
+		}
+
+		boolean pipelined = supportsPipelining(connection);
+		if (pipelined) {
+			connection.openPipeline();
+		}
+
+		List<List<byte[]>> values = new ArrayList<>(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+
+			// entities without indexes read the type hint to keep their position in the pipeline results
+			List<byte[]> fields = new ArrayList<>(Math.max(paths.get(i).size(), 1));
+			paths.get(i).forEach(path -> fields.add(RedisKeys.bytes(path)));
+			if (fields.isEmpty()) {
+				fields.add(RedisKeys.bytes("_class"));
+			}
+
+			values.add(connection.hMGet(batch.get(i).getObjectKey(), fields.toArray(new byte[fields.size()][])));
+		}
+
+		if (pipelined) {
+
+			values.clear();
+			for (Object raw : connection.closePipeline()) {
+				values.add(raw instanceof List ? (List<byte[]>) raw : Collections.<byte[]> emptyList());
+			}
+		}
+
+		List<Collection<byte[]>> result = new ArrayList<>(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+
+			List<byte[]> indexKeys = new ArrayList<>();
+			for (int j = 0; j < paths.get(i).size() && j < values.get(i).size(); j++) {
+
+				byte[] value = values.get(i).get(j);
+				if (value != null) {
+					indexKeys.add(RedisKeys.indexKey(batch.get(i).getKeyspace(), paths.get(i).get(j), value));
+				}
+			}
+			result.add(indexKeys);
+		}
+		return result;
+	}
+
+	/**
+	 * Cluster connections do not support pipelining. Commands are sent one by one there.
+	 */
+	private static boolean supportsPipelining(RedisConnection connection) {
+		return !(connection instanceof RedisClusterConnection);
+	}
+
+	/**
+	 * Replace the entity and its index entries.
+	 *
+	 * @param connection the connection to use.
+	 * @param plan the entity to write.
+	 * @param existingIndexes index keys the entity is currently referenced in.
+	 * @param indexBookkeeping whether to maintain the index helper.
+	 */
+	private static void write(RedisConnection connection, Plan<?> plan, Collection<byte[]> existingIndexes,
+			IndexBookkeeping indexBookkeeping) {
+
+		byte[] rawId = plan.getRawId();
+		for (byte[] existingIndex : existingIndexes) {
+			connection.sRem(existingIndex, rawId);
+		}
+
+		connection.del(plan.getObjectKey(), plan.getPhantomKey(), plan.getHelperKey());
+		if (plan.isBlob()) {
+			connection.set(plan.getObjectKey(), plan.getBlob());
+		} else {
+			connection.hMSet(plan.getObjectKey(), plan.getHash());
+		}
+
+		if (plan.hasTimeToLive()) {
+			connection.expire(plan.getObjectKey(), plan.getTimeToLive());
+		}
+
+		if (plan.hasPhantomCopy()) {
+
+			connection.hMSet(plan.getPhantomKey(), plan.getHash());
+			connection.expire(plan.getPhantomKey(), plan.getTimeToLive() + 300);
+		}
+
+		connection.sAdd(plan.getKeyspaceKey(), rawId);
+
+		for (byte[] indexKey : plan.getIndexKeys()) {
+
+			connection.sAdd(indexKey, rawId);
+			if (indexBookkeeping == IndexBookkeeping.HELPER_SET) {
+				connection.sAdd(plan.getHelperKey(), indexKey);
+			}
+		}
+
+		for (SortedIndexEntry entry : plan.getSortedIndexEntries()) {
+			SortedIndexMaintainer.write(connection, entry, rawId);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.example.cluster.ClusterPipelineExecutor;
+import org.example.ohm.HashBlobCodec;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.util.Assert;
+
+import redis.clients.jedis.Response;
+
+/**
+ * Loads many {@literal HASH}es with a single pipelined fan-out of {@literal HGETALL} commands. <br />
+ * In cluster mode the keys are grouped by hash slot and fetched with one pipeline per master via the
+ * {@link ClusterPipelineExecutor}. <br />
+ * With a {@link #setMappingContext(RedisMappingContext) mapping context} set, entities of {@link BlobStorage} types are
+ * read via {@literal GET} in the very same pipeline and decoded into the {@literal HASH} they were written from.
+ *
+ * @author Christoph Strobl
+ */
+public class PipelinedHashLoader implements HashLoader {
+
+	private final RedisConnectionFactory connectionFactory;
+	private final ClusterPipelineExecutor clusterExecutor;
+
+	private BlobStorageTypes blobTypes;
+
+	/**
+	 * Create new {@link PipelinedHashLoader}.
+	 *
+	 * @param connectionFactory must not be {@literal null}.
+	 * @param clusterExecutor used in cluster mode. Can be {@literal null} when not running against a cluster.
+	 */
+	public PipelinedHashLoader(RedisConnectionFactory connectionFactory, ClusterPipelineExecutor clusterExecutor) {
+
+		Assert.notNull(connectionFactory, "ConnectionFactory must not be null!");
+
+		this.connectionFactory = connectionFactory;
+		this.clusterExecutor = clusterExecutor;
+	}
+
+	/**
+	 * Set the {@link RedisMappingContext} used to tell keys of {@link BlobStorage} types apart.
+	 *
+	 * @param mappingContext can be {@literal null} to read {@literal HASH}es only.
+	 */
+	public void setMappingContext(RedisMappingContext mappingContext) {
+		this.blobTypes = mappingContext != null ? new BlobStorageTypes(mappingContext) : null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.core.HashLoader#load(java.util.List)
+	 */
+	@Override
+	public List<Map<byte[], byte[]>> load(List<byte[]> keys) {
+
+		Assert.notNull(keys, "Keys must not be null!");
+
+		if (keys.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+
+			if (connection instanceof RedisClusterConnection) {
+				return loadFromCluster((RedisClusterConnection) connection, keys);
+			}
+
+			if (keys.size() == 1) {
+
+				byte[] key = keys.get(0);
+				return Collections.singletonList(toHash(isBlob(key) ? connection.get(key) : connection.hGetAll(key)));
+			}
+
+			connection.openPipeline();
+			for (byte[] key : keys) {
+
+				if (isBlob(key)) {
+					connection.get(key);
+				} else {
+					connection.hGetAll(key);
+				}
+			}
+			return toHashes(connection.closePipeline());
+		} finally {
+			connection.close();
+		}
+	}
+
+	private List<Map<byte[], byte[]>> loadFromCluster(RedisClusterConnection connection, List<byte[]> keys) {
+
+		Assert.state(clusterExecutor != null, "ClusterPipelineExecutor is required in cluster mode!");
+
+		return clusterExecutor.read(connection, keys, (pipeline, slotKeys) -> {
+
+			List<Response<?>> responses = slotKeys.stream()
+					.<Response<?>> map(key -> isBlob(key) ? pipeline.get(key) : pipeline.hgetAll(key))
+					.collect(Collectors.toList());
+			return () -> responses.stream().map(Response::get).map(PipelinedHashLoader::toHash)
+					.collect(Collectors.toList());
+		});
+	}
+
+	private boolean isBlob(byte[] key) {
+		return blobTypes != null && blobTypes.isBlobKey(key);
+	}
+
+	private static List<Map<byte[], byte[]>> toHashes(List<Object> results) {
+
+		List<Map<byte[], byte[]>> hashes = new ArrayList<>(results.size());
+		for (Object result : results) {
+			hashes.add(toHash(result));
+		}
+		return hashes;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<byte[], byte[]> toHash(Object result) {
+
+		if (result instanceof byte[]) {
+			return HashBlobCodec.decode((byte[]) result);
+		}
+		return result instanceof Map ? (Map<byte[], byte[]>) result : Collections.<byte[], byte[]> emptyMap();
+	}
+}
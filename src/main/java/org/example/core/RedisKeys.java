@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The key layout used by {@link org.springframework.data.redis.core.RedisKeyValueAdapter}:
+ *
+ * <pre>
+ * <code>
+ * person                           // SET of all ids in the keyspace
+ * person:9b0ed8ee                  // HASH holding the entity
+ * person:9b0ed8ee:phantom          // HASH copy of the entity outliving the original for expiration events
+ * person:9b0ed8ee:idx              // SET of index keys the entity is referenced in
+ * person:firstname:eddard          // SET of ids having firstname = eddard
+ * person:age                       // ZSET of ids scored by age (see SortedIndexed)
+ * </code>
+ * </pre>
+ *
+ * @author Christoph Strobl
+ */
+public final class RedisKeys {
+
+	private static final byte[] SEPARATOR = { ':' };
+	private static final byte[] PHANTOM_SUFFIX = bytes(":phantom");
+	private static final byte[] INDEX_HELPER_SUFFIX = bytes(":idx");
+
+	private RedisKeys() {}
+
+	/**
+	 * @return {@literal keyspace}.
+	 */
+	public static byte[] keyspaceKey(String keyspace) {
+		return bytes(keyspace);
+	}
+
+	/**
+	 * @return {@literal keyspace:id}.
+	 */
+	public static byte[] objectKey(String keyspace, byte[] id) {
+		return concat(bytes(keyspace), SEPARATOR, id);
+	}
+
+	/**
+	 * @return {@literal keyspace:id:phantom}.
+	 */
+	public static byte[] phantomKey(byte[] objectKey) {
+		return concat(objectKey, PHANTOM_SUFFIX);
+	}
+
+	/**
+	 * @return {@literal keyspace:id:idx}.
+	 */
+	public static byte[] indexHelperKey(byte[] objectKey) {
+		return concat(objectKey, INDEX_HELPER_SUFFIX);
+	}
+
+	/**
+	 * @return {@literal keyspace:path:value}.
+	 */
+	public static byte[] indexKey(String keyspace, String path, byte[] value) {
+		return concat(bytes(keyspace + ":" + path + ":"), value);
+	}
+
+	/**
+	 * @return {@literal keyspace:path:sorted}. Suffixed so it cannot collide with the entity key of an {@literal id}
+	 *         equal to the path.
+	 */
+	public static byte[] sortedIndexKey(String keyspace, String path) {
+		return bytes(keyspace + ":" + path + ":sorted");
+	}
+
+	/**
+	 * @return the {@literal id} part of {@literal keyspace:id} or {@literal null} if the key does not belong to the
+	 *         keyspace.
+	 */
+	public static byte[] idOf(String keyspace, byte[] objectKey) {
+
+		byte[] prefix = bytes(keyspace + ":");
+		if (objectKey.length <= prefix.length) {
+			return null;
+		}
+
+		for (int i = 0; i < prefix.length; i++) {
+			if (objectKey[i] != prefix[i]) {
+				return null;
+			}
+		}
+
+		byte[] id = new byte[objectKey.length - prefix.length];
+		System.arraycopy(objectKey, prefix.length, id, 0, id.length);
+		return id;
+	}
+
+	public static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	public static byte[] concat(byte[]... parts) {
+
+		int length = 0;
+		for (byte[] part : parts) {
+			length += part.length;
+		}
+
+		byte[] result = new byte[length];
+		int offset = 0;
+		for (byte[] part : parts) {
+			System.arraycopy(part, 0, result, offset, part.length);
+			offset += part.length;
+		}
+		return result;
+	}
+}
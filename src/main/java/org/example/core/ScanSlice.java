@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+
+/**
+ * {@link org.springframework.data.domain.Slice} read via {@literal SSCAN} carrying the position to continue from, so
+ * reading the next slice does not need to scan the index from the start again.
+ *
+ * @author Christoph Strobl
+ */
+public class ScanSlice<T> extends SliceImpl<T> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String cursor;
+
+	/**
+	 * @param content must not be {@literal null}.
+	 * @param pageable must not be {@literal null}.
+	 * @param cursor the position to continue from. {@literal null} if the scan is complete.
+	 */
+	ScanSlice(List<T> content, Pageable pageable, String cursor) {
+
+		super(content, pageable, cursor != null);
+		this.cursor = cursor;
+	}
+
+	/**
+	 * @return the position to continue from. {@literal null} if there is no next slice.
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+}
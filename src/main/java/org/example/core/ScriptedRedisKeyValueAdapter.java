@@ -0,0 +1,712 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.example.core.EntityWritePlanner.Plan;
+import org.example.core.SortedIndexResolver.SortedIndexEntry;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.PartialUpdate;
+import org.springframework.data.redis.core.PartialUpdate.PropertyUpdate;
+import org.springframework.data.redis.core.PartialUpdate.UpdateCommand;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.convert.IndexedData;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.core.convert.RedisData;
+import org.springframework.data.redis.core.convert.SimpleIndexedPropertyValue;
+import org.springframework.data.redis.core.mapping.RedisPersistentEntity;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * {@link PhantomAwareRedisKeyValueAdapter} writing entities and applying {@link PartialUpdate}s with a single
+ * {@literal EVALSHA} each. The script reads the index keys currently in use from the index helper, removes the
+ * {@literal id} from them, replaces or updates the {@literal HASH} and adds the new index entries, so there is one
+ * round trip per write and no window in which a concurrent writer sees, or leaves behind, a {@literal HASH} not
+ * matching its indexes. <br />
+ * The scripts are generic, keys and fields are passed as arguments, so one cached script per operation serves all
+ * entity types. They are loaded on first use and re-sent via {@literal EVAL} if the server does not know them (e.g.
+ * after a restart). <br />
+ * Scripts touch keys in several slots and thus are not used in a Redis Cluster, where this adapter behaves like its
+ * parent. The index keys to leave are read by the scripts themselves, from the index helper or the stored
+ * {@literal HASH}, and are not declared as {@literal KEYS}. This is fine on a single node only and another reason
+ * to never run them against a cluster. <br />
+ * {@literal HASH}es are written in chunks of {@literal 500} fields, so entities with thousands of fields do not
+ * exceed the number of values Lua can {@literal unpack} at once. <br />
+ * With {@link #setIndexBookkeeping(IndexBookkeeping) IndexBookkeeping.HASH_VALUES} the index helper is not written at
+ * all. Index keys to leave are derived from the stored {@literal HASH} instead, saving one key and one write per index
+ * entry.
+ *
+ * @author Christoph Strobl
+ */
+public class ScriptedRedisKeyValueAdapter extends PhantomAwareRedisKeyValueAdapter {
+
+	/**
+	 * Defines {@literal hmset(key, fields, from, to)} writing the fields and values between {@literal from} and
+	 * {@literal to} in chunks, as {@literal unpack} fails for a large number of values.
+	 */
+	private static final String WRITE_HASH = String.join("\n", //
+			"local function hmset(key, fields, from, to)", //
+			"  for i = from, to, 1000 do", //
+			"    redis.call('HMSET', key, unpack(fields, i, math.min(i + 999, to)))", //
+			"  end", //
+			"end");
+
+	/**
+	 * {@literal KEYS}: entity, phantom, index helper, keyspace, {@literal n} index {@literal SET}s, sorted index
+	 * {@literal ZSET}s. <br />
+	 * {@literal ARGV}: id, ttl, phantom flag, {@literal n}, one score per {@literal ZSET} ({@literal ''} to remove), hash
+	 * fields and values.
+	 */
+	private static final RedisScript<Long> SAVE = new DefaultRedisScript<>(String.join("\n", //
+			WRITE_HASH, //
+			"local id = ARGV[1]", //
+			"local n = tonumber(ARGV[4])", //
+			"local s = #KEYS - 4 - n", //
+			"for _, index in ipairs(redis.call('SMEMBERS', KEYS[3])) do", //
+			"  redis.call('SREM', index, id)", //
+			"end", //
+			"redis.call('DEL', KEYS[1], KEYS[2], KEYS[3])", //
+			"hmset(KEYS[1], ARGV, 5 + s, #ARGV)", //
+			"local ttl = tonumber(ARGV[2])", //
+			"if ttl > 0 then", //
+			"  redis.call('EXPIRE', KEYS[1], ttl)", //
+			"  if ARGV[3] == '1' then", //
+			"    hmset(KEYS[2], ARGV, 5 + s, #ARGV)", //
+			"    redis.call('EXPIRE', KEYS[2], ttl + 300)", //
+			"  end", //
+			"end", //
+			"redis.call('SADD', KEYS[4], id)", //
+			"for i = 5, 4 + n do", //
+			"  redis.call('SADD', KEYS[i], id)", //
+			"  redis.call('SADD', KEYS[3], KEYS[i])", //
+			"end", //
+			"for i = 1, s do", //
+			"  if ARGV[4 + i] == '' then", //
+			"    redis.call('ZREM', KEYS[4 + n + i], id)", //
+			"  else", //
+			"    redis.call('ZADD', KEYS[4 + n + i], ARGV[4 + i], id)", //
+			"  end", //
+			"end", //
+			"return 1"), Long.class);
+
+	/**
+	 * Removes the {@literal d} paths listed at {@literal ARGV[pos]} from the {@literal HASH} and writes the fields
+	 * following them.
+	 */
+	private static final String REPLACE_FIELDS = String.join("\n", //
+			"local d = tonumber(ARGV[pos])", //
+			"if d > 0 then", //
+			"  for _, field in ipairs(redis.call('HKEYS', KEYS[1])) do", //
+			"    for i = pos + 1, pos + d do", //
+			"      local path = ARGV[i]", //
+			"      local following = string.sub(field, #path + 1, #path + 1)", //
+			"      local prefixed = string.sub(field, 1, #path) == path", //
+			"      if prefixed and (following == '' or following == '.' or following == '[') then", //
+			"        redis.call('HDEL', KEYS[1], field)", //
+			"        break", //
+			"      end", //
+			"    end", //
+			"  end", //
+			"end", //
+			"pos = pos + d + 1", //
+			"hmset(KEYS[1], ARGV, pos, #ARGV)");
+
+	/**
+	 * Writes the {@literal s} scores listed at {@literal ARGV[pos]} to the {@literal ZSET}s following
+	 * {@literal KEYS[k]}, removing the entity from those with an empty score.
+	 */
+	private static final String WRITE_SCORES = String.join("\n", //
+			"local s = tonumber(ARGV[pos])", //
+			"for i = 1, s do", //
+			"  if ARGV[pos + i] == '' then", //
+			"    redis.call('ZREM', KEYS[k + i], id)", //
+			"  else", //
+			"    redis.call('ZADD', KEYS[k + i], ARGV[pos + i], id)", //
+			"  end", //
+			"end", //
+			"pos = pos + s + 1");
+
+	/**
+	 * Applies the ttl ({@literal ARGV[2]}) and refreshes the phantom copy if requested by {@literal ARGV[3]}.
+	 */
+	private static final String REFRESH_TTL = String.join("\n", //
+			"local ttl = tonumber(ARGV[2])", //
+			"if ttl > 0 then", //
+			"  redis.call('EXPIRE', KEYS[1], ttl)", //
+			"elseif ttl == 0 then", //
+			"  redis.call('PERSIST', KEYS[1])", //
+			"  redis.call('DEL', KEYS[2])", //
+			"end", //
+			"if ARGV[3] == '1' then", //
+			"  local remaining = redis.call('TTL', KEYS[1])", //
+			"  if remaining > 0 then", //
+			"    redis.call('DEL', KEYS[2])", //
+			"    local hash = redis.call('HGETALL', KEYS[1])", //
+			"    hmset(KEYS[2], hash, 1, #hash)", //
+			"    redis.call('EXPIRE', KEYS[2], remaining + 300)", //
+			"  end", //
+			"end");
+
+	/**
+	 * {@literal KEYS}: entity, phantom, index helper, {@literal s} sorted index {@literal ZSET}s, new index
+	 * {@literal SET}s. <br />
+	 * {@literal ARGV}: id, ttl ({@literal -1} keep, {@literal 0} persist), phantom flag, {@literal p}, {@literal p}
+	 * prefixes of index keys to leave, {@literal s}, one score per {@literal ZSET} ({@literal ''} to remove),
+	 * {@literal d}, {@literal d} paths to remove, hash fields and values.
+	 */
+	private static final RedisScript<Long> UPDATE = new DefaultRedisScript<>(String.join("\n", //
+			WRITE_HASH, //
+			"local id = ARGV[1]", //
+			"local p = tonumber(ARGV[4])", //
+			"if p > 0 then", //
+			"  for _, index in ipairs(redis.call('SMEMBERS', KEYS[3])) do", //
+			"    for i = 5, 4 + p do", //
+			"      if string.sub(index, 1, #ARGV[i]) == ARGV[i] then", //
+			"        redis.call('SREM', index, id)", //
+			"        redis.call('SREM', KEYS[3], index)", //
+			"        break", //
+			"      end", //
+			"    end", //
+			"  end", //
+			"end", //
+			"local pos = 5 + p", //
+			"local k = 3", //
+			WRITE_SCORES, //
+			REPLACE_FIELDS, //
+			"for i = 4 + s, #KEYS do", //
+			"  redis.call('SADD', KEYS[i], id)", //
+			"  redis.call('SADD', KEYS[3], KEYS[i])", //
+			"end", //
+			REFRESH_TTL, //
+			"return 1"), Long.class);
+
+	/**
+	 * {@link IndexBookkeeping#HASH_VALUES} variant of {@link #SAVE} deriving the index keys to leave from the indexed
+	 * fields of the stored {@literal HASH}. <br />
+	 * {@literal KEYS}: entity, phantom, index helper (removed if left over), keyspace, {@literal n} index {@literal SET}s,
+	 * sorted index {@literal ZSET}s. <br />
+	 * {@literal ARGV}: id, ttl, phantom flag, {@literal n}, {@literal m}, {@literal m} indexed paths, one score per
+	 * {@literal ZSET}, hash fields and values.
+	 */
+	private static final RedisScript<Long> SAVE_DERIVED = new DefaultRedisScript<>(String.join("\n", //
+			WRITE_HASH, //
+			"local id = ARGV[1]", //
+			"local n = tonumber(ARGV[4])", //
+			"local m = tonumber(ARGV[5])", //
+			"local s = #KEYS - 4 - n", //
+			"if m > 0 then", //
+			"  local values = redis.call('HMGET', KEYS[1], unpack(ARGV, 6, 5 + m))", //
+			"  for i = 1, m do", //
+			"    if values[i] then", //
+			"      redis.call('SREM', KEYS[4] .. ':' .. ARGV[5 + i] .. ':' .. values[i], id)", //
+			"    end", //
+			"  end", //
+			"end", //
+			"redis.call('DEL', KEYS[1], KEYS[2], KEYS[3])", //
+			"hmset(KEYS[1], ARGV, 6 + m + s, #ARGV)", //
+			"local ttl = tonumber(ARGV[2])", //
+			"if ttl > 0 then", //
+			"  redis.call('EXPIRE', KEYS[1], ttl)", //
+			"  if ARGV[3] == '1' then", //
+			"    hmset(KEYS[2], ARGV, 6 + m + s, #ARGV)", //
+			"    redis.call('EXPIRE', KEYS[2], ttl + 300)", //
+			"  end", //
+			"end", //
+			"redis.call('SADD', KEYS[4], id)", //
+			"for i = 5, 4 + n do", //
+			"  redis.call('SADD', KEYS[i], id)", //
+			"end", //
+			"for i = 1, s do", //
+			"  if ARGV[5 + m + i] == '' then", //
+			"    redis.call('ZREM', KEYS[4 + n + i], id)", //
+			"  else", //
+			"    redis.call('ZADD', KEYS[4 + n + i], ARGV[5 + m + i], id)", //
+			"  end", //
+			"end", //
+			"return 1"), Long.class);
+
+	/**
+	 * {@link IndexBookkeeping#HASH_VALUES} variant of {@link #UPDATE}. <br />
+	 * {@literal KEYS}: entity, phantom, {@literal s} sorted index {@literal ZSET}s, new index {@literal SET}s. <br />
+	 * {@literal ARGV}: id, ttl ({@literal -1} keep, {@literal 0} persist), phantom flag, keyspace, {@literal p},
+	 * {@literal p} indexed paths to leave, {@literal s}, one score per {@literal ZSET} ({@literal ''} to remove),
+	 * {@literal d}, {@literal d} paths to remove, hash fields and values.
+	 */
+	private static final RedisScript<Long> UPDATE_DERIVED = new DefaultRedisScript<>(String.join("\n", //
+			WRITE_HASH, //
+			"local id = ARGV[1]", //
+			"local p = tonumber(ARGV[5])", //
+			"if p > 0 then", //
+			"  local values = redis.call('HMGET', KEYS[1], unpack(ARGV, 6, 5 + p))", //
+			"  for i = 1, p do", //
+			"    if values[i] then", //
+			"      redis.call('SREM', ARGV[4] .. ':' .. ARGV[5 + i] .. ':' .. values[i], id)", //
+			"    end", //
+			"  end", //
+			"end", //
+			"local pos = 6 + p", //
+			"local k = 2", //
+			WRITE_SCORES, //
+			REPLACE_FIELDS, //
+			"for i = 3 + s, #KEYS do", //
+			"  redis.call('SADD', KEYS[i], id)", //
+			"end", //
+			REFRESH_TTL, //
+			"return 1"), Long.class);
+
+	/**
+	 * {@link IndexBookkeeping#HASH_VALUES} removal of an entity and its index entries. <br />
+	 * {@literal KEYS}: entity, phantom, index helper (removed if left over), keyspace, sorted index {@literal ZSET}s.
+	 * <br />
+	 * {@literal ARGV}: id, indexed paths.
+	 */
+	private static final RedisScript<Long> DELETE_DERIVED = new DefaultRedisScript<>(String.join("\n", //
+			"local id = ARGV[1]", //
+			"if #ARGV > 1 then", //
+			"  local values = redis.call('HMGET', KEYS[1], unpack(ARGV, 2))", //
+			"  for i = 1, #ARGV - 1 do", //
+			"    if values[i] then", //
+			"      redis.call('SREM', KEYS[4] .. ':' .. ARGV[1 + i] .. ':' .. values[i], id)", //
+			"    end", //
+			"  end", //
+			"end", //
+			"for i = 5, #KEYS do", //
+			"  redis.call('ZREM', KEYS[i], id)", //
+			"end", //
+			"redis.call('DEL', KEYS[1], KEYS[2], KEYS[3])", //
+			"return redis.call('SREM', KEYS[4], id)"), Long.class);
+
+	private static final byte[] NO_SCORE = new byte[0];
+
+	private final RedisOperations<?, ?> redisOps;
+	private final EntityWritePlanner planner;
+	private final IndexedPathResolver indexedPaths;
+	private final SortedIndexResolver sortedIndexes;
+
+	private IndexBookkeeping indexBookkeeping = IndexBookkeeping.HELPER_SET;
+	private volatile Boolean clustered;
+
+	/**
+	 * Create new {@link ScriptedRedisKeyValueAdapter}.
+	 *
+	 * @param redisOps must not be {@literal null}.
+	 * @param converter must not be {@literal null}.
+	 */
+	public ScriptedRedisKeyValueAdapter(RedisOperations<?, ?> redisOps, RedisConverter converter) {
+
+		super(redisOps, converter);
+
+		this.redisOps = redisOps;
+		this.planner = new EntityWritePlanner(converter);
+		this.indexedPaths = new IndexedPathResolver(converter.getMappingContext());
+		this.sortedIndexes = new SortedIndexResolver(converter.getMappingContext());
+	}
+
+	/**
+	 * Set how the index keys an entity is currently referenced in are looked up. With
+	 * {@link IndexBookkeeping#HASH_VALUES} they are derived from the indexed fields of the stored {@literal HASH},
+	 * read by the very script replacing it, and no index helper is written. Defaults to
+	 * {@link IndexBookkeeping#HELPER_SET}. <br />
+	 * <strong>Note:</strong> Expiration listeners and the reactive repository still look up the index helper. Index
+	 * entries of expired entities are left to the {@link IndexReconciler} then. In a Redis Cluster entities are written
+	 * via the {@link PipelinedEntityWriter} and partial updates are rejected.
+	 *
+	 * @param indexBookkeeping must not be {@literal null}.
+	 */
+	public void setIndexBookkeeping(IndexBookkeeping indexBookkeeping) {
+
+		Assert.notNull(indexBookkeeping, "IndexBookkeeping must not be null!");
+
+		this.indexBookkeeping = indexBookkeeping;
+		this.planner.setIndexedPathResolver(isDerived() ? indexedPaths : null);
+		getWriter().setIndexBookkeeping(indexBookkeeping);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.core.PhantomAwareRedisKeyValueAdapter#put(java.io.Serializable, java.lang.Object, java.io.Serializable)
+	 */
+	@Override
+	public Object put(Serializable id, Object item, Serializable keyspace) {
+
+		if (item instanceof RedisData || BlobStorageTypes.isBlob(item.getClass())) {
+			return super.put(id, item, keyspace);
+		}
+
+		if (isClustered()) {
+			return isDerived() ? writePipelined(item) : super.put(id, item, keyspace);
+		}
+
+		Plan<Object> plan = planner.plan(item);
+
+		List<byte[]> keys = new ArrayList<>();
+		keys.add(plan.getObjectKey());
+		keys.add(plan.getPhantomKey());
+		keys.add(plan.getHelperKey());
+		keys.add(plan.getKeyspaceKey());
+		keys.addAll(plan.getIndexKeys());
+
+		List<byte[]> args = new ArrayList<>();
+		args.add(plan.getRawId());
+		args.add(RedisKeys.bytes(plan.hasTimeToLive() ? plan.getTimeToLive().toString() : "-1"));
+		args.add(RedisKeys.bytes(plan.hasPhantomCopy() ? "1" : "0"));
+		args.add(RedisKeys.bytes(Integer.toString(plan.getIndexKeys().size())));
+
+		if (isDerived()) {
+			addPaths(args, indexedPaths.resolve(ClassUtils.getUserClass(item)));
+		}
+
+		for (SortedIndexEntry entry : plan.getSortedIndexEntries()) {
+
+			keys.add(entry.getKey());
+			args.add(entry.getScore() != null ? score(entry.getScore()) : NO_SCORE);
+		}
+
+		addHash(args, plan.getHash());
+
+		execute(isDerived() ? SAVE_DERIVED : SAVE, keys, args);
+		return item;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.core.PhantomAwareRedisKeyValueAdapter#update(org.springframework.data.redis.core.PartialUpdate)
+	 */
+	@Override
+	public void update(PartialUpdate<?> update) {
+
+		BlobStorageTypes.rejectPartialUpdate(update.getTarget());
+
+		if (isClustered()) {
+
+			if (isDerived()) {
+				throw new InvalidDataAccessApiUsageException(
+						"Partial updates are not supported in a Redis Cluster when using IndexBookkeeping.HASH_VALUES.");
+			}
+
+			super.update(update);
+			return;
+		}
+
+		if (isDerived()) {
+			updateDerived(update);
+			return;
+		}
+
+		RedisPersistentEntity<?> entity = getConverter().getMappingContext().getPersistentEntity(update.getTarget());
+		String keyspace = entity.getKeySpace();
+		byte[] id = getConverter().getConversionService().convert(update.getId(), byte[].class);
+		byte[] objectKey = RedisKeys.objectKey(keyspace, id);
+
+		RedisData rdo = new RedisData();
+		getConverter().write(update, rdo);
+
+		List<byte[]> keys = new ArrayList<>();
+		keys.add(objectKey);
+		keys.add(RedisKeys.phantomKey(objectKey));
+		keys.add(RedisKeys.indexHelperKey(objectKey));
+
+		List<SortedIndexEntry> sortedEntries = sortedIndexes.resolve(update);
+		sortedEntries.forEach(entry -> keys.add(entry.getKey()));
+
+		Set<String> prefixes = new LinkedHashSet<>();
+		for (IndexedData indexedData : rdo.getIndexedData()) {
+
+			prefixes.add(indexedData.getKeyspace() + ":" + indexedData.getIndexName() + ":");
+
+			if (indexedData instanceof SimpleIndexedPropertyValue
+					&& ((SimpleIndexedPropertyValue) indexedData).getValue() != null) {
+
+				Object value = ((SimpleIndexedPropertyValue) indexedData).getValue();
+				keys.add(RedisKeys.indexKey(indexedData.getKeyspace(), indexedData.getIndexName(),
+						value instanceof byte[] ? (byte[]) value
+								: getConverter().getConversionService().convert(value, byte[].class)));
+			}
+		}
+
+		List<String> deletes = new ArrayList<>();
+		for (PropertyUpdate propertyUpdate : update.getPropertyUpdates()) {
+
+			if (replacesPath(propertyUpdate)) {
+
+				deletes.add(propertyUpdate.getPropertyPath());
+				prefixes.add(keyspace + ":" + propertyUpdate.getPropertyPath() + ":");
+				prefixes.add(keyspace + ":" + propertyUpdate.getPropertyPath() + ".");
+			}
+		}
+
+		List<byte[]> args = new ArrayList<>();
+		args.add(id);
+		args.add(RedisKeys.bytes(ttlArgument(update, rdo)));
+		args.add(RedisKeys.bytes(hasPhantomCopy(update.getTarget()) ? "1" : "0"));
+		args.add(RedisKeys.bytes(Integer.toString(prefixes.size())));
+		prefixes.forEach(prefix -> args.add(RedisKeys.bytes(prefix)));
+		addScores(args, sortedEntries);
+		addPaths(args, deletes);
+
+		// a bucket only holding the type hint does not change anything
+		if (rdo.getBucket().size() > 1
+				|| (rdo.getBucket().size() == 1 && !rdo.getBucket().asMap().containsKey("_class"))) {
+			addHash(args, rdo.getBucket().rawMap());
+		}
+
+		execute(UPDATE, keys, args);
+	}
+
+	private void updateDerived(PartialUpdate<?> update) {
+
+		RedisPersistentEntity<?> entity = getConverter().getMappingContext().getPersistentEntity(update.getTarget());
+		String keyspace = entity.getKeySpace();
+		byte[] id = getConverter().getConversionService().convert(update.getId(), byte[].class);
+		byte[] objectKey = RedisKeys.objectKey(keyspace, id);
+		List<String> paths = indexedPaths.resolve(ClassUtils.getUserClass(update.getTarget()));
+
+		RedisData rdo = new RedisData();
+		getConverter().write(update, rdo);
+
+		List<byte[]> keys = new ArrayList<>();
+		keys.add(objectKey);
+		keys.add(RedisKeys.phantomKey(objectKey));
+
+		List<SortedIndexEntry> sortedEntries = sortedIndexes.resolve(update);
+		sortedEntries.forEach(entry -> keys.add(entry.getKey()));
+
+		for (IndexedData indexedData : rdo.getIndexedData()) {
+
+			indexedPaths.verify(update.getTarget(), indexedData);
+
+			if (indexedData instanceof SimpleIndexedPropertyValue
+					&& ((SimpleIndexedPropertyValue) indexedData).getValue() != null) {
+
+				Object value = ((SimpleIndexedPropertyValue) indexedData).getValue();
+				keys.add(RedisKeys.indexKey(indexedData.getKeyspace(), indexedData.getIndexName(),
+						value instanceof byte[] ? (byte[]) value
+								: getConverter().getConversionService().convert(value, byte[].class)));
+			}
+		}
+
+		// indexed paths at or below an updated one
+		Set<String> affected = new LinkedHashSet<>();
+		List<String> deletes = new ArrayList<>();
+		for (PropertyUpdate propertyUpdate : update.getPropertyUpdates()) {
+
+			String updated = propertyUpdate.getPropertyPath();
+			for (String path : paths) {
+				if (path.equals(updated) || path.startsWith(updated + ".")) {
+					affected.add(path);
+				}
+			}
+
+			if (replacesPath(propertyUpdate)) {
+				deletes.add(updated);
+			}
+		}
+
+		List<byte[]> args = new ArrayList<>();
+		args.add(id);
+		args.add(RedisKeys.bytes(ttlArgument(update, rdo)));
+		args.add(RedisKeys.bytes(hasPhantomCopy(update.getTarget()) ? "1" : "0"));
+		args.add(RedisKeys.bytes(keyspace));
+		addPaths(args, affected);
+		addScores(args, sortedEntries);
+		addPaths(args, deletes);
+
+		if (rdo.getBucket().size() > 1
+				|| (rdo.getBucket().size() == 1 && !rdo.getBucket().asMap().containsKey("_class"))) {
+			addHash(args, rdo.getBucket().rawMap());
+		}
+
+		execute(UPDATE_DERIVED, keys, args);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.core.RedisKeyValueAdapter#delete(java.io.Serializable, java.io.Serializable, java.lang.Class)
+	 */
+	@Override
+	public <T> T delete(Serializable id, Serializable keyspace, Class<T> type) {
+
+		if (!isDerived()) {
+			return super.delete(id, keyspace, type);
+		}
+
+		T value = get(id, keyspace, type);
+		if (value == null) {
+			return null;
+		}
+
+		byte[] rawId = getConverter().getConversionService().convert(id, byte[].class);
+		byte[] objectKey = RedisKeys.objectKey(keyspace.toString(), rawId);
+		List<String> paths = indexedPaths.resolve(ClassUtils.getUserClass(value));
+
+		if (!isClustered()) {
+
+			List<byte[]> args = new ArrayList<>();
+			args.add(rawId);
+			paths.forEach(path -> args.add(RedisKeys.bytes(path)));
+
+			List<byte[]> keys = new ArrayList<>(Arrays.asList(objectKey, RedisKeys.phantomKey(objectKey),
+					RedisKeys.indexHelperKey(objectKey), RedisKeys.keyspaceKey(keyspace.toString())));
+			keys.addAll(sortedIndexes.keys(ClassUtils.getUserClass(value)));
+
+			execute(DELETE_DERIVED, keys, args);
+			return value;
+		}
+
+		redisOps.execute((RedisCallback<Void>) connection -> {
+
+			if (!paths.isEmpty()) {
+
+				byte[][] fields = new byte[paths.size()][];
+				for (int i = 0; i < fields.length; i++) {
+					fields[i] = RedisKeys.bytes(paths.get(i));
+				}
+
+				List<byte[]> values = connection.hMGet(objectKey, fields);
+				for (int i = 0; i < fields.length && values != null && i < values.size(); i++) {
+					if (values.get(i) != null) {
+						connection.sRem(RedisKeys.indexKey(keyspace.toString(), paths.get(i), values.get(i)), rawId);
+					}
+				}
+			}
+
+			connection.del(objectKey);
+			connection.del(RedisKeys.phantomKey(objectKey));
+			connection.del(RedisKeys.indexHelperKey(objectKey));
+			connection.sRem(RedisKeys.keyspaceKey(keyspace.toString()), rawId);
+			return null;
+		});
+
+		getSortedIndexes().remove(rawId, ClassUtils.getUserClass(value));
+		return value;
+	}
+
+	/**
+	 * Paths removed from the {@literal HASH} before writing the new values. Collections, maps and complex values are
+	 * flattened into several fields, all of which need to be replaced.
+	 */
+	private boolean replacesPath(PropertyUpdate propertyUpdate) {
+
+		Object value = propertyUpdate.getValue();
+		return UpdateCommand.DEL.equals(propertyUpdate.getCmd()) || value instanceof Collection || value instanceof Map
+				|| (value != null && value.getClass().isArray())
+				|| (value != null && !getConverter().getConversionService().canConvert(value.getClass(), byte[].class));
+	}
+
+	private static String ttlArgument(PartialUpdate<?> update, RedisData rdo) {
+
+		if (!update.isRefreshTtl()) {
+			return "-1";
+		}
+		return rdo.getTimeToLive() != null && rdo.getTimeToLive() > 0 ? rdo.getTimeToLive().toString() : "0";
+	}
+
+	private static boolean hasPhantomCopy(Class<?> type) {
+		return AnnotationUtils.findAnnotation(ClassUtils.getUserClass(type), NoPhantomCopy.class) == null;
+	}
+
+	private static void addPaths(List<byte[]> args, Collection<String> paths) {
+
+		args.add(RedisKeys.bytes(Integer.toString(paths.size())));
+		paths.forEach(path -> args.add(RedisKeys.bytes(path)));
+	}
+
+	private static void addScores(List<byte[]> args, List<SortedIndexEntry> entries) {
+
+		args.add(RedisKeys.bytes(Integer.toString(entries.size())));
+		entries.forEach(entry -> args.add(entry.getScore() != null ? score(entry.getScore()) : NO_SCORE));
+	}
+
+	private static void addHash(List<byte[]> args, Map<byte[], byte[]> hash) {
+
+		for (Map.Entry<byte[], byte[]> entry : hash.entrySet()) {
+
+			args.add(entry.getKey());
+			args.add(entry.getValue());
+		}
+	}
+
+	private static byte[] score(double score) {
+
+		if (Double.isInfinite(score)) {
+			return RedisKeys.bytes(score > 0 ? "+inf" : "-inf");
+		}
+		return RedisKeys.bytes(Double.toString(score));
+	}
+
+	private void execute(RedisScript<Long> script, List<byte[]> keys, List<byte[]> args) {
+
+		byte[][] keysAndArgs = new byte[keys.size() + args.size()][];
+		int i = 0;
+		for (byte[] key : keys) {
+			keysAndArgs[i++] = key;
+		}
+		for (byte[] arg : args) {
+			keysAndArgs[i++] = arg;
+		}
+
+		redisOps.execute((RedisCallback<Object>) connection -> {
+
+			try {
+				return connection.evalSha(script.getSha1(), ReturnType.INTEGER, keys.size(), keysAndArgs);
+			} catch (RuntimeException e) {
+
+				if (!isNoScript(e)) {
+					throw e;
+				}
+				return connection.eval(RedisKeys.bytes(script.getScriptAsString()), ReturnType.INTEGER, keys.size(),
+						keysAndArgs);
+			}
+		});
+	}
+
+	private boolean isDerived() {
+		return indexBookkeeping == IndexBookkeeping.HASH_VALUES;
+	}
+
+	private boolean isClustered() {
+
+		if (clustered == null) {
+			clustered = redisOps.execute((RedisCallback<Boolean>) connection -> connection instanceof RedisClusterConnection);
+		}
+		return clustered;
+	}
+
+	private static boolean isNoScript(Throwable e) {
+
+		for (Throwable current = e; current != null; current = current.getCause()) {
+			if (current.getMessage() != null && current.getMessage().contains("NOSCRIPT")) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
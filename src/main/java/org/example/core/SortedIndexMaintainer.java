@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.util.List;
+
+import org.example.core.SortedIndexResolver.SortedIndexEntry;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.PartialUpdate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.util.Assert;
+
+/**
+ * Keeps {@link SortedIndexed} properties in sync with the entities written by the
+ * {@link PhantomAwareRedisKeyValueAdapter}. Saves, partial updates and deletes all pass the adapter, so there is no
+ * need to listen for {@link org.springframework.data.keyvalue.core.event.KeyValueEvent}s that partial updates do not
+ * publish anyway. <br />
+ * Entities written via the {@link PipelinedEntityWriter} or the {@link ScriptedRedisKeyValueAdapter} scripts already
+ * carry their {@literal ZSET} entries. <br />
+ * Entries of expired entities are removed by the adapter's expiration handling and the
+ * {@link org.example.event.BatchingExpirationListener}.
+ *
+ * @author Christoph Strobl
+ */
+class SortedIndexMaintainer {
+
+	private final RedisOperations<?, ?> redisOps;
+	private final SortedIndexResolver resolver;
+
+	/**
+	 * @param redisOps must not be {@literal null}.
+	 * @param resolver must not be {@literal null}.
+	 */
+	SortedIndexMaintainer(RedisOperations<?, ?> redisOps, SortedIndexResolver resolver) {
+
+		Assert.notNull(redisOps, "RedisOperations must not be null!");
+		Assert.notNull(resolver, "SortedIndexResolver must not be null!");
+
+		this.redisOps = redisOps;
+		this.resolver = resolver;
+	}
+
+	/**
+	 * @param type must not be {@literal null}.
+	 * @return {@literal true} if the given type has {@link SortedIndexed} properties.
+	 */
+	boolean hasSortedIndexes(Class<?> type) {
+		return resolver.hasSortedIndexes(type);
+	}
+
+	/**
+	 * Write all entries of the given entity.
+	 *
+	 * @param id must not be {@literal null}.
+	 * @param entity must not be {@literal null}.
+	 */
+	void index(byte[] id, Object entity) {
+
+		if (!resolver.hasSortedIndexes(entity.getClass())) {
+			return;
+		}
+
+		write(id, resolver.resolve(entity));
+	}
+
+	/**
+	 * Write the entries of the properties touched by the given {@link PartialUpdate}.
+	 *
+	 * @param id must not be {@literal null}.
+	 * @param update must not be {@literal null}.
+	 */
+	void update(byte[] id, PartialUpdate<?> update) {
+
+		if (!resolver.hasSortedIndexes(update.getTarget())) {
+			return;
+		}
+
+		write(id, resolver.resolve(update));
+	}
+
+	/**
+	 * Remove the entity with given id from all indexes of its type.
+	 *
+	 * @param id must not be {@literal null}.
+	 * @param type must not be {@literal null}.
+	 */
+	void remove(byte[] id, Class<?> type) {
+
+		if (!resolver.hasSortedIndexes(type)) {
+			return;
+		}
+
+		List<byte[]> keys = resolver.keys(type);
+		redisOps.execute((RedisCallback<Void>) connection -> {
+
+			pipelined(connection, () -> keys.forEach(key -> connection.zRem(key, id)));
+			return null;
+		});
+	}
+
+	/**
+	 * Remove all indexes of the given type.
+	 *
+	 * @param type must not be {@literal null}.
+	 */
+	void drop(Class<?> type) {
+
+		if (!resolver.hasSortedIndexes(type)) {
+			return;
+		}
+
+		List<byte[]> keys = resolver.keys(type);
+		redisOps.execute((RedisCallback<Void>) connection -> {
+
+			keys.forEach(connection::del);
+			return null;
+		});
+	}
+
+	private void write(byte[] id, List<SortedIndexEntry> entries) {
+
+		if (entries.isEmpty()) {
+			return;
+		}
+
+		redisOps.execute((RedisCallback<Void>) connection -> {
+
+			pipelined(connection, () -> entries.forEach(entry -> write(connection, entry, id)));
+			return null;
+		});
+	}
+
+	/**
+	 * Write a single entry. Used for bulk writes as well.
+	 */
+	static void write(RedisConnection connection, SortedIndexEntry entry, byte[] member) {
+
+		if (entry.getScore() != null) {
+			connection.zAdd(entry.getKey(), entry.getScore(), member);
+		} else {
+			connection.zRem(entry.getKey(), member);
+		}
+	}
+
+	private static void pipelined(RedisConnection connection, Runnable commands) {
+
+		if (connection instanceof RedisClusterConnection) {
+			commands.run();
+			return;
+		}
+
+		connection.openPipeline();
+		try {
+			commands.run();
+		} finally {
+			connection.closePipeline();
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.keyvalue.core.mapping.KeyValuePersistentProperty;
+import org.springframework.data.mapping.PersistentPropertyAccessor;
+import org.springframework.data.mapping.PropertyHandler;
+import org.springframework.data.redis.core.PartialUpdate;
+import org.springframework.data.redis.core.PartialUpdate.PropertyUpdate;
+import org.springframework.data.redis.core.PartialUpdate.UpdateCommand;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.core.mapping.RedisPersistentEntity;
+import org.springframework.util.Assert;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Resolves the {@literal ZSET} entries for properties annotated with {@link SortedIndexed}.
+ *
+ * @author Christoph Strobl
+ */
+public class SortedIndexResolver {
+
+	private final RedisMappingContext mappingContext;
+	private final Map<Class<?>, List<KeyValuePersistentProperty>> properties = new ConcurrentHashMap<>();
+
+	/**
+	 * @param mappingContext must not be {@literal null}.
+	 */
+	public SortedIndexResolver(RedisMappingContext mappingContext) {
+
+		Assert.notNull(mappingContext, "MappingContext must not be null!");
+		this.mappingContext = mappingContext;
+	}
+
+	/**
+	 * @param type must not be {@literal null}.
+	 * @return {@literal true} if the given type has at least one {@link SortedIndexed} property.
+	 */
+	public boolean hasSortedIndexes(Class<?> type) {
+		return !propertiesOf(type).isEmpty();
+	}
+
+	/**
+	 * Resolve the index entries for the given entity.
+	 *
+	 * @param entity must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	public List<SortedIndexEntry> resolve(Object entity) {
+
+		Assert.notNull(entity, "Entity must not be null!");
+
+		List<KeyValuePersistentProperty> indexed = propertiesOf(entity.getClass());
+		if (indexed.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		RedisPersistentEntity<?> persistentEntity = mappingContext.getPersistentEntity(entity.getClass());
+		PersistentPropertyAccessor accessor = persistentEntity.getPropertyAccessor(entity);
+
+		List<SortedIndexEntry> entries = new ArrayList<>(indexed.size());
+		for (KeyValuePersistentProperty property : indexed) {
+
+			Object value = accessor.getProperty(property);
+			entries.add(new SortedIndexEntry(RedisKeys.sortedIndexKey(persistentEntity.getKeySpace(), property.getName()),
+					value != null ? score(value) : null));
+		}
+		return entries;
+	}
+
+	/**
+	 * Resolve the index entries for the properties set or removed by the given {@link PartialUpdate}. Properties not
+	 * touched by the update are left out.
+	 *
+	 * @param update must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	public List<SortedIndexEntry> resolve(PartialUpdate<?> update) {
+
+		Assert.notNull(update, "PartialUpdate must not be null!");
+
+		List<KeyValuePersistentProperty> indexed = propertiesOf(update.getTarget());
+		if (indexed.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		String keyspace = mappingContext.getPersistentEntity(update.getTarget()).getKeySpace();
+
+		List<SortedIndexEntry> entries = new ArrayList<>();
+		for (PropertyUpdate propertyUpdate : update.getPropertyUpdates()) {
+			for (KeyValuePersistentProperty property : indexed) {
+
+				if (!property.getName().equals(propertyUpdate.getPropertyPath())) {
+					continue;
+				}
+
+				Object value = UpdateCommand.SET.equals(propertyUpdate.getCmd()) ? propertyUpdate.getValue() : null;
+				entries.add(new SortedIndexEntry(RedisKeys.sortedIndexKey(keyspace, property.getName()),
+						value != null ? score(value) : null));
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * @param type must not be {@literal null}.
+	 * @return the {@literal ZSET} keys used for the given type.
+	 */
+	public List<byte[]> keys(Class<?> type) {
+
+		RedisPersistentEntity<?> persistentEntity = mappingContext.getPersistentEntity(type);
+
+		List<byte[]> keys = new ArrayList<>();
+		for (KeyValuePersistentProperty property : propertiesOf(type)) {
+			keys.add(RedisKeys.sortedIndexKey(persistentEntity.getKeySpace(), property.getName()));
+		}
+		return keys;
+	}
+
+	/**
+	 * Compute the score for the given value.
+	 *
+	 * @param value must not be {@literal null}.
+	 * @return the score.
+	 * @throws InvalidDataAccessApiUsageException for unsupported types.
+	 */
+	public static double score(Object value) {
+
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		if (value instanceof Date) {
+			return ((Date) value).getTime();
+		}
+		if (value instanceof Instant) {
+			return ((Instant) value).toEpochMilli();
+		}
+		if (value instanceof LocalDateTime) {
+			return ((LocalDateTime) value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		}
+		if (value instanceof LocalDate) {
+			return ((LocalDate) value).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		}
+
+		throw new InvalidDataAccessApiUsageException(
+				String.format("Cannot compute score for value of type %s.", value.getClass().getName()));
+	}
+
+	private List<KeyValuePersistentProperty> propertiesOf(Class<?> type) {
+
+		List<KeyValuePersistentProperty> indexed = properties.get(type);
+		if (indexed != null) {
+			return indexed;
+		}
+
+		RedisPersistentEntity<?> persistentEntity = mappingContext.getPersistentEntity(type);
+		if (persistentEntity == null) {
+			return Collections.emptyList();
+		}
+
+		List<KeyValuePersistentProperty> result = new ArrayList<>();
+		persistentEntity.doWithProperties((PropertyHandler<KeyValuePersistentProperty>) property -> {
+			if (property.isAnnotationPresent(SortedIndexed.class)) {
+				result.add(property);
+			}
+		});
+
+		properties.put(type, result);
+		return result;
+	}
+
+	/**
+	 * A single {@literal ZSET} entry of an entity. A {@literal null} score means the property value is {@literal null}
+	 * and the entity needs to be removed from the index.
+	 */
+	@Value
+	@AllArgsConstructor(access = AccessLevel.PACKAGE)
+	public static class SortedIndexEntry {
+
+		byte[] key;
+		Double score;
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a numeric or temporal property for range queries. In contrast to
+ * {@link org.springframework.data.redis.core.index.Indexed}, which uses one {@literal SET} per value, all
+ * {@literal ids} of a keyspace are kept in a single {@literal ZSET} scored by the property value: <br />
+ *
+ * <pre>
+ * <code>
+ * {@link org.springframework.data.redis.core.RedisHash#value()} + ":" + {@link java.lang.reflect.Field#getName()}
+ *   + ":sorted"
+ * //eg. person:age:sorted
+ * </code>
+ * </pre>
+ *
+ * Supported are {@link Number}s, {@link java.util.Date}, {@link java.time.Instant}, {@link java.time.LocalDate} and
+ * {@link java.time.LocalDateTime}. Temporal values are scored by their epoch milliseconds using the system default
+ * time zone where required. Only top level properties are considered.
+ *
+ * @author Christoph Strobl
+ * @see SortedIndexResolver
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD, ElementType.METHOD, ElementType.ANNOTATION_TYPE })
+public @interface SortedIndexed {
+
+}
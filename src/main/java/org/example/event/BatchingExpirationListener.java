@@ -0,0 +1,473 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.event;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.example.core.IndexBookkeeping;
+import org.example.core.IndexedPathResolver;
+import org.example.core.KeyspaceNotifications;
+import org.example.core.RedisKeys;
+import org.example.core.SortedIndexResolver;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisKeyExpiredEvent;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.core.convert.RedisData;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.core.mapping.RedisPersistentEntity;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.util.Assert;
+
+/**
+ * Replacement for the expiration handling of the {@link RedisKeyValueAdapter} publishing one
+ * {@link RedisKeysExpiredEvent} per micro batch instead of one {@link RedisKeyExpiredEvent} per key. <br />
+ * Expired keys received via {@literal __keyevent@*__:expired} are collected until either
+ * {@link #setMaxBatchSize(int) the batch is full} or {@link #setMaxDelay(long) the first key waited long enough}. The
+ * {@literal phantom} copies holding the last known values and the index helpers of all keys in a batch are read in a
+ * single pipeline. A second pipeline removes the {@literal phantom} copies, the keyspace entries and the index entries
+ * just like the adapter does per key, along with the entries of {@link org.example.core.SortedIndexed} properties.
+ * <br />
+ * With {@link #setIndexBookkeeping(IndexBookkeeping) IndexBookkeeping.HASH_VALUES} there is no index helper, so the
+ * index keys are derived from the indexed fields of the {@literal phantom} copy instead. Entities without a
+ * {@literal phantom} copy keep their index entries in that case. <br />
+ * The flags required ({@literal E}, {@literal x}) are added to {@literal notify-keyspace-events} on startup.
+ * <strong>Note:</strong> Use with {@code enableKeyspaceEvents = OFF}, otherwise the adapter handles expirations as
+ * well.
+ *
+ * @author Christoph Strobl
+ */
+public class BatchingExpirationListener
+		implements MessageListener, ApplicationEventPublisherAware, InitializingBean, DisposableBean {
+
+	private static final Log LOG = LogFactory.getLog(BatchingExpirationListener.class);
+	private static final String REQUIRED_FLAGS = "Ex";
+	private static final byte[] PHANTOM_SUFFIX = RedisKeys.bytes(":phantom");
+
+	private final RedisConnectionFactory connectionFactory;
+	private final RedisConverter converter;
+	private final IndexedPathResolver indexedPaths;
+	private final SortedIndexResolver sortedIndexes;
+	private final Map<String, Class<?>> typesByKeyspace = new ConcurrentHashMap<>();
+	private final RedisMessageListenerContainer container;
+	private final BlockingQueue<byte[]> expired;
+
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder keys = new LongAdder();
+
+	private ApplicationEventPublisher publisher;
+	private IndexBookkeeping indexBookkeeping = IndexBookkeeping.HELPER_SET;
+	private int maxBatchSize = 500;
+	private long maxDelay = 100;
+
+	private Thread dispatcher;
+	private volatile boolean running;
+
+	/**
+	 * Create new {@link BatchingExpirationListener}.
+	 *
+	 * @param connectionFactory must not be {@literal null}.
+	 * @param converter used to read the {@literal phantom} copies. Must not be {@literal null}.
+	 */
+	public BatchingExpirationListener(RedisConnectionFactory connectionFactory, RedisConverter converter) {
+		this(connectionFactory, converter, 100000);
+	}
+
+	/**
+	 * Create new {@link BatchingExpirationListener}.
+	 *
+	 * @param connectionFactory must not be {@literal null}.
+	 * @param converter used to read the {@literal phantom} copies. Must not be {@literal null}.
+	 * @param capacity max number of keys waiting to be processed. Receiving notifications blocks once reached.
+	 */
+	public BatchingExpirationListener(RedisConnectionFactory connectionFactory, RedisConverter converter,
+			int capacity) {
+
+		Assert.notNull(connectionFactory, "ConnectionFactory must not be null!");
+		Assert.notNull(converter, "RedisConverter must not be null!");
+		Assert.isTrue(capacity > 0, "Capacity must be greater than zero!");
+
+		this.connectionFactory = connectionFactory;
+		this.converter = converter;
+		this.indexedPaths = new IndexedPathResolver((RedisMappingContext) converter.getMappingContext());
+		this.sortedIndexes = new SortedIndexResolver((RedisMappingContext) converter.getMappingContext());
+		this.expired = new LinkedBlockingQueue<>(capacity);
+
+		this.container = new RedisMessageListenerContainer();
+		this.container.setConnectionFactory(connectionFactory);
+	}
+
+	/**
+	 * Set how the adapter keeps track of the index keys an entity is referenced in. Defaults to
+	 * {@link IndexBookkeeping#HELPER_SET}.
+	 *
+	 * @param indexBookkeeping must not be {@literal null}.
+	 */
+	public void setIndexBookkeeping(IndexBookkeeping indexBookkeeping) {
+
+		Assert.notNull(indexBookkeeping, "IndexBookkeeping must not be null!");
+		this.indexBookkeeping = indexBookkeeping;
+	}
+
+	/**
+	 * Set the max number of keys published in one {@link RedisKeysExpiredEvent}. Defaults to {@literal 500}.
+	 *
+	 * @param maxBatchSize must be greater than zero.
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+
+		Assert.isTrue(maxBatchSize > 0, "MaxBatchSize must be greater than zero!");
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Set the max time in milliseconds to wait for further keys once the first key of a batch arrived. Defaults to
+	 * {@literal 100}.
+	 *
+	 * @param maxDelay must not be negative.
+	 */
+	public void setMaxDelay(long maxDelay) {
+
+		Assert.isTrue(maxDelay >= 0, "MaxDelay must not be negative!");
+		this.maxDelay = maxDelay;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.context.ApplicationEventPublisherAware#setApplicationEventPublisher(org.springframework.context.ApplicationEventPublisher)
+	 */
+	@Override
+	public void setApplicationEventPublisher(ApplicationEventPublisher publisher) {
+		this.publisher = publisher;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+
+		KeyspaceNotifications.enable(connectionFactory, REQUIRED_FLAGS);
+
+		running = true;
+		dispatcher = new Thread(this::dispatch, "expiration-batches");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+
+		container.addMessageListener(this, new PatternTopic("__keyevent@*__:expired"));
+		container.afterPropertiesSet();
+		container.start();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() throws Exception {
+
+		container.destroy();
+
+		running = false;
+		if (dispatcher != null) {
+			dispatcher.interrupt();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.connection.MessageListener#onMessage(org.springframework.data.redis.connection.Message, byte[])
+	 */
+	@Override
+	public void onMessage(Message message, byte[] pattern) {
+
+		byte[] key = message.getBody();
+
+		// expiring phantom copies are the cleanup of keys already handled
+		if (key == null || isPhantom(key) || indexOf(key, (byte) ':') == -1) {
+			return;
+		}
+
+		try {
+			expired.put(key);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return number of published {@link RedisKeysExpiredEvent}s.
+	 */
+	public long getPublishedBatches() {
+		return batches.sum();
+	}
+
+	/**
+	 * @return number of expired keys published.
+	 */
+	public long getExpiredKeys() {
+		return keys.sum();
+	}
+
+	/**
+	 * @return number of keys waiting to be processed.
+	 */
+	public int getBacklog() {
+		return expired.size();
+	}
+
+	private void dispatch() {
+
+		while (running) {
+			try {
+
+				List<byte[]> batch = new ArrayList<>(maxBatchSize);
+				batch.add(expired.take());
+
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelay);
+				while (batch.size() < maxBatchSize) {
+
+					if (expired.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+						continue;
+					}
+
+					byte[] next = expired.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+
+				publish(batch);
+			} catch (InterruptedException e) {
+				return;
+			} catch (RuntimeException e) {
+				LOG.error("Failed to process expired keys.", e);
+			}
+		}
+	}
+
+	private void publish(List<byte[]> batch) {
+
+		List<RedisKeyExpiredEvent<?>> events = process(batch);
+
+		batches.increment();
+		keys.add(events.size());
+
+		if (publisher != null) {
+			publisher.publishEvent(new RedisKeysExpiredEvent(events));
+		}
+	}
+
+	/**
+	 * Read the last known values and remove all traces of the expired keys.
+	 *
+	 * @param batch the expired {@literal keyspace:id} keys.
+	 * @return one {@link RedisKeyExpiredEvent} per key.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<RedisKeyExpiredEvent<?>> process(List<byte[]> batch) {
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+
+			boolean pipelined = !(connection instanceof RedisClusterConnection);
+
+			List<Object> reads;
+			if (pipelined) {
+
+				connection.openPipeline();
+				batch.forEach(key -> read(connection, key));
+				reads = connection.closePipeline();
+			} else {
+
+				reads = new ArrayList<>(batch.size() * 2);
+				for (byte[] key : batch) {
+					reads.add(connection.hGetAll(RedisKeys.phantomKey(key)));
+					reads.add(connection.sMembers(RedisKeys.indexHelperKey(key)));
+				}
+			}
+
+			if (pipelined) {
+				connection.openPipeline();
+			}
+
+			List<RedisKeyExpiredEvent<?>> events = new ArrayList<>(batch.size());
+			for (int i = 0; i < batch.size(); i++) {
+
+				byte[] key = batch.get(i);
+				Object hash = reads.get(i * 2);
+				Object indexes = reads.get(i * 2 + 1);
+
+				Collection<byte[]> indexKeys = indexBookkeeping == IndexBookkeeping.HASH_VALUES ? indexKeys(key, hash)
+						: indexes instanceof Collection ? (Collection<byte[]>) indexes : Collections.<byte[]> emptySet();
+
+				cleanup(connection, key, indexKeys);
+
+				events.add(new RedisKeyExpiredEvent<>(key, readValue(key, hash)));
+			}
+
+			if (pipelined) {
+				connection.closePipeline();
+			}
+			return events;
+		} finally {
+			connection.close();
+		}
+	}
+
+	private static void read(RedisConnection connection, byte[] key) {
+
+		connection.hGetAll(RedisKeys.phantomKey(key));
+		connection.sMembers(RedisKeys.indexHelperKey(key));
+	}
+
+	private void cleanup(RedisConnection connection, byte[] key, Collection<byte[]> indexes) {
+
+		int separator = indexOf(key, (byte) ':');
+		byte[] keyspace = Arrays.copyOfRange(key, 0, separator);
+		byte[] id = Arrays.copyOfRange(key, separator + 1, key.length);
+
+		connection.del(RedisKeys.phantomKey(key), RedisKeys.indexHelperKey(key));
+		connection.sRem(keyspace, id);
+		for (byte[] index : indexes) {
+			connection.sRem(index, id);
+		}
+
+		Class<?> type = typesByKeyspace.computeIfAbsent(new String(keyspace, StandardCharsets.UTF_8), this::typeOf);
+		if (Object.class.equals(type)) {
+			return;
+		}
+
+		for (byte[] sortedIndex : sortedIndexes.keys(type)) {
+			connection.zRem(sortedIndex, id);
+		}
+	}
+
+	/**
+	 * Derive the index keys from the indexed fields of the {@literal phantom} copy.
+	 */
+	@SuppressWarnings("unchecked")
+	private Collection<byte[]> indexKeys(byte[] key, Object hash) {
+
+		if (!(hash instanceof Map) || ((Map<byte[], byte[]>) hash).isEmpty()) {
+			return Collections.emptySet();
+		}
+
+		String keyspace = new String(key, 0, indexOf(key, (byte) ':'), StandardCharsets.UTF_8);
+		Class<?> type = typesByKeyspace.computeIfAbsent(keyspace, this::typeOf);
+		if (Object.class.equals(type)) {
+			return Collections.emptySet();
+		}
+
+		Map<String, byte[]> fields = new HashMap<>();
+		for (Map.Entry<byte[], byte[]> entry : ((Map<byte[], byte[]>) hash).entrySet()) {
+			fields.put(new String(entry.getKey(), StandardCharsets.UTF_8), entry.getValue());
+		}
+
+		List<byte[]> indexKeys = new ArrayList<>();
+		for (String path : indexedPaths.resolve(type)) {
+
+			byte[] value = fields.get(path);
+			if (value != null) {
+				indexKeys.add(RedisKeys.indexKey(keyspace, path, value));
+			}
+		}
+		return indexKeys;
+	}
+
+	/**
+	 * @return the type stored in the given keyspace or {@link Object} if unknown.
+	 */
+	private Class<?> typeOf(String keyspace) {
+
+		for (RedisPersistentEntity<?> entity : ((RedisMappingContext) converter.getMappingContext())
+				.getPersistentEntities()) {
+			if (keyspace.equals(entity.getKeySpace())) {
+				return entity.getType();
+			}
+		}
+		return Object.class;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object readValue(byte[] key, Object hash) {
+
+		if (!(hash instanceof Map) || ((Map<byte[], byte[]>) hash).isEmpty()) {
+			return null;
+		}
+
+		try {
+
+			// allows to resolve the type of hashes written without type hint
+			RedisData data = new RedisData((Map<byte[], byte[]>) hash);
+			data.setKeyspace(new String(key, 0, indexOf(key, (byte) ':'), StandardCharsets.UTF_8));
+			return converter.read(Object.class, data);
+		} catch (RuntimeException e) {
+
+			LOG.warn("Cannot read phantom value.", e);
+			return null;
+		}
+	}
+
+	private static boolean isPhantom(byte[] key) {
+
+		if (key.length < PHANTOM_SUFFIX.length) {
+			return false;
+		}
+
+		for (int i = 0; i < PHANTOM_SUFFIX.length; i++) {
+			if (key[key.length - PHANTOM_SUFFIX.length + i] != PHANTOM_SUFFIX[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(byte[] source, byte value) {
+
+		for (int i = 0; i < source.length; i++) {
+			if (source[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
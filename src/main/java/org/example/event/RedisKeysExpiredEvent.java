@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.context.ApplicationEvent;
+import org.springframework.data.redis.core.RedisKeyExpiredEvent;
+import org.springframework.util.Assert;
+
+/**
+ * {@link ApplicationEvent} carrying a batch of {@link RedisKeyExpiredEvent}s for keys that expired close to each other.
+ * Published by the {@link BatchingExpirationListener}.
+ *
+ * @author Christoph Strobl
+ */
+public class RedisKeysExpiredEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<RedisKeyExpiredEvent<?>> events;
+
+	/**
+	 * Create new {@link RedisKeysExpiredEvent}.
+	 *
+	 * @param events must not be {@literal null}.
+	 */
+	public RedisKeysExpiredEvent(List<RedisKeyExpiredEvent<?>> events) {
+
+		super(events);
+
+		Assert.notNull(events, "Events must not be null!");
+		this.events = Collections.unmodifiableList(events);
+	}
+
+	/**
+	 * @return the expiration of each key in order of arrival.
+	 */
+	public List<RedisKeyExpiredEvent<?>> getEvents() {
+		return events;
+	}
+
+	/**
+	 * @param type must not be {@literal null}.
+	 * @return the last known values of the given type. Values that could not be resolved are skipped.
+	 */
+	public <T> List<T> getValues(Class<T> type) {
+
+		Assert.notNull(type, "Type must not be null!");
+
+		List<T> values = new ArrayList<>(events.size());
+		for (RedisKeyExpiredEvent<?> event : events) {
+			if (type.isInstance(event.getValue())) {
+				values.add(type.cast(event.getValue()));
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * @return number of expired keys.
+	 */
+	public int size() {
+		return events.size();
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.ohm;
+
+import java.util.Map;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.hash.ObjectHashMapper;
+import org.springframework.util.Assert;
+
+/**
+ * Writes objects as Redis {@literal HASH} using the same flattened format as the {@link ObjectHashMapper} but hands the
+ * raw {@code byte[]} field names and values directly to {@link RedisConnection#hMSet(byte[], Map)}. <br />
+ * The {@literal HASH} is produced by the {@link EntityCodec} of a {@link CompiledHashMapper}, so field names such as
+ * {@literal firstname} or {@literal address.city} are encoded once per type and values are written straight into the
+ * resulting map. There is no need to go through {@code Map<String, String>} and {@link String} conversion as in:
+ *
+ * <pre>
+ * <code>
+ * mapper.toHash(person).entrySet().stream()
+ *     .collect(Collectors.toMap(e -> new String(e.getKey()), e -> new String(e.getValue())));
+ * </code>
+ * </pre>
+ *
+ * @author Christoph Strobl
+ */
+public class BinaryHashWriter {
+
+	private final CompiledHashMapper mapper;
+
+	/**
+	 * Create new {@link BinaryHashWriter} producing the format of a default {@link ObjectHashMapper}.
+	 */
+	public BinaryHashWriter() {
+		this(new CompiledHashMapper());
+	}
+
+	/**
+	 * Create new {@link BinaryHashWriter} for the given {@link RedisMappingContext}.
+	 *
+	 * @param mappingContext must not be {@literal null}.
+	 */
+	public BinaryHashWriter(RedisMappingContext mappingContext) {
+		this(new CompiledHashMapper(mappingContext, null));
+	}
+
+	/**
+	 * Create new {@link BinaryHashWriter} using the given {@link CompiledHashMapper}.
+	 *
+	 * @param mapper must not be {@literal null}.
+	 */
+	public BinaryHashWriter(CompiledHashMapper mapper) {
+
+		Assert.notNull(mapper, "CompiledHashMapper must not be null!");
+		this.mapper = mapper;
+	}
+
+	/**
+	 * Compile the codecs of the given types upfront so that the first write does not have to.
+	 *
+	 * @param types must not be {@literal null}.
+	 * @return this.
+	 */
+	public BinaryHashWriter prepare(Class<?>... types) {
+
+		mapper.prepare(types);
+		return this;
+	}
+
+	/**
+	 * Convert the given object into its binary {@literal HASH} representation.
+	 *
+	 * @param source must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	public Map<byte[], byte[]> toHash(Object source) {
+		return mapper.toHash(source);
+	}
+
+	/**
+	 * Write the given object as {@literal HASH} to {@literal key}.
+	 *
+	 * @param connection must not be {@literal null}.
+	 * @param key must not be {@literal null}.
+	 * @param source must not be {@literal null}.
+	 */
+	public void write(RedisConnection connection, byte[] key, Object source) {
+
+		Assert.notNull(connection, "Connection must not be null!");
+		Assert.notNull(key, "Key must not be null!");
+
+		connection.hMSet(key, toHash(source));
+	}
+
+	/**
+	 * @return the {@link CompiledHashMapper} in use.
+	 */
+	public CompiledHashMapper getMapper() {
+		return mapper;
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.ohm;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.data.redis.core.convert.ReferenceResolver;
+
+/**
+ * {@link ReferenceResolver} capable of loading many references of the same keyspace at once.
+ *
+ * @author Christoph Strobl
+ */
+public interface BulkReferenceResolver extends ReferenceResolver {
+
+	/**
+	 * Load the raw {@literal HASH}es for the given ids.
+	 *
+	 * @param ids must not be {@literal null}.
+	 * @param keyspace must not be {@literal null}.
+	 * @return one entry per id in the order of {@literal ids}. Missing ones result in an empty {@link Map}.
+	 */
+	List<Map<byte[], byte[]>> resolveReferences(List<? extends Serializable> ids, String keyspace);
+}
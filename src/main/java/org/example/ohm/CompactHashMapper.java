@@ -0,0 +1,561 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.ohm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.springframework.data.annotation.TypeAlias;
+import org.springframework.data.keyvalue.core.mapping.KeyValuePersistentProperty;
+import org.springframework.data.mapping.PropertyHandler;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.convert.ReferenceResolver;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.core.mapping.RedisPersistentEntity;
+import org.springframework.data.redis.hash.HashMapper;
+import org.springframework.data.redis.hash.ObjectHashMapper;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * {@link HashMapper} writing a compact binary variant of the {@link ObjectHashMapper} format. Field names and enum
+ * constants are replaced by numeric ids taken from a per type dictionary, integral numbers are written as zig-zag
+ * varints and the {@literal _class} hint is replaced by a short alias:
+ *
+ * <pre>
+ * <code>
+ * _class       := org.example.types.Person      0x00      := person
+ * firstname    := jon                           0x01      := jon
+ * gender       := MALE                          0x03      := 0x04
+ * address.city := winterfell                    0x05      := winterfell
+ * age          := 42                            0x07      := 0x54
+ * children.[2] := person:4711                   0x08 0x02 := person:4711
+ * </code>
+ * </pre>
+ *
+ * Element indexes of collections are written after the id of the path they belong to ({@literal children.[]}), so
+ * all elements share a single dictionary entry. Map keys are not indexes and remain part of the field name.
+ * <br />
+ * The alias is the {@link TypeAlias} or the keyspace of the type. Aliases are registered in {@literal ohm:types} and
+ * dictionaries are kept in {@literal ohm:dictionary:<alias>} so all application instances agree on the ids. New
+ * fields and constants get an id assigned on first write. <br />
+ * <strong>Note:</strong> Compact hashes cannot be accessed by field name (e.g. {@literal HGET person:1 firstname},
+ * {@literal HINCRBY}) and are not meant for the {@link org.springframework.data.redis.core.RedisKeyValueAdapter},
+ * whose partial updates and index maintenance work with plain property paths.
+ *
+ * @author Christoph Strobl
+ */
+public class CompactHashMapper implements HashMapper<Object, byte[], byte[]> {
+
+	private static final byte[] ALIAS_FIELD = { 0 };
+	private static final byte[] SEQUENCE = "#".getBytes(StandardCharsets.UTF_8);
+	private static final String TYPE_HINT = "_class";
+	private static final String COLLECTION_ELEMENT = ".[";
+	private static final String ELEMENT_PLACEHOLDER = ".[]";
+
+	private static final Set<Class<?>> INTEGRAL_TYPES = new HashSet<>(
+			Arrays.asList(Byte.class, Short.class, Integer.class, Long.class));
+
+	private final RedisConnectionFactory connectionFactory;
+	private final RedisMappingContext mappingContext;
+	private final CompiledHashMapper delegate;
+	private final Map<Class<?>, TypeDictionary> dictionaries = new ConcurrentHashMap<>();
+	private final Map<String, Class<?>> types = new ConcurrentHashMap<>();
+
+	private String keyPrefix = "ohm:";
+
+	/**
+	 * Create new {@link CompactHashMapper} that does not resolve {@link org.springframework.data.annotation.Reference}s
+	 * on read.
+	 *
+	 * @param connectionFactory used to access the dictionaries. Must not be {@literal null}.
+	 */
+	public CompactHashMapper(RedisConnectionFactory connectionFactory) {
+		this(connectionFactory, new RedisMappingContext(), null);
+	}
+
+	/**
+	 * Create new {@link CompactHashMapper}.
+	 *
+	 * @param connectionFactory used to access the dictionaries. Must not be {@literal null}.
+	 * @param mappingContext must not be {@literal null}.
+	 * @param referenceResolver used to load referenced objects on read. Can be {@literal null}.
+	 */
+	public CompactHashMapper(RedisConnectionFactory connectionFactory, RedisMappingContext mappingContext,
+			ReferenceResolver referenceResolver) {
+
+		Assert.notNull(connectionFactory, "ConnectionFactory must not be null!");
+		Assert.notNull(mappingContext, "MappingContext must not be null!");
+
+		this.connectionFactory = connectionFactory;
+		this.mappingContext = mappingContext;
+		this.delegate = new CompiledHashMapper(mappingContext, referenceResolver);
+	}
+
+	/**
+	 * Set the prefix of the keys holding aliases and dictionaries. Needs to be set before first use. Defaults to
+	 * {@literal ohm:}.
+	 *
+	 * @param keyPrefix must not be {@literal null}.
+	 */
+	public void setKeyPrefix(String keyPrefix) {
+
+		Assert.notNull(keyPrefix, "KeyPrefix must not be null!");
+		this.keyPrefix = keyPrefix;
+	}
+
+	/**
+	 * Register aliases and load dictionaries of the given types upfront.
+	 *
+	 * @param types must not be {@literal null}.
+	 * @return this.
+	 */
+	public CompactHashMapper prepare(Class<?>... types) {
+
+		for (Class<?> type : types) {
+			dictionaryFor(type);
+		}
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.hash.HashMapper#toHash(java.lang.Object)
+	 */
+	@Override
+	public Map<byte[], byte[]> toHash(Object source) {
+
+		Assert.notNull(source, "Source must not be null!");
+
+		TypeDictionary dictionary = dictionaryFor(ClassUtils.getUserClass(source));
+		Map<byte[], byte[]> flattened = delegate.toHash(source);
+
+		Map<byte[], byte[]> hash = new LinkedHashMap<>((int) (flattened.size() / 0.75f) + 1);
+		hash.put(ALIAS_FIELD, dictionary.alias);
+
+		for (Map.Entry<byte[], byte[]> entry : flattened.entrySet()) {
+
+			String name = new String(entry.getKey(), StandardCharsets.UTF_8);
+			if (!TYPE_HINT.equals(name)) {
+				dictionary.write(name, entry.getValue(), hash);
+			}
+		}
+		return hash;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.hash.HashMapper#fromHash(java.util.Map)
+	 */
+	@Override
+	public Object fromHash(Map<byte[], byte[]> hash) {
+
+		if (hash == null || hash.isEmpty()) {
+			return null;
+		}
+
+		for (Map.Entry<byte[], byte[]> entry : hash.entrySet()) {
+			if (Arrays.equals(ALIAS_FIELD, entry.getKey())) {
+				return fromHash(hash, typeOf(new String(entry.getValue(), StandardCharsets.UTF_8)));
+			}
+		}
+		throw new IllegalArgumentException("Hash does not contain a type alias.");
+	}
+
+	/**
+	 * Read the given compact {@literal HASH} into an object of the given type.
+	 *
+	 * @param hash can be {@literal null}.
+	 * @param type must not be {@literal null}.
+	 * @return {@literal null} if the hash is empty.
+	 */
+	public <T> T fromHash(Map<byte[], byte[]> hash, Class<T> type) {
+
+		if (hash == null || hash.isEmpty()) {
+			return null;
+		}
+
+		TypeDictionary dictionary = dictionaryFor(type);
+
+		Map<byte[], byte[]> flattened = new LinkedHashMap<>((int) (hash.size() / 0.75f) + 1);
+		for (Map.Entry<byte[], byte[]> entry : hash.entrySet()) {
+			if (!Arrays.equals(ALIAS_FIELD, entry.getKey())) {
+				dictionary.read(entry.getKey(), entry.getValue(), flattened);
+			}
+		}
+		return delegate.fromHash(flattened, type);
+	}
+
+	private TypeDictionary dictionaryFor(Class<?> type) {
+
+		TypeDictionary dictionary = dictionaries.get(type);
+		if (dictionary == null) {
+			dictionary = dictionaries.computeIfAbsent(type, TypeDictionary::new);
+		}
+		return dictionary;
+	}
+
+	private Class<?> typeOf(String alias) {
+
+		Class<?> type = types.get(alias);
+		if (type != null) {
+			return type;
+		}
+
+		byte[] className = execute(connection -> connection.hGet(bytes(keyPrefix + "types"), bytes(alias)));
+		if (className == null) {
+			throw new IllegalArgumentException(String.format("Unknown type alias '%s'.", alias));
+		}
+
+		type = ClassUtils.resolveClassName(new String(className, StandardCharsets.UTF_8),
+				ClassUtils.getDefaultClassLoader());
+		dictionaryFor(type);
+		return type;
+	}
+
+	private <T> T execute(Function<RedisConnection, T> callback) {
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+			return callback.apply(connection);
+		} finally {
+			connection.close();
+		}
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	// --> varints
+
+	static byte[] varint(long value) {
+
+		byte[] buffer = new byte[10];
+		int length = 0;
+		while ((value & ~0x7FL) != 0) {
+
+			buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[length++] = (byte) value;
+		return Arrays.copyOf(buffer, length);
+	}
+
+	static long readVarint(byte[] source, int[] position) {
+
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+
+			if (position[0] >= source.length) {
+				break;
+			}
+
+			byte current = source[position[0]++];
+			result |= (long) (current & 0x7F) << shift;
+			if ((current & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint.");
+	}
+
+	private static byte[] concat(byte[] first, byte[] second) {
+
+		byte[] result = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+
+	private enum ValueKind {
+		ENUM, INTEGRAL
+	}
+
+	/**
+	 * Field and enum constant ids of a single type. Ids are assigned via {@literal HINCRBY} on the sequence field and
+	 * claimed via {@literal HSETNX} so concurrent writers settle on the same id.
+	 */
+	private class TypeDictionary {
+
+		final byte[] key;
+		final byte[] alias;
+		final Map<String, ValueKind> values = new HashMap<>();
+		final Set<String> collections = new HashSet<>();
+		final Map<String, Integer> ids = new ConcurrentHashMap<>();
+		final Map<Integer, String> symbols = new ConcurrentHashMap<>();
+
+		TypeDictionary(Class<?> type) {
+
+			String alias = TypeAliasRegistry.defaultAlias(mappingContext, type);
+			Class<?> registered = types.putIfAbsent(alias, type);
+			if (registered != null && registered != type) {
+				throw new IllegalStateException(String.format("Alias '%s' of %s is already used by %s.", alias,
+						type.getName(), registered.getName()));
+			}
+
+			byte[] className = execute(connection -> {
+
+				connection.hSetNX(bytes(keyPrefix + "types"), bytes(alias), bytes(type.getName()));
+				return connection.hGet(bytes(keyPrefix + "types"), bytes(alias));
+			});
+
+			if (!type.getName().equals(new String(className, StandardCharsets.UTF_8))) {
+				throw new IllegalStateException(String.format("Alias '%s' of %s is already registered for %s.", alias,
+						type.getName(), new String(className, StandardCharsets.UTF_8)));
+			}
+
+			this.key = bytes(keyPrefix + "dictionary:" + alias);
+			this.alias = bytes(alias);
+
+			RedisPersistentEntity<?> entity = mappingContext.getPersistentEntity(type);
+			if (entity != null) {
+				collect(entity, "", new HashSet<>());
+			}
+
+			load();
+		}
+
+		void write(String name, byte[] value, Map<byte[], byte[]> target) {
+
+			List<Integer> indexes = new ArrayList<>(2);
+			String symbol = symbolOf(name, indexes);
+
+			byte[] field = varint(idOf(symbol));
+			for (int index : indexes) {
+				field = concat(field, varint(index));
+			}
+
+			ValueKind kind = values.get(symbol);
+			if (kind == ValueKind.ENUM) {
+				value = varint(idOf(symbol + "=" + new String(value, StandardCharsets.UTF_8)));
+			} else if (kind == ValueKind.INTEGRAL) {
+
+				long number = Long.parseLong(new String(value, StandardCharsets.UTF_8));
+				value = varint((number << 1) ^ (number >> 63));
+			}
+
+			target.put(field, value);
+		}
+
+		void read(byte[] field, byte[] value, Map<byte[], byte[]> target) {
+
+			int[] position = { 0 };
+			String symbol = symbolOf((int) readVarint(field, position));
+			String name = position[0] < field.length ? nameOf(symbol, field, position) : symbol;
+
+			ValueKind kind = values.get(symbol);
+			if (kind == ValueKind.ENUM) {
+
+				String constant = symbolOf((int) readVarint(value, new int[] { 0 }));
+				value = bytes(constant.substring(constant.indexOf('=') + 1));
+			} else if (kind == ValueKind.INTEGRAL) {
+
+				long number = readVarint(value, new int[] { 0 });
+				value = bytes(Long.toString((number >>> 1) ^ -(number & 1)));
+			}
+
+			target.put(bytes(name), value);
+		}
+
+		/**
+		 * Replace the element indexes of registered collection paths in the given field name by {@literal []} and
+		 * collect them in {@literal indexes}. Map keys and everything else remain part of the symbol.
+		 */
+		private String symbolOf(String name, List<Integer> indexes) {
+
+			if (collections.isEmpty() || name.indexOf(COLLECTION_ELEMENT) < 0) {
+				return name;
+			}
+
+			StringBuilder symbol = new StringBuilder(name.length());
+			int from = 0;
+			int start;
+			while ((start = name.indexOf(COLLECTION_ELEMENT, from)) >= 0) {
+
+				symbol.append(name, from, start);
+
+				int end = name.indexOf(']', start);
+				int index = end > 0 && collections.contains(symbol.toString())
+						? index(name, start + COLLECTION_ELEMENT.length(), end) : -1;
+
+				if (index < 0) {
+
+					symbol.append(COLLECTION_ELEMENT);
+					from = start + COLLECTION_ELEMENT.length();
+					continue;
+				}
+
+				symbol.append(ELEMENT_PLACEHOLDER);
+				indexes.add(index);
+				from = end + 1;
+			}
+			return symbol.append(name, from, name.length()).toString();
+		}
+
+		/**
+		 * Inverse of {@link #symbolOf(String, List)} reading the element indexes from {@literal field}.
+		 */
+		private String nameOf(String symbol, byte[] field, int[] position) {
+
+			StringBuilder name = new StringBuilder(symbol.length() + 8);
+			int from = 0;
+			int start;
+			while ((start = symbol.indexOf(ELEMENT_PLACEHOLDER, from)) >= 0) {
+
+				name.append(symbol, from, start);
+
+				if (position[0] < field.length && collections.contains(symbol.substring(0, start))) {
+					name.append(COLLECTION_ELEMENT).append(readVarint(field, position)).append(']');
+				} else {
+					name.append(ELEMENT_PLACEHOLDER);
+				}
+				from = start + ELEMENT_PLACEHOLDER.length();
+			}
+			return name.append(symbol, from, symbol.length()).toString();
+		}
+
+		private int idOf(String symbol) {
+
+			Integer id = ids.get(symbol);
+			return id != null ? id : assign(symbol);
+		}
+
+		private String symbolOf(int id) {
+
+			String symbol = symbols.get(id);
+			if (symbol == null) {
+
+				// assigned by someone else
+				synchronized (this) {
+					load();
+				}
+				symbol = symbols.get(id);
+			}
+
+			if (symbol == null) {
+				throw new IllegalStateException(
+						String.format("Unknown id %s in %s.", id, new String(key, StandardCharsets.UTF_8)));
+			}
+			return symbol;
+		}
+
+		private synchronized int assign(String symbol) {
+
+			Integer id = ids.get(symbol);
+			if (id != null) {
+				return id;
+			}
+
+			byte[] raw = execute(connection -> {
+
+				Long candidate = connection.hIncrBy(key, SEQUENCE, 1);
+				if (Boolean.TRUE.equals(connection.hSetNX(key, bytes(symbol), bytes(candidate.toString())))) {
+					return bytes(candidate.toString());
+				}
+				return connection.hGet(key, bytes(symbol));
+			});
+
+			int assigned = Integer.parseInt(new String(raw, StandardCharsets.UTF_8));
+			register(symbol, assigned);
+			return assigned;
+		}
+
+		private void load() {
+
+			Map<byte[], byte[]> entries = execute(connection -> connection.hGetAll(key));
+			if (entries == null) {
+				return;
+			}
+
+			for (Map.Entry<byte[], byte[]> entry : entries.entrySet()) {
+				if (!Arrays.equals(SEQUENCE, entry.getKey())) {
+					register(new String(entry.getKey(), StandardCharsets.UTF_8),
+							Integer.parseInt(new String(entry.getValue(), StandardCharsets.UTF_8)));
+				}
+			}
+		}
+
+		private void register(String symbol, int id) {
+
+			ids.put(symbol, id);
+			symbols.put(id, symbol);
+		}
+
+		private void collect(RedisPersistentEntity<?> entity, String prefix, Set<Class<?>> visited) {
+
+			if (!visited.add(entity.getType())) {
+				return;
+			}
+
+			entity.doWithProperties((PropertyHandler<KeyValuePersistentProperty>) property -> {
+
+				// map keys are part of the field name and get an id of their own
+				if (property.isMap()) {
+					return;
+				}
+
+				String path = prefix + property.getName();
+				String field = property.isCollectionLike() ? path + ELEMENT_PLACEHOLDER : path;
+				Class<?> type = ClassUtils.resolvePrimitiveIfNecessary(property.getActualType());
+
+				if (property.isCollectionLike()) {
+					collections.add(path);
+				}
+
+				if (type.isEnum()) {
+					values.put(field, ValueKind.ENUM);
+				} else if (INTEGRAL_TYPES.contains(type)) {
+					values.put(field, ValueKind.INTEGRAL);
+				} else if (property.isEntity() && !property.isAssociation()) {
+					collect(mappingContext.getPersistentEntity(type), field + ".", new HashSet<>(visited));
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return the element index written between {@literal start} and {@literal end}, {@literal -1} if it is not a plain
+	 *         index (e.g. {@literal 007}) or too large.
+	 */
+	private static int index(String name, int start, int end) {
+
+		int length = end - start;
+		if (length < 1 || length > 9 || (length > 1 && name.charAt(start) == '0')) {
+			return -1;
+		}
+
+		int index = 0;
+		for (int i = start; i < end; i++) {
+
+			char digit = name.charAt(i);
+			if (digit < '0' || digit > '9') {
+				return -1;
+			}
+			index = index * 10 + (digit - '0');
+		}
+		return index;
+	}
+}
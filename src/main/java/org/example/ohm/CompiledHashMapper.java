@@ -0,0 +1,289 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.ohm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.example.ohm.EntityCodec.ReferenceLoader;
+import org.example.ohm.EntityCodec.UnsupportedMappingException;
+import org.springframework.beans.DirectFieldAccessor;
+import org.springframework.data.redis.core.convert.CustomConversions;
+import org.springframework.data.redis.core.convert.MappingRedisConverter;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.core.convert.RedisData;
+import org.springframework.data.redis.core.convert.ReferenceResolver;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.core.mapping.RedisPersistentEntity;
+import org.springframework.data.redis.hash.HashMapper;
+import org.springframework.data.redis.hash.ObjectHashMapper;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * {@link HashMapper} reading and writing the {@link ObjectHashMapper} format through an {@link EntityCodec} compiled
+ * once per type on first use. Can be used as drop in replacement for the {@link ObjectHashMapper}:
+ *
+ * <pre>
+ * <code>
+ * &#64;Bean
+ * HashMapper&lt;Object, byte[], byte[]&gt; mapper() {
+ *   return new CompiledHashMapper();
+ * }
+ * </code>
+ * </pre>
+ *
+ * Types that cannot be compiled are mapped via the {@link MappingRedisConverter} just like the {@link ObjectHashMapper}
+ * does.
+ *
+ * @author Christoph Strobl
+ */
+public class CompiledHashMapper implements HashMapper<Object, byte[], byte[]> {
+
+	private final MappingRedisConverter converter;
+	private final CustomConversions customConversions;
+	private final TypeAliasRegistry aliases;
+	private final ReferenceResolver referenceResolver;
+	private volatile ReferenceLoader references;
+	private final Map<Class<?>, Object> codecs = new ConcurrentHashMap<>();
+
+	/**
+	 * Create new {@link CompiledHashMapper} that does not resolve {@link org.springframework.data.annotation.Reference}s
+	 * on read.
+	 */
+	public CompiledHashMapper() {
+		this(new RedisMappingContext(), null);
+	}
+
+	/**
+	 * Create new {@link CompiledHashMapper}.
+	 *
+	 * @param mappingContext must not be {@literal null}.
+	 * @param referenceResolver used to load referenced objects on read. Can be {@literal null}.
+	 */
+	public CompiledHashMapper(RedisMappingContext mappingContext, ReferenceResolver referenceResolver) {
+		this(mappingContext, referenceResolver, null);
+	}
+
+	/**
+	 * Create new {@link CompiledHashMapper} writing {@literal _class} hints via the given {@link TypeAliasRegistry}.
+	 * Hashes using aliases cannot be read by the {@link ObjectHashMapper}.
+	 *
+	 * @param mappingContext must not be {@literal null}.
+	 * @param referenceResolver used to load referenced objects on read. Can be {@literal null}.
+	 * @param aliases can be {@literal null}.
+	 */
+	public CompiledHashMapper(RedisMappingContext mappingContext, ReferenceResolver referenceResolver,
+			TypeAliasRegistry aliases) {
+		this(mappingContext, referenceResolver, aliases, null);
+	}
+
+	/**
+	 * Create new {@link CompiledHashMapper} applying the given {@link CustomConversions}. Properties converted into
+	 * anything but {@code byte[]} are mapped via the {@link MappingRedisConverter}.
+	 *
+	 * @param mappingContext must not be {@literal null}.
+	 * @param referenceResolver used to load referenced objects on read. Can be {@literal null}.
+	 * @param aliases can be {@literal null}.
+	 * @param customConversions can be {@literal null} to use the defaults.
+	 */
+	public CompiledHashMapper(RedisMappingContext mappingContext, ReferenceResolver referenceResolver,
+			TypeAliasRegistry aliases, CustomConversions customConversions) {
+
+		Assert.notNull(mappingContext, "MappingContext must not be null!");
+
+		this.converter = HashMappingSupport.newConverter(mappingContext, referenceResolver, aliases, customConversions);
+		this.customConversions = customConversions;
+		this.aliases = aliases;
+		this.referenceResolver = referenceResolver;
+		this.references = referenceResolver != null ? ReferenceLoader.of(referenceResolver, this::fromHash) : null;
+	}
+
+	/**
+	 * Create new {@link CompiledHashMapper} using the mapping context, type aliases and {@link CustomConversions} of the
+	 * given {@link RedisConverter}.
+	 *
+	 * @param converter must not be {@literal null}.
+	 * @param referenceResolver used to load referenced objects on read. Can be {@literal null}.
+	 * @return new instance of {@link CompiledHashMapper}.
+	 */
+	public static CompiledHashMapper of(RedisConverter converter, ReferenceResolver referenceResolver) {
+
+		Assert.notNull(converter, "RedisConverter must not be null!");
+
+		TypeAliasRegistry aliases = converter instanceof TypeAliasingRedisConverter
+				? ((TypeAliasingRedisConverter) converter).getTypeAliasRegistry() : null;
+
+		// MappingRedisConverter does not expose the conversions it has been configured with
+		CustomConversions customConversions = converter instanceof MappingRedisConverter
+				? (CustomConversions) new DirectFieldAccessor(converter).getPropertyValue("customConversions") : null;
+
+		return new CompiledHashMapper((RedisMappingContext) converter.getMappingContext(), referenceResolver, aliases,
+				customConversions);
+	}
+
+	/**
+	 * Set whether to resolve {@link LazyReference}s on first access, which is the default, or right away while reading.
+	 * Resolve them right away when the {@link ReferenceResolver} must not be called later on, e.g. because it only
+	 * answers from {@literal HASH}es loaded upfront.
+	 *
+	 * @param lazyReferences {@literal false} to resolve {@link LazyReference}s while reading.
+	 */
+	public void setLazyReferences(boolean lazyReferences) {
+
+		if (referenceResolver != null) {
+			this.references = ReferenceLoader.of(referenceResolver, this::fromHash, lazyReferences);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.hash.HashMapper#toHash(java.lang.Object)
+	 */
+	@Override
+	public Map<byte[], byte[]> toHash(Object source) {
+
+		Assert.notNull(source, "Source must not be null!");
+
+		EntityCodec codec = codecFor(ClassUtils.getUserClass(source));
+		if (codec != null) {
+			try {
+				return codec.write(source);
+			} catch (UnsupportedMappingException e) {
+				// fall back to the converter
+			}
+		}
+
+		RedisData sink = new RedisData();
+		converter.write(source, sink);
+		return sink.getBucket().rawMap();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.hash.HashMapper#fromHash(java.util.Map)
+	 */
+	@Override
+	public Object fromHash(Map<byte[], byte[]> hash) {
+
+		if (hash == null || hash.isEmpty()) {
+			return null;
+		}
+
+		return read(hash, typeOf(hash));
+	}
+
+	/**
+	 * Read the given {@literal HASH} into an object of the given type, or the subtype named by its root
+	 * {@literal _class} hint.
+	 *
+	 * @param hash can be {@literal null}.
+	 * @param type must not be {@literal null}.
+	 * @return {@literal null} if the hash is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T fromHash(Map<byte[], byte[]> hash, Class<T> type) {
+
+		if (hash == null || hash.isEmpty()) {
+			return null;
+		}
+
+		Class<?> hinted = typeOf(hash);
+		return (T) read(hash, type.isAssignableFrom(hinted) ? hinted : type);
+	}
+
+	/**
+	 * Compile codecs for the given types upfront.
+	 *
+	 * @param types must not be {@literal null}.
+	 * @return this.
+	 */
+	public CompiledHashMapper prepare(Class<?>... types) {
+
+		for (Class<?> type : types) {
+			codecFor(type);
+		}
+		return this;
+	}
+
+	/**
+	 * @param type must not be {@literal null}.
+	 * @return {@literal true} if a compiled codec is used for the given type.
+	 */
+	public boolean isCompiled(Class<?> type) {
+		return codecFor(type) != null;
+	}
+
+	private Object read(Map<byte[], byte[]> hash, Class<?> type) {
+
+		EntityCodec codec = codecFor(type);
+		if (codec != null) {
+			try {
+				return codec.read(hash, references);
+			} catch (UnsupportedMappingException e) {
+				// fall back to the converter
+			}
+		}
+
+		return converter.read(type, new RedisData(hash));
+	}
+
+	private EntityCodec codecFor(Class<?> type) {
+
+		Object codec = codecs.get(type);
+		if (codec == null) {
+			codec = codecs.computeIfAbsent(type, this::compile);
+		}
+		return codec instanceof EntityCodec ? (EntityCodec) codec : null;
+	}
+
+	private Object compile(Class<?> type) {
+
+		if (Object.class.equals(type)) {
+			return Boolean.FALSE;
+		}
+
+		RedisPersistentEntity<?> entity = converter.getMappingContext().getPersistentEntity(type);
+		EntityCodec codec = entity != null ? EntityCodec.compile(entity, converter.getMappingContext(),
+				converter.getConversionService(), customConversions,
+				aliases != null ? aliases.getTypeHint(type) : type.getName()) : null;
+
+		// remember types that cannot be compiled so we do not try over and over again
+		return codec != null ? codec : Boolean.FALSE;
+	}
+
+	private Class<?> typeOf(Map<byte[], byte[]> hash) {
+
+		for (Map.Entry<byte[], byte[]> entry : hash.entrySet()) {
+			if (Arrays.equals(EntityCodec.TYPE_HINT, entry.getKey())) {
+
+				String hint = new String(entry.getValue(), StandardCharsets.UTF_8);
+				if (aliases != null) {
+
+					Class<?> type = aliases.getType(hint);
+					if (type != null) {
+						return type;
+					}
+				}
+				return ClassUtils.isPresent(hint, ClassUtils.getDefaultClassLoader())
+						? ClassUtils.resolveClassName(hint, ClassUtils.getDefaultClassLoader()) : Object.class;
+			}
+		}
+		return Object.class;
+	}
+}
@@ -0,0 +1,911 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.ohm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import org.springframework.core.CollectionFactory;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.data.convert.ClassGeneratingEntityInstantiator;
+import org.springframework.data.convert.EntityInstantiator;
+import org.springframework.data.keyvalue.core.mapping.KeyValuePersistentProperty;
+import org.springframework.data.mapping.AssociationHandler;
+import org.springframework.data.mapping.PersistentPropertyAccessor;
+import org.springframework.data.mapping.PropertyHandler;
+import org.springframework.data.mapping.model.ParameterValueProvider;
+import org.springframework.data.redis.core.convert.CustomConversions;
+import org.springframework.data.redis.core.convert.ReferenceResolver;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.core.mapping.RedisPersistentEntity;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Pre-compiled reader and writer for a single entity type. <br />
+ * Compilation walks the {@link RedisPersistentEntity} once and turns every property into a binding holding the encoded
+ * field name ({@literal firstname}, {@literal address.city}, {@literal children.[}), a value codec and a slot in a flat
+ * lookup table. Reads and writes then only iterate those bindings using the generated {@link PersistentPropertyAccessor}
+ * and {@link ClassGeneratingEntityInstantiator} of Spring Data, so there is neither reflection nor {@link String} path
+ * building on the hot path. <br />
+ * The produced {@literal HASH} is the same one the {@link org.springframework.data.redis.hash.ObjectHashMapper} writes.
+ * Types using features not covered here (maps, arrays, collections of embedded objects, constructor arguments,
+ * polymorphic embedded values) cannot be compiled.
+ *
+ * @author Christoph Strobl
+ */
+class EntityCodec {
+
+	static final byte[] TYPE_HINT = "_class".getBytes(StandardCharsets.UTF_8);
+
+	private static final EntityInstantiator INSTANTIATOR = new ClassGeneratingEntityInstantiator();
+	private static final ParameterValueProvider<KeyValuePersistentProperty> NO_ARGS = parameter -> null;
+
+	private final Class<?> type;
+	private final byte[] typeHint;
+	private final EntityBinding root;
+	private final FieldTable fields;
+	private final List<CollectionBinding> collections;
+	private final int slots;
+
+	private EntityCodec(Class<?> type, byte[] typeHint, EntityBinding root, FieldTable fields,
+			List<CollectionBinding> collections, int slots) {
+
+		this.type = type;
+		this.typeHint = typeHint;
+		this.root = root;
+		this.fields = fields;
+		this.collections = collections;
+		this.slots = slots;
+	}
+
+	/**
+	 * Compile the codec for the given entity.
+	 *
+	 * @param entity must not be {@literal null}.
+	 * @param mappingContext must not be {@literal null}.
+	 * @param conversionService must not be {@literal null}.
+	 * @return {@literal null} if the entity cannot be compiled.
+	 */
+	static EntityCodec compile(RedisPersistentEntity<?> entity, RedisMappingContext mappingContext,
+			ConversionService conversionService) {
+		return compile(entity, mappingContext, conversionService, entity.getType().getName());
+	}
+
+	/**
+	 * Compile the codec for the given entity writing the given {@literal _class} hint.
+	 *
+	 * @param entity must not be {@literal null}.
+	 * @param mappingContext must not be {@literal null}.
+	 * @param conversionService must not be {@literal null}.
+	 * @param typeHint the type alias or class name. Must not be {@literal null}.
+	 * @return {@literal null} if the entity cannot be compiled.
+	 */
+	static EntityCodec compile(RedisPersistentEntity<?> entity, RedisMappingContext mappingContext,
+			ConversionService conversionService, String typeHint) {
+		return compile(entity, mappingContext, conversionService, null, typeHint);
+	}
+
+	/**
+	 * Compile the codec for the given entity writing the given {@literal _class} hint. Types with a custom write target
+	 * other than {@code byte[]} are left to the converter.
+	 *
+	 * @param entity must not be {@literal null}.
+	 * @param mappingContext must not be {@literal null}.
+	 * @param conversionService must not be {@literal null}.
+	 * @param customConversions the conversions registered with {@literal conversionService}. Can be {@literal null}.
+	 * @param typeHint the type alias or class name. Must not be {@literal null}.
+	 * @return {@literal null} if the entity cannot be compiled.
+	 */
+	static EntityCodec compile(RedisPersistentEntity<?> entity, RedisMappingContext mappingContext,
+			ConversionService conversionService, CustomConversions customConversions, String typeHint) {
+
+		try {
+
+			Compiler compiler = new Compiler(mappingContext, conversionService, customConversions);
+			compiler.rejectCustomConversion(entity.getType(), entity.getType().getName());
+			EntityBinding root = compiler.entity(entity, "");
+			return new EntityCodec(entity.getType(), typeHint.getBytes(StandardCharsets.UTF_8), root,
+					compiler.fields.build(), compiler.collections, compiler.slot);
+		} catch (UnsupportedMappingException e) {
+			return null;
+		}
+	}
+
+	Class<?> getType() {
+		return type;
+	}
+
+	/**
+	 * Write the given object. The object has to be of the exact type this codec was compiled for.
+	 *
+	 * @param source must not be {@literal null}.
+	 * @return never {@literal null}.
+	 * @throws UnsupportedMappingException if a property value cannot be written by this codec.
+	 */
+	Map<byte[], byte[]> write(Object source) {
+
+		Map<byte[], byte[]> hash = new LinkedHashMap<>();
+		hash.put(TYPE_HINT, typeHint);
+		root.write(source, hash);
+		return hash;
+	}
+
+	/**
+	 * Read the given {@literal HASH}.
+	 *
+	 * @param hash must not be {@literal null}.
+	 * @param references used to load referenced objects. Can be {@literal null}.
+	 * @return never {@literal null}.
+	 * @throws UnsupportedMappingException if the hash contains data that cannot be read by this codec, e.g. a collection
+	 *           index not smaller than the number of fields.
+	 */
+	Object read(Map<byte[], byte[]> hash, ReferenceLoader references) {
+
+		byte[][] values = new byte[slots][];
+		List<List<byte[]>> elements = new ArrayList<>(collections.size());
+		for (int i = 0; i < collections.size(); i++) {
+			elements.add(null);
+		}
+
+		for (Map.Entry<byte[], byte[]> entry : hash.entrySet()) {
+
+			byte[] name = entry.getKey();
+			int slot = fields.slotOf(name);
+			if (slot >= 0) {
+				values[slot] = entry.getValue();
+				continue;
+			}
+
+			for (CollectionBinding collection : collections) {
+
+				int index = collection.indexOf(name);
+				if (index >= 0) {
+
+					// null elements are not written, only sparse lists exceed this and are left to the converter
+					if (index >= hash.size()) {
+						throw new UnsupportedMappingException(String.format("Index of %s exceeds the number of fields.",
+								new String(name, StandardCharsets.UTF_8)));
+					}
+
+					List<byte[]> target = elements.get(collection.id);
+					if (target == null) {
+						target = new ArrayList<>();
+						elements.set(collection.id, target);
+					}
+					while (target.size() <= index) {
+						target.add(null);
+					}
+					target.set(index, entry.getValue());
+					break;
+				}
+			}
+		}
+
+		return root.read(values, elements, references);
+	}
+
+	/**
+	 * Callback to load referenced objects.
+	 */
+	interface ReferenceLoader {
+
+		/**
+		 * @param id the referenced id.
+		 * @param keyspace the keyspace of the referenced object.
+		 * @param type the declared type of the reference.
+		 * @return {@literal null} if the referenced object does not exist.
+		 */
+		Object load(String id, String keyspace, Class<?> type);
+
+		/**
+		 * @return {@literal false} to resolve {@link LazyReference}s while reading instead of on first access.
+		 */
+		default boolean isLazyLoading() {
+			return true;
+		}
+
+		/**
+		 * @param ids the referenced ids.
+		 * @param keyspace the keyspace of the referenced objects.
+		 * @param type the declared type of the references.
+		 * @return one entry per id. {@literal null} for objects that do not exist.
+		 */
+		default List<Object> loadAll(List<String> ids, String keyspace, Class<?> type) {
+
+			List<Object> result = new ArrayList<>(ids.size());
+			for (String id : ids) {
+				result.add(load(id, keyspace, type));
+			}
+			return result;
+		}
+
+		/**
+		 * Create a {@link ReferenceLoader} using a {@link ReferenceResolver} to retrieve the raw hash. A
+		 * {@link BulkReferenceResolver} is used to load multiple references at once.
+		 *
+		 * @param resolver must not be {@literal null}.
+		 * @param reader function reading the raw hash.
+		 * @return new instance of {@link ReferenceLoader}.
+		 */
+		static ReferenceLoader of(ReferenceResolver resolver, BiFunction<Map<byte[], byte[]>, Class<?>, Object> reader) {
+			return of(resolver, reader, true);
+		}
+
+		/**
+		 * Create a {@link ReferenceLoader} using a {@link ReferenceResolver} to retrieve the raw hash.
+		 *
+		 * @param resolver must not be {@literal null}.
+		 * @param reader function reading the raw hash.
+		 * @param lazyLoading {@literal false} to resolve {@link LazyReference}s while reading.
+		 * @return new instance of {@link ReferenceLoader}.
+		 */
+		static ReferenceLoader of(ReferenceResolver resolver, BiFunction<Map<byte[], byte[]>, Class<?>, Object> reader,
+				boolean lazyLoading) {
+
+			return new ReferenceLoader() {
+
+				@Override
+				public Object load(String id, String keyspace, Class<?> type) {
+					return read(resolver.resolveReference(id, keyspace), type);
+				}
+
+				@Override
+				public boolean isLazyLoading() {
+					return lazyLoading;
+				}
+
+				@Override
+				public List<Object> loadAll(List<String> ids, String keyspace, Class<?> type) {
+
+					if (!(resolver instanceof BulkReferenceResolver)) {
+						return ReferenceLoader.super.loadAll(ids, keyspace, type);
+					}
+
+					List<Object> result = new ArrayList<>(ids.size());
+					for (Map<byte[], byte[]> raw : ((BulkReferenceResolver) resolver).resolveReferences(ids, keyspace)) {
+						result.add(read(raw, type));
+					}
+					return result;
+				}
+
+				private Object read(Map<byte[], byte[]> raw, Class<?> type) {
+					return raw == null || raw.isEmpty() ? null : reader.apply(raw, type);
+				}
+			};
+		}
+	}
+
+	/**
+	 * Thrown when a type or value is not covered by the codec.
+	 */
+	static class UnsupportedMappingException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		UnsupportedMappingException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Walks the {@link RedisPersistentEntity} and assigns slots.
+	 */
+	private static class Compiler {
+
+		final RedisMappingContext mappingContext;
+		final ConversionService conversionService;
+		final CustomConversions customConversions;
+		final FieldTable.Builder fields = new FieldTable.Builder();
+		final List<CollectionBinding> collections = new ArrayList<>();
+		int slot = 0;
+
+		Compiler(RedisMappingContext mappingContext, ConversionService conversionService,
+				CustomConversions customConversions) {
+
+			this.mappingContext = mappingContext;
+			this.conversionService = conversionService;
+			this.customConversions = customConversions;
+		}
+
+		/**
+		 * Custom conversions into anything but {@code byte[]} (e.g. a {@link Map}) change the layout of the
+		 * {@literal HASH}, which only the converter knows how to apply.
+		 */
+		void rejectCustomConversion(Class<?> type, String path) {
+
+			if (customConversions != null && customConversions.hasCustomWriteTarget(type)
+					&& !customConversions.hasCustomWriteTarget(type, byte[].class)) {
+				throw new UnsupportedMappingException(path + " of type " + type + " uses a custom conversion");
+			}
+		}
+
+		EntityBinding entity(RedisPersistentEntity<?> entity, String prefix) {
+
+			if (entity.getPersistenceConstructor() != null && entity.getPersistenceConstructor().hasParameters()) {
+				throw new UnsupportedMappingException(entity.getType() + " requires constructor arguments");
+			}
+
+			List<Binding> bindings = new ArrayList<>();
+
+			entity.doWithProperties((PropertyHandler<KeyValuePersistentProperty>) property -> {
+
+				String path = prefix + property.getName();
+
+				rejectCustomConversion(property.getActualType(), path);
+
+				if (property.isMap() || property.isArray()) {
+					throw new UnsupportedMappingException(path + " is a map or array");
+				}
+
+				if (property.isCollectionLike()) {
+
+					if (property.isEntity()) {
+						throw new UnsupportedMappingException(path + " is a collection of entities");
+					}
+					bindings.add(collection(property, path, value(property.getActualType(), path)));
+					return;
+				}
+
+				if (property.isEntity() && !hasCustomWriteTarget(property.getActualType())) {
+
+					if (property.getActualType().equals(entity.getType())) {
+						throw new UnsupportedMappingException(path + " is self referencing");
+					}
+
+					int hintSlot = fields.add(path + "._class", slot++);
+					bindings.add(new EmbeddedBinding(property, hintSlot,
+							entity(mappingContext.getPersistentEntity(property.getActualType()), path + ".")));
+					return;
+				}
+
+				bindings.add(new SimpleBinding(property, fieldName(path), fields.add(path, slot++),
+						value(property.getActualType(), path)));
+			});
+
+			entity.doWithAssociations((AssociationHandler<KeyValuePersistentProperty>) association -> {
+
+				KeyValuePersistentProperty property = association.getInverse();
+				String path = prefix + property.getName();
+
+				if (!property.isCollectionLike() || property.isArray()) {
+					throw new UnsupportedMappingException(path + " is a single reference");
+				}
+
+				RedisPersistentEntity<?> target = mappingContext.getPersistentEntity(property.getActualType());
+				CollectionBinding binding = collection(property, path, new ReferenceCodec(target));
+				binding.lazy = property.isAnnotationPresent(LazyReference.class)
+						&& property.getType().isAssignableFrom(LazyReferenceList.class);
+				bindings.add(binding);
+			});
+
+			return new EntityBinding(entity, bindings);
+		}
+
+		private CollectionBinding collection(KeyValuePersistentProperty property, String path, ValueCodec element) {
+
+			CollectionBinding binding = new CollectionBinding(property, collections.size(), path, element);
+			collections.add(binding);
+			return binding;
+		}
+
+		private boolean hasCustomWriteTarget(Class<?> type) {
+			return customConversions != null && customConversions.hasCustomWriteTarget(type, byte[].class);
+		}
+
+		private ValueCodec value(Class<?> type, String path) {
+
+			if (hasCustomWriteTarget(type)) {
+				return new ConvertingCodec(conversionService, ClassUtils.resolvePrimitiveIfNecessary(type));
+			}
+
+			if (String.class.equals(type)) {
+				return StringCodec.INSTANCE;
+			}
+
+			if (type.isEnum()) {
+				return new EnumCodec(type);
+			}
+
+			Class<?> boxed = ClassUtils.resolvePrimitiveIfNecessary(type);
+			if (conversionService.canConvert(boxed, byte[].class) && conversionService.canConvert(byte[].class, boxed)) {
+				return new ConvertingCodec(conversionService, boxed);
+			}
+
+			throw new UnsupportedMappingException(path + " of type " + type + " cannot be converted");
+		}
+	}
+
+	private static byte[] fieldName(String path) {
+		return path.getBytes(StandardCharsets.UTF_8);
+	}
+
+	// --> bindings
+
+	private interface Binding {
+
+		void write(PersistentPropertyAccessor accessor, Map<byte[], byte[]> hash);
+
+		void read(PersistentPropertyAccessor accessor, byte[][] values, List<List<byte[]>> elements,
+				ReferenceLoader references);
+	}
+
+	private static class EntityBinding {
+
+		final RedisPersistentEntity<?> entity;
+		final Binding[] bindings;
+
+		EntityBinding(RedisPersistentEntity<?> entity, List<Binding> bindings) {
+
+			this.entity = entity;
+			this.bindings = bindings.toArray(new Binding[bindings.size()]);
+		}
+
+		void write(Object source, Map<byte[], byte[]> hash) {
+
+			if (source.getClass() != entity.getType()) {
+				throw new UnsupportedMappingException("Polymorphic value of type " + source.getClass());
+			}
+
+			PersistentPropertyAccessor accessor = entity.getPropertyAccessor(source);
+			for (Binding binding : bindings) {
+				binding.write(accessor, hash);
+			}
+		}
+
+		Object read(byte[][] values, List<List<byte[]>> elements, ReferenceLoader references) {
+
+			Object instance = INSTANTIATOR.createInstance(entity, NO_ARGS);
+			PersistentPropertyAccessor accessor = entity.getPropertyAccessor(instance);
+			for (Binding binding : bindings) {
+				binding.read(accessor, values, elements, references);
+			}
+			return accessor.getBean();
+		}
+
+		boolean hasValues(byte[][] values, List<List<byte[]>> elements) {
+
+			for (Binding binding : bindings) {
+				if (binding instanceof SimpleBinding && values[((SimpleBinding) binding).slot] != null) {
+					return true;
+				}
+				if (binding instanceof EmbeddedBinding && ((EmbeddedBinding) binding).nested.hasValues(values, elements)) {
+					return true;
+				}
+				if (binding instanceof CollectionBinding && elements.get(((CollectionBinding) binding).id) != null) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static class SimpleBinding implements Binding {
+
+		final KeyValuePersistentProperty property;
+		final byte[] name;
+		final int slot;
+		final ValueCodec codec;
+
+		SimpleBinding(KeyValuePersistentProperty property, byte[] name, int slot, ValueCodec codec) {
+
+			this.property = property;
+			this.name = name;
+			this.slot = slot;
+			this.codec = codec;
+		}
+
+		@Override
+		public void write(PersistentPropertyAccessor accessor, Map<byte[], byte[]> hash) {
+
+			Object value = accessor.getProperty(property);
+			if (value != null) {
+				hash.put(name, codec.write(value));
+			}
+		}
+
+		@Override
+		public void read(PersistentPropertyAccessor accessor, byte[][] values, List<List<byte[]>> elements,
+				ReferenceLoader references) {
+
+			byte[] value = values[slot];
+			if (value != null) {
+				accessor.setProperty(property, codec.read(value));
+			}
+		}
+	}
+
+	private static class EmbeddedBinding implements Binding {
+
+		final KeyValuePersistentProperty property;
+		final int hintSlot;
+		final EntityBinding nested;
+
+		EmbeddedBinding(KeyValuePersistentProperty property, int hintSlot, EntityBinding nested) {
+
+			this.property = property;
+			this.hintSlot = hintSlot;
+			this.nested = nested;
+		}
+
+		@Override
+		public void write(PersistentPropertyAccessor accessor, Map<byte[], byte[]> hash) {
+
+			Object value = accessor.getProperty(property);
+			if (value != null) {
+				nested.write(value, hash);
+			}
+		}
+
+		@Override
+		public void read(PersistentPropertyAccessor accessor, byte[][] values, List<List<byte[]>> elements,
+				ReferenceLoader references) {
+
+			if (values[hintSlot] != null) {
+				throw new UnsupportedMappingException("Polymorphic value for " + property.getName());
+			}
+
+			if (nested.hasValues(values, elements)) {
+				accessor.setProperty(property, nested.read(values, elements, references));
+			}
+		}
+	}
+
+	private static class CollectionBinding implements Binding {
+
+		final KeyValuePersistentProperty property;
+		final int id;
+		final byte[] prefix;
+		final ValueCodec element;
+		boolean lazy;
+		volatile byte[][] names = new byte[0][];
+
+		CollectionBinding(KeyValuePersistentProperty property, int id, String path, ValueCodec element) {
+
+			this.property = property;
+			this.id = id;
+			this.prefix = fieldName(path + ".[");
+			this.element = element;
+		}
+
+		@Override
+		public void write(PersistentPropertyAccessor accessor, Map<byte[], byte[]> hash) {
+
+			Collection<?> value = (Collection<?>) accessor.getProperty(property);
+			if (value == null) {
+				return;
+			}
+
+			if (value instanceof LazyReferenceList && !((LazyReferenceList<?>) value).isResolved()) {
+
+				// no need to load what has not been touched
+				List<String> ids = ((LazyReferenceList<?>) value).getIds();
+				for (int i = 0; i < ids.size(); i++) {
+					hash.put(name(i), ((ReferenceCodec) element).key(ids.get(i)));
+				}
+				return;
+			}
+
+			int index = 0;
+			for (Object item : value) {
+				if (item != null) {
+					hash.put(name(index), element.write(item));
+				}
+				index++;
+			}
+		}
+
+		@Override
+		public void read(PersistentPropertyAccessor accessor, byte[][] values, List<List<byte[]>> elements,
+				ReferenceLoader references) {
+
+			List<byte[]> raw = elements.get(id);
+			if (raw == null) {
+				return;
+			}
+
+			if (lazy && references != null && references.isLazyLoading()) {
+				accessor.setProperty(property, ((ReferenceCodec) element).lazy(raw, references));
+				return;
+			}
+
+			Collection<Object> target = CollectionFactory.createCollection(property.getType(),
+					property.getComponentType(), raw.size());
+
+			for (byte[] item : raw) {
+
+				if (item == null) {
+					continue;
+				}
+
+				if (element instanceof ReferenceCodec) {
+
+					Object resolved = ((ReferenceCodec) element).resolve(item, references);
+					if (resolved != null) {
+						target.add(resolved);
+					}
+				} else {
+					target.add(element.read(item));
+				}
+			}
+
+			accessor.setProperty(property, target);
+		}
+
+		/**
+		 * @return the element index if the given field name belongs to this collection, {@literal -1} otherwise.
+		 *         {@link Integer#MAX_VALUE} for indexes exceeding it.
+		 */
+		int indexOf(byte[] name) {
+
+			if (name.length < prefix.length + 2 || name[name.length - 1] != ']') {
+				return -1;
+			}
+
+			for (int i = 0; i < prefix.length; i++) {
+				if (name[i] != prefix[i]) {
+					return -1;
+				}
+			}
+
+			int index = 0;
+			for (int i = prefix.length; i < name.length - 1; i++) {
+
+				int digit = name[i] - '0';
+				if (digit < 0 || digit > 9) {
+					return -1;
+				}
+				if (index > (Integer.MAX_VALUE - digit) / 10) {
+					return Integer.MAX_VALUE;
+				}
+				index = index * 10 + digit;
+			}
+			return index;
+		}
+
+		private byte[] name(int index) {
+
+			byte[][] current = names;
+			if (index < current.length) {
+				return current[index];
+			}
+
+			byte[][] grown = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+			for (int i = current.length; i < grown.length; i++) {
+
+				byte[] digits = Integer.toString(i).getBytes(StandardCharsets.US_ASCII);
+				byte[] name = Arrays.copyOf(prefix, prefix.length + digits.length + 1);
+				System.arraycopy(digits, 0, name, prefix.length, digits.length);
+				name[name.length - 1] = ']';
+				grown[i] = name;
+			}
+
+			names = grown;
+			return grown[index];
+		}
+	}
+
+	// --> values
+
+	private interface ValueCodec {
+
+		byte[] write(Object value);
+
+		Object read(byte[] value);
+	}
+
+	private enum StringCodec implements ValueCodec {
+
+		INSTANCE;
+
+		@Override
+		public byte[] write(Object value) {
+			return ((String) value).getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public Object read(byte[] value) {
+			return new String(value, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static class EnumCodec implements ValueCodec {
+
+		final Enum<?>[] constants;
+		final byte[][] names;
+
+		EnumCodec(Class<?> type) {
+
+			this.constants = (Enum<?>[]) type.getEnumConstants();
+			this.names = new byte[constants.length][];
+			for (int i = 0; i < constants.length; i++) {
+				names[i] = constants[i].name().getBytes(StandardCharsets.UTF_8);
+			}
+		}
+
+		@Override
+		public byte[] write(Object value) {
+			return names[((Enum<?>) value).ordinal()];
+		}
+
+		@Override
+		public Object read(byte[] value) {
+
+			for (int i = 0; i < names.length; i++) {
+				if (Arrays.equals(names[i], value)) {
+					return constants[i];
+				}
+			}
+			throw new IllegalArgumentException(
+					"No constant " + new String(value, StandardCharsets.UTF_8) + " for " + constants.getClass());
+		}
+	}
+
+	private static class ConvertingCodec implements ValueCodec {
+
+		final ConversionService conversionService;
+		final Class<?> type;
+
+		ConvertingCodec(ConversionService conversionService, Class<?> type) {
+
+			this.conversionService = conversionService;
+			this.type = type;
+		}
+
+		@Override
+		public byte[] write(Object value) {
+			return conversionService.convert(value, byte[].class);
+		}
+
+		@Override
+		public Object read(byte[] value) {
+			return conversionService.convert(value, type);
+		}
+	}
+
+	/**
+	 * Writes {@literal keyspace:id} for referenced objects.
+	 */
+	private static class ReferenceCodec implements ValueCodec {
+
+		final RedisPersistentEntity<?> target;
+		final String keyspace;
+		final byte[] prefix;
+
+		ReferenceCodec(RedisPersistentEntity<?> target) {
+
+			this.target = target;
+			this.keyspace = target.getKeySpace();
+			this.prefix = fieldName(keyspace + ":");
+		}
+
+		@Override
+		public byte[] write(Object value) {
+
+			Object id = target.getIdentifierAccessor(value).getIdentifier();
+			if (id == null) {
+				throw new UnsupportedMappingException("Cannot reference " + value + " without an id");
+			}
+
+			return key(id.toString());
+		}
+
+		byte[] key(String id) {
+
+			byte[] raw = id.getBytes(StandardCharsets.UTF_8);
+			byte[] key = Arrays.copyOf(prefix, prefix.length + raw.length);
+			System.arraycopy(raw, 0, key, prefix.length, raw.length);
+			return key;
+		}
+
+		@Override
+		public Object read(byte[] value) {
+			throw new UnsupportedOperationException("References need to be resolved");
+		}
+
+		Object resolve(byte[] value, ReferenceLoader references) {
+
+			if (references == null) {
+				return null;
+			}
+
+			return references.load(idOf(value), keyspace, target.getType());
+		}
+
+		LazyReferenceList<?> lazy(List<byte[]> values, ReferenceLoader references) {
+
+			List<String> ids = new ArrayList<>(values.size());
+			for (byte[] value : values) {
+				if (value != null) {
+					ids.add(idOf(value));
+				}
+			}
+			return new LazyReferenceList<>(ids, keyspace, target.getType(), references);
+		}
+
+		private String idOf(byte[] value) {
+
+			String key = new String(value, StandardCharsets.UTF_8);
+			return key.startsWith(keyspace + ":") ? key.substring(keyspace.length() + 1) : key;
+		}
+	}
+
+	/**
+	 * Open addressing lookup table mapping binary field names to slots without the need to wrap the {@code byte[]}.
+	 */
+	static class FieldTable {
+
+		private final byte[][] names;
+		private final int[] slots;
+		private final int mask;
+
+		private FieldTable(byte[][] names, int[] slots) {
+
+			this.names = names;
+			this.slots = slots;
+			this.mask = names.length - 1;
+		}
+
+		int slotOf(byte[] name) {
+
+			for (int i = Arrays.hashCode(name) & mask;; i = (i + 1) & mask) {
+
+				byte[] candidate = names[i];
+				if (candidate == null) {
+					return -1;
+				}
+				if (Arrays.equals(candidate, name)) {
+					return slots[i];
+				}
+			}
+		}
+
+		static class Builder {
+
+			private final Map<String, Integer> entries = new LinkedHashMap<>();
+
+			int add(String name, int slot) {
+
+				entries.put(name, slot);
+				return slot;
+			}
+
+			FieldTable build() {
+
+				int capacity = Integer.highestOneBit(Math.max(entries.size(), 1) * 4);
+				byte[][] names = new byte[capacity][];
+				int[] slots = new int[capacity];
+
+				for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+
+					byte[] name = fieldName(entry.getKey());
+					int i = Arrays.hashCode(name) & (capacity - 1);
+					while (names[i] != null) {
+						i = (i + 1) & (capacity - 1);
+					}
+					names[i] = name;
+					slots[i] = entry.getValue();
+				}
+				return new FieldTable(names, slots);
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.ohm;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+/**
+ * Encodes a flattened entity {@literal HASH} as a single binary value, so the whole entity can be stored as one
+ * {@literal STRING}: a version byte followed by the number of fields and the length prefixed field names and values.
+ * All lengths are varint encoded. Both directions need a single pass and one allocation for the result. <br />
+ * Reading a blob back yields the very same map an {@literal HGETALL} would, so it can be handed to the
+ * {@link org.springframework.data.redis.core.convert.RedisConverter} or the {@link CompiledHashMapper} as is.
+ *
+ * @author Christoph Strobl
+ */
+public final class HashBlobCodec {
+
+	private static final byte VERSION = 1;
+
+	private HashBlobCodec() {}
+
+	/**
+	 * Encode the given {@literal HASH}.
+	 *
+	 * @param hash must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	public static byte[] encode(Map<byte[], byte[]> hash) {
+
+		Assert.notNull(hash, "Hash must not be null!");
+
+		int size = 1 + sizeOf(hash.size());
+		for (Map.Entry<byte[], byte[]> entry : hash.entrySet()) {
+			size += sizeOf(entry.getKey().length) + entry.getKey().length;
+			size += sizeOf(entry.getValue().length) + entry.getValue().length;
+		}
+
+		byte[] target = new byte[size];
+		target[0] = VERSION;
+
+		int position = write(hash.size(), target, 1);
+		for (Map.Entry<byte[], byte[]> entry : hash.entrySet()) {
+
+			position = write(entry.getKey(), target, position);
+			position = write(entry.getValue(), target, position);
+		}
+		return target;
+	}
+
+	/**
+	 * Decode the given blob into the {@literal HASH} it was created from.
+	 *
+	 * @param blob can be {@literal null}.
+	 * @return never {@literal null}. An empty {@link Map} for {@literal null} or empty blobs.
+	 * @throws IllegalArgumentException if the blob was not created by {@link #encode(Map)}.
+	 */
+	public static Map<byte[], byte[]> decode(byte[] blob) {
+
+		if (blob == null || blob.length == 0) {
+			return new LinkedHashMap<>();
+		}
+
+		if (blob[0] != VERSION) {
+			throw new IllegalArgumentException(String.format("Unknown blob version %s.", blob[0]));
+		}
+
+		int[] position = new int[] { 1 };
+		long fields = CompactHashMapper.readVarint(blob, position);
+
+		// each field and value takes at least one byte for its length
+		if (fields < 0 || fields > (blob.length - position[0]) / 2) {
+			throw new IllegalArgumentException("Malformed blob.");
+		}
+
+		Map<byte[], byte[]> hash = new LinkedHashMap<>((int) (fields / 0.75F) + 1);
+		for (int i = 0; i < fields; i++) {
+
+			byte[] field = read(blob, position);
+			hash.put(field, read(blob, position));
+		}
+		return hash;
+	}
+
+	private static int sizeOf(int value) {
+
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	private static int write(int value, byte[] target, int position) {
+
+		while ((value & ~0x7F) != 0) {
+
+			target[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		target[position++] = (byte) value;
+		return position;
+	}
+
+	private static int write(byte[] value, byte[] target, int position) {
+
+		int offset = write(value.length, target, position);
+		System.arraycopy(value, 0, target, offset, value.length);
+		return offset + value.length;
+	}
+
+	private static byte[] read(byte[] source, int[] position) {
+
+		int length = (int) CompactHashMapper.readVarint(source, position);
+		if (length < 0 || length > source.length - position[0]) {
+			throw new IllegalArgumentException("Malformed blob.");
+		}
+
+		byte[] value = new byte[length];
+		System.arraycopy(source, position[0], value, 0, length);
+		position[0] += length;
+		return value;
+	}
+}
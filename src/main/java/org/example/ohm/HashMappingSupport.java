@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.ohm;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.springframework.data.redis.core.convert.CustomConversions;
+import org.springframework.data.redis.core.convert.IndexResolver;
+import org.springframework.data.redis.core.convert.IndexedData;
+import org.springframework.data.redis.core.convert.MappingRedisConverter;
+import org.springframework.data.redis.core.convert.ReferenceResolver;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.hash.ObjectHashMapper;
+import org.springframework.data.util.TypeInformation;
+
+/**
+ * Shared infrastructure for mapping objects to plain Redis {@literal HASH} structures.
+ *
+ * @author Christoph Strobl
+ */
+final class HashMappingSupport {
+
+	private HashMappingSupport() {}
+
+	/**
+	 * Create a {@link MappingRedisConverter} configured the same way the {@link ObjectHashMapper} does. Index
+	 * structures are not resolved.
+	 *
+	 * @param mappingContext must not be {@literal null}.
+	 * @param referenceResolver can be {@literal null}.
+	 * @return new instance of {@link MappingRedisConverter}.
+	 */
+	static MappingRedisConverter newConverter(RedisMappingContext mappingContext, ReferenceResolver referenceResolver) {
+		return newConverter(mappingContext, referenceResolver, null);
+	}
+
+	/**
+	 * Create a {@link MappingRedisConverter} configured the same way the {@link ObjectHashMapper} does but writing
+	 * {@literal _class} hints via the given {@link TypeAliasRegistry}. Root hints are always written as the type is not
+	 * known when reading a plain {@literal HASH}.
+	 *
+	 * @param mappingContext must not be {@literal null}.
+	 * @param referenceResolver can be {@literal null}.
+	 * @param aliases can be {@literal null}.
+	 * @return new instance of {@link MappingRedisConverter}.
+	 */
+	static MappingRedisConverter newConverter(RedisMappingContext mappingContext, ReferenceResolver referenceResolver,
+			TypeAliasRegistry aliases) {
+		return newConverter(mappingContext, referenceResolver, aliases, null);
+	}
+
+	/**
+	 * Create a {@link MappingRedisConverter} like {@link #newConverter(RedisMappingContext, ReferenceResolver,
+	 * TypeAliasRegistry)} applying the given {@link CustomConversions}.
+	 *
+	 * @param mappingContext must not be {@literal null}.
+	 * @param referenceResolver can be {@literal null}.
+	 * @param aliases can be {@literal null}.
+	 * @param customConversions can be {@literal null} to use the defaults.
+	 * @return new instance of {@link MappingRedisConverter}.
+	 */
+	static MappingRedisConverter newConverter(RedisMappingContext mappingContext, ReferenceResolver referenceResolver,
+			TypeAliasRegistry aliases, CustomConversions customConversions) {
+
+		MappingRedisConverter converter;
+		if (aliases != null) {
+
+			TypeAliasingRedisConverter aliasingConverter = new TypeAliasingRedisConverter(mappingContext,
+					new NoOpIndexResolver(), referenceResolver, aliases);
+			aliasingConverter.setOmitRootTypeHints(false);
+			converter = aliasingConverter;
+		} else {
+			converter = new MappingRedisConverter(mappingContext, new NoOpIndexResolver(), referenceResolver);
+		}
+
+		converter.setCustomConversions(customConversions != null ? customConversions : new CustomConversions());
+		converter.afterPropertiesSet();
+		return converter;
+	}
+
+	/**
+	 * Index structures are not required for plain {@literal HASH} mapping.
+	 */
+	private static class NoOpIndexResolver implements IndexResolver {
+
+		@Override
+		public Set<IndexedData> resolveIndexesFor(TypeInformation<?> typeInformation, Object value) {
+			return Collections.emptySet();
+		}
+
+		@Override
+		public Set<IndexedData> resolveIndexesFor(String keyspace, String path, TypeInformation<?> typeInformation,
+				Object value) {
+			return Collections.emptySet();
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.ohm;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a collection of {@link org.springframework.data.annotation.Reference}s to be resolved lazily when read via
+ * the {@link CompiledHashMapper}. Instead of loading all referenced objects along with the owning one, the property
+ * is populated with a {@link LazyReferenceList} only holding the stored keys. Those are resolved in one batch on
+ * first access.
+ *
+ * <pre>
+ * <code>
+ * private &#64;Reference &#64;LazyReference List&lt;Person&gt; children;
+ * </code>
+ * </pre>
+ *
+ * Only applies to properties of type {@link java.util.List} or {@link java.util.Collection}.
+ *
+ * @author Christoph Strobl
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD, ElementType.METHOD, ElementType.ANNOTATION_TYPE })
+public @interface LazyReference {
+
+}
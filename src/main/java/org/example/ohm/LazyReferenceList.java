@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.ohm;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.example.ohm.EntityCodec.ReferenceLoader;
+
+/**
+ * {@link List} of referenced objects holding only their ids until first accessed. All references are then resolved
+ * in one batch. References pointing to no longer existing objects are skipped, just as they are on eager loading.
+ * <br />
+ * Writing an unresolved {@link LazyReferenceList} via the {@link CompiledHashMapper} writes the stored keys without
+ * resolving them.
+ *
+ * @author Christoph Strobl
+ * @see LazyReference
+ */
+public class LazyReferenceList<T> extends AbstractList<T> {
+
+	private final List<String> ids;
+	private final String keyspace;
+	private final Class<T> type;
+	private final ReferenceLoader references;
+
+	private volatile List<T> resolved;
+
+	LazyReferenceList(List<String> ids, String keyspace, Class<T> type, ReferenceLoader references) {
+
+		this.ids = ids;
+		this.keyspace = keyspace;
+		this.type = type;
+		this.references = references;
+	}
+
+	/**
+	 * @return {@literal true} if the references have already been loaded.
+	 */
+	public boolean isResolved() {
+		return resolved != null;
+	}
+
+	/**
+	 * @return the ids of the referenced objects as stored. Does not trigger resolution.
+	 */
+	public List<String> getIds() {
+		return Collections.unmodifiableList(ids);
+	}
+
+	/**
+	 * @return the keyspace of the referenced objects.
+	 */
+	public String getKeyspace() {
+		return keyspace;
+	}
+
+	@Override
+	public T get(int index) {
+		return resolve().get(index);
+	}
+
+	@Override
+	public int size() {
+		return resolve().size();
+	}
+
+	@Override
+	public T set(int index, T element) {
+		return resolve().set(index, element);
+	}
+
+	@Override
+	public void add(int index, T element) {
+
+		resolve().add(index, element);
+		modCount++;
+	}
+
+	@Override
+	public T remove(int index) {
+
+		T removed = resolve().remove(index);
+		modCount++;
+		return removed;
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<T> resolve() {
+
+		List<T> current = resolved;
+		if (current != null) {
+			return current;
+		}
+
+		synchronized (this) {
+
+			if (resolved == null) {
+
+				List<T> values = new ArrayList<>(ids.size());
+				for (Object value : references.loadAll(ids, keyspace, type)) {
+					if (value != null) {
+						values.add((T) value);
+					}
+				}
+				resolved = values;
+			}
+			return resolved;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.ohm;
+
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.data.annotation.TypeAlias;
+import org.springframework.data.keyvalue.core.mapping.KeyValuePersistentEntity;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.core.mapping.RedisPersistentEntity;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Short type aliases written as {@literal _class} hint instead of the fully qualified class name. Types annotated
+ * with {@link TypeAlias} are registered on first use, others via {@link #register(Class...)} which falls back to the
+ * keyspace ({@literal person}) as alias. Hints not matching an alias are resolved as class names, so hashes written
+ * before switching to aliases can still be read. <br />
+ * The {@literal _class} hint of a root object can be {@link #isTypeHintRequired(Class) omitted entirely} if its type
+ * is the root of its hierarchy and either final or without known subtypes. Such objects can only be read when the
+ * declared type is known, e.g. via a repository.
+ *
+ * @author Christoph Strobl
+ */
+public class TypeAliasRegistry {
+
+	private final RedisMappingContext mappingContext;
+	private final Map<Class<?>, String> aliases = new ConcurrentHashMap<>();
+	private final Map<String, Class<?>> types = new ConcurrentHashMap<>();
+	private final Map<Class<?>, Boolean> hintRequired = new ConcurrentHashMap<>();
+
+	/**
+	 * @param mappingContext used to look up keyspaces and subtypes. Must not be {@literal null}.
+	 */
+	public TypeAliasRegistry(RedisMappingContext mappingContext) {
+
+		Assert.notNull(mappingContext, "MappingContext must not be null!");
+		this.mappingContext = mappingContext;
+	}
+
+	/**
+	 * Register the given types using their {@link TypeAlias} or keyspace as alias.
+	 *
+	 * @param types must not be {@literal null}.
+	 * @return this.
+	 * @throws IllegalStateException if an alias is already used by another type.
+	 */
+	public TypeAliasRegistry register(Class<?>... types) {
+
+		for (Class<?> type : types) {
+			register(defaultAlias(mappingContext, type), type);
+		}
+		return this;
+	}
+
+	/**
+	 * Register the given alias for the type.
+	 *
+	 * @param alias must not be {@literal null} or empty.
+	 * @param type must not be {@literal null}.
+	 * @return this.
+	 * @throws IllegalStateException if the alias is already used by another type.
+	 */
+	public TypeAliasRegistry register(String alias, Class<?> type) {
+
+		Assert.hasText(alias, "Alias must not be null or empty!");
+		Assert.notNull(type, "Type must not be null!");
+
+		Class<?> registered = types.putIfAbsent(alias, type);
+		if (registered != null && registered != type) {
+			throw new IllegalStateException(String.format("Alias '%s' of %s is already used by %s.", alias,
+					type.getName(), registered.getName()));
+		}
+
+		aliases.put(type, alias);
+		hintRequired.clear();
+		return this;
+	}
+
+	/**
+	 * @param type must not be {@literal null}.
+	 * @return the alias or {@literal null} if the type is neither registered nor annotated with {@link TypeAlias}.
+	 */
+	public String getAlias(Class<?> type) {
+
+		String alias = aliases.get(type);
+		if (alias != null) {
+			return alias;
+		}
+
+		TypeAlias typeAlias = AnnotationUtils.findAnnotation(type, TypeAlias.class);
+		if (typeAlias == null || typeAlias.value().isEmpty()) {
+			return null;
+		}
+
+		register(typeAlias.value(), type);
+		return typeAlias.value();
+	}
+
+	/**
+	 * @param type must not be {@literal null}.
+	 * @return the alias or the fully qualified class name.
+	 */
+	public String getTypeHint(Class<?> type) {
+
+		String alias = getAlias(type);
+		return alias != null ? alias : type.getName();
+	}
+
+	/**
+	 * Resolve a {@literal _class} hint.
+	 *
+	 * @param hint must not be {@literal null}.
+	 * @return {@literal null} if the hint is neither a registered alias nor a resolvable class name.
+	 */
+	public Class<?> getType(String hint) {
+
+		Class<?> type = types.get(hint);
+		if (type != null) {
+			return type;
+		}
+
+		try {
+			return ClassUtils.forName(hint, ClassUtils.getDefaultClassLoader());
+		} catch (ClassNotFoundException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Check whether objects of the given type, read via their declared type, need a {@literal _class} hint. That is
+	 * the case for subtypes as well as types with subtypes registered or known to the {@link RedisMappingContext}.
+	 *
+	 * @param type must not be {@literal null}.
+	 * @return {@literal false} if the hint can be omitted.
+	 */
+	public boolean isTypeHintRequired(Class<?> type) {
+
+		Boolean required = hintRequired.get(type);
+		if (required == null) {
+			required = hintRequired.computeIfAbsent(type, this::requiresTypeHint);
+		}
+		return required;
+	}
+
+	private boolean requiresTypeHint(Class<?> type) {
+
+		if (type.getSuperclass() != null && !Object.class.equals(type.getSuperclass())) {
+			return true;
+		}
+
+		if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+			return true;
+		}
+
+		if (Modifier.isFinal(type.getModifiers())) {
+			return false;
+		}
+
+		for (Class<?> candidate : aliases.keySet()) {
+			if (candidate != type && type.isAssignableFrom(candidate)) {
+				return true;
+			}
+		}
+
+		for (KeyValuePersistentEntity<?> entity : mappingContext.getPersistentEntities()) {
+			if (entity.getType() != type && type.isAssignableFrom(entity.getType())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the {@link TypeAlias} or the keyspace of the given type.
+	 */
+	static String defaultAlias(RedisMappingContext mappingContext, Class<?> type) {
+
+		TypeAlias typeAlias = AnnotationUtils.findAnnotation(type, TypeAlias.class);
+		if (typeAlias != null && !typeAlias.value().isEmpty()) {
+			return typeAlias.value();
+		}
+
+		RedisPersistentEntity<?> entity = mappingContext.getPersistentEntity(type);
+		return entity != null ? entity.getKeySpace() : type.getName();
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.ohm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.springframework.data.keyvalue.core.mapping.KeyValuePersistentEntity;
+import org.springframework.data.redis.core.PartialUpdate;
+import org.springframework.data.redis.core.convert.Bucket;
+import org.springframework.data.redis.core.convert.IndexResolver;
+import org.springframework.data.redis.core.convert.MappingRedisConverter;
+import org.springframework.data.redis.core.convert.RedisData;
+import org.springframework.data.redis.core.convert.ReferenceResolver;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * {@link MappingRedisConverter} writing {@literal _class} hints via a {@link TypeAliasRegistry}. Root hints are
+ * omitted for types that do not {@link TypeAliasRegistry#isTypeHintRequired(Class) require one}, all other hints use
+ * the registered alias, so a {@literal Person} hash no longer carries {@literal _class := org.example.types.Person}.
+ * Register it as {@literal redisConverter} to replace the one created by the repository support:
+ *
+ * <pre>
+ * <code>
+ * &#64;Bean
+ * MappingRedisConverter redisConverter(RedisMappingContext mappingContext, ReferenceResolver referenceResolver) {
+ *   return new TypeAliasingRedisConverter(mappingContext, null, referenceResolver,
+ *       new TypeAliasRegistry(mappingContext).register(Person.class));
+ * }
+ * </code>
+ * </pre>
+ *
+ * Hashes without root hint read via {@link Object} resolve the type from {@link RedisData#getKeyspace()} if set, and
+ * are skipped otherwise. The expiration listener of the
+ * {@link org.springframework.data.redis.core.RedisKeyValueAdapter} hence publishes events without value for such
+ * types, the {@link org.example.event.BatchingExpirationListener} does not.
+ *
+ * @author Christoph Strobl
+ */
+public class TypeAliasingRedisConverter extends MappingRedisConverter {
+
+	private static final String TYPE_HINT = "_class";
+	private static final String NESTED_TYPE_HINT = "." + TYPE_HINT;
+
+	private final TypeAliasRegistry aliases;
+	private boolean omitRootTypeHints = true;
+
+	/**
+	 * Create new {@link TypeAliasingRedisConverter}.
+	 *
+	 * @param mappingContext must not be {@literal null}.
+	 * @param indexResolver can be {@literal null}.
+	 * @param referenceResolver can be {@literal null}.
+	 * @param aliases must not be {@literal null}.
+	 */
+	public TypeAliasingRedisConverter(RedisMappingContext mappingContext, IndexResolver indexResolver,
+			ReferenceResolver referenceResolver, TypeAliasRegistry aliases) {
+
+		super(mappingContext, indexResolver, referenceResolver);
+
+		Assert.notNull(aliases, "TypeAliasRegistry must not be null!");
+		this.aliases = aliases;
+	}
+
+	/**
+	 * Set whether to omit root hints where possible. Disable for data read without knowing the type, e.g. via
+	 * {@link org.springframework.data.redis.hash.HashMapper#fromHash(Map)}. Defaults to {@literal true}.
+	 *
+	 * @param omitRootTypeHints
+	 */
+	public void setOmitRootTypeHints(boolean omitRootTypeHints) {
+		this.omitRootTypeHints = omitRootTypeHints;
+	}
+
+	/**
+	 * @return the {@link TypeAliasRegistry} in use.
+	 */
+	public TypeAliasRegistry getTypeAliasRegistry() {
+		return aliases;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.core.convert.MappingRedisConverter#write(java.lang.Object, org.springframework.data.redis.core.convert.RedisData)
+	 */
+	@Override
+	public void write(Object source, RedisData sink) {
+
+		RedisData written = new RedisData();
+		super.write(source, written);
+
+		sink.setId(written.getId());
+		sink.setKeyspace(written.getKeyspace());
+		sink.setTimeToLive(written.getTimeToLive());
+		sink.addIndexedData(written.getIndexedData());
+
+		Class<?> type = source instanceof PartialUpdate ? ((PartialUpdate<?>) source).getTarget()
+				: ClassUtils.getUserClass(source);
+		boolean omitRootHint = omitRootTypeHints && !aliases.isTypeHintRequired(type);
+
+		for (Map.Entry<String, byte[]> entry : written.getBucket().entrySet()) {
+
+			String name = entry.getKey();
+			if (TYPE_HINT.equals(name) && omitRootHint) {
+				continue;
+			}
+
+			byte[] value = entry.getValue();
+			if (isTypeHint(name) && value != null) {
+
+				Class<?> hinted = aliases.getType(new String(value, StandardCharsets.UTF_8));
+				if (hinted != null) {
+					value = aliases.getTypeHint(hinted).getBytes(StandardCharsets.UTF_8);
+				}
+			}
+			sink.getBucket().put(name, value);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.core.convert.MappingRedisConverter#read(java.lang.Class, org.springframework.data.redis.core.convert.RedisData)
+	 */
+	@Override
+	public <R> R read(Class<R> type, RedisData source) {
+
+		if (source.getBucket() == null || source.getBucket().isEmpty()) {
+			return super.read(type, source);
+		}
+
+		Class<?> declared = type;
+		if (source.getBucket().get(TYPE_HINT) == null && !isReadable(type)) {
+
+			declared = typeOfKeyspace(source.getKeyspace());
+			if (declared == null) {
+				return null;
+			}
+		}
+
+		boolean hasHints = false;
+		for (String name : source.getBucket().keySet()) {
+			if (isTypeHint(name)) {
+				hasHints = true;
+				break;
+			}
+		}
+
+		if (!hasHints && declared == type) {
+			return super.read(type, source);
+		}
+
+		Bucket bucket = new Bucket();
+		for (Map.Entry<String, byte[]> entry : source.getBucket().entrySet()) {
+
+			byte[] value = entry.getValue();
+			if (isTypeHint(entry.getKey()) && value != null) {
+
+				Class<?> hinted = aliases.getType(new String(value, StandardCharsets.UTF_8));
+				if (hinted != null) {
+					value = hinted.getName().getBytes(StandardCharsets.UTF_8);
+				}
+			}
+			bucket.put(entry.getKey(), value);
+		}
+
+		if (declared != type && bucket.get(TYPE_HINT) == null) {
+			bucket.put(TYPE_HINT, declared.getName().getBytes(StandardCharsets.UTF_8));
+		}
+
+		RedisData translated = new RedisData(bucket);
+		translated.setId(source.getId());
+		translated.setKeyspace(source.getKeyspace());
+		return super.read(type, translated);
+	}
+
+	private static boolean isTypeHint(String name) {
+		return TYPE_HINT.equals(name) || name.endsWith(NESTED_TYPE_HINT);
+	}
+
+	/**
+	 * Hashes without hint can only be read into concrete types.
+	 */
+	private static boolean isReadable(Class<?> type) {
+		return !Object.class.equals(type) && !type.isInterface();
+	}
+
+	private Class<?> typeOfKeyspace(String keyspace) {
+
+		if (keyspace == null) {
+			return null;
+		}
+
+		for (KeyValuePersistentEntity<?> entity : getMappingContext().getPersistentEntities()) {
+			if (keyspace.equals(entity.getKeySpace()) && !aliases.isTypeHintRequired(entity.getType())) {
+				return entity.getType();
+			}
+		}
+		return null;
+	}
+}
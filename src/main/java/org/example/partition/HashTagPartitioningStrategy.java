@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.partition;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.util.Assert;
+
+/**
+ * {@link PartitioningStrategy} for types annotated with {@link Partitioned}. New {@literal ids} are created as
+ * {@literal {<partition>}<uuid>} within a random partition. For {@literal ids} not carrying a valid hash tag the
+ * partition is derived from the {@literal id} itself. Those entities are still found by index queries but their
+ * {@literal HASH} is not co-located with their index entries.
+ *
+ * @author Christoph Strobl
+ */
+public class HashTagPartitioningStrategy implements PartitioningStrategy {
+
+	private final Map<Class<?>, List<String>> partitions = new ConcurrentHashMap<>();
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.partition.PartitioningStrategy#isPartitioned(java.lang.Class)
+	 */
+	@Override
+	public boolean isPartitioned(Class<?> type) {
+		return !getPartitions(type).isEmpty();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.partition.PartitioningStrategy#getPartitions(java.lang.Class)
+	 */
+	@Override
+	public List<String> getPartitions(Class<?> type) {
+
+		Assert.notNull(type, "Type must not be null!");
+		return partitions.computeIfAbsent(type, HashTagPartitioningStrategy::partitionsOf);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.partition.PartitioningStrategy#getPartition(java.lang.Class, java.lang.Object)
+	 */
+	@Override
+	public String getPartition(Class<?> type, Object id) {
+
+		Assert.notNull(id, "Id must not be null!");
+
+		List<String> partitions = getPartitions(type);
+		Assert.state(!partitions.isEmpty(), String.format("%s is not partitioned!", type.getName()));
+
+		String source = id.toString();
+		int end = source.indexOf('}');
+		if (source.startsWith("{") && end != -1) {
+
+			String tag = source.substring(0, end + 1);
+			if (partitions.contains(tag)) {
+				return tag;
+			}
+		}
+
+		int slot = ClusterSlotHashUtil.calculateSlot(source.getBytes(StandardCharsets.UTF_8));
+		return partitions.get(slot % partitions.size());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.partition.PartitioningStrategy#newId(java.lang.Class)
+	 */
+	@Override
+	public String newId(Class<?> type) {
+
+		List<String> partitions = getPartitions(type);
+		Assert.state(!partitions.isEmpty(), String.format("%s is not partitioned!", type.getName()));
+
+		return partitions.get(ThreadLocalRandom.current().nextInt(partitions.size())) + UUID.randomUUID().toString();
+	}
+
+	private static List<String> partitionsOf(Class<?> type) {
+
+		Partitioned partitioned = AnnotatedElementUtils.findMergedAnnotation(type, Partitioned.class);
+		if (partitioned == null) {
+			return Collections.emptyList();
+		}
+
+		Assert.isTrue(partitioned.partitions() > 0, "Partitions must be greater than zero!");
+
+		List<String> partitions = new ArrayList<>(partitioned.partitions());
+		for (int i = 0; i < partitioned.partitions(); i++) {
+			partitions.add("{" + i + "}");
+		}
+		return Collections.unmodifiableList(partitions);
+	}
+}
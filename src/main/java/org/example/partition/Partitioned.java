@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.partition;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Opts a {@link org.springframework.data.redis.core.RedisHash} type into the partitioned key layout of the
+ * {@link HashTagPartitioningStrategy}. Each entity is assigned to one of {@link #partitions()} partitions and its
+ * {@literal HASH} as well as its entries in the {@link org.springframework.data.redis.core.index.Indexed} sets are
+ * stored under the partition's hash tag: <br />
+ *
+ * <pre>
+ * <code>
+ * person:{3}0f4e...        // entity HASH, the id carries the hash tag
+ * person:{3}:lastname:stark // shard of the lastname index for partition 3
+ * </code>
+ * </pre>
+ *
+ * In a Redis Cluster all keys of an entity end up in the same slot.
+ *
+ * @author Christoph Strobl
+ * @see PartitionedIndexResolver
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Partitioned {
+
+	/**
+	 * @return the number of partitions. Index queries fan out to all of them.
+	 */
+	int partitions() default 16;
+}
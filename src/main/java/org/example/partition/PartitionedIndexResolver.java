@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.partition;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.redis.core.convert.IndexResolver;
+import org.springframework.data.redis.core.convert.IndexedData;
+import org.springframework.data.redis.core.convert.PathIndexResolver;
+import org.springframework.data.redis.core.convert.SimpleIndexedPropertyValue;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.core.mapping.RedisPersistentEntity;
+import org.springframework.data.util.TypeInformation;
+import org.springframework.util.Assert;
+
+/**
+ * {@link IndexResolver} moving the {@link org.springframework.data.redis.core.index.Indexed} entries of
+ * {@link PartitioningStrategy#isPartitioned(Class) partitioned} types into the index shard of the entity's partition.
+ * Register it with the {@link org.springframework.data.redis.core.convert.MappingRedisConverter} used by the
+ * repositories:
+ *
+ * <pre>
+ * <code>
+ * &#64;Bean
+ * MappingRedisConverter redisConverter(RedisMappingContext mappingContext, ReferenceResolver referenceResolver) {
+ *   return new MappingRedisConverter(mappingContext,
+ *       new PartitionedIndexResolver(mappingContext, new HashTagPartitioningStrategy()), referenceResolver);
+ * }
+ * </code>
+ * </pre>
+ *
+ * Geo indexes are not partitioned. Partial updates of indexed properties are not supported for partitioned types as
+ * the {@literal id} of the entity is not known at that point.
+ *
+ * @author Christoph Strobl
+ */
+public class PartitionedIndexResolver implements IndexResolver {
+
+	private final RedisMappingContext mappingContext;
+	private final PartitioningStrategy strategy;
+	private final IndexResolver delegate;
+
+	/**
+	 * Create new {@link PartitionedIndexResolver} based on a {@link PathIndexResolver}.
+	 *
+	 * @param mappingContext must not be {@literal null}.
+	 * @param strategy must not be {@literal null}.
+	 */
+	public PartitionedIndexResolver(RedisMappingContext mappingContext, PartitioningStrategy strategy) {
+		this(mappingContext, strategy, new PathIndexResolver(mappingContext));
+	}
+
+	/**
+	 * Create new {@link PartitionedIndexResolver}.
+	 *
+	 * @param mappingContext must not be {@literal null}.
+	 * @param strategy must not be {@literal null}.
+	 * @param delegate resolving the unpartitioned indexes. Must not be {@literal null}.
+	 */
+	public PartitionedIndexResolver(RedisMappingContext mappingContext, PartitioningStrategy strategy,
+			IndexResolver delegate) {
+
+		Assert.notNull(mappingContext, "MappingContext must not be null!");
+		Assert.notNull(strategy, "PartitioningStrategy must not be null!");
+		Assert.notNull(delegate, "Delegate must not be null!");
+
+		this.mappingContext = mappingContext;
+		this.strategy = strategy;
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @return the {@link PartitioningStrategy} in use.
+	 */
+	public PartitioningStrategy getStrategy() {
+		return strategy;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.core.convert.IndexResolver#resolveIndexesFor(org.springframework.data.util.TypeInformation, java.lang.Object)
+	 */
+	@Override
+	public Set<IndexedData> resolveIndexesFor(TypeInformation<?> typeInformation, Object value) {
+
+		Set<IndexedData> indexes = delegate.resolveIndexesFor(typeInformation, value);
+		if (indexes.isEmpty() || value == null || !strategy.isPartitioned(value.getClass())) {
+			return indexes;
+		}
+
+		RedisPersistentEntity<?> entity = mappingContext.getPersistentEntity(value.getClass());
+		Object id = entity.getIdentifierAccessor(value).getIdentifier();
+		if (id == null) {
+			throw new InvalidDataAccessApiUsageException(
+					String.format("Cannot partition indexes of %s without an id.", value.getClass().getName()));
+		}
+
+		String partition = strategy.getPartition(value.getClass(), id);
+
+		Set<IndexedData> partitioned = new LinkedHashSet<>(indexes.size());
+		for (IndexedData indexedData : indexes) {
+
+			if (indexedData instanceof SimpleIndexedPropertyValue) {
+				partitioned.add(new SimpleIndexedPropertyValue(indexedData.getKeyspace(),
+						strategy.getIndexName(partition, indexedData.getIndexName()),
+						((SimpleIndexedPropertyValue) indexedData).getValue()));
+			} else {
+				partitioned.add(indexedData);
+			}
+		}
+		return partitioned;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.data.redis.core.convert.IndexResolver#resolveIndexesFor(java.lang.String, java.lang.String, org.springframework.data.util.TypeInformation, java.lang.Object)
+	 */
+	@Override
+	public Set<IndexedData> resolveIndexesFor(String keyspace, String path, TypeInformation<?> typeInformation,
+			Object value) {
+
+		Set<IndexedData> indexes = delegate.resolveIndexesFor(keyspace, path, typeInformation, value);
+		if (!indexes.isEmpty() && isPartitioned(keyspace)) {
+			throw new InvalidDataAccessApiUsageException(
+					String.format("Partial update of indexed property %s is not supported for partitioned keyspace %s.", path,
+							keyspace));
+		}
+		return indexes;
+	}
+
+	private boolean isPartitioned(String keyspace) {
+
+		for (RedisPersistentEntity<?> entity : mappingContext.getPersistentEntities()) {
+			if (keyspace.equals(entity.getKeySpace()) && strategy.isPartitioned(entity.getType())) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.partition;
+
+import java.util.List;
+
+/**
+ * Strategy deciding which partition an entity belongs to. A partition is identified by a Redis Cluster hash tag like
+ * {@literal {3}} that is part of the entity {@literal id} as well as of the index keys of that partition.
+ *
+ * @author Christoph Strobl
+ */
+public interface PartitioningStrategy {
+
+	/**
+	 * @param type must not be {@literal null}.
+	 * @return {@literal true} if the given type uses the partitioned key layout.
+	 */
+	boolean isPartitioned(Class<?> type);
+
+	/**
+	 * @param type must not be {@literal null}.
+	 * @return the hash tags of all partitions of the given type.
+	 */
+	List<String> getPartitions(Class<?> type);
+
+	/**
+	 * @param type must not be {@literal null}.
+	 * @param id must not be {@literal null}.
+	 * @return the hash tag of the partition the entity with the given {@literal id} belongs to.
+	 */
+	String getPartition(Class<?> type, Object id);
+
+	/**
+	 * Create a new {@literal id} carrying the hash tag of a partition.
+	 *
+	 * @param type must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	String newId(Class<?> type);
+
+	/**
+	 * @param partition the hash tag of the partition.
+	 * @param path the property path.
+	 * @return the index name used for the given partition.
+	 */
+	default String getIndexName(String partition, String path) {
+		return partition + ":" + path;
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.reactive;
+
+import java.io.Serializable;
+
+import org.reactivestreams.Publisher;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive CRUD operations for a single entity type. Mirrors the {@code ReactiveCrudRepository} of Spring Data 2.0,
+ * which is not available on the Spring Data release train used here.
+ *
+ * @author Christoph Strobl
+ */
+public interface ReactiveCrudRepository<T, ID extends Serializable> {
+
+	/**
+	 * Save the given entity. Entities without an {@literal id} get one assigned.
+	 *
+	 * @param entity must not be {@literal null}.
+	 * @return {@link Mono} emitting the saved entity.
+	 */
+	<S extends T> Mono<S> save(S entity);
+
+	/**
+	 * Save all given entities.
+	 *
+	 * @param entities must not be {@literal null}.
+	 * @return {@link Flux} emitting the saved entities.
+	 */
+	<S extends T> Flux<S> saveAll(Publisher<S> entities);
+
+	/**
+	 * @param id must not be {@literal null}.
+	 * @return {@link Mono} emitting the entity or completing empty if not found.
+	 */
+	Mono<T> findById(ID id);
+
+	/**
+	 * @param ids must not be {@literal null}.
+	 * @return {@link Flux} emitting the entities found in the order of {@literal ids}.
+	 */
+	Flux<T> findAllById(Iterable<ID> ids);
+
+	/**
+	 * @return {@link Flux} emitting all entities.
+	 */
+	Flux<T> findAll();
+
+	/**
+	 * @param id must not be {@literal null}.
+	 * @return {@link Mono} emitting {@literal true} if an entity with the given id exists.
+	 */
+	Mono<Boolean> existsById(ID id);
+
+	/**
+	 * @return {@link Mono} emitting the number of entities.
+	 */
+	Mono<Long> count();
+
+	/**
+	 * @param id must not be {@literal null}.
+	 * @return {@link Mono} signaling completion.
+	 */
+	Mono<Void> deleteById(ID id);
+
+	/**
+	 * @param entity must not be {@literal null}.
+	 * @return {@link Mono} signaling completion.
+	 */
+	Mono<Void> delete(T entity);
+
+	/**
+	 * @return {@link Mono} signaling completion.
+	 */
+	Mono<Void> deleteAll();
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.reactive;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.example.core.BatchingEntityReader;
+import org.example.core.BlobStorage;
+import org.example.core.EntityWritePlanner;
+import org.example.core.EntityWritePlanner.Plan;
+import org.example.core.HashLoader;
+import org.example.core.RedisKeys;
+import org.example.core.SortedIndexResolver;
+import org.example.core.SortedIndexResolver.SortedIndexEntry;
+import org.reactivestreams.Publisher;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.core.mapping.RedisPersistentEntity;
+import org.springframework.data.redis.repository.query.RedisOperationChain;
+import org.springframework.data.redis.repository.query.RedisOperationChain.PathAndValue;
+import org.springframework.util.Assert;
+
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.reactive.RedisReactiveCommands;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link ReactiveCrudRepository} on top of the non blocking Lettuce driver. Uses the very same data structures as the
+ * {@link org.springframework.data.redis.core.RedisKeyValueAdapter}, so {@link org.springframework.data.redis.core.RedisHash},
+ * {@link org.springframework.data.redis.core.index.Indexed}, {@link org.springframework.data.annotation.Reference} and
+ * {@link org.springframework.data.redis.core.TimeToLive} behave the same and data can be shared with blocking
+ * repositories. <br />
+ * All commands are sent without waiting for previous replies, so they get pipelined on the single shared connection.
+ * Saving an entity takes two round trips, reading takes one plus one per level of references. <br />
+ * {@link org.example.ohm.LazyReference Lazy references} are loaded along with all other references as resolving them
+ * on first access would block. <br />
+ * <strong>Note:</strong> Cleaning up indexes of expired entities still requires keyspace events
+ * to be consumed, e.g. by a {@link org.springframework.data.redis.core.RedisKeyValueAdapter}.
+ *
+ * @author Christoph Strobl
+ */
+public class SimpleReactiveRedisRepository<T, ID extends Serializable> implements ReactiveCrudRepository<T, ID> {
+
+	/**
+	 * All references, {@link org.example.ohm.LazyReference lazy} ones included, are loaded upfront without blocking.
+	 * Loading anything later on would block the event loop.
+	 */
+	private static final HashLoader PREFETCHED_ONLY = keys -> {
+
+		Assert.state(keys.isEmpty(), "References must be prefetched on reactive reads!");
+		return Collections.emptyList();
+	};
+
+	private final Class<T> type;
+	private final RedisReactiveCommands<byte[], byte[]> commands;
+	private final RedisConverter converter;
+	private final EntityWritePlanner planner;
+	private final SortedIndexResolver sortedIndexes;
+	private final BatchingEntityReader reader;
+	private final RedisPersistentEntity<?> entity;
+	private final byte[] keyspaceKey;
+
+	private int batchSize = 500;
+
+	/**
+	 * Create new {@link SimpleReactiveRedisRepository}.
+	 *
+	 * @param type must not be {@literal null}.
+	 * @param connection must not be {@literal null}.
+	 * @param converter must not be {@literal null}.
+	 */
+	public SimpleReactiveRedisRepository(Class<T> type, StatefulRedisConnection<byte[], byte[]> connection,
+			RedisConverter converter) {
+
+		Assert.notNull(type, "Type must not be null!");
+		Assert.notNull(connection, "Connection must not be null!");
+		Assert.notNull(converter, "RedisConverter must not be null!");
+		Assert.isTrue(AnnotationUtils.findAnnotation(type, BlobStorage.class) == null,
+				"Types using BlobStorage are not supported by reactive repositories!");
+
+		this.type = type;
+		this.commands = connection.reactive();
+		this.converter = converter;
+		this.planner = new EntityWritePlanner(converter);
+		this.sortedIndexes = new SortedIndexResolver(converter.getMappingContext());
+		this.reader = new BatchingEntityReader(converter, PREFETCHED_ONLY);
+		this.reader.setLazyReferences(false);
+		this.entity = converter.getMappingContext().getPersistentEntity(type);
+		this.keyspaceKey = RedisKeys.keyspaceKey(entity.getKeySpace());
+	}
+
+	/**
+	 * Set the number of entities loaded at once when reading many of them. Defaults to {@literal 500}.
+	 *
+	 * @param batchSize must be greater than zero.
+	 */
+	public void setBatchSize(int batchSize) {
+
+		Assert.isTrue(batchSize > 0, "BatchSize must be greater than zero!");
+		this.batchSize = batchSize;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.reactive.ReactiveCrudRepository#save(java.lang.Object)
+	 */
+	@Override
+	public <S extends T> Mono<S> save(S entity) {
+
+		Assert.notNull(entity, "Entity must not be null!");
+
+		return Mono.defer(() -> {
+
+			Plan<S> plan = planner.plan(entity);
+
+			return commands.smembers(plan.getHelperKey()).collectList() //
+					.flatMap(existing -> Flux.merge(writeCommands(plan, existing)).then(Mono.just(entity)));
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.reactive.ReactiveCrudRepository#saveAll(org.reactivestreams.Publisher)
+	 */
+	@Override
+	public <S extends T> Flux<S> saveAll(Publisher<S> entities) {
+
+		Assert.notNull(entities, "Entities must not be null!");
+		return Flux.from(entities).flatMapSequential(this::save);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.reactive.ReactiveCrudRepository#findById(java.io.Serializable)
+	 */
+	@Override
+	public Mono<T> findById(ID id) {
+
+		Assert.notNull(id, "Id must not be null!");
+		return read(Flux.just(toBytes(id))).next();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.reactive.ReactiveCrudRepository#findAllById(java.lang.Iterable)
+	 */
+	@Override
+	public Flux<T> findAllById(Iterable<ID> ids) {
+
+		Assert.notNull(ids, "Ids must not be null!");
+		return read(Flux.fromIterable(ids).map(this::toBytes));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.reactive.ReactiveCrudRepository#findAll()
+	 */
+	@Override
+	public Flux<T> findAll() {
+		return read(commands.smembers(keyspaceKey));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.reactive.ReactiveCrudRepository#existsById(java.io.Serializable)
+	 */
+	@Override
+	public Mono<Boolean> existsById(ID id) {
+
+		Assert.notNull(id, "Id must not be null!");
+		return commands.sismember(keyspaceKey, toBytes(id));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.reactive.ReactiveCrudRepository#count()
+	 */
+	@Override
+	public Mono<Long> count() {
+		return commands.scard(keyspaceKey);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.reactive.ReactiveCrudRepository#deleteById(java.io.Serializable)
+	 */
+	@Override
+	public Mono<Void> deleteById(ID id) {
+
+		Assert.notNull(id, "Id must not be null!");
+		return delete(toBytes(id));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.reactive.ReactiveCrudRepository#delete(java.lang.Object)
+	 */
+	@Override
+	public Mono<Void> delete(T entity) {
+
+		Assert.notNull(entity, "Entity must not be null!");
+
+		Object id = this.entity.getIdentifierAccessor(entity).getIdentifier();
+		return id != null ? delete(toBytes(id)) : Mono.empty();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.reactive.ReactiveCrudRepository#deleteAll()
+	 */
+	@Override
+	public Mono<Void> deleteAll() {
+
+		List<byte[]> keys = new ArrayList<>(sortedIndexes.keys(type));
+		keys.add(keyspaceKey);
+
+		return commands.smembers(keyspaceKey).flatMap(this::delete)
+				.then(commands.del(keys.toArray(new byte[keys.size()][]))).then();
+	}
+
+	/**
+	 * Find all entities matching the given index lookups. {@literal AND} parts are resolved via {@literal SINTER},
+	 * {@literal OR} parts via {@literal SUNION}.
+	 *
+	 * @param criteria must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	protected Flux<T> find(RedisOperationChain criteria) {
+
+		Assert.notNull(criteria, "Criteria must not be null!");
+
+		List<Publisher<byte[]>> lookups = new ArrayList<>(2);
+		if (!criteria.getSismember().isEmpty()) {
+			lookups.add(commands.sinter(indexKeys(criteria.getSismember())));
+		}
+		if (!criteria.getOrSismember().isEmpty()) {
+			lookups.add(commands.sunion(indexKeys(criteria.getOrSismember())));
+		}
+
+		return read(Flux.concat(lookups).distinct(ByteBuffer::wrap));
+	}
+
+	private Flux<T> read(Flux<byte[]> ids) {
+
+		return ids.map(id -> RedisKeys.objectKey(entity.getKeySpace(), id)) //
+				.buffer(batchSize) //
+				.concatMap(keys -> load(keys).flatMapMany(hashes -> references(hashes) //
+						.flatMapIterable(references -> reader.read(type, hashes, references))));
+	}
+
+	/**
+	 * Load the reference closure of the given {@literal HASH}es level by level.
+	 */
+	private Mono<Map<String, Map<byte[], byte[]>>> references(List<Map<byte[], byte[]>> hashes) {
+
+		Map<String, Map<byte[], byte[]>> references = new HashMap<>();
+		Map<String, Class<?>> level = new LinkedHashMap<>();
+		for (Map<byte[], byte[]> hash : hashes) {
+			if (!hash.isEmpty()) {
+				reader.collectReferences(type, hash, references, level);
+			}
+		}
+
+		return prefetch(level, references).then(Mono.just(references));
+	}
+
+	private Mono<Void> prefetch(Map<String, Class<?>> level, Map<String, Map<byte[], byte[]>> references) {
+
+		if (level.isEmpty()) {
+			return Mono.empty();
+		}
+
+		List<String> keys = new ArrayList<>(level.keySet());
+		return load(keys.stream().map(RedisKeys::bytes).collect(Collectors.toList())).flatMap(loaded -> {
+
+			Map<String, Class<?>> next = new LinkedHashMap<>();
+			for (int i = 0; i < keys.size(); i++) {
+
+				Map<byte[], byte[]> hash = loaded.get(i);
+				references.put(keys.get(i), hash);
+
+				if (!hash.isEmpty()) {
+					reader.collectReferences(level.get(keys.get(i)), hash, references, next);
+				}
+			}
+			return prefetch(next, references);
+		});
+	}
+
+	private Mono<List<Map<byte[], byte[]>>> load(List<byte[]> keys) {
+		return Flux.fromIterable(keys).flatMapSequential(commands::hgetall).collectList();
+	}
+
+	private Mono<Void> delete(byte[] id) {
+
+		byte[] objectKey = RedisKeys.objectKey(entity.getKeySpace(), id);
+		byte[] helperKey = RedisKeys.indexHelperKey(objectKey);
+
+		return commands.smembers(helperKey).collectList().flatMap(existing -> {
+
+			List<Publisher<?>> deletes = new ArrayList<>();
+			existing.forEach(indexKey -> deletes.add(commands.srem(indexKey, id)));
+			deletes.add(commands.del(objectKey, RedisKeys.phantomKey(objectKey), helperKey));
+			deletes.add(commands.srem(keyspaceKey, id));
+			sortedIndexes.keys(type).forEach(key -> deletes.add(commands.zrem(key, id)));
+
+			return Flux.merge(deletes).then();
+		});
+	}
+
+	/**
+	 * The same commands {@link org.springframework.data.redis.core.RedisKeyValueAdapter#put} sends, in the same order.
+	 * {@link Flux#merge(Iterable)} subscribes to all of them right away so they are sent back to back.
+	 */
+	private List<Publisher<?>> writeCommands(Plan<?> plan, List<byte[]> existingIndexes) {
+
+		byte[] rawId = plan.getRawId();
+		List<Publisher<?>> writes = new ArrayList<>();
+
+		existingIndexes.forEach(indexKey -> writes.add(commands.srem(indexKey, rawId)));
+		writes.add(commands.del(plan.getObjectKey(), plan.getPhantomKey(), plan.getHelperKey()));
+		writes.add(commands.hmset(plan.getObjectKey(), plan.getHash()));
+
+		if (plan.hasTimeToLive()) {
+			writes.add(commands.expire(plan.getObjectKey(), plan.getTimeToLive()));
+		}
+
+		if (plan.hasPhantomCopy()) {
+
+			writes.add(commands.hmset(plan.getPhantomKey(), plan.getHash()));
+			writes.add(commands.expire(plan.getPhantomKey(), plan.getTimeToLive() + 300));
+		}
+
+		writes.add(commands.sadd(plan.getKeyspaceKey(), rawId));
+
+		for (byte[] indexKey : plan.getIndexKeys()) {
+
+			writes.add(commands.sadd(indexKey, rawId));
+			writes.add(commands.sadd(plan.getHelperKey(), indexKey));
+		}
+
+		for (SortedIndexEntry entry : plan.getSortedIndexEntries()) {
+			writes.add(entry.getScore() != null ? commands.zadd(entry.getKey(), entry.getScore(), rawId)
+					: commands.zrem(entry.getKey(), rawId));
+		}
+
+		return writes;
+	}
+
+	private byte[][] indexKeys(Set<PathAndValue> criteria) {
+
+		List<byte[]> keys = new ArrayList<>(criteria.size());
+		for (PathAndValue pathAndValue : criteria) {
+			keys.add(RedisKeys.indexKey(entity.getKeySpace(), pathAndValue.getPath(), toBytes(pathAndValue.getFirstValue())));
+		}
+		return keys.toArray(new byte[keys.size()][]);
+	}
+
+	private byte[] toBytes(Object source) {
+		return source instanceof byte[] ? (byte[]) source : converter.getConversionService().convert(source, byte[].class);
+	}
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.repository;
+
+import java.util.List;
+
+import org.example.types.Person;
+import org.springframework.data.repository.CrudRepository;
+
+/**
+ * Simple {@link CrudRepository} to be picked up by the Redis repository support.
+ *
+ * @author Christoph Strobl
+ */
+public interface PersonRepository extends CrudRepository<Person, String>, PersonRepositoryCustom {
+
+	List<Person> findByLastname(String lastname);
+
+	List<Person> findByFirstnameAndLastname(String firstname, String lastname);
+
+	List<Person> findByFirstnameOrLastname(String firstname, String lastname);
+
+	List<Person> findByAddress_City(String city);
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.example.core.BulkWriteResult;
+import org.example.core.ScanSlice;
+import org.example.types.Person;
+import org.springframework.data.domain.Pageable;
+
+/**
+ * Custom {@link PersonRepository} methods implemented in {@link PersonRepositoryImpl}.
+ *
+ * @author Christoph Strobl
+ */
+public interface PersonRepositoryCustom {
+
+	/**
+	 * Save the given {@link Person}s sending all commands for a batch of entities in one pipeline. In contrast to
+	 * {@link PersonRepository#save(Iterable)} a failure does not abort the operation but is reported per entity.
+	 *
+	 * @param persons must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	BulkWriteResult<Person> saveInBulk(Iterable<Person> persons);
+
+	/**
+	 * Load the {@link Person} with the given id along with its {@link Person#getChildren() children} using one pipelined
+	 * round trip per level of references. Served from the {@link org.example.cache.NearCache} if one is registered.
+	 *
+	 * @param id must not be {@literal null}.
+	 * @return {@literal null} if not found.
+	 */
+	Person findOne(String id);
+
+	/**
+	 * Load the {@link Person}s with the given ids in one pipelined round trip (plus one per level of references) instead
+	 * of one per {@link Person}. In cluster mode the ids are grouped by hash slot and loaded with one pipeline per node.
+	 *
+	 * @param ids must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	Iterable<Person> findAll(Iterable<String> ids);
+
+	/**
+	 * Find all {@link Person}s with an {@link Person#getAge() age} between {@literal from} and {@literal to} (both
+	 * inclusive) ordered by age. Runs as {@literal ZRANGEBYSCORE} on {@literal person:age:sorted} plus one pipelined
+	 * fetch.
+	 *
+	 * @param from lower bound.
+	 * @param to upper bound.
+	 * @return never {@literal null}.
+	 */
+	List<Person> findByAgeBetween(int from, int to);
+
+	/**
+	 * Find all {@link Person}s {@link Person#getCreated() created} after the given {@link Instant} ordered by creation
+	 * time. Runs as {@literal ZRANGEBYSCORE} on {@literal person:created:sorted} plus one pipelined fetch.
+	 *
+	 * @param instant must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	List<Person> findByCreatedAfter(Instant instant);
+
+	/**
+	 * Stream all {@link Person}s with the given {@literal lastname} walking the index with {@literal SSCAN} and loading
+	 * the matches in pipelined batches. Needs to be closed after usage:
+	 *
+	 * <pre>
+	 * <code>
+	 * try (Stream&lt;Person&gt; stream = repository.streamByLastname("stark")) {
+	 *   stream.forEach(...);
+	 * }
+	 * </code>
+	 * </pre>
+	 *
+	 * @param lastname must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	Stream<Person> streamByLastname(String lastname);
+
+	/**
+	 * Read the first {@link ScanSlice} of {@link Person}s with the given {@literal lastname} without reading the entire
+	 * index.
+	 *
+	 * @param lastname must not be {@literal null}.
+	 * @param pageable must not be {@literal null}. Must point to the first page.
+	 * @return never {@literal null}.
+	 */
+	ScanSlice<Person> findSliceByLastname(String lastname, Pageable pageable);
+
+	/**
+	 * Read the {@link ScanSlice} of {@link Person}s with the given {@literal lastname} following the given one.
+	 * Continues the {@literal SSCAN} where the previous slice stopped.
+	 *
+	 * @param lastname must not be {@literal null}.
+	 * @param previous must not be {@literal null}.
+	 * @return never {@literal null}.
+	 */
+	ScanSlice<Person> findSliceByLastname(String lastname, ScanSlice<Person> previous);
+}
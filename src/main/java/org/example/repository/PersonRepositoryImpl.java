@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.repository;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.example.cache.NearCache;
+import org.example.cluster.ClusterPipelineExecutor;
+import org.example.cluster.ReadFrom;
+import org.example.core.BatchingEntityReader;
+import org.example.core.BulkWriteResult;
+import org.example.core.HashLoader;
+import org.example.core.IndexQueryExecutor;
+import org.example.core.IndexScanner;
+import org.example.core.PipelinedEntityWriter;
+import org.example.core.PipelinedHashLoader;
+import org.example.core.RedisKeys;
+import org.example.core.ScanSlice;
+import org.example.types.Person;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisZSetCommands.Range;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.core.RedisOperations;
+
+/**
+ * Implementation of {@link PersonRepositoryCustom} picked up by the repository infrastructure.
+ *
+ * @author Christoph Strobl
+ */
+class PersonRepositoryImpl implements PersonRepositoryCustom, DisposableBean {
+
+	private final PipelinedEntityWriter writer;
+	private final ClusterPipelineExecutor clusterExecutor;
+	private final boolean ownsClusterExecutor;
+	private final HashLoader loader;
+	private final BatchingEntityReader reader;
+	private final IndexQueryExecutor queryExecutor;
+	private final IndexScanner scanner;
+	private final NearCache nearCache;
+
+	/**
+	 * @param redisOps the {@link RedisOperations} also used by the {@link RedisKeyValueAdapter}.
+	 * @param adapter the {@link RedisKeyValueAdapter} backing the repository.
+	 * @param connectionFactory the {@link RedisConnectionFactory} used for reading.
+	 * @param readFrom the cluster nodes to read from, configured via {@literal redis.cluster.read-from}. Only applies
+	 *          to the {@link ClusterPipelineExecutor} created here.
+	 * @param nearCache caches the {@literal HASH}es read by {@link #findOne(String)} if available.
+	 * @param clusterExecutor shared {@link ClusterPipelineExecutor} if available. Otherwise one is created when
+	 *          connected to a cluster.
+	 */
+	PersonRepositoryImpl(@Qualifier("redisTemplate") RedisOperations<?, ?> redisOps, RedisKeyValueAdapter adapter,
+			RedisConnectionFactory connectionFactory, @Value("${redis.cluster.read-from:MASTER}") ReadFrom readFrom,
+			ObjectProvider<NearCache> nearCache, ObjectProvider<ClusterPipelineExecutor> clusterExecutor) {
+
+		this.writer = new PipelinedEntityWriter(redisOps, adapter.getConverter());
+
+		ClusterPipelineExecutor sharedExecutor = clusterExecutor.getIfAvailable();
+		if (sharedExecutor != null) {
+
+			this.clusterExecutor = sharedExecutor;
+			this.ownsClusterExecutor = false;
+		} else if (isClusterAware(connectionFactory)) {
+
+			this.clusterExecutor = new ClusterPipelineExecutor(Runtime.getRuntime().availableProcessors());
+			this.clusterExecutor.setReadFrom(readFrom);
+			this.ownsClusterExecutor = true;
+		} else {
+
+			// standalone and sentinel setups do not need any threads for fanning out
+			this.clusterExecutor = null;
+			this.ownsClusterExecutor = false;
+		}
+
+		PipelinedHashLoader loader = new PipelinedHashLoader(connectionFactory, clusterExecutor);
+		loader.setMappingContext(adapter.getConverter().getMappingContext());
+		this.loader = loader;
+		this.reader = new BatchingEntityReader(adapter.getConverter(), loader);
+		this.queryExecutor = new IndexQueryExecutor(connectionFactory, adapter.getConverter(), clusterExecutor);
+		this.scanner = new IndexScanner(connectionFactory, adapter.getConverter(), loader);
+		this.nearCache = nearCache.getIfAvailable();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.repository.PersonRepositoryCustom#saveInBulk(java.lang.Iterable)
+	 */
+	@Override
+	public BulkWriteResult<Person> saveInBulk(Iterable<Person> persons) {
+		return writer.write(persons);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.repository.PersonRepositoryCustom#findOne(java.lang.String)
+	 */
+	@Override
+	public Person findOne(String id) {
+
+		if (nearCache == null) {
+			return reader.findOne(Person.class, id);
+		}
+
+		// cache the raw hash and map it on every hit so callers do not share (and modify) the very same instance
+		Map<byte[], byte[]> hash = nearCache.get("person", id, () -> {
+
+			byte[] key = RedisKeys.objectKey("person", RedisKeys.bytes(id));
+			Map<byte[], byte[]> loaded = loader.load(Collections.singletonList(key)).get(0);
+			return loaded.isEmpty() ? null : loaded;
+		});
+
+		if (hash == null) {
+			return null;
+		}
+
+		List<Person> result = reader.read(Person.class, Collections.singletonList(hash));
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.repository.PersonRepositoryCustom#findAll(java.lang.Iterable)
+	 */
+	@Override
+	public Iterable<Person> findAll(Iterable<String> ids) {
+		return reader.findAll(Person.class, ids);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.repository.PersonRepositoryCustom#findByAgeBetween(int, int)
+	 */
+	@Override
+	public List<Person> findByAgeBetween(int from, int to) {
+		return queryExecutor.findInRange(Person.class, "age", Range.range().gte(from).lte(to), 0, -1);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.repository.PersonRepositoryCustom#findByCreatedAfter(java.time.Instant)
+	 */
+	@Override
+	public List<Person> findByCreatedAfter(Instant instant) {
+		return queryExecutor.findInRange(Person.class, "created", Range.range().gt(instant), 0, -1);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.repository.PersonRepositoryCustom#streamByLastname(java.lang.String)
+	 */
+	@Override
+	public Stream<Person> streamByLastname(String lastname) {
+		return scanner.stream(Person.class, "lastname", lastname);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.repository.PersonRepositoryCustom#findSliceByLastname(java.lang.String, org.springframework.data.domain.Pageable)
+	 */
+	@Override
+	public ScanSlice<Person> findSliceByLastname(String lastname, Pageable pageable) {
+		return scanner.slice(Person.class, "lastname", lastname, pageable);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.example.repository.PersonRepositoryCustom#findSliceByLastname(java.lang.String, org.example.core.ScanSlice)
+	 */
+	@Override
+	public ScanSlice<Person> findSliceByLastname(String lastname, ScanSlice<Person> previous) {
+		return scanner.slice(Person.class, "lastname", lastname, previous);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() {
+
+		if (ownsClusterExecutor) {
+			clusterExecutor.destroy();
+		}
+	}
+
+	private static boolean isClusterAware(RedisConnectionFactory connectionFactory) {
+		return connectionFactory instanceof JedisConnectionFactory
+				&& ((JedisConnectionFactory) connectionFactory).isRedisClusterAware();
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.repository;
+
+import org.example.reactive.SimpleReactiveRedisRepository;
+import org.example.types.Person;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.repository.query.RedisOperationChain;
+
+import io.lettuce.core.api.StatefulRedisConnection;
+import reactor.core.publisher.Flux;
+
+/**
+ * Non blocking counterpart of {@link PersonRepository} operating on the very same data.
+ *
+ * @author Christoph Strobl
+ */
+public class ReactivePersonRepository extends SimpleReactiveRedisRepository<Person, String> {
+
+	/**
+	 * Create new {@link ReactivePersonRepository}.
+	 *
+	 * @param connection must not be {@literal null}.
+	 * @param converter must not be {@literal null}.
+	 */
+	public ReactivePersonRepository(StatefulRedisConnection<byte[], byte[]> connection, RedisConverter converter) {
+		super(Person.class, connection, converter);
+	}
+
+	public Flux<Person> findByLastname(String lastname) {
+
+		RedisOperationChain criteria = new RedisOperationChain();
+		criteria.sismember("lastname", lastname);
+		return find(criteria);
+	}
+
+	public Flux<Person> findByFirstnameAndLastname(String firstname, String lastname) {
+
+		RedisOperationChain criteria = new RedisOperationChain();
+		criteria.sismember("firstname", firstname);
+		criteria.sismember("lastname", lastname);
+		return find(criteria);
+	}
+
+	public Flux<Person> findByFirstnameOrLastname(String firstname, String lastname) {
+
+		RedisOperationChain criteria = new RedisOperationChain();
+		criteria.orSismember("firstname", firstname);
+		criteria.orSismember("lastname", lastname);
+		return find(criteria);
+	}
+
+	public Flux<Person> findByAddress_City(String city) {
+
+		RedisOperationChain criteria = new RedisOperationChain();
+		criteria.sismember("address.city", city);
+		return find(criteria);
+	}
+}
@@ -15,8 +15,10 @@
  */
 package org.example.types;
 
+import java.time.Instant;
 import java.util.List;
 
+import org.example.core.SortedIndexed;
 import org.springframework.context.ApplicationListener;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.Reference;
@@ -96,6 +98,20 @@ public class Person {
 	 */
 	private Address address;
 
+	/**
+	 * Using {@link SortedIndexed} keeps the {@literal ids} of all objects in a single {@literal ZSET} scored by the
+	 * property value which allows range queries.
+	 *
+	 * <pre>
+	 * <code>
+	 * {@link RedisHash#value()} + ":" + {@link Field#getName()} + ":sorted"
+	 * //eg. person:age:sorted
+	 * </code>
+	 * </pre>
+	 */
+	private @SortedIndexed Integer age;
+	private @SortedIndexed Instant created;
+
 	/**
 	 * Using {@link Reference} allows to link to existing objects via their {@literal key}. The values stored in the
 	 * objects {@literal HASH} looks like:
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.example.ohm.CompiledHashMapper;
+import org.example.types.Address;
+import org.example.types.Gender;
+import org.example.types.Person;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.hash.BeanUtilsHashMapper;
+import org.springframework.data.redis.hash.Jackson2HashMapper;
+import org.springframework.data.redis.hash.ObjectHashMapper;
+
+/**
+ * Compares the {@link CompiledHashMapper} with the {@link ObjectHashMapper}, {@link Jackson2HashMapper} and
+ * {@link BeanUtilsHashMapper} mapping a {@link Person} with an embedded {@link Address}. No Redis server is involved.
+ * <br />
+ * The {@link BeanUtilsHashMapper} can only map flat objects and therefore works on a {@link Person} without
+ * {@link Address}.
+ *
+ * <pre>
+ * <code>
+ * $ mvn -P benchmarks test -Dbenchmark=HashMapperBenchmark
+ * </code>
+ * </pre>
+ *
+ * @author Christoph Strobl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class HashMapperBenchmark {
+
+	CompiledHashMapper compiledHashMapper;
+	ObjectHashMapper objectHashMapper;
+	Jackson2HashMapper jackson2HashMapper;
+	BeanUtilsHashMapper<Person> beanUtilsHashMapper;
+
+	Person person;
+	Person flatPerson;
+
+	Map<byte[], byte[]> compiledHash;
+	Map<byte[], byte[]> objectHash;
+	Map<String, Object> jacksonHash;
+	Map<String, String> beanUtilsHash;
+
+	@Setup
+	public void setUp() {
+
+		compiledHashMapper = new CompiledHashMapper().prepare(Person.class);
+		objectHashMapper = new ObjectHashMapper();
+		jackson2HashMapper = new Jackson2HashMapper(true);
+		beanUtilsHashMapper = new BeanUtilsHashMapper<>(Person.class);
+
+		Address winterfell = new Address();
+		winterfell.setCity("winterfell");
+		winterfell.setCountry("the north");
+
+		person = new Person("eddard", "stark", Gender.MALE);
+		person.setId("9b0ed8ee-14be-46ec-b5fa-79570aadb91d");
+		person.setAddress(winterfell);
+
+		flatPerson = new Person("eddard", "stark", Gender.MALE);
+		flatPerson.setId(person.getId());
+
+		compiledHash = compiledHashMapper.toHash(person);
+		objectHash = objectHashMapper.toHash(person);
+		jacksonHash = jackson2HashMapper.toHash(person);
+		beanUtilsHash = beanUtilsHashMapper.toHash(flatPerson);
+	}
+
+	@Benchmark
+	public Map<byte[], byte[]> writeCompiledHashMapper() {
+		return compiledHashMapper.toHash(person);
+	}
+
+	@Benchmark
+	public Map<byte[], byte[]> writeObjectHashMapper() {
+		return objectHashMapper.toHash(person);
+	}
+
+	@Benchmark
+	public Map<String, Object> writeJackson2HashMapper() {
+		return jackson2HashMapper.toHash(person);
+	}
+
+	@Benchmark
+	public Map<String, String> writeBeanUtilsHashMapper() {
+		return beanUtilsHashMapper.toHash(flatPerson);
+	}
+
+	@Benchmark
+	public Object readCompiledHashMapper() {
+		return compiledHashMapper.fromHash(compiledHash);
+	}
+
+	@Benchmark
+	public Object readObjectHashMapper() {
+		return objectHashMapper.fromHash(objectHash);
+	}
+
+	@Benchmark
+	public Object readJackson2HashMapper() {
+		return jackson2HashMapper.fromHash(jacksonHash);
+	}
+
+	@Benchmark
+	public Object readBeanUtilsHashMapper() {
+		return beanUtilsHashMapper.fromHash(beanUtilsHash);
+	}
+}
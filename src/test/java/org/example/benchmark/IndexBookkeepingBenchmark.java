@@ -0,0 +1,219 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.example.core.BulkWriteResult;
+import org.example.core.IndexBookkeeping;
+import org.example.core.PipelinedEntityWriter;
+import org.example.core.ScriptedRedisKeyValueAdapter;
+import org.example.repository.PersonRepository;
+import org.example.support.RedisStandIn;
+import org.example.types.Address;
+import org.example.types.Gender;
+import org.example.types.Person;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+
+/**
+ * JMH benchmarks comparing write throughput of {@link IndexBookkeeping#HELPER_SET} and
+ * {@link IndexBookkeeping#HASH_VALUES} for single saves via the {@link ScriptedRedisKeyValueAdapter} and bulk writes
+ * via the {@link PipelinedEntityWriter}. <br />
+ * The setup loads {@code -Dbenchmark.persons} (defaults to {@literal 100000}) persons and prints the Redis
+ * {@literal used_memory} and number of keys they take, scaled to {@literal 1M} persons. <br />
+ * The {@link org.example.support.InProcessRedisServer} does neither run scripts nor report memory, so a Redis server
+ * is required:
+ *
+ * <pre>
+ * <code>
+ * $ mvn -P benchmarks test -Dbenchmark=IndexBookkeepingBenchmark -Dbenchmark.redis.port=6379
+ * </code>
+ * </pre>
+ *
+ * @author Christoph Strobl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class IndexBookkeepingBenchmark {
+
+	private static final int BATCH_SIZE = 100;
+
+	@Param({ "HELPER_SET", "HASH_VALUES" }) IndexBookkeeping bookkeeping;
+
+	RedisStandIn redis;
+	ConfigurableApplicationContext context;
+	PersonRepository repo;
+	PipelinedEntityWriter writer;
+
+	Person[] persons;
+	int counter;
+
+	@SpringBootApplication
+	@EnableRedisRepositories(basePackageClasses = PersonRepository.class)
+	static class Config {
+
+		/**
+		 * Write entities via one script call each using the configured bookkeeping.
+		 *
+		 * @param redisTemplate
+		 * @param redisConverter
+		 * @param bookkeeping
+		 * @return
+		 */
+		@Bean
+		RedisKeyValueAdapter redisKeyValueAdapter(@Qualifier("redisTemplate") RedisOperations<?, ?> redisTemplate,
+				RedisConverter redisConverter, @Value("${benchmark.bookkeeping}") IndexBookkeeping bookkeeping) {
+
+			ScriptedRedisKeyValueAdapter adapter = new ScriptedRedisKeyValueAdapter(redisTemplate, redisConverter);
+			adapter.setIndexBookkeeping(bookkeeping);
+			return adapter;
+		}
+	}
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+
+		redis = RedisStandIn.start();
+		if (redis.isInProcess()) {
+
+			redis.close();
+			throw new IllegalStateException("IndexBookkeepingBenchmark requires a Redis server, see -Dbenchmark.redis.port.");
+		}
+
+		context = new SpringApplicationBuilder(Config.class).web(false)
+				.properties("spring.redis.host=" + redis.getHost(), "spring.redis.port=" + redis.getPort(),
+						"benchmark.bookkeeping=" + bookkeeping)
+				.run();
+
+		repo = context.getBean(PersonRepository.class);
+		writer = new PipelinedEntityWriter(context.getBean("redisTemplate", RedisOperations.class),
+				context.getBean(RedisConverter.class));
+		writer.setIndexBookkeeping(bookkeeping);
+
+		int count = Integer.getInteger("benchmark.persons", 100000);
+		persons = new Person[count];
+		for (int i = 0; i < count; i++) {
+
+			Person person = new Person("firstname-" + i, "lastname-" + (i % 100), i % 2 == 0 ? Gender.FEMALE : Gender.MALE);
+			person.setId("person-" + i);
+			person.setAddress(address("city-" + (i % 50), "country-" + (i % 5)));
+			persons[i] = person;
+		}
+
+		RedisConnection connection = context.getBean(RedisConnectionFactory.class).getConnection();
+		try {
+
+			connection.flushAll();
+			long before = usedMemory(connection);
+
+			BulkWriteResult<Person> result = writer.write(Arrays.asList(persons));
+			if (result.hasFailures()) {
+				throw new IllegalStateException("Failed to load persons: " + result.getFailures().get(0).getCause());
+			}
+
+			double scale = 1000000D / count;
+			System.out.printf("%n%s: %.1f MB used_memory and %.0f keys per 1M persons%n", bookkeeping,
+					(usedMemory(connection) - before) * scale / (1024 * 1024), connection.dbSize() * scale);
+		} finally {
+			connection.close();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+
+		context.close();
+		redis.close();
+	}
+
+	/**
+	 * Overwrite an existing entity which removes and re-creates index entries in a single script call.
+	 */
+	@Benchmark
+	public Person save() {
+		return repo.save(next());
+	}
+
+	/**
+	 * Overwrite existing entities in pipelines of {@value #BATCH_SIZE}.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public BulkWriteResult<Person> bulkWrite() {
+
+		List<Person> batch = new ArrayList<>(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			batch.add(next());
+		}
+		return writer.write(batch);
+	}
+
+	private Person next() {
+
+		Person person = persons[(counter++ & Integer.MAX_VALUE) % persons.length];
+
+		// change an indexed value so index entries have to be moved
+		person.setLastname("lastname-" + (counter % 100));
+		return person;
+	}
+
+	private static long usedMemory(RedisConnection connection) {
+
+		Properties info = connection.info("memory");
+		return Long.parseLong(info.getProperty("used_memory", "0"));
+	}
+
+	private static Address address(String city, String country) {
+
+		Address address = new Address();
+		address.setCity(city);
+		address.setCountry(country);
+		return address;
+	}
+}
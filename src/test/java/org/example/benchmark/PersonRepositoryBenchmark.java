@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.example.core.IndexQueryExecutor;
+import org.example.core.IndexQueryKeyValueTemplate;
+import org.example.core.PhantomAwareRedisKeyValueAdapter;
+import org.example.core.SortedIndexed;
+import org.example.repository.PersonRepository;
+import org.example.support.RedisStandIn;
+import org.example.types.Address;
+import org.example.types.Gender;
+import org.example.types.Person;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.core.RedisKeyValueTemplate;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+
+/**
+ * JMH benchmarks for the {@link PersonRepository} save and find paths. <br />
+ * By default the benchmarks run against the {@link RedisStandIn} so that results reflect the mapping and indexing
+ * overhead rather than network latency. <br />
+ * <br />
+ * Run with:
+ *
+ * <pre>
+ * <code>
+ * $ mvn -P benchmarks test -Dbenchmark=PersonRepositoryBenchmark
+ * </code>
+ * </pre>
+ *
+ * @author Christoph Strobl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PersonRepositoryBenchmark {
+
+	private static final int PERSONS = 1000;
+
+	RedisStandIn redis;
+	ConfigurableApplicationContext context;
+	PersonRepository repo;
+
+	Person eddard;
+	Person[] persons;
+	int counter;
+
+	@SpringBootApplication
+	@EnableRedisRepositories(basePackageClasses = PersonRepository.class)
+	static class Config {
+
+		/**
+		 * Run derived queries on indexed properties in a single round trip.
+		 *
+		 * @param adapter
+		 * @param connectionFactory
+		 * @return
+		 */
+		@Bean
+		RedisKeyValueTemplate redisKeyValueTemplate(RedisKeyValueAdapter adapter, RedisConnectionFactory connectionFactory) {
+			return new IndexQueryKeyValueTemplate(adapter,
+					new IndexQueryExecutor(connectionFactory, adapter.getConverter(), null));
+		}
+
+		/**
+		 * Keep {@link SortedIndexed} properties in sync when saving, updating and deleting entities.
+		 *
+		 * @param redisTemplate
+		 * @param redisConverter
+		 * @return
+		 */
+		@Bean
+		RedisKeyValueAdapter redisKeyValueAdapter(@Qualifier("redisTemplate") RedisOperations<?, ?> redisTemplate,
+				RedisConverter redisConverter) {
+
+			return new PhantomAwareRedisKeyValueAdapter(redisTemplate, redisConverter);
+		}
+	}
+
+	@Setup
+	public void setUp() {
+
+		redis = RedisStandIn.start();
+		context = new SpringApplicationBuilder(Config.class).web(false)
+				.properties("spring.redis.host=" + redis.getHost(), "spring.redis.port=" + redis.getPort()).run();
+
+		RedisConnection connection = context.getBean(RedisConnectionFactory.class).getConnection();
+		connection.flushAll();
+		connection.close();
+
+		repo = context.getBean(PersonRepository.class);
+
+		persons = new Person[PERSONS];
+		for (int i = 0; i < PERSONS; i++) {
+
+			Person person = new Person("firstname-" + i, i % 10 == 0 ? "stark" : "lastname-" + (i % 100),
+					i % 2 == 0 ? Gender.FEMALE : Gender.MALE);
+			person.setId("person-" + i);
+			person.setAddress(address("city-" + (i % 50), "country-" + (i % 5)));
+			persons[i] = person;
+		}
+		repo.save(Arrays.asList(persons));
+
+		eddard = new Person("eddard", "stark", Gender.MALE);
+		eddard.setAddress(address("winterfell", "the north"));
+		repo.save(eddard);
+	}
+
+	@TearDown
+	public void tearDown() {
+
+		context.close();
+		redis.close();
+	}
+
+	/**
+	 * Overwrite an existing entity which removes and re-creates index entries.
+	 */
+	@Benchmark
+	public Person save() {
+		return repo.save(next());
+	}
+
+	@Benchmark
+	public Person findOne() {
+		return repo.findOne(next().getId());
+	}
+
+	/**
+	 * Single index lookup matching {@literal 10%} of the data set.
+	 */
+	@Benchmark
+	public List<Person> findByLastname() {
+		return repo.findByLastname("stark");
+	}
+
+	@Benchmark
+	public List<Person> findByFirstnameAndLastname() {
+		return repo.findByFirstnameAndLastname("eddard", "stark");
+	}
+
+	@Benchmark
+	public List<Person> findByAddress_City() {
+		return repo.findByAddress_City("winterfell");
+	}
+
+	private Person next() {
+		return persons[(counter++ & Integer.MAX_VALUE) % PERSONS];
+	}
+
+	private static Address address(String city, String country) {
+
+		Address address = new Address();
+		address.setCity(city);
+		address.setCountry(country);
+		return address;
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.benchmark;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.example.core.BatchingEntityReader;
+import org.example.core.BlobStorage;
+import org.example.core.BulkWriteResult;
+import org.example.core.PipelinedEntityWriter;
+import org.example.core.PipelinedHashLoader;
+import org.example.repository.PersonRepository;
+import org.example.support.RedisStandIn;
+import org.example.types.Address;
+import org.example.types.Gender;
+import org.example.types.Person;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisHash;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+
+/**
+ * JMH benchmarks comparing the flattened {@literal HASH} layout with {@link BlobStorage} for reading and writing
+ * single entities, as well as reading batches of {@value #BATCH_SIZE}. Both layouts are written via the
+ * {@link PipelinedEntityWriter} and read via the {@link BatchingEntityReader}, so only the layout differs. <br />
+ * The setup loads {@code -Dbenchmark.persons} (defaults to {@literal 100000}) persons and prints the Redis
+ * {@literal used_memory} they take, scaled to {@literal 1M} persons. The
+ * {@link org.example.support.InProcessRedisServer} does not report memory and its latencies do not reflect the ones of
+ * a Redis server, so better run against one:
+ *
+ * <pre>
+ * <code>
+ * $ mvn -P benchmarks test -Dbenchmark=StorageLayoutBenchmark -Dbenchmark.redis.port=6379
+ * </code>
+ * </pre>
+ *
+ * @author Christoph Strobl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StorageLayoutBenchmark {
+
+	private static final int BATCH_SIZE = 100;
+
+	@Param({ "HASH", "BLOB" }) String layout;
+
+	RedisStandIn redis;
+	ConfigurableApplicationContext context;
+	PipelinedEntityWriter writer;
+	BatchingEntityReader reader;
+
+	Class<? extends Person> type;
+	Person[] persons;
+	int counter;
+
+	@SpringBootApplication
+	@EnableRedisRepositories(basePackageClasses = PersonRepository.class)
+	static class Config {}
+
+	/**
+	 * {@link Person} stored as a single {@literal STRING}.
+	 */
+	@RedisHash("blob-person")
+	@BlobStorage
+	static class BlobPerson extends Person {}
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+
+		redis = RedisStandIn.start();
+		context = new SpringApplicationBuilder(Config.class).web(false)
+				.properties("spring.redis.host=" + redis.getHost(), "spring.redis.port=" + redis.getPort()).run();
+
+		RedisConverter converter = context.getBean(RedisConverter.class);
+		RedisConnectionFactory connectionFactory = context.getBean(RedisConnectionFactory.class);
+
+		PipelinedHashLoader loader = new PipelinedHashLoader(connectionFactory, null);
+		loader.setMappingContext(converter.getMappingContext());
+
+		writer = new PipelinedEntityWriter(context.getBean("redisTemplate", RedisOperations.class), converter);
+		reader = new BatchingEntityReader(converter, loader);
+		type = "BLOB".equals(layout) ? BlobPerson.class : Person.class;
+
+		int count = Integer.getInteger("benchmark.persons", 100000);
+		persons = new Person[count];
+		for (int i = 0; i < count; i++) {
+
+			Person person = "BLOB".equals(layout) ? new BlobPerson() : new Person();
+			person.setId("person-" + i);
+			person.setFirstname("firstname-" + i);
+			person.setLastname("lastname-" + (i % 100));
+			person.setGender(i % 2 == 0 ? Gender.FEMALE : Gender.MALE);
+			person.setAddress(address("city-" + (i % 50), "country-" + (i % 5)));
+			person.setAge(i % 90);
+			person.setCreated(Instant.ofEpochMilli(1470000000000L + i));
+			persons[i] = person;
+		}
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+
+			connection.flushAll();
+			long before = redis.isInProcess() ? 0 : usedMemory(connection);
+
+			BulkWriteResult<Person> result = writer.write(Arrays.asList(persons));
+			if (result.hasFailures()) {
+				throw new IllegalStateException("Failed to load persons: " + result.getFailures().get(0).getCause());
+			}
+
+			if (!redis.isInProcess()) {
+				System.out.printf("%n%s: %.1f MB used_memory per 1M persons%n", layout,
+						(usedMemory(connection) - before) * (1000000D / count) / (1024 * 1024));
+			}
+		} finally {
+			connection.close();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+
+		context.close();
+		redis.close();
+	}
+
+	/**
+	 * Read a single entity by its {@literal id}.
+	 */
+	@Benchmark
+	public Person read() {
+		return reader.findOne(type, next().getId());
+	}
+
+	/**
+	 * Read {@value #BATCH_SIZE} entities with one pipeline.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public List<? extends Person> readBatch() {
+
+		List<String> ids = new ArrayList<>(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			ids.add(next().getId());
+		}
+		return reader.findAll(type, ids);
+	}
+
+	/**
+	 * Overwrite an existing entity including its index entries.
+	 */
+	@Benchmark
+	public BulkWriteResult<Person> write() {
+		return writer.write(Arrays.asList(next()));
+	}
+
+	private Person next() {
+		return persons[(counter++ & Integer.MAX_VALUE) % persons.length];
+	}
+
+	private static long usedMemory(RedisConnection connection) {
+
+		Properties info = connection.info("memory");
+		return Long.parseLong(info.getProperty("used_memory", "0"));
+	}
+
+	private static Address address(String city, String country) {
+
+		Address address = new Address();
+		address.setCity(city);
+		address.setCountry(country);
+		return address;
+	}
+}
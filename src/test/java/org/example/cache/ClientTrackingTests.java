@@ -0,0 +1,214 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.cache;
+
+import static org.hamcrest.core.Is.*;
+import static org.hamcrest.number.OrderingComparison.*;
+import static org.junit.Assert.*;
+
+import java.util.function.Supplier;
+
+import org.example.repository.PersonRepository;
+import org.example.support.InProcessRedisServer;
+import org.example.types.Gender;
+import org.example.types.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+
+/**
+ * Runs against the {@link InProcessRedisServer} pushing {@literal __redis__:invalidate} messages.
+ *
+ * @author Christoph Strobl
+ */
+public class ClientTrackingTests {
+
+	@SpringBootApplication
+	@EnableRedisRepositories(basePackageClasses = PersonRepository.class)
+	static class Config {
+
+		/**
+		 * Have changes of all {@literal person:} keys pushed.
+		 *
+		 * @param connectionFactory
+		 * @return
+		 */
+		@Bean
+		ClientTracking clientTracking(RedisConnectionFactory connectionFactory) {
+
+			ClientTracking clientTracking = new ClientTracking(connectionFactory);
+			clientTracking.setPrefixes("person:");
+			return clientTracking;
+		}
+
+		/**
+		 * Keep up to {@literal 10.000} persons in memory invalidated via {@link ClientTracking}.
+		 *
+		 * @param connectionFactory
+		 * @param clientTracking
+		 * @return
+		 */
+		@Bean
+		NearCache nearCache(RedisConnectionFactory connectionFactory, ClientTracking clientTracking) {
+
+			NearCache nearCache = new NearCache(connectionFactory, 10000, "person");
+			nearCache.setClientTracking(clientTracking);
+			return nearCache;
+		}
+	}
+
+	InProcessRedisServer redis;
+	ConfigurableApplicationContext context;
+	RedisConnectionFactory connectionFactory;
+
+	Person eddard = new Person("eddard", "stark", Gender.MALE);
+
+	@Before
+	public void setUp() {
+
+		redis = InProcessRedisServer.start();
+		context = new SpringApplicationBuilder(Config.class).web(false)
+				.properties("spring.redis.host=" + redis.getHost(), "spring.redis.port=" + redis.getPort()).run();
+		connectionFactory = context.getBean(RedisConnectionFactory.class);
+	}
+
+	@After
+	public void tearDown() {
+
+		context.close();
+		redis.close();
+	}
+
+	/**
+	 * Keys read via a tracking connection are cached until the server reports a change.
+	 */
+	@Test
+	public void cacheConnectionReadsUntilChanged() throws InterruptedException {
+
+		ClientTracking clientTracking = new ClientTracking(connectionFactory);
+		clientTracking.afterPropertiesSet();
+
+		TrackingRedisConnectionFactory trackingFactory = new TrackingRedisConnectionFactory(connectionFactory,
+				clientTracking, 100);
+
+		RedisConnection connection = trackingFactory.getConnection();
+		RedisConnection other = connectionFactory.getConnection();
+		try {
+
+			other.set("key".getBytes(), "winter".getBytes());
+
+			connection.get("key".getBytes());
+			assertThat(new String(connection.get("key".getBytes())), is("winter"));
+			assertThat(trackingFactory.getStats().hitCount(), is(1L));
+
+			other.set("key".getBytes(), "is coming".getBytes());
+
+			assertThat(await(() -> new String(connection.get("key".getBytes())), "is coming"), is("is coming"));
+		} finally {
+
+			connection.close();
+			other.close();
+			clientTracking.destroy();
+		}
+	}
+
+	/**
+	 * A lost subscriber is replaced and tracking is re-enabled for the new one, nothing is cached in between.
+	 */
+	@Test
+	public void reconnectAfterConnectionLoss() throws InterruptedException {
+
+		ClientTracking clientTracking = new ClientTracking(connectionFactory);
+		clientTracking.setReconnectDelay(10);
+		clientTracking.afterPropertiesSet();
+
+		TrackingRedisConnectionFactory trackingFactory = new TrackingRedisConnectionFactory(connectionFactory,
+				clientTracking, 100);
+
+		RedisConnection connection = trackingFactory.getConnection();
+		RedisConnection other = connectionFactory.getConnection();
+		try {
+
+			other.set("key".getBytes(), "winter".getBytes());
+			connection.get("key".getBytes());
+
+			long clientId = clientTracking.getClientId();
+			other.execute("CLIENT", "KILL".getBytes(), "ID".getBytes(), Long.toString(clientId).getBytes());
+
+			assertThat(await(() -> clientTracking.isConnected() && clientTracking.getClientId() != clientId, true),
+					is(true));
+
+			connection.get("key".getBytes());
+			assertThat(new String(connection.get("key".getBytes())), is("winter"));
+
+			other.set("key".getBytes(), "is coming".getBytes());
+
+			assertThat(await(() -> new String(connection.get("key".getBytes())), "is coming"), is("is coming"));
+		} finally {
+
+			connection.close();
+			other.close();
+			clientTracking.destroy();
+		}
+	}
+
+	/**
+	 * Repository reads are served from memory until a {@literal BCAST} invalidation arrives.
+	 */
+	@Test
+	public void invalidateRepositoryReadsViaBroadcast() throws InterruptedException {
+
+		PersonRepository repo = context.getBean(PersonRepository.class);
+		NearCache nearCache = context.getBean(NearCache.class);
+
+		repo.save(eddard);
+
+		// invalidations caused by the save itself arrive asynchronously
+		assertThat(await(() -> {
+
+			repo.findOne(eddard.getId());
+			return nearCache.getStats().hitCount() > 0;
+		}, true), is(true));
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+			connection.hSet(("person:" + eddard.getId()).getBytes(), "firstname".getBytes(), "ned".getBytes());
+		} finally {
+			connection.close();
+		}
+
+		assertThat(await(() -> repo.findOne(eddard.getId()).getFirstname(), "ned"), is("ned"));
+		assertThat(nearCache.getInvalidations(), is(greaterThan(0L)));
+	}
+
+	private static <T> T await(Supplier<T> read, T expected) throws InterruptedException {
+
+		T value = read.get();
+		for (int i = 0; i < 50 && !expected.equals(value); i++) {
+
+			Thread.sleep(20);
+			value = read.get();
+		}
+		return value;
+	}
+}
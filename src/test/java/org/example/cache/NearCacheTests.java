@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.cache;
+
+import static org.hamcrest.core.Is.*;
+import static org.hamcrest.core.IsNot.*;
+import static org.hamcrest.core.IsSame.*;
+import static org.hamcrest.number.OrderingComparison.*;
+import static org.junit.Assert.*;
+
+import org.example.repository.PersonRepository;
+import org.example.types.Gender;
+import org.example.types.Person;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * @author Christoph Strobl
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class NearCacheTests {
+
+	@SpringBootApplication
+	@EnableRedisRepositories(basePackageClasses = PersonRepository.class)
+	static class Config {
+
+		/**
+		 * Keep up to {@literal 10.000} persons in memory.
+		 *
+		 * @param connectionFactory
+		 * @return
+		 */
+		@Bean
+		NearCache nearCache(RedisConnectionFactory connectionFactory) {
+			return new NearCache(connectionFactory, 10000, "person");
+		}
+	}
+
+	@Autowired PersonRepository repo;
+	@Autowired NearCache nearCache;
+	@Autowired RedisConnectionFactory connectionFactory;
+
+	Person eddard = new Person("eddard", "stark", Gender.MALE);
+
+	@Before
+	public void setUp() {
+
+		RedisConnection connection = connectionFactory.getConnection();
+		connection.flushAll();
+		connection.close();
+	}
+
+	/**
+	 * Repeated reads are served from memory.
+	 */
+	@Test
+	public void serveRepeatedReadsFromMemory() {
+
+		repo.save(eddard);
+
+		long hits = nearCache.getStats().hitCount();
+
+		repo.findOne(eddard.getId());
+		repo.findOne(eddard.getId());
+
+		assertThat(nearCache.getStats().hitCount(), is(hits + 1));
+	}
+
+	/**
+	 * Changes made by other clients are picked up via keyspace notifications.
+	 */
+	@Test
+	public void invalidateOnKeyspaceNotification() throws InterruptedException {
+
+		repo.save(eddard);
+		repo.findOne(eddard.getId());
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+			connection.hSet(("person:" + eddard.getId()).getBytes(), "firstname".getBytes(), "ned".getBytes());
+		} finally {
+			connection.close();
+		}
+
+		Person loaded = repo.findOne(eddard.getId());
+		for (int i = 0; i < 50 && "eddard".equals(loaded.getFirstname()); i++) {
+
+			Thread.sleep(20);
+			loaded = repo.findOne(eddard.getId());
+		}
+
+		assertThat(loaded.getFirstname(), is("ned"));
+		assertThat(nearCache.getInvalidations(), is(greaterThan(0L)));
+	}
+
+	/**
+	 * Writes via the repository take effect right away.
+	 */
+	@Test
+	public void invalidateOnLocalWrite() {
+
+		repo.save(eddard);
+		repo.findOne(eddard.getId());
+
+		Person ned = new Person("ned", "stark", Gender.MALE);
+		ned.setId(eddard.getId());
+		repo.save(ned);
+
+		assertThat(repo.findOne(eddard.getId()).getFirstname(), is("ned"));
+	}
+
+	/**
+	 * Every hit maps the cached {@literal HASH} into a new instance so changes made by one caller do not leak into the
+	 * cache.
+	 */
+	@Test
+	public void handOutIndependentInstances() {
+
+		repo.save(eddard);
+
+		Person first = repo.findOne(eddard.getId());
+		first.setFirstname("ned");
+
+		Person second = repo.findOne(eddard.getId());
+
+		assertThat(second, is(not(sameInstance(first))));
+		assertThat(second.getFirstname(), is("eddard"));
+	}
+}
@@ -15,13 +15,20 @@
  */
 package org.example.cluster;
 
+import static org.hamcrest.collection.IsIterableContainingInOrder.*;
+import static org.hamcrest.core.Is.*;
 import static org.hamcrest.core.IsCollectionContaining.*;
 import static org.hamcrest.core.IsNot.*;
 import static org.junit.Assert.*;
 import static org.springframework.data.redis.connection.RedisClusterNode.*;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.After;
 import org.junit.Before;
@@ -34,8 +41,11 @@ import org.springframework.data.redis.connection.DefaultStringRedisConnection;
 import org.springframework.data.redis.connection.RedisClusterConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import redis.clients.jedis.Response;
+
 /**
  * @author Christoph Strobl
  */
@@ -50,6 +60,8 @@ public class ClusterTests {
 
 	RedisClusterConnection connection;
 	StringRedisConnection stringConnection;
+	ClusterScanner scanner = new ClusterScanner(3);
+	ClusterPipelineExecutor pipelineExecutor = new ClusterPipelineExecutor(3);
 
 	@Before
 	public void setUp() {
@@ -62,7 +74,10 @@ public class ClusterTests {
 
 	@After
 	public void after() {
+
 		connection.close();
+		scanner.destroy();
+		pipelineExecutor.destroy();
 	}
 
 	/**
@@ -113,4 +128,134 @@ public class ClusterTests {
 		assertThat(stringConnection.mGet("key-1", "key-2"), hasItems("foo", "bar"));
 	}
 
+	/**
+	 * Execute multi key commands spanning several slots with one pipeline per master instead of one call per key.
+	 */
+	@Test
+	public void executeCrossSlotCommandsPerNode() {
+
+		ClusterMultiKeyCommands commands = new ClusterMultiKeyCommands(pipelineExecutor);
+
+		Map<byte[], byte[]> tuples = new LinkedHashMap<>();
+		tuples.put("key-1".getBytes(), "foo".getBytes());
+		tuples.put("key-2".getBytes(), "bar".getBytes());
+		tuples.put("2-key".getBytes(), "baz".getBytes());
+
+		commands.mSet(connection, tuples);
+
+		List<byte[]> keys = Arrays.asList("2-key".getBytes(), "key-1".getBytes(), "missing".getBytes(),
+				"key-2".getBytes());
+		List<String> values = commands.mGet(connection, keys).stream() //
+				.map(value -> value != null ? new String(value) : null) //
+				.collect(Collectors.toList());
+
+		assertThat(values, contains("baz", "foo", null, "bar"));
+		assertThat(commands.del(connection, keys), is(3L));
+	}
+
+	/**
+	 * Follow {@literal MOVED} redirects when writing via a stale slot table. <br />
+	 * {@literal key-1} is mapped to {@literal [229]} at {@literal 127.0.0.1:30001}. <br />
+	 */
+	@Test
+	public void followRedirectsOnMultiKeyWrite() {
+
+		ClusterMultiKeyCommands commands = new ClusterMultiKeyCommands(pipelineExecutor);
+
+		pipelineExecutor.getSlotCache().refresh(connection.clusterGetNodes());
+		pipelineExecutor.getSlotCache().moved(229, "127.0.0.1:30003");
+
+		Map<byte[], byte[]> tuples = new LinkedHashMap<>();
+		tuples.put("key-1".getBytes(), "foo".getBytes());
+
+		commands.mSet(connection, tuples);
+
+		assertThat(stringConnection.get("key-1"), is("foo"));
+		assertThat(pipelineExecutor.getSlotCache().getMovedRedirects(), is(2L));
+		assertThat(pipelineExecutor.getSlotCache().nodeFor(229, connection::clusterGetNodes), is("127.0.0.1:30001"));
+	}
+
+	/**
+	 * Reload the topology when the slot table points to a node that is no longer part of the cluster. <br />
+	 * {@literal key-1} is mapped to {@literal [229]} at {@literal 127.0.0.1:30001}. <br />
+	 */
+	@Test
+	public void reloadTopologyForUnknownNode() {
+
+		ClusterMultiKeyCommands commands = new ClusterMultiKeyCommands(pipelineExecutor);
+
+		pipelineExecutor.getSlotCache().refresh(connection.clusterGetNodes());
+		pipelineExecutor.getSlotCache().moved(229, "127.0.0.1:39999");
+
+		Map<byte[], byte[]> tuples = new LinkedHashMap<>();
+		tuples.put("key-1".getBytes(), "foo".getBytes());
+
+		commands.mSet(connection, tuples);
+
+		assertThat(stringConnection.get("key-1"), is("foo"));
+		assertThat(pipelineExecutor.getSlotCache().getRefreshes(), is(2L));
+		assertThat(pipelineExecutor.getSlotCache().nodeFor(229, connection::clusterGetNodes), is("127.0.0.1:30001"));
+	}
+
+	/**
+	 * Route via the local slot table loading the topology only once.
+	 */
+	@Test
+	public void routeViaCachedSlotTable() {
+
+		ClusterMultiKeyCommands commands = new ClusterMultiKeyCommands(pipelineExecutor);
+		List<byte[]> keys = Arrays.asList("key-1".getBytes(), "key-2".getBytes());
+
+		commands.mGet(connection, keys);
+		commands.mGet(connection, keys);
+
+		assertThat(pipelineExecutor.getSlotCache().getRefreshes(), is(1L));
+		assertThat(pipelineExecutor.getSlotCache().getLookups(), is(4L));
+		assertThat(pipelineExecutor.getSlotCache().getRedirects(), is(0L));
+	}
+
+	/**
+	 * Serve reads from the replicas {@literal 127.0.0.1:30004 - 30006}. <br />
+	 * {@literal key-1} is mapped to {@literal [229]} at {@literal 127.0.0.1:30001} replicated to
+	 * {@literal 127.0.0.1:30004}. <br />
+	 */
+	@Test
+	public void readFromReplicas() {
+
+		pipelineExecutor.setReadFrom(ReadFrom.REPLICA_PREFERRED);
+
+		List<byte[]> keys = Arrays.asList("key-1".getBytes(), "key-2".getBytes());
+		List<byte[]> values = pipelineExecutor.read(connection, keys, (pipeline, slotKeys) -> {
+
+			Response<List<byte[]>> response = pipeline.mget(slotKeys.toArray(new byte[slotKeys.size()][]));
+			return response::get;
+		});
+
+		assertThat(values.size(), is(2));
+		assertThat(pipelineExecutor.getSlotCache().replicasOf("127.0.0.1:30001"), hasItems("127.0.0.1:30004"));
+		assertThat(pipelineExecutor.getSlotCache().getRedirects(), is(0L));
+	}
+
+	/**
+	 * Scan all masters in parallel using {@literal SCAN} instead of {@literal KEYS}. <br />
+	 * {@literal key-1} is mapped to {@literal [229]} at {@literal 127.0.0.1:30001}. <br />
+	 * {@literal key-2} is mapped to {@literal [12422]} at {@literal 127.0.0.1:30003}. <br />
+	 */
+	@Test
+	public void scanAllKeysInCluster() {
+
+		stringConnection.set("key-1", "foo");
+		stringConnection.set("key-2", "bar");
+		stringConnection.set("2-key", "bar");
+
+		ScanOptions options = ScanOptions.scanOptions().match("key-*").count(100).build();
+
+		try (Stream<byte[]> stream = scanner.scan(connection, options)) {
+
+			List<String> keys = stream.map(String::new).collect(Collectors.toList());
+
+			assertThat(keys, hasItems("key-1", "key-2"));
+			assertThat(keys, not(hasItems("2-key")));
+		}
+	}
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import static org.hamcrest.core.Is.*;
+import static org.hamcrest.number.OrderingComparison.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.PartialUpdate;
+import org.springframework.data.redis.core.RedisHash;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.core.RedisKeyValueTemplate;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.TimeToLive;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.core.index.Indexed;
+import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @author Christoph Strobl
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class BlobStorageTests {
+
+	@SpringBootApplication
+	@EnableRedisRepositories(considerNestedRepositories = true)
+	static class Config {
+
+		/**
+		 * Store {@link BlobStorage} types as a single {@literal STRING}.
+		 *
+		 * @param redisTemplate
+		 * @param redisConverter
+		 * @return
+		 */
+		@Bean
+		RedisKeyValueAdapter redisKeyValueAdapter(@Qualifier("redisTemplate") RedisOperations<?, ?> redisTemplate,
+				RedisConverter redisConverter) {
+			return new PhantomAwareRedisKeyValueAdapter(redisTemplate, redisConverter);
+		}
+
+		/**
+		 * Derived queries need to read the {@literal STRING}s instead of {@literal HASH}es.
+		 *
+		 * @param adapter
+		 * @param connectionFactory
+		 * @return
+		 */
+		@Bean
+		RedisKeyValueTemplate redisKeyValueTemplate(RedisKeyValueAdapter adapter, RedisConnectionFactory connectionFactory) {
+			return new IndexQueryKeyValueTemplate(adapter,
+					new IndexQueryExecutor(connectionFactory, adapter.getConverter(), null));
+		}
+	}
+
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	@RedisHash("tokens")
+	@BlobStorage
+	static class Token {
+
+		@Id String id;
+		@Indexed String username;
+		List<String> scopes;
+		@TimeToLive Long ttl;
+	}
+
+	interface TokenRepository extends CrudRepository<Token, String> {
+
+		List<Token> findByUsername(String username);
+	}
+
+	@Autowired TokenRepository repo;
+	@Autowired RedisKeyValueAdapter adapter;
+	@Autowired RedisConnectionFactory connectionFactory;
+
+	@Before
+	public void setUp() {
+
+		RedisConnection connection = connectionFactory.getConnection();
+		connection.flushAll();
+		connection.close();
+	}
+
+	/**
+	 * The entity is a single {@literal STRING} carrying the {@literal TTL}, the index is maintained as usual.
+	 */
+	@Test
+	public void writeEntityAsSingleValue() {
+
+		Token token = repo.save(new Token(null, "jon", Arrays.asList("read", "write"), 60L));
+		byte[] key = ("tokens:" + token.getId()).getBytes();
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+
+			assertThat(connection.type(key), is(DataType.STRING));
+			assertThat(connection.ttl(key), is(greaterThan(0L)));
+			assertThat(connection.exists(("tokens:" + token.getId() + ":phantom").getBytes()), is(false));
+			assertThat(connection.sIsMember("tokens:username:jon".getBytes(), token.getId().getBytes()), is(true));
+		} finally {
+			connection.close();
+		}
+
+		Token loaded = repo.findOne(token.getId());
+		assertThat(loaded.getUsername(), is("jon"));
+		assertThat(loaded.getScopes(), is(token.getScopes()));
+	}
+
+	/**
+	 * Derived queries, re-saving and deleting keep the index in sync.
+	 */
+	@Test
+	public void queryAndDeleteByIndex() {
+
+		Token token = repo.save(new Token(null, "jon", null, null));
+		repo.save(new Token(null, "arya", null, null));
+
+		assertThat(repo.findByUsername("jon").size(), is(1));
+		assertThat(repo.count(), is(2L));
+
+		token.setUsername("sansa");
+		repo.save(token);
+
+		assertThat(repo.findByUsername("jon").isEmpty(), is(true));
+		assertThat(repo.findByUsername("sansa").get(0).getId(), is(token.getId()));
+
+		repo.delete(token.getId());
+
+		assertThat(repo.findByUsername("sansa").isEmpty(), is(true));
+		assertThat(repo.count(), is(1L));
+	}
+
+	@Test(expected = InvalidDataAccessApiUsageException.class)
+	public void rejectPartialUpdates() {
+
+		Token token = repo.save(new Token(null, "jon", null, null));
+		adapter.update(new PartialUpdate<>(token.getId(), Token.class).set("username", "arya"));
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import static org.hamcrest.collection.IsCollectionWithSize.*;
+import static org.hamcrest.collection.IsEmptyCollection.*;
+import static org.hamcrest.core.Is.*;
+import static org.junit.Assert.*;
+import static org.springframework.data.redis.core.PartialUpdate.*;
+
+import org.example.event.BatchingExpirationListener;
+import org.example.repository.PersonRepository;
+import org.example.types.Address;
+import org.example.types.Gender;
+import org.example.types.Person;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.core.RedisKeyValueTemplate;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * @author Christoph Strobl
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class HashValuesIndexBookkeepingTests {
+
+	@SpringBootApplication
+	@EnableRedisRepositories(basePackageClasses = PersonRepository.class)
+	static class Config {
+
+		/**
+		 * Derive index keys to leave from the stored hash instead of the index helper.
+		 *
+		 * @param redisTemplate
+		 * @param redisConverter
+		 * @return
+		 */
+		@Bean
+		RedisKeyValueAdapter redisKeyValueAdapter(@Qualifier("redisTemplate") RedisOperations<?, ?> redisTemplate,
+				RedisConverter redisConverter) {
+
+			ScriptedRedisKeyValueAdapter adapter = new ScriptedRedisKeyValueAdapter(redisTemplate, redisConverter);
+			adapter.setIndexBookkeeping(IndexBookkeeping.HASH_VALUES);
+			return adapter;
+		}
+
+		/**
+		 * Derive index keys of expired entities from their phantom copy.
+		 *
+		 * @param connectionFactory
+		 * @param adapter
+		 * @return
+		 */
+		@Bean
+		BatchingExpirationListener batchingExpirationListener(RedisConnectionFactory connectionFactory,
+				RedisKeyValueAdapter adapter) {
+
+			BatchingExpirationListener listener = new BatchingExpirationListener(connectionFactory,
+					adapter.getConverter());
+			listener.setIndexBookkeeping(IndexBookkeeping.HASH_VALUES);
+			listener.setMaxDelay(0);
+			return listener;
+		}
+	}
+
+	@Autowired PersonRepository repo;
+	@Autowired RedisKeyValueTemplate template;
+	@Autowired RedisConnectionFactory connectionFactory;
+
+	Person jon = new Person("john", "snow", Gender.MALE);
+
+	@Before
+	public void setUp() {
+
+		RedisConnection connection = connectionFactory.getConnection();
+		connection.flushAll();
+		connection.close();
+
+		Address address = new Address();
+		address.setCity("winterfell");
+		jon.setAddress(address);
+	}
+
+	/**
+	 * Saving again replaces the index entries of the previous version without writing an index helper.
+	 */
+	@Test
+	public void replaceIndexEntriesOnSave() {
+
+		repo.save(jon);
+
+		jon.setFirstname("jon");
+		jon.getAddress().setCity("castle black");
+		repo.save(jon);
+
+		assertThat(repo.findByFirstnameAndLastname("jon", "snow"), hasSize(1));
+		assertThat(repo.findByFirstnameAndLastname("john", "snow"), is(empty()));
+		assertThat(repo.findByAddress_City("castle black"), hasSize(1));
+		assertThat(repo.findByAddress_City("winterfell"), is(empty()));
+		assertThat(indexHelperExists(), is(false));
+	}
+
+	/**
+	 * Partial updates of nested values move the entity to the new index entries.
+	 */
+	@Test
+	public void updateIndexEntriesOnPartialUpdate() {
+
+		repo.save(jon);
+
+		Address address = new Address();
+		address.setCity("castle black");
+		template.update(newPartialUpdate(jon.getId(), Person.class).set("firstname", "jon").set("address", address));
+
+		assertThat(repo.findByFirstnameAndLastname("jon", "snow"), hasSize(1));
+		assertThat(repo.findByFirstnameAndLastname("john", "snow"), is(empty()));
+		assertThat(repo.findByAddress_City("castle black"), hasSize(1));
+		assertThat(repo.findByAddress_City("winterfell"), is(empty()));
+		assertThat(indexHelperExists(), is(false));
+	}
+
+	/**
+	 * Deleting the entity removes its index entries.
+	 */
+	@Test
+	public void removeIndexEntriesOnDelete() {
+
+		repo.save(jon);
+		repo.delete(jon.getId());
+
+		assertThat(repo.findByLastname("snow"), is(empty()));
+		assertThat(repo.findByAddress_City("winterfell"), is(empty()));
+		assertThat(repo.count(), is(0L));
+	}
+
+	/**
+	 * Expired entities are removed from the index entries derived from their phantom copy.
+	 */
+	@Test
+	public void removeIndexEntriesOfExpiredEntities() throws InterruptedException {
+
+		jon.setTtl(1L);
+		repo.save(jon);
+
+		for (int i = 0; i < 100 && repo.count() > 0; i++) {
+			Thread.sleep(50);
+		}
+
+		assertThat(repo.count(), is(0L));
+		assertThat(indexEntryExists("person:lastname:snow"), is(false));
+		assertThat(indexEntryExists("person:address.city:winterfell"), is(false));
+	}
+
+	/**
+	 * Partial updates and deletes move the entity within its {@link SortedIndexed} properties.
+	 */
+	@Test
+	public void updateSortedIndexEntries() {
+
+		jon.setAge(17);
+		repo.save(jon);
+
+		template.update(newPartialUpdate(jon.getId(), Person.class).set("age", 35));
+
+		assertThat(repo.findByAgeBetween(16, 17), is(empty()));
+		assertThat(repo.findByAgeBetween(30, 40), hasSize(1));
+
+		template.update(newPartialUpdate(jon.getId(), Person.class).del("age"));
+
+		assertThat(repo.findByAgeBetween(0, 100), is(empty()));
+
+		template.update(newPartialUpdate(jon.getId(), Person.class).set("age", 17));
+		repo.delete(jon.getId());
+
+		assertThat(repo.findByAgeBetween(0, 100), is(empty()));
+	}
+
+	private boolean indexEntryExists(String indexKey) {
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+			return connection.sIsMember(RedisKeys.bytes(indexKey), RedisKeys.bytes(jon.getId()));
+		} finally {
+			connection.close();
+		}
+	}
+
+	private boolean indexHelperExists() {
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+			return connection.exists(RedisKeys.indexHelperKey(RedisKeys.objectKey("person", RedisKeys.bytes(jon.getId()))));
+		} finally {
+			connection.close();
+		}
+	}
+}
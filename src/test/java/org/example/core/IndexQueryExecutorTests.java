@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import static org.hamcrest.collection.IsIterableContainingInAnyOrder.*;
+import static org.hamcrest.collection.IsIterableContainingInOrder.*;
+import static org.hamcrest.core.Is.*;
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import org.example.repository.PersonRepository;
+import org.example.types.Address;
+import org.example.types.Gender;
+import org.example.types.Person;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+import org.springframework.data.redis.repository.query.RedisOperationChain;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * @author Christoph Strobl
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class IndexQueryExecutorTests {
+
+	@SpringBootApplication
+	@EnableRedisRepositories(basePackageClasses = PersonRepository.class)
+	static class Config {}
+
+	/**
+	 * Commands telling apart the script from the pipelined index lookup and entity loading.
+	 */
+	static final Set<String> RECORDED = new HashSet<>(
+			Arrays.asList("evalSha", "eval", "sInter", "sUnion", "hGetAll", "get"));
+
+	@Autowired PersonRepository repo;
+	@Autowired RedisKeyValueAdapter adapter;
+	@Autowired RedisConnectionFactory connectionFactory;
+
+	CommandRecorder recorder;
+	IndexQueryExecutor executor;
+
+	Person eddard = new Person("eddard", "stark", Gender.MALE);
+	Person sansa = new Person("sansa", "stark", Gender.FEMALE);
+	Person arya = new Person("arya", "stark", Gender.FEMALE);
+	Person bran = new Person("bran", "stark", Gender.MALE);
+	Person jon = new Person("jon", "snow", Gender.MALE);
+
+	@Before
+	public void setUp() {
+
+		RedisConnection connection = connectionFactory.getConnection();
+		connection.flushAll();
+		connection.scriptFlush();
+		connection.close();
+
+		Address winterfell = new Address();
+		winterfell.setCity("winterfell");
+		Address braavos = new Address();
+		braavos.setCity("braavos");
+
+		eddard.setAddress(winterfell);
+		sansa.setAddress(winterfell);
+		arya.setAddress(braavos);
+
+		repo.save(Arrays.asList(eddard, sansa, arya, bran, jon));
+
+		recorder = new CommandRecorder(connectionFactory);
+		executor = new IndexQueryExecutor(recorder.factory(), adapter.getConverter(), null);
+	}
+
+	/**
+	 * {@literal (lastname = stark AND address.city = winterfell) OR firstname = jon OR firstname = bran} is resolved
+	 * by a single script call and the matches are loaded with one pipeline. A server that does not know the script yet
+	 * answers with {@literal NOSCRIPT} and gets it sent via {@literal EVAL}.
+	 */
+	@Test
+	public void resolveMatchesWithSingleScriptCall() {
+
+		assertThat(executor.find(criteria(), 0, -1, Person.class), containsInAnyOrder(eddard, sansa, jon, bran));
+		assertThat(recorder.commands(), contains("evalSha", "eval", "hGetAll", "hGetAll", "hGetAll", "hGetAll"));
+
+		recorder.clear();
+
+		assertThat(executor.find(criteria(), 0, -1, Person.class), containsInAnyOrder(eddard, sansa, jon, bran));
+		assertThat(recorder.commands(), contains("evalSha", "hGetAll", "hGetAll", "hGetAll", "hGetAll"));
+	}
+
+	/**
+	 * Offset and rows are applied by the script so only the requested page is loaded.
+	 */
+	@Test
+	public void loadRequestedPageOnly() {
+
+		assertThat(executor.find(criteria(), 1, 2, Person.class).size(), is(2));
+		assertThat(recorder.commands(), contains("evalSha", "eval", "hGetAll", "hGetAll"));
+	}
+
+	/**
+	 * Without scripting the lookup and the loading of the matches are sent as two pipelines.
+	 */
+	@Test
+	public void fallBackToPipelinesWithoutScripting() {
+
+		recorder.reject("evalSha");
+
+		assertThat(executor.find(criteria(), 0, -1, Person.class), containsInAnyOrder(eddard, sansa, jon, bran));
+
+		recorder.clear();
+
+		assertThat(executor.find(criteria(), 0, -1, Person.class), containsInAnyOrder(eddard, sansa, jon, bran));
+		assertThat(recorder.commands(), contains("sInter", "sUnion", "hGetAll", "hGetAll", "hGetAll", "hGetAll"));
+	}
+
+	private static RedisOperationChain criteria() {
+
+		RedisOperationChain criteria = new RedisOperationChain();
+		criteria.sismember("lastname", "stark");
+		criteria.sismember("address.city", "winterfell");
+		criteria.orSismember("firstname", "jon");
+		criteria.orSismember("firstname", "bran");
+		return criteria;
+	}
+
+	/**
+	 * Records the {@link #RECORDED} commands sent via the connections of a {@link RedisConnectionFactory} and
+	 * optionally rejects some of them the way a server without scripting would.
+	 */
+	static class CommandRecorder {
+
+		final RedisConnectionFactory delegate;
+		final List<String> commands = new CopyOnWriteArrayList<>();
+		final Set<String> rejected = new HashSet<>();
+
+		CommandRecorder(RedisConnectionFactory delegate) {
+			this.delegate = delegate;
+		}
+
+		RedisConnectionFactory factory() {
+
+			return proxy(RedisConnectionFactory.class, (proxy, method, args) -> {
+
+				Object result = invoke(delegate, method, args);
+				return "getConnection".equals(method.getName()) ? connection((RedisConnection) result) : result;
+			});
+		}
+
+		void reject(String command) {
+			rejected.add(command);
+		}
+
+		List<String> commands() {
+			return commands.stream().collect(Collectors.toList());
+		}
+
+		void clear() {
+			commands.clear();
+		}
+
+		private RedisConnection connection(RedisConnection connection) {
+
+			return proxy(RedisConnection.class, (proxy, method, args) -> {
+
+				if (RECORDED.contains(method.getName())) {
+					commands.add(method.getName());
+				}
+				if (rejected.contains(method.getName())) {
+					throw new RedisSystemException(String.format("ERR unknown command '%s'", method.getName()), null);
+				}
+				return invoke(connection, method, args);
+			});
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+			return (T) Proxy.newProxyInstance(IndexQueryExecutorTests.class.getClassLoader(), new Class<?>[] { type },
+					handler);
+		}
+
+		private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import static org.hamcrest.core.Is.*;
+import static org.junit.Assert.*;
+
+import org.example.repository.PersonRepository;
+import org.example.types.Gender;
+import org.example.types.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * @author Christoph Strobl
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class IndexReconcilerTests {
+
+	@SpringBootApplication
+	@EnableRedisRepositories(basePackageClasses = PersonRepository.class)
+	static class Config {}
+
+	@Autowired PersonRepository repo;
+	@Autowired RedisConnectionFactory connectionFactory;
+
+	IndexReconciler reconciler;
+	RedisConnection connection;
+
+	Person eddard = new Person("eddard", "stark", Gender.MALE);
+	Person robb = new Person("robb", "stark", Gender.MALE);
+
+	@Before
+	public void setUp() {
+
+		connection = connectionFactory.getConnection();
+		connection.flushAll();
+
+		reconciler = new IndexReconciler(connectionFactory, "person");
+		reconciler.setInterval(0);
+		reconciler.setBatchSize(1);
+	}
+
+	@After
+	public void tearDown() {
+
+		reconciler.destroy();
+		connection.close();
+	}
+
+	/**
+	 * Entities gone without their index entries being removed, e.g. because nobody processed the expiration event,
+	 * are removed from all indexes.
+	 */
+	@Test
+	public void removeIndexEntriesOfMissingEntities() {
+
+		repo.save(eddard);
+		repo.save(robb);
+
+		// simulate an expiration nobody handled
+		connection.del(("person:" + robb.getId()).getBytes());
+
+		reconciler.reconcile();
+
+		assertThat(connection.sIsMember("person:lastname:stark".getBytes(), robb.getId().getBytes()), is(false));
+		assertThat(connection.sIsMember("person:lastname:stark".getBytes(), eddard.getId().getBytes()), is(true));
+		assertThat(connection.exists("person:firstname:robb".getBytes()), is(false));
+		assertThat(connection.exists(("person:" + robb.getId() + ":idx").getBytes()), is(false));
+		assertThat(connection.exists(("person:" + eddard.getId() + ":idx").getBytes()), is(true));
+		assertThat(repo.count(), is(1L));
+
+		assertThat(reconciler.getPasses(), is(1L));
+		assertThat(reconciler.getRemovedHelpers(), is(1L));
+	}
+
+	/**
+	 * Index {@literal SET}s for the values {@literal idx} and {@literal phantom} share their suffix with index helpers
+	 * and {@literal phantom} copies but are reconciled like any other index.
+	 */
+	@Test
+	public void reconcileIndexesForReservedSuffixes() {
+
+		Person idx = new Person("jon", "idx", Gender.MALE);
+		Person phantom = new Person("arya", "phantom", Gender.FEMALE);
+
+		repo.save(idx);
+		repo.save(phantom);
+		repo.save(robb);
+
+		connection.sAdd("person:lastname:idx".getBytes(), robb.getId().getBytes());
+		connection.del(("person:" + robb.getId()).getBytes());
+
+		reconciler.reconcile();
+
+		assertThat(connection.sIsMember("person:lastname:idx".getBytes(), idx.getId().getBytes()), is(true));
+		assertThat(connection.sIsMember("person:lastname:idx".getBytes(), robb.getId().getBytes()), is(false));
+		assertThat(connection.sIsMember("person:lastname:phantom".getBytes(), phantom.getId().getBytes()), is(true));
+		assertThat(reconciler.getRemovedHelpers(), is(1L));
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import static org.hamcrest.core.Is.*;
+import static org.hamcrest.number.OrderingComparison.*;
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisHash;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.core.RedisKeyValueAdapter.EnableKeyspaceEvents;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.TimeToLive;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.core.index.Indexed;
+import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @author Christoph Strobl
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class NoPhantomCopyTests {
+
+	@SpringBootApplication
+	@EnableRedisRepositories(considerNestedRepositories = true)
+	static class Config {
+
+		/**
+		 * Skip the phantom copy for {@link NoPhantomCopy} types and clean up indexes on expiration.
+		 *
+		 * @param redisTemplate
+		 * @param redisConverter
+		 * @return
+		 */
+		@Bean
+		RedisKeyValueAdapter redisKeyValueAdapter(@Qualifier("redisTemplate") RedisOperations<?, ?> redisTemplate,
+				RedisConverter redisConverter) {
+
+			PhantomAwareRedisKeyValueAdapter adapter = new PhantomAwareRedisKeyValueAdapter(redisTemplate, redisConverter);
+			adapter.setEnableKeyspaceEvents(EnableKeyspaceEvents.ON_STARTUP);
+			return adapter;
+		}
+	}
+
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	@RedisHash("sessions")
+	@NoPhantomCopy
+	static class UserSession {
+
+		@Id String id;
+		@Indexed String username;
+		@TimeToLive Long ttl;
+	}
+
+	interface UserSessionRepository extends CrudRepository<UserSession, String> {
+
+		List<UserSession> findByUsername(String username);
+	}
+
+	@Autowired UserSessionRepository repo;
+	@Autowired RedisConnectionFactory connectionFactory;
+
+	@Before
+	public void setUp() {
+
+		RedisConnection connection = connectionFactory.getConnection();
+		connection.flushAll();
+		connection.close();
+	}
+
+	/**
+	 * Only the entity {@literal HASH} carries the {@literal TTL}, there is no phantom copy.
+	 */
+	@Test
+	public void writeExpiringEntityWithoutPhantomCopy() {
+
+		UserSession session = repo.save(new UserSession(null, "jon", 60L));
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+
+			assertThat(connection.exists(("sessions:" + session.getId()).getBytes()), is(true));
+			assertThat(connection.ttl(("sessions:" + session.getId()).getBytes()), is(greaterThan(0L)));
+			assertThat(connection.exists(("sessions:" + session.getId() + ":phantom").getBytes()), is(false));
+		} finally {
+			connection.close();
+		}
+
+		assertThat(repo.findByUsername("jon").size(), is(1));
+	}
+
+	/**
+	 * Index entries are removed on expiration nonetheless.
+	 */
+	@Test
+	public void removeIndexEntriesOnExpiration() throws InterruptedException {
+
+		repo.save(new UserSession(null, "arya", 1L));
+
+		for (int i = 0; i < 100 && repo.count() > 0; i++) {
+			Thread.sleep(50);
+		}
+
+		assertThat(repo.count(), is(0L));
+		assertThat(repo.findByUsername("arya").isEmpty(), is(true));
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.core;
+
+import static org.hamcrest.collection.IsCollectionWithSize.*;
+import static org.hamcrest.collection.IsEmptyCollection.*;
+import static org.hamcrest.core.Is.*;
+import static org.hamcrest.number.OrderingComparison.*;
+import static org.junit.Assert.*;
+import static org.springframework.data.redis.core.PartialUpdate.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.example.repository.PersonRepository;
+import org.example.types.Gender;
+import org.example.types.Person;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.core.RedisKeyValueTemplate;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * @author Christoph Strobl
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class ScriptedRedisKeyValueAdapterTests {
+
+	@SpringBootApplication
+	@EnableRedisRepositories(basePackageClasses = PersonRepository.class)
+	static class Config {
+
+		/**
+		 * Write entities and partial updates via one script call each.
+		 *
+		 * @param redisTemplate
+		 * @param redisConverter
+		 * @return
+		 */
+		@Bean
+		RedisKeyValueAdapter redisKeyValueAdapter(@Qualifier("redisTemplate") RedisOperations<?, ?> redisTemplate,
+				RedisConverter redisConverter) {
+			return new ScriptedRedisKeyValueAdapter(redisTemplate, redisConverter);
+		}
+	}
+
+	@Autowired PersonRepository repo;
+	@Autowired RedisKeyValueTemplate template;
+	@Autowired RedisConnectionFactory connectionFactory;
+
+	Person jon = new Person("john", "snow", Gender.MALE);
+
+	@Before
+	public void setUp() {
+
+		RedisConnection connection = connectionFactory.getConnection();
+		connection.flushAll();
+		connection.close();
+	}
+
+	/**
+	 * Saving again replaces the index entries of the previous version.
+	 */
+	@Test
+	public void replaceIndexEntriesOnSave() {
+
+		repo.save(jon);
+
+		jon.setFirstname("jon");
+		repo.save(jon);
+
+		assertThat(repo.findOne(jon.getId()), is(jon));
+		assertThat(repo.findByFirstnameAndLastname("jon", "snow"), hasSize(1));
+		assertThat(repo.findByFirstnameAndLastname("john", "snow"), is(empty()));
+	}
+
+	/**
+	 * Partial updates move the entity to the new index entries.
+	 */
+	@Test
+	public void updateIndexEntriesOnPartialUpdate() {
+
+		repo.save(jon);
+
+		template.update(newPartialUpdate(jon.getId(), Person.class).set("firstname", "jon"));
+
+		assertThat(repo.findOne(jon.getId()).getFirstname(), is("jon"));
+		assertThat(repo.findByFirstnameAndLastname("jon", "snow"), hasSize(1));
+		assertThat(repo.findByFirstnameAndLastname("john", "snow"), is(empty()));
+	}
+
+	/**
+	 * Removing a property removes its field and index entries.
+	 */
+	@Test
+	public void removeIndexEntriesOnPartialDelete() {
+
+		repo.save(jon);
+
+		template.update(newPartialUpdate(jon.getId(), Person.class).del("firstname"));
+
+		assertThat(repo.findOne(jon.getId()).getFirstname(), is((String) null));
+		assertThat(repo.findByFirstnameAndLastname("john", "snow"), is(empty()));
+		assertThat(repo.findByLastname("snow"), hasSize(1));
+	}
+
+	/**
+	 * Partial updates and deletes move the entity within its {@link SortedIndexed} properties.
+	 */
+	@Test
+	public void updateSortedIndexEntries() {
+
+		jon.setAge(17);
+		repo.save(jon);
+
+		template.update(newPartialUpdate(jon.getId(), Person.class).set("age", 35));
+
+		assertThat(repo.findByAgeBetween(16, 17), is(empty()));
+		assertThat(repo.findByAgeBetween(30, 40), hasSize(1));
+
+		template.update(newPartialUpdate(jon.getId(), Person.class).del("age"));
+
+		assertThat(repo.findByAgeBetween(0, 100), is(empty()));
+
+		template.update(newPartialUpdate(jon.getId(), Person.class).set("age", 17));
+		repo.delete(jon.getId());
+
+		assertThat(repo.findByAgeBetween(0, 100), is(empty()));
+	}
+
+	/**
+	 * Entities with more fields than Lua can {@literal unpack} at once are written along with their phantom copy.
+	 */
+	@Test
+	public void writeEntitiesWithThousandsOfFields() {
+
+		List<Person> children = new ArrayList<>();
+		for (int i = 0; i < 10000; i++) {
+
+			Person child = new Person("child-" + i, "snow", Gender.MALE);
+			child.setId("child-" + i);
+			children.add(child);
+		}
+
+		jon.setChildren(children);
+		jon.setTtl(60L);
+		repo.save(jon);
+
+		byte[] key = ("person:" + jon.getId()).getBytes();
+		byte[] phantomKey = ("person:" + jon.getId() + ":phantom").getBytes();
+
+		template.update(newPartialUpdate(jon.getId(), Person.class).set("firstname", "jon").refreshTtl(true));
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+
+			assertThat(connection.hLen(key), is(greaterThan(10000L)));
+			assertThat(connection.hLen(phantomKey), is(connection.hLen(key)));
+			assertThat(connection.hGet(phantomKey, "firstname".getBytes()), is("jon".getBytes()));
+		} finally {
+			connection.close();
+		}
+	}
+}
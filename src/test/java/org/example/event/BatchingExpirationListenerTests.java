@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.event;
+
+import static org.hamcrest.core.Is.*;
+import static org.hamcrest.core.IsCollectionContaining.*;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.example.core.RedisKeys;
+import org.example.repository.PersonRepository;
+import org.example.types.Gender;
+import org.example.types.Person;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * @author Christoph Strobl
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class BatchingExpirationListenerTests {
+
+	@SpringBootApplication
+	@EnableRedisRepositories(basePackageClasses = PersonRepository.class)
+	static class Config {
+
+		/**
+		 * Handle expired keys in batches instead of one by one.
+		 *
+		 * @param connectionFactory
+		 * @param adapter
+		 * @return
+		 */
+		@Bean
+		BatchingExpirationListener batchingExpirationListener(RedisConnectionFactory connectionFactory,
+				RedisKeyValueAdapter adapter) {
+			return new BatchingExpirationListener(connectionFactory, adapter.getConverter());
+		}
+
+		/**
+		 * Capture all {@link RedisKeysExpiredEvent}s.
+		 *
+		 * @return
+		 */
+		@Bean
+		ExpiredEvents expiredEvents() {
+			return new ExpiredEvents();
+		}
+	}
+
+	static class ExpiredEvents implements ApplicationListener<RedisKeysExpiredEvent> {
+
+		final List<RedisKeysExpiredEvent> received = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void onApplicationEvent(RedisKeysExpiredEvent event) {
+			received.add(event);
+		}
+
+		List<Person> persons() {
+
+			List<Person> persons = new CopyOnWriteArrayList<>();
+			received.forEach(event -> persons.addAll(event.getValues(Person.class)));
+			return persons;
+		}
+	}
+
+	@Autowired PersonRepository repo;
+	@Autowired ExpiredEvents events;
+	@Autowired RedisConnectionFactory connectionFactory;
+
+	@Before
+	public void setUp() {
+
+		RedisConnection connection = connectionFactory.getConnection();
+		connection.flushAll();
+		connection.close();
+
+		events.received.clear();
+	}
+
+	/**
+	 * Persons expiring together are published along with their last known values and cleaned up.
+	 */
+	@Test
+	public void publishExpiredPersonsInBatches() throws InterruptedException {
+
+		for (String firstname : new String[] { "jon", "arya", "sansa" }) {
+
+			Person person = new Person(firstname, "stark", Gender.MALE);
+			person.setAge(firstname.length());
+			person.setTtl(1L);
+			repo.save(person);
+		}
+
+		for (int i = 0; i < 100 && events.persons().size() < 3; i++) {
+			Thread.sleep(50);
+		}
+
+		List<String> firstnames = new CopyOnWriteArrayList<>();
+		events.persons().forEach(person -> firstnames.add(person.getFirstname()));
+
+		assertThat(firstnames.size(), is(3));
+		assertThat(firstnames, hasItems("jon", "arya", "sansa"));
+		assertThat(repo.count(), is(0L));
+		assertThat(repo.findByLastname("stark").isEmpty(), is(true));
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+			assertThat(connection.zCard(RedisKeys.sortedIndexKey("person", "age")), is(0L));
+		} finally {
+			connection.close();
+		}
+	}
+}
@@ -16,10 +16,16 @@
 package org.example.ohm;
 
 import static org.hamcrest.core.Is.*;
+import static org.hamcrest.core.IsCollectionContaining.*;
 import static org.hamcrest.core.IsEqual.*;
 import static org.hamcrest.core.IsNot.*;
 import static org.junit.Assert.*;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -34,10 +40,17 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
 import org.springframework.data.redis.connection.DefaultStringRedisConnection;
 import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisHash;
+import org.springframework.data.redis.core.convert.CustomConversions;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
 import org.springframework.data.redis.hash.BeanUtilsHashMapper;
 import org.springframework.data.redis.hash.DecoratingStringHashMapper;
 import org.springframework.data.redis.hash.HashMapper;
@@ -45,6 +58,10 @@ import org.springframework.data.redis.hash.Jackson2HashMapper;
 import org.springframework.data.redis.hash.ObjectHashMapper;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
 /**
  * @author Christoph Strobl
  */
@@ -57,7 +74,8 @@ public class ObjectHashMappingTests {
 
 		/**
 		 * The {@link HashMapper} to use. There's a {@link Jackson2HashMapper}, {@link BeanUtilsHashMapper},
-		 * {@link DecoratingStringHashMapper} and the {@link ObjectHashMapper} we use in this sample.
+		 * {@link DecoratingStringHashMapper} and the {@link ObjectHashMapper} we use in this sample. The
+		 * {@link CompiledHashMapper} is a drop in replacement for the {@link ObjectHashMapper}.
 		 *
 		 * @return a new {@link ObjectHashMapper}.
 		 */
@@ -65,10 +83,21 @@ public class ObjectHashMappingTests {
 		ObjectHashMapper mapper() {
 			return new ObjectHashMapper();
 		}
+
+		/**
+		 * The {@link BinaryHashWriter} writes the {@link ObjectHashMapper} format via the {@link CompiledHashMapper}.
+		 *
+		 * @return a new {@link BinaryHashWriter}.
+		 */
+		@Bean
+		BinaryHashWriter writer() {
+			return new BinaryHashWriter().prepare(Person.class);
+		}
 	}
 
 	@Autowired RedisConnectionFactory connectionFactory;
 	@Autowired HashMapper<Object, byte[], byte[]> mapper;
+	@Autowired BinaryHashWriter writer;
 
 	RedisConnection connection;
 	StringRedisConnection stringConnection;
@@ -113,6 +142,187 @@ public class ObjectHashMappingTests {
 		assertThat(fromHash, is(equalTo(jonSnow)));
 	}
 
+	/**
+	 * Map a complex object to a binary hash and store it without converting field names and values to {@link String}.
+	 */
+	@Test
+	public void mapToBinaryHashAndReadItBack() {
+
+		Address winterfell = new Address();
+		winterfell.setCity("winterfell");
+		winterfell.setCountry("the north");
+
+		Person jonSnow = new Person("jon", "snow", Gender.MALE);
+		jonSnow.setId("123");
+		jonSnow.setAddress(winterfell);
+
+		writer.write(connection, "person:123".getBytes(), jonSnow);
+
+		Person fromHash = (Person) mapper.fromHash(connection.hGetAll("person:123".getBytes()));
+
+		assertThat(fromHash, is(equalTo(jonSnow)));
+	}
+
+	/**
+	 * The {@link CompiledHashMapper} produces the very same hash as the {@link ObjectHashMapper} without going through the
+	 * {@link org.springframework.data.redis.core.convert.MappingRedisConverter}.
+	 */
+	@Test
+	public void compiledMapperIsCompatibleWithObjectHashMapper() {
+
+		Address winterfell = new Address();
+		winterfell.setCity("winterfell");
+		winterfell.setCountry("the north");
+
+		Person jonSnow = new Person("jon", "snow", Gender.MALE);
+		jonSnow.setId("123");
+		jonSnow.setAddress(winterfell);
+
+		CompiledHashMapper compiledMapper = new CompiledHashMapper();
+
+		Map<String, String> rawHash = compiledMapper.toHash(jonSnow).entrySet().stream()
+				.collect(Collectors.toMap(e -> new String(e.getKey()), e -> new String(e.getValue())));
+
+		assertThat(compiledMapper.isCompiled(Person.class), is(true));
+		assertThat(rawHash, is(equalTo(mapper.toHash(jonSnow).entrySet().stream()
+				.collect(Collectors.toMap(e -> new String(e.getKey()), e -> new String(e.getValue()))))));
+
+		connection.hMSet("person:123".getBytes(), compiledMapper.toHash(jonSnow));
+
+		assertThat(compiledMapper.fromHash(connection.hGetAll("person:123".getBytes())), is(equalTo(jonSnow)));
+		assertThat(mapper.fromHash(connection.hGetAll("person:123".getBytes())), is(equalTo(jonSnow)));
+	}
+
+	/**
+	 * The {@link CompiledHashMapper} writes registered type aliases instead of the fully qualified class name.
+	 */
+	@Test
+	public void compiledMapperWritesTypeAlias() {
+
+		Person jonSnow = new Person("jon", "snow", Gender.MALE);
+		jonSnow.setId("123");
+
+		RedisMappingContext mappingContext = new RedisMappingContext();
+		CompiledHashMapper compiledMapper = new CompiledHashMapper(mappingContext, null,
+				new TypeAliasRegistry(mappingContext).register(Person.class));
+
+		connection.hMSet("person:123".getBytes(), compiledMapper.toHash(jonSnow));
+
+		assertThat(stringConnection.hGet("person:123", "_class"), is("person"));
+		assertThat(compiledMapper.fromHash(connection.hGetAll("person:123".getBytes())), is(equalTo(jonSnow)));
+	}
+
+	/**
+	 * The {@link CompiledHashMapper} applies custom conversions and reads the subtype named by the root
+	 * {@literal _class} hint.
+	 */
+	@Test
+	public void compiledMapperAppliesCustomConversionsAndReadsSubtypes() {
+
+		Dog ghost = new Dog();
+		ghost.setId("1");
+		ghost.setName("ghost");
+		ghost.setBreed("direwolf");
+		ghost.setHome(new Location("winterfell"));
+
+		CompiledHashMapper compiledMapper = new CompiledHashMapper(new RedisMappingContext(), null, null,
+				new CustomConversions(Arrays.asList(new LocationToBytesConverter(), new BytesToLocationConverter())));
+
+		connection.hMSet("pets:1".getBytes(), compiledMapper.toHash(ghost));
+
+		assertThat(stringConnection.hGet("pets:1", "home"), is("winterfell"));
+		assertThat(compiledMapper.fromHash(connection.hGetAll("pets:1".getBytes()), Pet.class), is(equalTo(ghost)));
+	}
+
+	/**
+	 * Collection indexes not backed by the number of fields are not padded with {@literal null}s by the
+	 * {@link CompiledHashMapper} but left to the converter.
+	 */
+	@Test
+	public void compiledMapperRejectsOutOfBoundsCollectionIndexes() {
+
+		Map<byte[], byte[]> hash = new LinkedHashMap<>();
+		hash.put("names.[0]".getBytes(), "jon".getBytes());
+		hash.put("names.[2147483647]".getBytes(), "arya".getBytes());
+
+		CompiledHashMapper compiledMapper = new CompiledHashMapper();
+
+		assertThat(compiledMapper.isCompiled(Roster.class), is(true));
+		assertThat(compiledMapper.fromHash(hash, Roster.class).getNames(), hasItems("jon", "arya"));
+	}
+
+	/**
+	 * Blobs announcing more fields than they could possibly hold are rejected before allocating the {@link Map}.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectBlobsWithImplausibleFieldCount() {
+
+		byte version = HashBlobCodec.encode(Collections.emptyMap())[0];
+		HashBlobCodec.decode(new byte[] { version, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x7F });
+	}
+
+	/**
+	 * The {@link CompactHashMapper} replaces field names, enum constants and the type hint by ids from a dictionary kept
+	 * in Redis.
+	 */
+	@Test
+	public void mapToCompactHashAndReadItBack() {
+
+		Address winterfell = new Address();
+		winterfell.setCity("winterfell");
+		winterfell.setCountry("the north");
+
+		Person jonSnow = new Person("jon", "snow", Gender.MALE);
+		jonSnow.setId("123");
+		jonSnow.setAge(17);
+		jonSnow.setAddress(winterfell);
+
+		Map<byte[], byte[]> compactHash = new CompactHashMapper(connectionFactory).toHash(jonSnow);
+		connection.hMSet("person:123".getBytes(), compactHash);
+
+		assertThat(new CompactHashMapper(connectionFactory).fromHash(connection.hGetAll("person:123".getBytes())),
+				is(equalTo(jonSnow)));
+		assertThat(size(compactHash) < size(mapper.toHash(jonSnow)), is(true));
+	}
+
+	/**
+	 * Elements of collections share a single dictionary id no matter how many there are, while map keys that merely
+	 * look like an index are kept as they are.
+	 */
+	@Test
+	public void mapCollectionsAndMapsToCompactHash() {
+
+		Address winterfell = new Address();
+		winterfell.setCity("winterfell");
+		winterfell.setCountry("the north");
+
+		Address castleBlack = new Address();
+		castleBlack.setCity("castle black");
+		castleBlack.setCountry("the wall");
+
+		Household starks = new Household();
+		starks.setId("1");
+		starks.setCodes(Collections.singletonMap("007", "bond"));
+		starks.setAddresses(Arrays.asList(winterfell, castleBlack));
+		starks.setGenders(Arrays.asList(Gender.MALE, Gender.FEMALE));
+
+		CompactHashMapper compactMapper = new CompactHashMapper(connectionFactory);
+		connection.hMSet("households:1".getBytes(), compactMapper.toHash(starks));
+
+		assertThat(new CompactHashMapper(connectionFactory).fromHash(connection.hGetAll("households:1".getBytes())),
+				is(equalTo(starks)));
+
+		Long dictionarySize = connection.hLen("ohm:dictionary:households".getBytes());
+
+		Household snows = new Household();
+		snows.setId("2");
+		snows.setAddresses(Arrays.asList(castleBlack, castleBlack, castleBlack, winterfell, winterfell));
+		snows.setGenders(Arrays.asList(Gender.MALE, Gender.MALE, Gender.MALE));
+		compactMapper.toHash(snows);
+
+		assertThat(connection.hLen("ohm:dictionary:households".getBytes()), is(dictionarySize));
+	}
+
 	/**
 	 * Update properties of a complex object within the hash and retrieve it.
 	 */
@@ -138,4 +348,65 @@ public class ObjectHashMappingTests {
 
 		assertThat(fromHash, is(not(equalTo(jonSnow))));
 	}
+
+	private static int size(Map<byte[], byte[]> hash) {
+		return hash.entrySet().stream().mapToInt(entry -> entry.getKey().length + entry.getValue().length).sum();
+	}
+
+	@Data
+	@RedisHash("households")
+	static class Household {
+
+		@Id String id;
+		Map<String, String> codes;
+		List<Address> addresses;
+		List<Gender> genders;
+	}
+
+	@Data
+	@RedisHash("rosters")
+	static class Roster {
+
+		@Id String id;
+		List<String> names;
+	}
+
+	@Data
+	@RedisHash("pets")
+	static class Pet {
+
+		@Id String id;
+		String name;
+		Location home;
+	}
+
+	@Data
+	@EqualsAndHashCode(callSuper = true)
+	static class Dog extends Pet {
+		String breed;
+	}
+
+	@Data
+	@AllArgsConstructor
+	static class Location {
+		String place;
+	}
+
+	@WritingConverter
+	static class LocationToBytesConverter implements Converter<Location, byte[]> {
+
+		@Override
+		public byte[] convert(Location source) {
+			return source.getPlace().getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	@ReadingConverter
+	static class BytesToLocationConverter implements Converter<byte[], Location> {
+
+		@Override
+		public Location convert(byte[] source) {
+			return new Location(new String(source, StandardCharsets.UTF_8));
+		}
+	}
 }
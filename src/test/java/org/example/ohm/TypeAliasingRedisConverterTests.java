@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.ohm;
+
+import static org.hamcrest.collection.IsCollectionWithSize.*;
+import static org.hamcrest.core.Is.*;
+import static org.hamcrest.core.IsEqual.*;
+import static org.junit.Assert.*;
+
+import org.example.repository.PersonRepository;
+import org.example.types.Address;
+import org.example.types.Gender;
+import org.example.types.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.convert.MappingRedisConverter;
+import org.springframework.data.redis.core.convert.ReferenceResolver;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * @author Christoph Strobl
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class TypeAliasingRedisConverterTests {
+
+	@SpringBootApplication
+	@EnableRedisRepositories(basePackageClasses = PersonRepository.class)
+	static class Config {
+
+		/**
+		 * Write short type aliases and omit the type hint of {@link Person} which has no subtypes.
+		 *
+		 * @param mappingContext
+		 * @param referenceResolver
+		 * @return
+		 */
+		@Bean
+		MappingRedisConverter redisConverter(RedisMappingContext mappingContext, ReferenceResolver referenceResolver) {
+			return new TypeAliasingRedisConverter(mappingContext, null, referenceResolver,
+					new TypeAliasRegistry(mappingContext).register(Person.class));
+		}
+	}
+
+	@Autowired PersonRepository repo;
+	@Autowired RedisConnectionFactory connectionFactory;
+
+	RedisConnection connection;
+	Person jon = new Person("jon", "snow", Gender.MALE);
+
+	@Before
+	public void setUp() {
+
+		connection = connectionFactory.getConnection();
+		connection.flushAll();
+
+		Address address = new Address();
+		address.setCity("winterfell");
+		jon.setAddress(address);
+	}
+
+	@After
+	public void tearDown() {
+		connection.close();
+	}
+
+	/**
+	 * Monomorphic types do not need a type hint at all.
+	 */
+	@Test
+	public void omitTypeHintOfMonomorphicType() {
+
+		repo.save(jon);
+
+		assertThat(connection.hExists(("person:" + jon.getId()).getBytes(), "_class".getBytes()), is(false));
+		assertThat(repo.findOne(jon.getId()), is(equalTo(jon)));
+		assertThat(repo.findByAddress_City("winterfell"), hasSize(1));
+	}
+
+	/**
+	 * Hashes written with the fully qualified class name can still be read.
+	 */
+	@Test
+	public void readHashesWrittenWithClassName() {
+
+		repo.save(jon);
+		connection.hSet(("person:" + jon.getId()).getBytes(), "_class".getBytes(), Person.class.getName().getBytes());
+
+		assertThat(repo.findOne(jon.getId()), is(equalTo(jon)));
+	}
+}
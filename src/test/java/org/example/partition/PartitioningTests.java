@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.partition;
+
+import static org.hamcrest.collection.IsIterableContainingInAnyOrder.*;
+import static org.hamcrest.core.Is.*;
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.example.core.IndexQueryExecutor;
+import org.example.core.IndexQueryKeyValueTemplate;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisHash;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.core.RedisKeyValueTemplate;
+import org.springframework.data.redis.core.convert.MappingRedisConverter;
+import org.springframework.data.redis.core.convert.ReferenceResolver;
+import org.springframework.data.redis.core.index.Indexed;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @author Christoph Strobl
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class PartitioningTests {
+
+	@SpringBootApplication
+	@EnableRedisRepositories(considerNestedRepositories = true)
+	static class Config {
+
+		static final PartitioningStrategy STRATEGY = new HashTagPartitioningStrategy();
+
+		/**
+		 * Write index entries into the shard of the entity's partition.
+		 *
+		 * @param mappingContext
+		 * @param referenceResolver
+		 * @return
+		 */
+		@Bean
+		MappingRedisConverter redisConverter(RedisMappingContext mappingContext, ReferenceResolver referenceResolver) {
+			return new MappingRedisConverter(mappingContext, new PartitionedIndexResolver(mappingContext, STRATEGY),
+					referenceResolver);
+		}
+
+		/**
+		 * Assign partitioned ids and query all index shards.
+		 *
+		 * @param adapter
+		 * @param connectionFactory
+		 * @return
+		 */
+		@Bean
+		RedisKeyValueTemplate redisKeyValueTemplate(RedisKeyValueAdapter adapter, RedisConnectionFactory connectionFactory) {
+
+			IndexQueryKeyValueTemplate template = new IndexQueryKeyValueTemplate(adapter,
+					new IndexQueryExecutor(connectionFactory, adapter.getConverter(), null));
+			template.setPartitioningStrategy(STRATEGY);
+			return template;
+		}
+	}
+
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	@RedisHash("tenant")
+	@Partitioned(partitions = 4)
+	static class Tenant {
+
+		@Id String id;
+		@Indexed String name;
+		@Indexed String region;
+	}
+
+	interface TenantRepository extends CrudRepository<Tenant, String> {
+
+		List<Tenant> findByRegion(String region);
+
+		List<Tenant> findByNameAndRegion(String name, String region);
+
+		List<Tenant> findByNameOrRegion(String name, String region);
+
+		long countByRegion(String region);
+
+		long countByNameOrRegion(String name, String region);
+	}
+
+	@Autowired TenantRepository repo;
+	@Autowired RedisConnectionFactory connectionFactory;
+
+	Tenant acme = new Tenant(null, "acme", "eu");
+	Tenant initech = new Tenant(null, "initech", "us");
+	Tenant umbrella = new Tenant(null, "umbrella", "eu");
+	Tenant globex = new Tenant(null, "globex", "apac");
+
+	@Before
+	public void setUp() {
+
+		RedisConnection connection = connectionFactory.getConnection();
+		connection.flushAll();
+		connection.close();
+	}
+
+	/**
+	 * The entity {@literal HASH} and its index entries share the hash tag of the partition and thus the slot.
+	 */
+	@Test
+	public void storeEntityAndIndexEntriesInSameSlot() {
+
+		repo.save(acme);
+
+		String partition = Config.STRATEGY.getPartition(Tenant.class, acme.getId());
+		String indexKey = "tenant:" + partition + ":region:eu";
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+			assertThat(connection.sIsMember(indexKey.getBytes(), acme.getId().getBytes()), is(true));
+		} finally {
+			connection.close();
+		}
+
+		assertThat(acme.getId().startsWith(partition), is(true));
+		assertThat(ClusterSlotHashUtil.calculateSlot("tenant:" + acme.getId()),
+				is(ClusterSlotHashUtil.calculateSlot(indexKey)));
+	}
+
+	/**
+	 * Derived queries gather the matches from all index shards.
+	 */
+	@Test
+	public void findAcrossAllPartitions() {
+
+		repo.save(acme);
+		repo.save(initech);
+		repo.save(umbrella);
+		repo.save(globex);
+
+		assertThat(repo.findByRegion("eu"), containsInAnyOrder(acme, umbrella));
+		assertThat(repo.findByNameAndRegion("umbrella", "eu"), containsInAnyOrder(umbrella));
+		assertThat(repo.findByNameOrRegion("globex", "us"), containsInAnyOrder(globex, initech));
+	}
+
+	/**
+	 * Derived count queries gather the matches from all index shards as well.
+	 */
+	@Test
+	public void countAcrossAllPartitions() {
+
+		repo.save(acme);
+		repo.save(initech);
+		repo.save(umbrella);
+		repo.save(globex);
+
+		assertThat(repo.countByRegion("eu"), is(2L));
+		assertThat(repo.countByNameOrRegion("globex", "us"), is(2L));
+		assertThat(repo.countByRegion("mars"), is(0L));
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.reactive;
+
+import static org.hamcrest.collection.IsIterableContainingInAnyOrder.*;
+import static org.hamcrest.core.Is.*;
+import static org.hamcrest.core.IsNull.*;
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import org.example.repository.ReactivePersonRepository;
+import org.example.types.Gender;
+import org.example.types.Person;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
+import reactor.core.publisher.Flux;
+
+/**
+ * @author Christoph Strobl
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class ReactiveRepositoryTests {
+
+	@SpringBootApplication
+	@EnableRedisRepositories(considerNestedRepositories = true)
+	static class Config {
+
+		@Bean(destroyMethod = "shutdown")
+		RedisClient lettuceClient(RedisProperties properties) {
+			return RedisClient.create(RedisURI.create(properties.getHost(), properties.getPort()));
+		}
+
+		@Bean(destroyMethod = "close")
+		StatefulRedisConnection<byte[], byte[]> lettuceConnection(RedisClient client) {
+			return client.connect(ByteArrayCodec.INSTANCE);
+		}
+
+		@Bean
+		ReactivePersonRepository reactivePersonRepository(StatefulRedisConnection<byte[], byte[]> connection,
+				RedisKeyValueAdapter adapter) {
+			return new ReactivePersonRepository(connection, adapter.getConverter());
+		}
+	}
+
+	@Autowired ReactivePersonRepository repo;
+	@Autowired StatefulRedisConnection<byte[], byte[]> connection;
+
+	Person eddard = new Person("eddard", "stark", Gender.MALE);
+	Person arya = new Person("arya", "stark", Gender.FEMALE);
+	Person jon = new Person("jon", "snow", Gender.MALE);
+
+	@Before
+	public void setUp() {
+		connection.sync().flushall();
+	}
+
+	/**
+	 * Save and load an entity along with its references without blocking.
+	 */
+	@Test
+	public void saveAndFindById() {
+
+		eddard.setChildren(Arrays.asList(arya, jon));
+		repo.saveAll(Flux.just(arya, jon, eddard)).blockLast();
+
+		Person loaded = repo.findById(eddard.getId()).block();
+
+		assertThat(loaded, is(eddard));
+		assertThat(loaded.getChildren(), containsInAnyOrder(arya, jon));
+		assertThat(repo.count().block(), is(3L));
+	}
+
+	/**
+	 * References, {@link org.example.ohm.LazyReference lazy} ones included, are loaded upfront, so they can be accessed
+	 * on the event loop.
+	 */
+	@Test
+	public void accessReferencesOnEventLoop() {
+
+		eddard.setChildren(Arrays.asList(arya, jon));
+		repo.saveAll(Flux.just(arya, jon, eddard)).blockLast();
+
+		Integer children = repo.findById(eddard.getId()).map(person -> person.getChildren().size())
+				.block(Duration.ofSeconds(5));
+
+		assertThat(children, is(2));
+	}
+
+	/**
+	 * Find entities via their index {@literal SET}s.
+	 */
+	@Test
+	public void findByIndexedProperty() {
+
+		repo.saveAll(Flux.just(eddard, arya, jon)).blockLast();
+
+		List<Person> starks = repo.findByLastname("stark").collectList().block();
+		List<Person> aryaAndJon = repo.findByFirstnameOrLastname("arya", "snow").collectList().block();
+
+		assertThat(starks, containsInAnyOrder(eddard, arya));
+		assertThat(aryaAndJon, containsInAnyOrder(arya, jon));
+	}
+
+	/**
+	 * Deleting an entity removes it from the index {@literal SET}s.
+	 */
+	@Test
+	public void deleteRemovesIndexEntries() {
+
+		repo.saveAll(Flux.just(eddard, arya)).blockLast();
+		repo.delete(arya).block();
+
+		assertThat(repo.findById(arya.getId()).block(), is(nullValue()));
+		assertThat(repo.findByLastname("stark").collectList().block(), containsInAnyOrder(eddard));
+	}
+}
@@ -18,15 +18,32 @@ package org.example.repository;
 import static org.hamcrest.collection.IsCollectionWithSize.*;
 import static org.hamcrest.collection.IsEmptyCollection.*;
 import static org.hamcrest.collection.IsIterableContainingInAnyOrder.*;
+import static org.hamcrest.collection.IsIterableContainingInOrder.*;
 import static org.hamcrest.core.Is.*;
+import static org.hamcrest.core.IsInstanceOf.*;
 import static org.hamcrest.core.IsCollectionContaining.*;
 import static org.hamcrest.core.IsNot.*;
 import static org.junit.Assert.*;
 import static org.springframework.data.redis.core.PartialUpdate.*;
 
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.example.core.BatchingEntityReader;
+import org.example.core.BulkWriteResult;
+import org.example.core.IndexQueryExecutor;
+import org.example.core.IndexQueryKeyValueTemplate;
+import org.example.core.PhantomAwareRedisKeyValueAdapter;
+import org.example.core.PipelinedHashLoader;
+import org.example.core.RedisKeys;
+import org.example.core.ScanSlice;
+import org.example.core.SortedIndexed;
+import org.example.ohm.LazyReference;
+import org.example.ohm.LazyReferenceList;
 import org.example.types.Address;
 import org.example.types.Gender;
 import org.example.types.Person;
@@ -34,19 +51,28 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Reference;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisHash;
 import org.springframework.data.redis.core.RedisKeyExpiredEvent;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
 import org.springframework.data.redis.core.RedisKeyValueAdapter.EnableKeyspaceEvents;
 import org.springframework.data.redis.core.RedisKeyValueTemplate;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.convert.RedisConverter;
 import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
-import org.springframework.data.repository.CrudRepository;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import lombok.Data;
+
 /**
  * @author Christoph Strobl
  */
@@ -71,11 +97,41 @@ public class RepsoitoryTests<K, V> {
 						new String(event.getSource()), event.getValue()));
 			};
 		}
+
+		/**
+		 * Run derived queries on indexed properties in a single round trip.
+		 *
+		 * @param adapter
+		 * @param connectionFactory
+		 * @return
+		 */
+		@Bean
+		RedisKeyValueTemplate redisKeyValueTemplate(RedisKeyValueAdapter adapter, RedisConnectionFactory connectionFactory) {
+			return new IndexQueryKeyValueTemplate(adapter,
+					new IndexQueryExecutor(connectionFactory, adapter.getConverter(), null));
+		}
+
+		/**
+		 * Keep {@link SortedIndexed} properties in sync when saving, updating and deleting entities.
+		 *
+		 * @param redisTemplate
+		 * @param redisConverter
+		 * @return
+		 */
+		@Bean
+		RedisKeyValueAdapter redisKeyValueAdapter(@Qualifier("redisTemplate") RedisOperations<?, ?> redisTemplate,
+				RedisConverter redisConverter) {
+
+			PhantomAwareRedisKeyValueAdapter adapter = new PhantomAwareRedisKeyValueAdapter(redisTemplate, redisConverter);
+			adapter.setEnableKeyspaceEvents(EnableKeyspaceEvents.ON_STARTUP);
+			return adapter;
+		}
 	}
 
 	@Autowired PersonRepository repo;
 	@Autowired RedisKeyValueTemplate template;
 	@Autowired RedisConnectionFactory connectionFactory;
+	@Autowired RedisKeyValueAdapter adapter;
 
 	/*
 	 * Set of test users
@@ -191,6 +247,20 @@ public class RepsoitoryTests<K, V> {
 		assertThat(repo.findByFirstnameAndLastname("jon", "snow"), is(empty()));
 	}
 
+	/**
+	 * Save multiple entities using a single pipeline and have indexes created accordingly.
+	 */
+	@Test
+	public void saveInBulk() {
+
+		BulkWriteResult<Person> result = repo.saveInBulk(Arrays.asList(eddard, robb, sansa, arya, bran, rickon, jon));
+
+		assertThat(result.hasFailures(), is(false));
+		assertThat(result.getWritten(), hasSize(7));
+		assertThat(repo.findOne(jon.getId()), is(jon));
+		assertThat(repo.findByLastname(eddard.getLastname()), containsInAnyOrder(eddard, robb, sansa, arya, bran, rickon));
+	}
+
 	/**
 	 * Store references to other entites without embedding all data. <br />
 	 * Print out the hash structure within Redis.
@@ -220,23 +290,154 @@ public class RepsoitoryTests<K, V> {
 		assertThat(laoded.getChildren(), not(hasItems(robb, jon)));
 	}
 
-	private void flushTestUsers() {
-		repo.save(Arrays.asList(eddard, robb, sansa, arya, bran, rickon, jon));
+	/**
+	 * Load multiple entities along with their references using one pipeline per level of references.
+	 */
+	@Test
+	public void findAllLoadsReferencesInBatches() {
+
+		eddard.setChildren(Arrays.asList(robb, sansa));
+		flushTestUsers();
+
+		List<Person> loaded = (List<Person>) repo.findAll(Arrays.asList(eddard.getId(), jon.getId(), "unknown"));
+
+		assertThat(loaded, contains(eddard, jon));
+		assertThat(loaded.get(0).getChildren(), contains(robb, sansa));
+	}
+
+	/**
+	 * Referenced objects marked with {@link LazyReference} are only loaded when accessed.
+	 */
+	@Test
+	public void loadReferencesLazily() {
+
+		flushTestUsers();
+
+		Family starks = new Family();
+		starks.setMembers(Arrays.asList(robb, sansa));
+		template.insert(starks);
+
+		BatchingEntityReader reader = new BatchingEntityReader(adapter.getConverter(),
+				new PipelinedHashLoader(connectionFactory, null));
+		Family loaded = reader.findOne(Family.class, starks.getId());
+
+		assertThat(loaded.getMembers(), instanceOf(LazyReferenceList.class));
+		assertThat(((LazyReferenceList<Person>) loaded.getMembers()).isResolved(), is(false));
+
+		assertThat(loaded.getMembers(), contains(robb, sansa));
+		assertThat(((LazyReferenceList<Person>) loaded.getMembers()).isResolved(), is(true));
+	}
+
+	/**
+	 * Query {@link SortedIndexed} properties by range.
+	 */
+	@Test
+	public void findByRangeOnSortedIndex() {
+
+		Instant now = Instant.now();
+
+		eddard.setAge(35);
+		eddard.setCreated(now.minusSeconds(60));
+		robb.setAge(16);
+		robb.setCreated(now.plusSeconds(60));
+		jon.setAge(17);
+		jon.setCreated(now.plusSeconds(120));
+
+		flushTestUsers();
+
+		assertThat(repo.findByAgeBetween(16, 17), contains(robb, jon));
+		assertThat(repo.findByCreatedAfter(now), contains(robb, jon));
+
+		repo.delete(jon);
+
+		assertThat(repo.findByAgeBetween(16, 17), contains(robb));
 	}
 
 	/**
-	 * Simple {@link CrudRepository} to be picked up by the Redis repository support.
-	 *
-	 * @author Christoph Strobl
+	 * Partial updates do not publish any event but still need to move the entity within its {@link SortedIndexed}
+	 * properties.
 	 */
-	static interface PersonRepository extends CrudRepository<Person, String> {
+	@Test
+	public void partialUpdateOfSortedIndex() {
+
+		eddard.setAge(35);
+		robb.setAge(16);
+		jon.setAge(17);
+
+		flushTestUsers();
+
+		template.update(newPartialUpdate(eddard.getId(), Person.class).set("age", 16));
+		template.update(newPartialUpdate(jon.getId(), Person.class).del("age"));
+		eddard.setAge(16);
 
-		List<Person> findByLastname(String lastname);
+		assertThat(repo.findByAgeBetween(16, 17), containsInAnyOrder(eddard, robb));
+		assertThat(repo.findByAgeBetween(30, 40), is(empty()));
 
-		List<Person> findByFirstnameAndLastname(String firstname, String lastname);
+		template.delete(Person.class);
+
+		assertThat(repo.findByAgeBetween(0, 100), is(empty()));
+	}
+
+	/**
+	 * Expired entities are removed from their {@link SortedIndexed} properties along with all other index entries.
+	 */
+	@Test
+	public void removeExpiredEntitiesFromSortedIndex() throws InterruptedException {
+
+		robb.setAge(16);
+		jon.setAge(17);
+		jon.setTtl(1L);
+
+		flushTestUsers();
+
+		Thread.sleep(2500);
+
+		RedisConnection connection = connectionFactory.getConnection();
+		try {
+			assertThat(connection.zRange(RedisKeys.sortedIndexKey("person", "age"), 0, -1), hasSize(1));
+		} finally {
+			connection.close();
+		}
+		assertThat(repo.findByAgeBetween(16, 17), contains(robb));
+	}
+
+	/**
+	 * Walk large indexes with {@literal SSCAN} instead of loading all matches at once.
+	 */
+	@Test
+	public void streamAndPageThroughIndex() {
+
+		flushTestUsers();
+
+		try (Stream<Person> stream = repo.streamByLastname(eddard.getLastname())) {
+			assertThat(stream.collect(Collectors.toList()), containsInAnyOrder(eddard, robb, sansa, arya, bran, rickon));
+		}
+
+		List<Person> starks = new ArrayList<>();
+
+		ScanSlice<Person> slice = repo.findSliceByLastname(eddard.getLastname(), new PageRequest(0, 4));
+		starks.addAll(slice.getContent());
+		assertThat(slice.getContent(), hasSize(4));
+		assertThat(slice.hasNext(), is(true));
+
+		while (slice.hasNext()) {
+
+			slice = repo.findSliceByLastname(eddard.getLastname(), slice);
+			starks.addAll(slice.getContent());
+		}
+
+		assertThat(starks, containsInAnyOrder(eddard, robb, sansa, arya, bran, rickon));
+	}
+
+	private void flushTestUsers() {
+		repo.save(Arrays.asList(eddard, robb, sansa, arya, bran, rickon, jon));
+	}
 
-		List<Person> findByFirstnameOrLastname(String firstname, String lastname);
+	@Data
+	@RedisHash("families")
+	static class Family {
 
-		List<Person> findByAddress_City(String city);
+		@Id String id;
+		@Reference @LazyReference List<Person> members;
 	}
 }
@@ -0,0 +1,1196 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.support;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal in-process Redis stand-in speaking {@literal RESP2} on a loopback socket. <br />
+ * It implements the subset of commands used by the Redis repository support (keys, strings, hashes, sets and sorted
+ * sets including expiration) so benchmarks and tests can run without an external Redis server. {@literal CLIENT TRACKING}
+ * is supported in {@literal RESP2} {@literal REDIRECT} mode (default and {@literal BCAST}) pushing invalidation messages
+ * to clients subscribed to {@literal __redis__:invalidate}. <br />
+ * <strong>Note:</strong> This is no replacement for Redis. There is a single database, no persistence and no scripting.
+ * Commands are executed one at a time under a global lock.
+ *
+ * @author Christoph Strobl
+ */
+public class InProcessRedisServer implements Closeable {
+
+	private static final Key INVALIDATION_CHANNEL = new Key(bytes("__redis__:invalidate"));
+	private static final Set<String> WRITE_COMMANDS = new LinkedHashSet<>(Arrays.asList("DEL", "EXPIRE", "PEXPIRE",
+			"PERSIST", "SET", "MSET", "HSET", "HMSET", "HDEL", "SADD", "SREM", "ZADD", "ZREM"));
+	private static final Set<String> READ_COMMANDS = new LinkedHashSet<>(Arrays.asList("GET", "MGET", "EXISTS", "TYPE",
+			"TTL", "PTTL", "HGET", "HMGET", "HGETALL", "HEXISTS", "HLEN", "HKEYS", "HVALS", "SMEMBERS", "SISMEMBER", "SCARD",
+			"SINTER", "SUNION", "ZSCORE", "ZCARD", "ZRANGEBYSCORE"));
+
+	private final ServerSocket serverSocket;
+	private final Thread acceptor;
+	private final List<Socket> clients = new CopyOnWriteArrayList<>();
+
+	private final Map<Key, Object> data = new HashMap<>();
+	private final Map<Key, Long> expirations = new HashMap<>();
+	private final Map<String, String> config = new HashMap<>();
+
+	private final AtomicLong clientIds = new AtomicLong();
+	private final Map<Long, Session> sessions = new ConcurrentHashMap<>();
+	private final Map<Key, Set<Session>> trackedKeys = new HashMap<>();
+	private Session session;
+
+	private volatile boolean running = true;
+
+	private InProcessRedisServer(ServerSocket serverSocket) {
+
+		this.serverSocket = serverSocket;
+		this.config.put("notify-keyspace-events", "");
+
+		this.acceptor = new Thread(this::accept, "in-process-redis-" + serverSocket.getLocalPort());
+		this.acceptor.setDaemon(true);
+		this.acceptor.start();
+	}
+
+	/**
+	 * Start a new server on a random free port.
+	 *
+	 * @return the running server.
+	 */
+	public static InProcessRedisServer start() {
+
+		try {
+			return new InProcessRedisServer(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()));
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot start in-process Redis server", e);
+		}
+	}
+
+	public String getHost() {
+		return serverSocket.getInetAddress().getHostAddress();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	@Override
+	public void close() {
+
+		running = false;
+
+		try {
+			serverSocket.close();
+		} catch (IOException o_O) {
+			// ignore
+		}
+
+		for (Socket client : clients) {
+			try {
+				client.close();
+			} catch (IOException o_O) {
+				// ignore
+			}
+		}
+	}
+
+	private void accept() {
+
+		while (running) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				clients.add(socket);
+
+				Thread handler = new Thread(() -> serve(socket), "in-process-redis-client-" + socket.getPort());
+				handler.setDaemon(true);
+				handler.start();
+			} catch (IOException e) {
+				if (running) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+
+		Session session = null;
+		try (Socket client = socket) {
+
+			InputStream in = new BufferedInputStream(client.getInputStream());
+			OutputStream out = new BufferedOutputStream(client.getOutputStream());
+
+			session = new Session(clientIds.incrementAndGet(), client, out);
+			sessions.put(session.id, session);
+
+			while (running) {
+
+				List<byte[]> command = Resp.readCommand(in);
+				if (command == null) {
+					return;
+				}
+
+				Object reply;
+				synchronized (this) {
+					this.session = session;
+					reply = execute(command);
+				}
+
+				// invalidation messages might be pushed concurrently
+				synchronized (out) {
+
+					Resp.write(out, reply);
+
+					// flush once the client stops sending so pipelined commands share a single write
+					if (in.available() == 0) {
+						out.flush();
+					}
+				}
+
+				if (Reply.QUIT.equals(reply)) {
+					return;
+				}
+			}
+		} catch (EOFException | SocketException o_O) {
+			// client went away
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+
+			clients.remove(socket);
+			if (session != null) {
+				close(session);
+			}
+		}
+	}
+
+	/**
+	 * Execute a single command. Needs to be called while holding the monitor.
+	 *
+	 * @param command the command name followed by its arguments.
+	 * @return the reply object.
+	 */
+	protected Object execute(List<byte[]> command) {
+
+		String name = new String(command.get(0), StandardCharsets.UTF_8).toUpperCase();
+		List<byte[]> args = command.subList(1, command.size());
+
+		try {
+
+			Object reply = dispatch(name, args);
+			if (!(reply instanceof Reply.Error)) {
+				track(name, args);
+			}
+			return reply;
+		} catch (WrongTypeException e) {
+			return new Reply.Error("WRONGTYPE Operation against a key holding the wrong kind of value");
+		} catch (IndexOutOfBoundsException | NumberFormatException e) {
+			return new Reply.Error("ERR wrong number or type of arguments for '" + name.toLowerCase() + "' command");
+		}
+	}
+
+	protected Object dispatch(String name, List<byte[]> args) {
+
+		switch (name) {
+
+			// connection and server
+
+			case "PING":
+				if (!session.channels.isEmpty()) {
+					return Arrays.asList(bytes("pong"), args.isEmpty() ? new byte[0] : args.get(0));
+				}
+				return args.isEmpty() ? Reply.PONG : args.get(0);
+			case "ECHO":
+				return args.get(0);
+			case "SELECT":
+			case "AUTH":
+				return Reply.OK;
+			case "QUIT":
+				return Reply.QUIT;
+			case "FLUSHALL":
+			case "FLUSHDB":
+				data.clear();
+				expirations.clear();
+				return Reply.OK;
+			case "DBSIZE":
+				return (long) keys("*").size();
+			case "CONFIG":
+				return config(args);
+			case "CLIENT":
+				return client(args);
+			case "SUBSCRIBE": {
+				List<Object> replies = new ArrayList<>(args.size());
+				for (byte[] channel : args) {
+					session.channels.add(new Key(channel));
+					replies.add(Arrays.asList(bytes("subscribe"), channel, (long) session.channels.size()));
+				}
+				return new Reply.Multi(replies);
+			}
+
+			// keys
+
+			case "DEL": {
+				long removed = 0;
+				for (byte[] key : args) {
+					removed += remove(new Key(key)) ? 1 : 0;
+				}
+				return removed;
+			}
+			case "EXISTS": {
+				long count = 0;
+				for (byte[] key : args) {
+					count += lookup(new Key(key)) != null ? 1 : 0;
+				}
+				return count;
+			}
+			case "TYPE":
+				return new Reply.Status(typeOf(lookup(new Key(args.get(0)))));
+			case "KEYS":
+				return new ArrayList<>(keys(string(args.get(0))));
+			case "SCAN":
+				return scan(args);
+			case "EXPIRE":
+				return expire(new Key(args.get(0)), Long.parseLong(string(args.get(1))) * 1000);
+			case "PEXPIRE":
+				return expire(new Key(args.get(0)), Long.parseLong(string(args.get(1))));
+			case "TTL":
+				return ttl(new Key(args.get(0)), 1000);
+			case "PTTL":
+				return ttl(new Key(args.get(0)), 1);
+			case "PERSIST":
+				return lookup(new Key(args.get(0))) != null && expirations.remove(new Key(args.get(0))) != null ? 1L : 0L;
+
+			// strings
+
+			case "GET":
+				return lookup(new Key(args.get(0)), byte[].class);
+			case "SET":
+				write(new Key(args.get(0)), args.get(1));
+				return Reply.OK;
+			case "MGET": {
+				List<Object> values = new ArrayList<>(args.size());
+				for (byte[] key : args) {
+					Object value = lookup(new Key(key));
+					values.add(value instanceof byte[] ? value : null);
+				}
+				return values;
+			}
+			case "MSET":
+				for (int i = 0; i < args.size(); i += 2) {
+					write(new Key(args.get(i)), args.get(i + 1));
+				}
+				return Reply.OK;
+
+			// hashes
+
+			case "HSET": {
+				Map<Key, byte[]> hash = hash(new Key(args.get(0)), true);
+				long added = 0;
+				for (int i = 1; i < args.size(); i += 2) {
+					added += hash.put(new Key(args.get(i)), args.get(i + 1)) == null ? 1 : 0;
+				}
+				return added;
+			}
+			case "HMSET": {
+				Map<Key, byte[]> hash = hash(new Key(args.get(0)), true);
+				for (int i = 1; i < args.size(); i += 2) {
+					hash.put(new Key(args.get(i)), args.get(i + 1));
+				}
+				return Reply.OK;
+			}
+			case "HGET": {
+				Map<Key, byte[]> hash = hash(new Key(args.get(0)), false);
+				return hash.get(new Key(args.get(1)));
+			}
+			case "HMGET": {
+				Map<Key, byte[]> hash = hash(new Key(args.get(0)), false);
+				List<Object> values = new ArrayList<>(args.size() - 1);
+				for (byte[] field : args.subList(1, args.size())) {
+					values.add(hash.get(new Key(field)));
+				}
+				return values;
+			}
+			case "HGETALL": {
+				Map<Key, byte[]> hash = hash(new Key(args.get(0)), false);
+				List<Object> values = new ArrayList<>(hash.size() * 2);
+				for (Map.Entry<Key, byte[]> entry : hash.entrySet()) {
+					values.add(entry.getKey().bytes);
+					values.add(entry.getValue());
+				}
+				return values;
+			}
+			case "HDEL": {
+				Key key = new Key(args.get(0));
+				Map<Key, byte[]> hash = hash(key, false);
+				long removed = 0;
+				for (byte[] field : args.subList(1, args.size())) {
+					removed += hash.remove(new Key(field)) != null ? 1 : 0;
+				}
+				removeIfEmpty(key, hash);
+				return removed;
+			}
+			case "HEXISTS":
+				return hash(new Key(args.get(0)), false).containsKey(new Key(args.get(1))) ? 1L : 0L;
+			case "HLEN":
+				return (long) hash(new Key(args.get(0)), false).size();
+			case "HKEYS": {
+				List<Object> fields = new ArrayList<>();
+				for (Key field : hash(new Key(args.get(0)), false).keySet()) {
+					fields.add(field.bytes);
+				}
+				return fields;
+			}
+			case "HVALS":
+				return new ArrayList<Object>(hash(new Key(args.get(0)), false).values());
+
+			// sets
+
+			case "SADD": {
+				Set<Key> set = set(new Key(args.get(0)), true);
+				long added = 0;
+				for (byte[] member : args.subList(1, args.size())) {
+					added += set.add(new Key(member)) ? 1 : 0;
+				}
+				return added;
+			}
+			case "SREM": {
+				Key key = new Key(args.get(0));
+				Set<Key> set = set(key, false);
+				long removed = 0;
+				for (byte[] member : args.subList(1, args.size())) {
+					removed += set.remove(new Key(member)) ? 1 : 0;
+				}
+				removeIfEmpty(key, set);
+				return removed;
+			}
+			case "SMEMBERS":
+				return members(set(new Key(args.get(0)), false));
+			case "SISMEMBER":
+				return set(new Key(args.get(0)), false).contains(new Key(args.get(1))) ? 1L : 0L;
+			case "SCARD":
+				return (long) set(new Key(args.get(0)), false).size();
+			case "SINTER": {
+				Set<Key> result = new LinkedHashSet<>(set(new Key(args.get(0)), false));
+				for (byte[] key : args.subList(1, args.size())) {
+					result.retainAll(set(new Key(key), false));
+				}
+				return members(result);
+			}
+			case "SUNION": {
+				Set<Key> result = new LinkedHashSet<>();
+				for (byte[] key : args) {
+					result.addAll(set(new Key(key), false));
+				}
+				return members(result);
+			}
+			case "SSCAN":
+				return sscan(args);
+
+			// sorted sets
+
+			case "ZADD": {
+				ZSet zset = zset(new Key(args.get(0)), true);
+				long added = 0;
+				for (int i = 1; i + 1 < args.size(); i += 2) {
+					added += zset.scores.put(new Key(args.get(i + 1)), Double.parseDouble(string(args.get(i)))) == null ? 1 : 0;
+				}
+				return added;
+			}
+			case "ZREM": {
+				Key key = new Key(args.get(0));
+				ZSet zset = zset(key, false);
+				long removed = 0;
+				for (byte[] member : args.subList(1, args.size())) {
+					removed += zset.scores.remove(new Key(member)) != null ? 1 : 0;
+				}
+				removeIfEmpty(key, zset);
+				return removed;
+			}
+			case "ZSCORE": {
+				Double score = zset(new Key(args.get(0)), false).scores.get(new Key(args.get(1)));
+				return score != null ? bytes(score) : null;
+			}
+			case "ZCARD":
+				return (long) zset(new Key(args.get(0)), false).scores.size();
+			case "ZRANGEBYSCORE":
+				return zrangeByScore(args);
+
+			default:
+				return new Reply.Error("ERR unknown command '" + name.toLowerCase() + "'");
+		}
+	}
+
+	// --> client tracking
+
+	private Object client(List<byte[]> args) {
+
+		String subcommand = string(args.get(0)).toUpperCase();
+		switch (subcommand) {
+			case "ID":
+				return session.id;
+			case "SETNAME":
+				return Reply.OK;
+			case "GETNAME":
+				return null;
+			case "KILL":
+				return kill(Long.parseLong(string(args.get(2))));
+			case "TRACKING":
+				break;
+			default:
+				return new Reply.Error("ERR unsupported CLIENT subcommand " + subcommand);
+		}
+
+		untrack(session);
+		if ("OFF".equalsIgnoreCase(string(args.get(1)))) {
+
+			session.tracking = false;
+			return Reply.OK;
+		}
+
+		Long redirect = null;
+		boolean broadcast = false;
+		List<byte[]> prefixes = new ArrayList<>();
+		for (int i = 2; i < args.size(); i++) {
+
+			String option = string(args.get(i)).toUpperCase();
+			if ("REDIRECT".equals(option)) {
+				redirect = Long.parseLong(string(args.get(++i)));
+			} else if ("BCAST".equals(option)) {
+				broadcast = true;
+			} else if ("PREFIX".equals(option)) {
+				prefixes.add(args.get(++i));
+			} else {
+				return new Reply.Error("ERR unsupported CLIENT TRACKING option " + option);
+			}
+		}
+
+		if (redirect != null && !sessions.containsKey(redirect)) {
+			return new Reply.Error("ERR The client ID you want redirect to does not exist");
+		}
+		if (!prefixes.isEmpty() && !broadcast) {
+			return new Reply.Error("ERR PREFIX option requires BCAST mode to be enabled");
+		}
+
+		session.tracking = true;
+		session.redirect = redirect;
+		session.broadcast = broadcast;
+		session.prefixes = prefixes;
+		return Reply.OK;
+	}
+
+	/**
+	 * {@literal CLIENT KILL ID <id>} closing the connection of the given client.
+	 */
+	private Object kill(long id) {
+
+		Session target = sessions.get(id);
+		if (target == null) {
+			return new Reply.Error("ERR No such client");
+		}
+
+		try {
+			target.socket.close();
+		} catch (IOException o_O) {
+			// already gone
+		}
+		return 1L;
+	}
+
+	/**
+	 * Remember keys read by clients tracking in default mode and notify clients about changed keys.
+	 */
+	private void track(String name, List<byte[]> args) {
+
+		if ("FLUSHALL".equals(name) || "FLUSHDB".equals(name)) {
+			invalidate(null);
+		} else if (WRITE_COMMANDS.contains(name)) {
+			invalidate(keysOf(name, args));
+		} else if (session != null && session.tracking && !session.broadcast && READ_COMMANDS.contains(name)) {
+			for (Key key : keysOf(name, args)) {
+				trackedKeys.computeIfAbsent(key, it -> new LinkedHashSet<>()).add(session);
+			}
+		}
+	}
+
+	private static List<Key> keysOf(String name, List<byte[]> args) {
+
+		List<Key> keys = new ArrayList<>();
+		if ("DEL".equals(name) || "EXISTS".equals(name) || "MGET".equals(name) || "SINTER".equals(name)
+				|| "SUNION".equals(name)) {
+			args.forEach(key -> keys.add(new Key(key)));
+		} else if ("MSET".equals(name)) {
+			for (int i = 0; i < args.size(); i += 2) {
+				keys.add(new Key(args.get(i)));
+			}
+		} else {
+			keys.add(new Key(args.get(0)));
+		}
+		return keys;
+	}
+
+	/**
+	 * Push {@literal __redis__:invalidate} messages to the redirect targets of all clients tracking one of the given
+	 * keys. Tracking of a key in default mode ends with its first invalidation.
+	 *
+	 * @param keys {@literal null} to invalidate everything.
+	 */
+	private void invalidate(Collection<Key> keys) {
+
+		Map<Session, List<Object>> messages = new LinkedHashMap<>();
+		for (Session candidate : sessions.values()) {
+
+			if (!candidate.tracking) {
+				continue;
+			}
+
+			if (keys == null) {
+				messages.put(candidate, null);
+				continue;
+			}
+
+			for (Key key : keys) {
+
+				Set<Session> readers = trackedKeys.get(key);
+				if ((candidate.broadcast && candidate.matches(key)) || (readers != null && readers.contains(candidate))) {
+					messages.computeIfAbsent(candidate, it -> new ArrayList<>()).add(key.bytes);
+				}
+			}
+		}
+
+		if (keys == null) {
+			trackedKeys.clear();
+		} else {
+			keys.forEach(trackedKeys::remove);
+		}
+
+		messages.forEach((client, changed) -> {
+
+			Session target = client.redirect != null ? sessions.get(client.redirect) : null;
+			if (target != null && target.channels.contains(INVALIDATION_CHANNEL)) {
+				push(target, Arrays.asList(bytes("message"), INVALIDATION_CHANNEL.bytes, changed));
+			}
+		});
+	}
+
+	private static void push(Session target, Object message) {
+
+		synchronized (target.out) {
+			try {
+				Resp.write(target.out, message);
+				target.out.flush();
+			} catch (IOException o_O) {
+				// client went away
+			}
+		}
+	}
+
+	private void untrack(Session session) {
+		trackedKeys.values().forEach(readers -> readers.remove(session));
+	}
+
+	private void close(Session session) {
+
+		sessions.remove(session.id);
+		synchronized (this) {
+			untrack(session);
+		}
+	}
+
+	// --> storage
+
+	protected Object lookup(Key key) {
+
+		Long expiresAt = expirations.get(key);
+		if (expiresAt != null && expiresAt <= System.currentTimeMillis()) {
+			remove(key);
+			onExpired(key);
+			invalidate(Collections.singletonList(key));
+			return null;
+		}
+
+		return data.get(key);
+	}
+
+	@SuppressWarnings("unchecked")
+	protected <T> T lookup(Key key, Class<T> type) {
+
+		Object value = lookup(key);
+		if (value != null && !type.isInstance(value)) {
+			throw new WrongTypeException();
+		}
+		return (T) value;
+	}
+
+	protected void write(Key key, Object value) {
+
+		data.put(key, value);
+		expirations.remove(key);
+	}
+
+	protected boolean remove(Key key) {
+
+		expirations.remove(key);
+		return data.remove(key) != null;
+	}
+
+	/**
+	 * Callback invoked when a key is found to be expired.
+	 *
+	 * @param key the expired key.
+	 */
+	protected void onExpired(Key key) {}
+
+	@SuppressWarnings("unchecked")
+	protected Map<Key, byte[]> hash(Key key, boolean create) {
+
+		Map<Key, byte[]> hash = lookup(key, Map.class);
+		if (hash == null) {
+			hash = new LinkedHashMap<>();
+			if (create) {
+				data.put(key, hash);
+			}
+		}
+		return hash;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected Set<Key> set(Key key, boolean create) {
+
+		Set<Key> set = lookup(key, Set.class);
+		if (set == null) {
+			set = new LinkedHashSet<>();
+			if (create) {
+				data.put(key, set);
+			}
+		}
+		return set;
+	}
+
+	protected ZSet zset(Key key, boolean create) {
+
+		ZSet zset = lookup(key, ZSet.class);
+		if (zset == null) {
+			zset = new ZSet();
+			if (create) {
+				data.put(key, zset);
+			}
+		}
+		return zset;
+	}
+
+	protected void removeIfEmpty(Key key, Object value) {
+
+		if ((value instanceof ZSet && ((ZSet) value).scores.isEmpty())
+				|| (value instanceof Map && ((Map<?, ?>) value).isEmpty())
+				|| (value instanceof Collection && ((Collection<?>) value).isEmpty())) {
+			remove(key);
+		}
+	}
+
+	private Collection<byte[]> keys(String pattern) {
+
+		Pattern regex = glob(pattern);
+		List<byte[]> keys = new ArrayList<>();
+		for (Key key : new ArrayList<>(data.keySet())) {
+			if (regex.matcher(string(key.bytes)).matches() && lookup(key) != null) {
+				keys.add(key.bytes);
+			}
+		}
+		return keys;
+	}
+
+	private Object expire(Key key, long millis) {
+
+		if (lookup(key) == null) {
+			return 0L;
+		}
+
+		expirations.put(key, System.currentTimeMillis() + millis);
+		return 1L;
+	}
+
+	private Object ttl(Key key, long unit) {
+
+		if (lookup(key) == null) {
+			return -2L;
+		}
+
+		Long expiresAt = expirations.get(key);
+		return expiresAt == null ? -1L : Math.max(0, (expiresAt - System.currentTimeMillis()) / unit);
+	}
+
+	private Object scan(List<byte[]> args) {
+
+		List<byte[]> all = new ArrayList<>(keys(option(args, 1, "MATCH", "*")));
+		return page(all, args.get(0), Integer.parseInt(option(args, 1, "COUNT", "10")));
+	}
+
+	private Object sscan(List<byte[]> args) {
+
+		Pattern regex = glob(option(args, 2, "MATCH", "*"));
+		List<byte[]> members = new ArrayList<>();
+		for (Key member : set(new Key(args.get(0)), false)) {
+			if (regex.matcher(string(member.bytes)).matches()) {
+				members.add(member.bytes);
+			}
+		}
+		return page(members, args.get(1), Integer.parseInt(option(args, 2, "COUNT", "10")));
+	}
+
+	/**
+	 * Cursors are plain offsets into a snapshot. Good enough for a stand-in as long as the data does not change between
+	 * calls.
+	 */
+	private static Object page(List<byte[]> source, byte[] cursor, int count) {
+
+		int offset = Integer.parseInt(string(cursor));
+		int end = Math.min(source.size(), offset + count);
+
+		String next = end >= source.size() ? "0" : Integer.toString(end);
+		return Arrays.asList(next.getBytes(StandardCharsets.UTF_8),
+				new ArrayList<Object>(source.subList(Math.min(offset, end), end)));
+	}
+
+	private Object config(List<byte[]> args) {
+
+		String subcommand = string(args.get(0)).toUpperCase();
+		if ("GET".equals(subcommand)) {
+
+			String parameter = string(args.get(1));
+			if (!config.containsKey(parameter)) {
+				return Collections.emptyList();
+			}
+			return Arrays.asList(parameter.getBytes(StandardCharsets.UTF_8),
+					config.get(parameter).getBytes(StandardCharsets.UTF_8));
+		}
+		if ("SET".equals(subcommand)) {
+
+			config.put(string(args.get(1)), string(args.get(2)));
+			return Reply.OK;
+		}
+		return new Reply.Error("ERR unsupported CONFIG subcommand " + subcommand);
+	}
+
+	private static List<Object> members(Set<Key> set) {
+
+		List<Object> members = new ArrayList<>(set.size());
+		for (Key member : set) {
+			members.add(member.bytes);
+		}
+		return members;
+	}
+
+	private static String typeOf(Object value) {
+
+		if (value == null) {
+			return "none";
+		}
+		if (value instanceof byte[]) {
+			return "string";
+		}
+		if (value instanceof Map) {
+			return "hash";
+		}
+		if (value instanceof ZSet) {
+			return "zset";
+		}
+		return "set";
+	}
+
+	private Object zrangeByScore(List<byte[]> args) {
+
+		ZSet zset = zset(new Key(args.get(0)), false);
+		String min = string(args.get(1));
+		String max = string(args.get(2));
+
+		boolean withScores = false;
+		long offset = 0;
+		long count = -1;
+		for (int i = 3; i < args.size(); i++) {
+
+			String option = string(args.get(i));
+			if ("WITHSCORES".equalsIgnoreCase(option)) {
+				withScores = true;
+			} else if ("LIMIT".equalsIgnoreCase(option)) {
+				offset = Long.parseLong(string(args.get(++i)));
+				count = Long.parseLong(string(args.get(++i)));
+			}
+		}
+
+		List<Object> result = new ArrayList<>();
+		long skipped = 0;
+		for (Map.Entry<Key, Double> entry : zset.ordered()) {
+
+			double score = entry.getValue();
+			if (!aboveMin(score, min) || !belowMax(score, max)) {
+				continue;
+			}
+			if (skipped++ < offset) {
+				continue;
+			}
+			if (count >= 0 && result.size() >= (withScores ? count * 2 : count)) {
+				break;
+			}
+
+			result.add(entry.getKey().bytes);
+			if (withScores) {
+				result.add(bytes(score));
+			}
+		}
+		return result;
+	}
+
+	private static boolean aboveMin(double score, String min) {
+
+		if (min.startsWith("(")) {
+			return score > bound(min.substring(1));
+		}
+		return score >= bound(min);
+	}
+
+	private static boolean belowMax(double score, String max) {
+
+		if (max.startsWith("(")) {
+			return score < bound(max.substring(1));
+		}
+		return score <= bound(max);
+	}
+
+	private static double bound(String value) {
+
+		if ("-inf".equalsIgnoreCase(value)) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		if ("+inf".equalsIgnoreCase(value) || "inf".equalsIgnoreCase(value)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return Double.parseDouble(value);
+	}
+
+	private static byte[] bytes(double score) {
+
+		String value = score == Math.rint(score) && !Double.isInfinite(score) ? Long.toString((long) score)
+				: Double.toString(score);
+		return value.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static String option(List<byte[]> args, int from, String option, String defaultValue) {
+
+		for (int i = from; i < args.size() - 1; i++) {
+			if (option.equalsIgnoreCase(string(args.get(i)))) {
+				return string(args.get(i + 1));
+			}
+		}
+		return defaultValue;
+	}
+
+	private static Pattern glob(String pattern) {
+
+		StringBuilder regex = new StringBuilder();
+		for (char c : pattern.toCharArray()) {
+			switch (c) {
+				case '*':
+					regex.append(".*");
+					break;
+				case '?':
+					regex.append('.');
+					break;
+				default:
+					regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return Pattern.compile(regex.toString(), Pattern.DOTALL);
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	protected static String string(byte[] bytes) {
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * {@code byte[]} wrapper with value semantics.
+	 */
+	protected static final class Key {
+
+		final byte[] bytes;
+		private final int hash;
+
+		Key(byte[] bytes) {
+			this.bytes = bytes;
+			this.hash = Arrays.hashCode(bytes);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return this == obj || (obj instanceof Key && Arrays.equals(bytes, ((Key) obj).bytes));
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public String toString() {
+			return string(bytes);
+		}
+	}
+
+	/**
+	 * Members of a sorted set along with their scores.
+	 */
+	protected static class ZSet {
+
+		final Map<Key, Double> scores = new HashMap<>();
+
+		List<Map.Entry<Key, Double>> ordered() {
+
+			List<Map.Entry<Key, Double>> entries = new ArrayList<>(scores.entrySet());
+			entries.sort((left, right) -> {
+
+				int result = Double.compare(left.getValue(), right.getValue());
+				return result != 0 ? result : compare(left.getKey().bytes, right.getKey().bytes);
+			});
+			return entries;
+		}
+
+		private static int compare(byte[] left, byte[] right) {
+
+			for (int i = 0; i < Math.min(left.length, right.length); i++) {
+
+				int result = Integer.compare(left[i] & 0xff, right[i] & 0xff);
+				if (result != 0) {
+					return result;
+				}
+			}
+			return Integer.compare(left.length, right.length);
+		}
+	}
+
+	/**
+	 * Per connection state.
+	 */
+	private static final class Session {
+
+		final long id;
+		final Socket socket;
+		final OutputStream out;
+		final Set<Key> channels = new LinkedHashSet<>();
+
+		boolean tracking;
+		boolean broadcast;
+		Long redirect;
+		List<byte[]> prefixes = Collections.emptyList();
+
+		Session(long id, Socket socket, OutputStream out) {
+
+			this.id = id;
+			this.socket = socket;
+			this.out = out;
+		}
+
+		boolean matches(Key key) {
+
+			if (prefixes.isEmpty()) {
+				return true;
+			}
+
+			for (byte[] prefix : prefixes) {
+				if (key.bytes.length >= prefix.length
+						&& Arrays.equals(prefix, Arrays.copyOf(key.bytes, prefix.length))) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	static class WrongTypeException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Reply types that cannot be expressed by plain {@code byte[]}, {@link Long} and {@link List}.
+	 */
+	protected static class Reply {
+
+		static final Status OK = new Status("OK");
+		static final Status PONG = new Status("PONG");
+		static final Status QUIT = new Status("OK");
+
+		static class Status {
+
+			final String value;
+
+			Status(String value) {
+				this.value = value;
+			}
+		}
+
+		/**
+		 * Several replies sent for a single command, e.g. one per channel on {@literal SUBSCRIBE}.
+		 */
+		static class Multi {
+
+			final List<Object> replies;
+
+			Multi(List<Object> replies) {
+				this.replies = replies;
+			}
+		}
+
+		static class Error {
+
+			final String message;
+
+			Error(String message) {
+				this.message = message;
+			}
+		}
+	}
+
+	/**
+	 * {@literal RESP2} encoding and decoding.
+	 */
+	protected static class Resp {
+
+		private static final byte[] CRLF = { '\r', '\n' };
+
+		static List<byte[]> readCommand(InputStream in) throws IOException {
+
+			int type = in.read();
+			if (type == -1) {
+				return null;
+			}
+			if (type != '*') {
+				throw new IOException("Inline commands are not supported");
+			}
+
+			int size = (int) readLong(in);
+			List<byte[]> command = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+
+				if (in.read() != '$') {
+					throw new IOException("Expected bulk string");
+				}
+				command.add(readBulk(in, (int) readLong(in)));
+			}
+			return command;
+		}
+
+		private static byte[] readBulk(InputStream in, int length) throws IOException {
+
+			byte[] bulk = new byte[length];
+			int read = 0;
+			while (read < length) {
+				int count = in.read(bulk, read, length - read);
+				if (count == -1) {
+					throw new EOFException();
+				}
+				read += count;
+			}
+			in.read();
+			in.read();
+			return bulk;
+		}
+
+		private static long readLong(InputStream in) throws IOException {
+
+			long value = 0;
+			boolean negative = false;
+			for (int b = in.read(); b != '\r'; b = in.read()) {
+				if (b == -1) {
+					throw new EOFException();
+				}
+				if (b == '-') {
+					negative = true;
+				} else {
+					value = value * 10 + (b - '0');
+				}
+			}
+			in.read();
+			return negative ? -value : value;
+		}
+
+		static void write(OutputStream out, Object reply) throws IOException {
+
+			if (reply == null) {
+				out.write("$-1".getBytes(StandardCharsets.US_ASCII));
+				out.write(CRLF);
+			} else if (reply instanceof Reply.Multi) {
+				for (Object element : ((Reply.Multi) reply).replies) {
+					write(out, element);
+				}
+			} else if (reply instanceof Reply.Status) {
+				out.write('+');
+				out.write(((Reply.Status) reply).value.getBytes(StandardCharsets.UTF_8));
+				out.write(CRLF);
+			} else if (reply instanceof Reply.Error) {
+				out.write('-');
+				out.write(((Reply.Error) reply).message.getBytes(StandardCharsets.UTF_8));
+				out.write(CRLF);
+			} else if (reply instanceof Long) {
+				out.write(':');
+				out.write(reply.toString().getBytes(StandardCharsets.US_ASCII));
+				out.write(CRLF);
+			} else if (reply instanceof byte[]) {
+				byte[] bulk = (byte[]) reply;
+				out.write('$');
+				out.write(Integer.toString(bulk.length).getBytes(StandardCharsets.US_ASCII));
+				out.write(CRLF);
+				out.write(bulk);
+				out.write(CRLF);
+			} else if (reply instanceof List) {
+				List<?> elements = (List<?>) reply;
+				out.write('*');
+				out.write(Integer.toString(elements.size()).getBytes(StandardCharsets.US_ASCII));
+				out.write(CRLF);
+				for (Iterator<?> it = elements.iterator(); it.hasNext();) {
+					write(out, it.next());
+				}
+			} else {
+				throw new IllegalArgumentException("Cannot write reply of type " + reply.getClass());
+			}
+		}
+	}
+}
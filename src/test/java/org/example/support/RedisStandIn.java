@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.support;
+
+/**
+ * The Redis server to run benchmarks against. Starts an {@link InProcessRedisServer} unless
+ * {@code -Dbenchmark.redis.port} (and optionally {@code -Dbenchmark.redis.host}) point to an external server.
+ *
+ * @author Christoph Strobl
+ */
+public class RedisStandIn implements AutoCloseable {
+
+	private final InProcessRedisServer server;
+	private final String host;
+	private final int port;
+
+	private RedisStandIn(InProcessRedisServer server, String host, int port) {
+
+		this.server = server;
+		this.host = host;
+		this.port = port;
+	}
+
+	public static RedisStandIn start() {
+
+		String port = System.getProperty("benchmark.redis.port");
+		if (port != null) {
+			return new RedisStandIn(null, System.getProperty("benchmark.redis.host", "localhost"), Integer.parseInt(port));
+		}
+
+		InProcessRedisServer server = InProcessRedisServer.start();
+		return new RedisStandIn(server, server.getHost(), server.getPort());
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return {@literal true} when running against the {@link InProcessRedisServer}.
+	 */
+	public boolean isInProcess() {
+		return server != null;
+	}
+
+	@Override
+	public void close() {
+
+		if (server != null) {
+			server.close();
+		}
+	}
+}